@@ -875,6 +875,30 @@ public final class Slice
         return new BasicSliceOutput(this);
     }
 
+    /**
+     * Returns a ByteBuffer over the content of this slice without copying it.
+     * Modifying the content of the returned buffer or this slice affects each
+     * other's content.
+     */
+    public ByteBuffer toByteBuffer()
+    {
+        if (size == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        if (base != null) {
+            return ByteBuffer.wrap(base, (int) (address - SizeOf.ARRAY_BYTE_BASE_OFFSET), size).slice();
+        }
+        if (!(reference instanceof DirectBuffer)) {
+            throw new UnsupportedOperationException("Slice is not backed by a direct buffer");
+        }
+        ByteBuffer buffer = ((ByteBuffer) reference).duplicate();
+        int offset = (int) (address - ((DirectBuffer) reference).address());
+        buffer.clear();
+        buffer.position(offset);
+        buffer.limit(offset + size);
+        return buffer.slice();
+    }
+
     @Override
     public String toString()
     {
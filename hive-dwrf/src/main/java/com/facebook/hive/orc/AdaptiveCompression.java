@@ -0,0 +1,120 @@
+//  Copyright (c) 2013, Facebook, Inc.  All rights reserved.
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.hive.orc;
+
+/**
+ * Decides whether the blocks of a stream are worth compressing.  After a number of consecutive
+ * blocks compress worse than the minimum ratio, the following blocks of the stripe are written
+ * uncompressed, except that every probeInterval blocks one is compressed again to check if the
+ * data has changed.  Blocks may be compressed on other threads, so the results can arrive after
+ * later blocks have already been handed out.
+ */
+class AdaptiveCompression {
+
+  private final float minRatio;
+  private final int maxPoorBlocks;
+  private final int probeInterval;
+
+  // The number of consecutive blocks that compressed poorly
+  private int poorBlocks = 0;
+  // Whether the stream is currently skipping compression, and for how many more blocks
+  private boolean skipping = false;
+  private int blocksUntilProbe = 0;
+
+  // Counts for the lifetime of the stream, across stripes
+  private long compressedBlocks = 0;
+  private long skippedBlocks = 0;
+  private long skipDecisions = 0;
+
+  /**
+   * @param minRatio the uncompressed size divided by the compressed size a block needs to reach
+   *                 to count as compressing well
+   * @param maxPoorBlocks the number of consecutive poorly compressed blocks after which blocks
+   *                      are no longer compressed
+   * @param probeInterval the number of blocks that are written uncompressed before trying to
+   *                      compress one again
+   */
+  AdaptiveCompression(float minRatio, int maxPoorBlocks, int probeInterval) {
+    this.minRatio = minRatio;
+    this.maxPoorBlocks = maxPoorBlocks;
+    this.probeInterval = probeInterval;
+  }
+
+  /**
+   * Should the next block be compressed, if not it is counted as skipped.
+   */
+  synchronized boolean shouldCompress() {
+    if (skipping && blocksUntilProbe > 0) {
+      blocksUntilProbe--;
+      skippedBlocks++;
+      return false;
+    }
+    compressedBlocks++;
+    return true;
+  }
+
+  /**
+   * Record the result of compressing a block.
+   * @param uncompressedLength the length of the block
+   * @param compressedLength the length of the compressed block, or -1 if the codec couldn't make
+   *                         it any smaller
+   */
+  synchronized void recordBlock(int uncompressedLength, int compressedLength) {
+    if (compressedLength >= 0 && uncompressedLength >= compressedLength * minRatio) {
+      poorBlocks = 0;
+      skipping = false;
+      return;
+    }
+    poorBlocks++;
+    // while skipping, a single poor probe is enough to keep skipping
+    if (skipping || poorBlocks >= maxPoorBlocks) {
+      if (!skipping) {
+        skipDecisions++;
+      }
+      skipping = true;
+      blocksUntilProbe = probeInterval;
+    }
+  }
+
+  /**
+   * Start over for a new stripe.
+   */
+  synchronized void reset() {
+    poorBlocks = 0;
+    skipping = false;
+    blocksUntilProbe = 0;
+  }
+
+  synchronized long getCompressedBlocks() {
+    return compressedBlocks;
+  }
+
+  synchronized long getSkippedBlocks() {
+    return skippedBlocks;
+  }
+
+  /**
+   * Get the number of times the stream stopped compressing blocks.
+   */
+  synchronized long getSkipDecisions() {
+    return skipDecisions;
+  }
+}
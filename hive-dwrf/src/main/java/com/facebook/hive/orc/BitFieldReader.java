@@ -110,6 +110,31 @@ public class BitFieldReader {
     }
   }
 
+  /**
+   * Skip the next items bits, returning the number of them which are set, counting whole bytes
+   * at a time.
+   */
+  public long countBits(long items) throws IOException {
+    long result = 0;
+    // the bits left in the current byte
+    int fromCurrent = (int) Math.min(items, bitsLeft);
+    if (fromCurrent > 0) {
+      bitsLeft -= fromCurrent;
+      result += Integer.bitCount((current >>> bitsLeft) & ((1 << fromCurrent) - 1));
+      items -= fromCurrent;
+    }
+    if (items >= 8) {
+      result += input.countBits(items / 8);
+      items %= 8;
+    }
+    if (items > 0) {
+      readByte();
+      bitsLeft -= items;
+      result += Integer.bitCount(current >>> bitsLeft);
+    }
+    return result;
+  }
+
   public void close() throws IOException {
     input.close();
   }
@@ -148,6 +148,15 @@ public final class DynamicByteArray extends DynamicArray {
     result.set(data.getBytes(), offset, length);
   }
 
+  /**
+   * Get the array holding the bytes of this dynamic array, without copying it.  The array is
+   * replaced when this grows, so it's only valid until then.
+   * @return the array, whose first size() bytes are the bytes of this dynamic array
+   */
+  public byte[] getBytes() {
+    return data.getBytes();
+  }
+
   /**
    * Write out a range of this dynamic array to an output stream.
    * @param out the stream to write to
@@ -22,9 +22,11 @@ package com.facebook.hive.orc;
 import com.facebook.hive.orc.OrcProto.RowIndexEntry;
 import org.apache.hadoop.fs.FSDataInputStream;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.List;
 
 import com.facebook.hive.orc.compression.CompressionCodec;
@@ -35,12 +37,14 @@ public abstract class InStream extends InputStream {
 
   public static final int END_OF_BUFFER = -1;
   private final boolean useVInts;
+  private final OrcProto.IntegerEncoding integerEncoding;
 
   private static class UncompressedStream extends InStream {
     private final String name;
     // The file this stream is to read data from
     private final FSDataInputStream file;
-    private byte[] array;
+    // The data of the stream, which may be a direct buffer if it was created from one
+    private ByteBuffer buffer;
     private int offset;
     private final long base;
     private final int limit;
@@ -48,38 +52,44 @@ public abstract class InStream extends InputStream {
     private int[] indeces;
 
     public UncompressedStream(String name, FSDataInputStream file, long streamOffset,
-        int streamLength, boolean useVInts) {
-      super(useVInts);
+        int streamLength, boolean useVInts, OrcProto.IntegerEncoding integerEncoding) {
+      super(useVInts, integerEncoding);
 
       this.name = name;
-      this.array = null;
+      this.buffer = null;
       this.file = file;
       this.base = streamOffset;
       this.limit = streamLength;
       this.offset = 0;
     }
 
-    public UncompressedStream(String name, ByteBuffer input, boolean useVInts) {
-      super(useVInts);
+    public UncompressedStream(String name, ByteBuffer input, boolean useVInts,
+        OrcProto.IntegerEncoding integerEncoding) {
+      super(useVInts, integerEncoding);
 
       this.name = name;
-      this.array = input.array();
-      this.base = input.arrayOffset() + input.position();
+      this.buffer = input;
+      this.base = input.position();
       this.offset = (int) base;
-      this.limit = input.arrayOffset() + input.limit();
+      this.limit = input.limit();
       this.file = null;
     }
 
+    private void readData() throws IOException {
+      byte[] array = new byte[limit];
+      file.read(base, array, 0, limit);
+      buffer = ByteBuffer.wrap(array);
+    }
+
     @Override
     public int read() throws IOException {
       if (offset == limit) {
         return END_OF_BUFFER;
       }
-      if (array == null) {
-        array = new byte[limit];
-        file.read(base, array, 0, limit);
+      if (buffer == null) {
+        readData();
       }
-      return 0xff & array[offset++];
+      return 0xff & buffer.get(offset++);
     }
 
     @Override
@@ -87,12 +97,18 @@ public abstract class InStream extends InputStream {
       if (this.offset == limit) {
         return END_OF_BUFFER;
       }
-      if (array == null) {
-        array = new byte[limit];
-        file.read(base, array, 0, limit);
+      if (buffer == null) {
+        readData();
       }
       int actualLength = Math.min(length, limit - this.offset);
-      System.arraycopy(array, this.offset, data, offset, actualLength);
+      if (buffer.hasArray()) {
+        System.arraycopy(buffer.array(), buffer.arrayOffset() + this.offset, data, offset,
+            actualLength);
+      } else {
+        ByteBuffer view = buffer.duplicate();
+        view.position(this.offset);
+        view.get(data, offset, actualLength);
+      }
       this.offset += actualLength;
       return actualLength;
     }
@@ -102,15 +118,39 @@ public abstract class InStream extends InputStream {
       return limit - offset;
     }
 
+    @Override
+    public long skip(long n) {
+      int skipped = (int) Math.max(0, Math.min(n, limit - offset));
+      offset += skipped;
+      return skipped;
+    }
+
+    @Override
+    protected ByteBuffer currentBlock() throws IOException {
+      if (offset == limit) {
+        return null;
+      }
+      if (buffer == null) {
+        readData();
+      }
+      ByteBuffer view = buffer.duplicate();
+      view.limit(limit);
+      view.position(offset);
+      return view;
+    }
+
     @Override
     public void close() {
-      array = null;
+      buffer = null;
       offset = 0;
     }
 
     @Override
     public void seek(int index) throws IOException {
-      offset = (int) base + indeces[index];
+      // If file is null the offset is relative to the start of the ByteBuffer that was used to
+      // initialize this InStream, otherwise it's relative to the start of the data read from the
+      // file
+      offset = (file == null ? (int) base : 0) + indeces[index];
     }
 
     @Override
@@ -134,9 +174,15 @@ public abstract class InStream extends InputStream {
 
   private static class CompressedStream extends InStream {
     private final String name;
-    private byte[] array;
+    // The compressed data, which may be a direct buffer if the stream was created from one
+    private ByteBuffer compressed;
     private final int compressionBlockSize;
+    // The data of the current block, either a view of an uncompressed block in compressed, or
+    // decompressed
     private ByteBuffer uncompressed = null;
+    // The buffer compressed blocks are decompressed into, reused for every block of the stream,
+    // and direct if compressed is direct
+    private ByteBuffer decompressed = null;
     private final CompressionCodec codec;
     private final FSDataInputStream file;
     private final long base;
@@ -169,10 +215,10 @@ public abstract class InStream extends InputStream {
 
     public CompressedStream(String name, FSDataInputStream file, long streamOffset,
         int streamLength, CompressionCodec codec, int compressionBlockSize, boolean useVInts,
-        int readStrides) {
-      super(useVInts);
+        OrcProto.IntegerEncoding integerEncoding, int readStrides) {
+      super(useVInts, integerEncoding);
 
-      this.array = null;
+      this.compressed = null;
       this.name = name;
       this.codec = codec;
       this.compressionBlockSize = compressionBlockSize;
@@ -191,16 +237,16 @@ public abstract class InStream extends InputStream {
     }
 
     public CompressedStream(String name, ByteBuffer input, CompressionCodec codec, int compressionBlockSize,
-        boolean useVInts) {
-      super(useVInts);
+        boolean useVInts, OrcProto.IntegerEncoding integerEncoding) {
+      super(useVInts, integerEncoding);
 
-      this.array = input.array();
+      this.compressed = input;
       this.name = name;
       this.codec = codec;
       this.compressionBlockSize = compressionBlockSize;
-      this.base = input.arrayOffset() + input.position();
+      this.base = input.position();
       this.compressedOffset = (int) base;
-      this.limit = input.arrayOffset() + input.limit();
+      this.limit = input.limit();
       this.file = null;
       this.readStrides = -1;
       this.currentChunk = 1;
@@ -261,9 +307,9 @@ public abstract class InStream extends InputStream {
       // Update max length if necessary
       maxLength = maxLength < length ? length : maxLength;
 
-      // Initialize array to an array that can contain the largest stride
-      if (array == null) {
-        this.array = new byte[maxLength];
+      // Initialize compressed to a buffer that can contain the largest stride
+      if (compressed == null) {
+        this.compressed = ByteBuffer.allocate(maxLength);
       }
 
       // Return a value of start index that will skip the 2 values read in this method
@@ -284,12 +330,12 @@ public abstract class InStream extends InputStream {
         // giant stride
         fileOffset = chunkStarts[currentChunk];
         chunkLength = (int) (chunkStarts[currentChunk + 1] - chunkStarts[currentChunk]);
-      } else if (array == null) {
-        // Otherwise treat it as a single giant stride, initialize the array if necessary
-        array = new byte[chunkLength];
+      } else if (compressed == null) {
+        // Otherwise treat it as a single giant stride, initialize the buffer if necessary
+        compressed = ByteBuffer.allocate(chunkLength);
       }
 
-      InStream.read(file, fileOffset, array, 0, chunkLength);
+      InStream.read(file, fileOffset, compressed.array(), 0, chunkLength);
 
       // Should read the next stride when this if block is entered again
       currentChunk++;
@@ -308,8 +354,9 @@ public abstract class InStream extends InputStream {
       }
 
       previousOffset = compressedOffset;
-      int compressedSizeOfBlock = ((0xff & array[compressedOffset + 2]) << 15) |
-        ((0xff & array[compressedOffset + 1]) << 7) | ((0xff & array[compressedOffset]) >> 1);
+      int compressedSizeOfBlock = ((0xff & compressed.get(compressedOffset + 2)) << 15) |
+        ((0xff & compressed.get(compressedOffset + 1)) << 7) |
+        ((0xff & compressed.get(compressedOffset)) >> 1);
       if (compressedSizeOfBlock > compressionBlockSize) {
         throw new IllegalArgumentException("Compressed block size in the data is larger than the compression block " +
                                              "size in the postscript. This usually means that the compression block " +
@@ -317,22 +364,24 @@ public abstract class InStream extends InputStream {
                                              "compressedSizeOfBlock="+compressedSizeOfBlock + ", " +
                                              "bufferSize=" + compressionBlockSize);
       }
-      boolean isOriginal = (array[compressedOffset] & 0x01) == 1;
+      boolean isOriginal = (compressed.get(compressedOffset) & 0x01) == 1;
       compressedOffset += OutStream.HEADER_SIZE;
+      ByteBuffer block = compressed.duplicate();
+      block.limit(compressedOffset + compressedSizeOfBlock);
+      block.position(compressedOffset);
       if (isOriginal) {
         isUncompressedOriginal = true;
-        uncompressed = ByteBuffer.wrap(array, compressedOffset, compressedSizeOfBlock);
+        uncompressed = block;
       } else {
-        if (isUncompressedOriginal) {
-          uncompressed = ByteBuffer.allocate(compressionBlockSize);
-          isUncompressedOriginal = false;
-        } else if (uncompressed == null) {
-          uncompressed = ByteBuffer.allocate(compressionBlockSize);
+        isUncompressedOriginal = false;
+        if (decompressed == null) {
+          decompressed = compressed.isDirect() ? ByteBuffer.allocateDirect(compressionBlockSize) :
+              ByteBuffer.allocate(compressionBlockSize);
         } else {
-          uncompressed.clear();
+          decompressed.clear();
         }
-        codec.decompress(ByteBuffer.wrap(array, compressedOffset, compressedSizeOfBlock),
-          uncompressed);
+        uncompressed = decompressed;
+        codec.decompress(block, uncompressed);
       }
       compressedOffset += compressedSizeOfBlock;
     }
@@ -361,10 +410,7 @@ public abstract class InStream extends InputStream {
         readHeader();
       }
       int actualLength = Math.min(length, uncompressed.remaining());
-      System.arraycopy(uncompressed.array(),
-        uncompressed.arrayOffset() + uncompressed.position(), data,
-        offset, actualLength);
-      uncompressed.position(uncompressed.position() + actualLength);
+      uncompressed.get(data, offset, actualLength);
       return actualLength;
     }
 
@@ -381,10 +427,39 @@ public abstract class InStream extends InputStream {
       return uncompressed.remaining();
     }
 
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = 0;
+      while (skipped < n) {
+        ByteBuffer block = currentBlock();
+        if (block == null) {
+          break;
+        }
+        int length = (int) Math.min(n - skipped, block.remaining());
+        uncompressed.position(uncompressed.position() + length);
+        skipped += length;
+      }
+      return skipped;
+    }
+
+    @Override
+    protected ByteBuffer currentBlock() throws IOException {
+      if (uncompressed == null || uncompressed.remaining() == 0) {
+        // If all chunks have been read, and all data from this chunk has been read, there's no
+        // data left to read
+        if (currentChunk >= numChunks && compressedOffset >= chunkLength) {
+          return null;
+        }
+        readHeader();
+      }
+      return uncompressed.duplicate();
+    }
+
     @Override
     public void close() {
-      array = null;
+      compressed = null;
       uncompressed = null;
+      decompressed = null;
       // Make sure if anyone tries to read, it returns nothing.
       compressedOffset = chunkLength;
       currentChunk = numChunks;
@@ -442,8 +517,9 @@ public abstract class InStream extends InputStream {
     }
   }
 
-  protected InStream(boolean useVInts) {
+  protected InStream(boolean useVInts, OrcProto.IntegerEncoding integerEncoding) {
     this.useVInts = useVInts;
+    this.integerEncoding = integerEncoding;
   }
 
   /**
@@ -455,6 +531,76 @@ public abstract class InStream extends InputStream {
 
   public abstract void seek(int index) throws IOException;
 
+  /**
+   * Get a view of the unread bytes of the current block of the stream, moving on to the next
+   * block if they've all been read, or null if the stream has no more data.  Reading from the
+   * view doesn't move the position of the stream.
+   */
+  protected abstract ByteBuffer currentBlock() throws IOException;
+
+  /**
+   * Read length doubles into data starting at offset.  The doubles in each block of the stream
+   * are copied in one go, only a double split between two blocks is read a byte at a time.
+   */
+  public void readDoubles(double[] data, int offset, int length) throws IOException {
+    while (length > 0) {
+      ByteBuffer block = nextBlock();
+      int count = Math.min(length, block.remaining() / 8);
+      if (count == 0) {
+        data[offset] = readSplitValue(8).getDouble();
+        count = 1;
+      } else {
+        block.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(data, offset, count);
+        skip(count * 8);
+      }
+      offset += count;
+      length -= count;
+    }
+  }
+
+  /**
+   * Read length floats into data starting at offset, see readDoubles.
+   */
+  public void readFloats(float[] data, int offset, int length) throws IOException {
+    while (length > 0) {
+      ByteBuffer block = nextBlock();
+      int count = Math.min(length, block.remaining() / 4);
+      if (count == 0) {
+        data[offset] = readSplitValue(4).getFloat();
+        count = 1;
+      } else {
+        block.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(data, offset, count);
+        skip(count * 4);
+      }
+      offset += count;
+      length -= count;
+    }
+  }
+
+  private ByteBuffer nextBlock() throws IOException {
+    ByteBuffer block = currentBlock();
+    if (block == null) {
+      throw new EOFException("Read past the end of " + this);
+    }
+    return block;
+  }
+
+  /**
+   * Read a value of size bytes that is split between two blocks.
+   */
+  private ByteBuffer readSplitValue(int size) throws IOException {
+    byte[] bytes = new byte[size];
+    int length = 0;
+    while (length < size) {
+      int read = read(bytes, length, size - length);
+      if (read < 0) {
+        throw new EOFException("Read past the end of " + this);
+      }
+      length += read;
+    }
+    return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
   /**
    * This should be used for creating streams to read file metadata, e.g. the footer, not for
    * data in columns.
@@ -462,16 +608,19 @@ public abstract class InStream extends InputStream {
   public static InStream create(String name, FSDataInputStream file, long streamOffset,
       int streamLength, CompressionCodec codec, int bufferSize) throws IOException {
 
-    return create(name, file, streamOffset, streamLength, codec, bufferSize, true, 1);
+    return create(name, file, streamOffset, streamLength, codec, bufferSize, true,
+        OrcProto.IntegerEncoding.RLE_V1, 1);
   }
 
   public static InStream create(String name, FSDataInputStream file, long streamOffset,
-      int streamLength, CompressionCodec codec, int bufferSize, boolean useVInts, int readStrides)
-  throws IOException {
+      int streamLength, CompressionCodec codec, int bufferSize, boolean useVInts,
+      OrcProto.IntegerEncoding integerEncoding, int readStrides) throws IOException {
     if (codec == null) {
-      return new UncompressedStream(name, file, streamOffset, streamLength, useVInts);
+      return new UncompressedStream(name, file, streamOffset, streamLength, useVInts,
+          integerEncoding);
     } else {
-      return new CompressedStream(name, file, streamOffset, streamLength, codec, bufferSize, useVInts, readStrides);
+      return new CompressedStream(name, file, streamOffset, streamLength, codec, bufferSize,
+          useVInts, integerEncoding, readStrides);
     }
   }
 
@@ -480,18 +629,19 @@ public abstract class InStream extends InputStream {
    */
   public static InStream create(String name, ByteBuffer input, CompressionCodec codec,
       int bufferSize) throws IOException {
-    return create(name, input, codec, bufferSize, true);
+    return create(name, input, codec, bufferSize, true, OrcProto.IntegerEncoding.RLE_V1);
   }
 
   /**
    * This should only be used if the data happens to already be in memory, e.g. for tests
    */
   public static InStream create(String name, ByteBuffer input, CompressionCodec codec,
-      int bufferSize, boolean useVInts) throws IOException {
+      int bufferSize, boolean useVInts, OrcProto.IntegerEncoding integerEncoding)
+      throws IOException {
     if (codec == null) {
-      return new UncompressedStream(name, input, useVInts);
+      return new UncompressedStream(name, input, useVInts, integerEncoding);
     } else {
-      return new CompressedStream(name, input, codec, bufferSize, useVInts);
+      return new CompressedStream(name, input, codec, bufferSize, useVInts, integerEncoding);
     }
   }
 
@@ -499,6 +649,13 @@ public abstract class InStream extends InputStream {
     return useVInts;
   }
 
+  /**
+   * Get the encoding of the run length encoded integers in the stream.
+   */
+  public OrcProto.IntegerEncoding getIntegerEncoding() {
+    return integerEncoding;
+  }
+
   // This is just a utility to wrap how we do reads.  This could also be replace by positional
   // reads at some point.
   public static void read(FSDataInputStream file, long fileOffset, byte[] array, int arrayOffset,
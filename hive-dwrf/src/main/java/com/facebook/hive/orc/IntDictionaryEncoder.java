@@ -19,13 +19,12 @@
  */
 package com.facebook.hive.orc;
 
-import it.unimi.dsi.fastutil.ints.IntArrays;
-import it.unimi.dsi.fastutil.ints.IntComparator;
 import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import org.apache.hadoop.hive.ql.io.slice.SizeOf;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 class IntDictionaryEncoder extends DictionaryEncoder {
 
@@ -85,28 +84,57 @@ class IntDictionaryEncoder extends DictionaryEncoder {
   }
 
   /**
-   *
+   * Sort the positions of the keys by key value using an LSD radix sort, one byte at a time.
+   * Bytes that are the same for every key, e.g. the high bytes of small numbers, are skipped,
+   * so most dictionaries only take a few passes over the keys.
+   * @return the positions of the keys in sorted order
    */
-  public class LongPositionComparator implements IntComparator {
-    @Override
-    public int compare(Integer pos, Integer cmpPos) {
-      return this.compare(pos.intValue(), cmpPos.intValue());
+  private int[] sortPositions() {
+    int[] positions = new int[numElements];
+    int[] scratchPositions = new int[numElements];
+    long[] values = new long[numElements];
+    long[] scratchValues = new long[numElements];
+    for (int idx = 0; idx < numElements; idx++) {
+      positions[idx] = idx;
+      // flip the sign bit so that sorting the bytes as unsigned values gives the signed order
+      values[idx] = keys.get(idx) ^ Long.MIN_VALUE;
     }
 
-    @Override
-    public int compare(int pos, int cmpPos) {
-      return compareValue(keys.get(pos), keys.get(cmpPos));
+    int[] offsets = new int[256];
+    for (int shift = 0; shift < Long.SIZE; shift += 8) {
+      Arrays.fill(offsets, 0);
+      for (int idx = 0; idx < numElements; idx++) {
+        offsets[(int) (values[idx] >>> shift) & 0xff]++;
+      }
+      if (offsets[(int) (values[0] >>> shift) & 0xff] == numElements) {
+        // every key has the same value for this byte
+        continue;
+      }
+      int offset = 0;
+      for (int digit = 0; digit < offsets.length; digit++) {
+        int count = offsets[digit];
+        offsets[digit] = offset;
+        offset += count;
+      }
+      for (int idx = 0; idx < numElements; idx++) {
+        int target = offsets[(int) (values[idx] >>> shift) & 0xff]++;
+        scratchValues[target] = values[idx];
+        scratchPositions[target] = positions[idx];
+      }
+      long[] tmpValues = values;
+      values = scratchValues;
+      scratchValues = tmpValues;
+      int[] tmpPositions = positions;
+      positions = scratchPositions;
+      scratchPositions = tmpPositions;
     }
+    return positions;
   }
 
   public void visitDictionary(Visitor<Long> visitor, IntDictionaryEncoderVisitorContext context) throws IOException {
       int[] keysArray = null;
-      if (sortKeys) {
-        keysArray = new int[numElements];
-        for (int idx = 0; idx < numElements; idx++) {
-          keysArray[idx] = idx;
-        }
-        IntArrays.quickSort(keysArray, new LongPositionComparator());
+      if (sortKeys && numElements > 0) {
+        keysArray = sortPositions();
       }
       for (int pos = 0; pos < numElements; pos++) {
         context.setOriginalPosition(keysArray == null? pos : keysArray[pos]);
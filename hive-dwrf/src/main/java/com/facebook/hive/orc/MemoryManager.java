@@ -226,11 +226,8 @@ class MemoryManager {
   synchronized boolean shouldFlush(MemoryEstimate memoryEstimate, Path path, long stripeSize, long maxDictSize)
       throws IOException {
 
-    WriterInfo writer = writerList.get(path);
-    if (writer == null) {
-      throw new IOException("No writer registered for path " + path.toString());
-    }
-    long limit = Math.round(stripeSize * currentScale * writer.allocationMultiplier);
+    WriterInfo writer = getWriter(path);
+    long limit = getMemoryLimit(writer, stripeSize);
     if (memoryEstimate.getTotalMemory() > limit
         || (maxDictSize > 0 && memoryEstimate.getDictionaryMemory() > maxDictSize)) {
       writer.incrementFlushedCount();
@@ -240,6 +237,26 @@ class MemoryManager {
     return false;
   }
 
+  /**
+   * Get the amount of memory a writer may use before its stripe is flushed, its share of the
+   * memory pool.
+   */
+  synchronized long getMemoryLimit(Path path, long stripeSize) throws IOException {
+    return getMemoryLimit(getWriter(path), stripeSize);
+  }
+
+  private long getMemoryLimit(WriterInfo writer, long stripeSize) {
+    return Math.round(stripeSize * currentScale * writer.allocationMultiplier);
+  }
+
+  private WriterInfo getWriter(Path path) throws IOException {
+    WriterInfo writer = writerList.get(path);
+    if (writer == null) {
+      throw new IOException("No writer registered for path " + path.toString());
+    }
+    return writer;
+  }
+
   // A list of writers to share allocations taken from writers which don't need them
   private final List<WriterInfo> writersForAllocation = new ArrayList<>();
   // A list of writers to take allocations from and give to more needy writers
@@ -30,7 +30,23 @@ public class OrcConf {
   public static enum ConfVars {
     HIVE_ORC_COMPRESSION("hive.exec.orc.compress", "ZLIB"),
     HIVE_ORC_ZLIB_COMPRESSION_LEVEL("hive.exec.orc.compress.zlib.level", 4),
+    HIVE_ORC_ZSTD_COMPRESSION_LEVEL("hive.exec.orc.compress.zstd.level", 3),
+    // Path of a dictionary trained on similar data (e.g. using zstd --train), which is stored in
+    // the file and used to compress the streams when the compression is ZSTD
+    HIVE_ORC_ZSTD_DICTIONARY("hive.exec.orc.compress.zstd.dictionary", ""),
+    // Comma separated list of column:kind or column:kind:level entries overriding the compression
+    // of top level columns, e.g. "ids:LZ4,text:ZSTD:9"
+    HIVE_ORC_COLUMN_COMPRESSION("hive.exec.orc.column.compress", ""),
     HIVE_ORC_COMPRESSION_BLOCK_SIZE("hive.exec.orc.compress.size", 262144),
+    // Number of threads shared by all writers for compressing blocks, 0 compresses inline
+    HIVE_ORC_COMPRESSION_THREADS("hive.exec.orc.compress.threads", 0),
+    // Number of consecutive blocks of a stream compressing worse than the minimum ratio after
+    // which the stream stops compressing blocks for the rest of the stripe, 0 always compresses
+    HIVE_ORC_ADAPTIVE_COMPRESSION_POOR_BLOCKS("hive.exec.orc.compress.adaptive.poor.blocks", 0),
+    HIVE_ORC_ADAPTIVE_COMPRESSION_MIN_RATIO("hive.exec.orc.compress.adaptive.min.ratio", 1.1f),
+    // Number of blocks a stream writes uncompressed before trying to compress one again
+    HIVE_ORC_ADAPTIVE_COMPRESSION_PROBE_INTERVAL(
+        "hive.exec.orc.compress.adaptive.probe.interval", 16),
     HIVE_ORC_STRIPE_SIZE("hive.exec.orc.stripe.size", 268435456L),
     HIVE_ORC_ROW_INDEX_STRIDE("hive.exec.orc.row.index.stride", 10000),
     HIVE_ORC_CREATE_INDEX("hive.exec.orc.create.index", true),
@@ -39,6 +55,10 @@ public class OrcConf {
         "hive.exec.orc.dictionary.key.numeric.size.threshold", 0.7f),
     HIVE_ORC_DICTIONARY_STRING_KEY_SIZE_THRESHOLD(
         "hive.exec.orc.dictionary.key.string.size.threshold", 0.8f),
+    // Maximum number of distinct values of a stripe of a float or double column, as a fraction of
+    // its values, for the stripe to be dictionary encoded, 0 always uses direct encoding
+    HIVE_ORC_DICTIONARY_FLOATING_POINT_KEY_SIZE_THRESHOLD(
+        "hive.exec.orc.dictionary.key.floating.point.size.threshold", 0.0f),
     HIVE_ORC_DICTIONARY_SORT_KEYS("hive.exec.orc.dictionary.key.sorted", true),
     HIVE_ORC_BUILD_STRIDE_DICTIONARY("hive.exec.orc.build.stride.dictionary", true),
     HIVE_ORC_MAX_DICTIONARY_SIZE("hive.exec.orc.max.dictionary.size", 104857600), // 100 Mb
@@ -51,7 +71,31 @@ public class OrcConf {
     HIVE_ORC_ENTROPY_STRING_THRESHOLD("hive.exec.orc.entropy.string.threshold", 20),
 
     HIVE_ORC_DICTIONARY_ENCODING_INTERVAL("hive.exec.orc.encoding.interval", 30),
+    // Number of non-null values at the start of a stripe after which a string column switches to
+    // direct encoding if its keys are too distinct for a dictionary, 0 waits for the whole stripe
+    HIVE_ORC_DICTIONARY_EARLY_DECISION_ROWS("hive.exec.orc.dictionary.early.decision.rows", 0),
     HIVE_ORC_USE_VINTS("hive.exec.orc.use.vints", true),
+    // Encoding of integer streams, RLE_V2 bit packs values and delta encodes monotonic runs, and
+    // is also used for the data of directly encoded integer columns, but older readers can't
+    // read it
+    HIVE_ORC_INTEGER_ENCODING("hive.exec.orc.integer.encoding", "RLE_V1"),
+    // Store the seconds of timestamp columns as the difference from the previous value, which
+    // shrinks columns that are sorted or nearly sorted by time, but older readers can't read it
+    HIVE_ORC_TIMESTAMP_DELTA_ENCODING("hive.exec.orc.timestamp.delta.encoding", false),
+    // Comma separated list of top level map columns whose values are stored separately for each
+    // key, so a key can be read without reading the others.  The keys must be integers or
+    // strings, and once a key has been seen it's written in every following stripe of the file,
+    // so it suits maps with a stable set of keys.  Older readers can't read these columns
+    HIVE_ORC_FLAT_MAP_COLUMNS("hive.exec.orc.map.flat.columns", ""),
+    // The most keys a flat map column may have, each key has its own streams and writers for the
+    // rest of the file.  Once a column has more keys its stripe is ended after the row and the
+    // following stripes are written as regular maps.  This leaves room for maps with a few
+    // thousand stable keys, while columns keyed by ids or free text soon fall back
+    HIVE_ORC_FLAT_MAP_MAX_KEYS("hive.exec.orc.map.flat.max.keys", 10000),
+    // Comma separated list of dot separated paths of nested columns, e.g. "s.a,s.b", if a top
+    // level column is read and some of its nested columns are listed, only those are read.  A
+    // path that doesn't match a file's schema reads the whole column
+    HIVE_ORC_READ_NESTED_COLUMNS("hive.exec.orc.read.nested.columns", ""),
     HIVE_ORC_READ_COMPRESSION_STRIDES("hive.orc.read.compression.strides", 5),
 
     // Maximum fraction of heap that can be used by ORC file writers
@@ -59,8 +103,15 @@ public class OrcConf {
     HIVE_ORC_FILE_MIN_MEMORY_ALLOCATION("hive.exec.orc.min.mem.allocation", 4194304L), // 4 Mb
     HIVE_ORC_FILE_ENABLE_LOW_MEMORY_MODE("hive.exec.orc.low.memory", false),
     HIVE_ORC_ROW_BUFFER_SIZE("hive.exec.orc.row.buffer.size", 100),
+    // Spill the compressed streams of a stripe to a local scratch file instead of buffering them
+    // in memory until the stripe is written
+    HIVE_ORC_SPILL_STREAMS("hive.exec.orc.spill.streams", false),
+    HIVE_ORC_SPILL_DIRECTORY("hive.exec.orc.spill.dir", System.getProperty("java.io.tmpdir")),
 
     HIVE_ORC_EAGER_HDFS_READ("hive.exec.orc.eager.hdfs.read", true),
+    // For point reads of rows by row number, streams are read lazily one index stride at a time
+    // regardless of the eager read settings, and a stripe is only read once a row of it is
+    HIVE_ORC_RANDOM_ACCESS("hive.exec.orc.random.access", false),
     HIVE_ORC_EAGER_HDFS_READ_BYTES("hive.exec.orc.eager.hdfs.read.bytes", 193986560), // 185 Mb
     ;
 
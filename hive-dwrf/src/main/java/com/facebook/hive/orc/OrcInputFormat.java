@@ -112,25 +112,10 @@ public class OrcInputFormat  extends FileInputFormat<NullWritable, OrcLazyRow>
     setMinSplitSize(16 * 1024);
   }
 
-  /**
-   * Recurse down into a type subtree turning on all of the sub-columns.
-   * @param types the types of the file
-   * @param result the global view of columns that should be included
-   * @param typeId the root of tree to enable
-   */
-  private static void includeColumnRecursive(List<OrcProto.Type> types,
-                                             boolean[] result,
-                                             int typeId) {
-    result[typeId] = true;
-    OrcProto.Type type = types.get(typeId);
-    int children = type.getSubtypesCount();
-    for(int i=0; i < children; ++i) {
-      includeColumnRecursive(types, result, type.getSubtypes(i));
-    }
-  }
-
   /**
    * Take the configuration and figure out which columns we need to include.
+   * Columns with nested columns in {@link OrcConf.ConfVars#HIVE_ORC_READ_NESTED_COLUMNS} only
+   * include those, the other columns include all of their sub-columns.
    * @param types the types of the file
    * @param conf the configuration
    * @return true for each column that should be included
@@ -147,9 +132,31 @@ public class OrcInputFormat  extends FileInputFormat<NullWritable, OrcLazyRow>
       result[0] = true;
       OrcProto.Type root = types.get(0);
       List<Integer> included = ColumnProjectionUtils.getReadColumnIDs(conf);
+      String nestedStr = OrcConf.getVar(conf, OrcConf.ConfVars.HIVE_ORC_READ_NESTED_COLUMNS);
+      List<String> nested = new ArrayList<String>();
+      if (nestedStr != null) {
+        for (String columnPath : nestedStr.split(",")) {
+          if (columnPath.trim().length() > 0) {
+            nested.add(columnPath.trim());
+          }
+        }
+      }
       for(int i=0; i < root.getSubtypesCount(); ++i) {
         if (included.contains(i)) {
-          includeColumnRecursive(types, result, root.getSubtypes(i));
+          List<String> columnPaths = new ArrayList<String>();
+          for (String columnPath : nested) {
+            if (columnPath.toLowerCase().startsWith(root.getFieldNames(i).toLowerCase() + ".")) {
+              columnPaths.add(columnPath);
+            }
+          }
+          if (columnPaths.isEmpty()) {
+            ReaderImpl.includeColumnRecursive(types, result, root.getSubtypes(i));
+          } else {
+            boolean[] nestedResult = ReaderImpl.findIncludedColumns(types, columnPaths);
+            for (int j = 0; j < numColumns; j++) {
+              result[j] |= nestedResult[j];
+            }
+          }
         }
       }
       // if we are filtering at least one column, return the boolean array
@@ -20,9 +20,14 @@
 package com.facebook.hive.orc;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import com.facebook.hive.orc.compression.CompressionCodec;
 import org.apache.hadoop.hive.serde2.ReaderWriterProfiler;
@@ -31,7 +36,8 @@ class OutStream extends PositionedOutputStream {
 
   interface OutputReceiver {
     /**
-     * Output the given buffer to the final destination
+     * Output the given buffer to the final destination.  The buffer is reused by the stream
+     * after this returns, so its contents must be written or copied.
      * @param buffer the buffer to output
      * @throws IOException
      */
@@ -40,76 +46,109 @@ class OutStream extends PositionedOutputStream {
 
   static final int HEADER_SIZE = 3;
 
-  // If the OutStream is flushing the last compressed ByteBuffer, we don't need to reallocate
-  // a new one, we can just share the same one over and over between streams because it gets
-  // cleared right away.  It is a mapping from the size of the buffer to the buffer.
-  private static final Map<Integer, ByteBuffer> COMPRESSED_FOR_REUSE =
-    new HashMap<Integer, ByteBuffer>();
+  // The maximum number of blocks of a single stream that may be waiting on the compression
+  // executor before the writer blocks.  Each pending block holds on to its input buffer, so this
+  // bounds the extra memory used by concurrent compression to a few buffers per stream.
+  static final int MAX_PENDING_BLOCKS = 4;
+
+  // Blocks are compressed into a scratch buffer owned by the thread compressing them and passed
+  // straight to the receiver, so no stream needs buffers of its own for compressed bytes.
+  private static final ThreadLocal<ByteBuffer> SCRATCH = new ThreadLocal<ByteBuffer>();
 
   private final String name;
   private final OutputReceiver receiver;
 
   /**
    * Stores the uncompressed bytes that have been serialized, but not
-   * compressed yet. When this fills, we compress the entire buffer.
+   * compressed yet. When this fills, we compress the entire buffer, or
+   * send it directly to the receiver if no compression is being done.
    */
   private ByteBuffer current = null;
+  private final int bufferSize;
+  private final CompressionCodec codec;
+  private long compressedBytes = 0;
+  private long uncompressedBytes = 0;
+  private final MemoryEstimate memoryEstimate;
 
   /**
-   * Stores the compressed bytes until we have a full buffer and then outputs
-   * them to the receiver. If no compression is being done, this (and overflow)
-   * will always be null and the current buffer will be sent directly to the
-   * receiver.
+   * If not null, full blocks are compressed on this executor while the writer keeps serializing
+   * into a new block.  The compressed blocks are handed to the receiver in the order they were
+   * written, so the bytes in the file are identical to compressing them inline.
    */
-  private ByteBuffer compressed = null;
+  private final ExecutorService compressionExecutor;
+  private final ArrayDeque<Future<ByteBuffer>> pendingBlocks =
+    new ArrayDeque<Future<ByteBuffer>>();
 
   /**
-   * Since the compressed buffer may start with contents from previous
-   * compression blocks, we allocate an overflow buffer so that the
-   * output of the codec can be split between the two buffers. After the
-   * compressed buffer is sent to the receiver, the overflow buffer becomes
-   * the new compressed buffer.
+   * If not null, the input buffers of the blocks compressed on compressionExecutor are taken
+   * from and given back to this pool once they have been output, rather than allocating a new
+   * one for every block.  Its chunks are bufferSize + HEADER_SIZE bytes.
    */
-  private ByteBuffer overflow = null;
-  private final int bufferSize;
-  private final CompressionCodec codec;
-  private long compressedBytes = 0;
-  private long uncompressedBytes = 0;
-  private final MemoryEstimate memoryEstimate;
+  private final OutputChunkPool inputBufferPool;
+
+  /**
+   * If not null, decides which blocks are worth compressing, the others are written as originals.
+   */
+  private final AdaptiveCompression adaptiveCompression;
 
   OutStream(String name,
             int bufferSize,
             CompressionCodec codec,
             OutputReceiver receiver,
             MemoryEstimate memoryEstimate) throws IOException {
+    this(name, bufferSize, codec, receiver, memoryEstimate, null);
+  }
+
+  OutStream(String name,
+            int bufferSize,
+            CompressionCodec codec,
+            OutputReceiver receiver,
+            MemoryEstimate memoryEstimate,
+            ExecutorService compressionExecutor) throws IOException {
+    this(name, bufferSize, codec, receiver, memoryEstimate, compressionExecutor, null);
+  }
+
+  OutStream(String name,
+            int bufferSize,
+            CompressionCodec codec,
+            OutputReceiver receiver,
+            MemoryEstimate memoryEstimate,
+            ExecutorService compressionExecutor,
+            AdaptiveCompression adaptiveCompression) throws IOException {
+    this(name, bufferSize, codec, receiver, memoryEstimate, compressionExecutor,
+        adaptiveCompression, null);
+  }
+
+  OutStream(String name,
+            int bufferSize,
+            CompressionCodec codec,
+            OutputReceiver receiver,
+            MemoryEstimate memoryEstimate,
+            ExecutorService compressionExecutor,
+            AdaptiveCompression adaptiveCompression,
+            OutputChunkPool inputBufferPool) throws IOException {
     this.name = name;
     this.bufferSize = bufferSize;
     this.codec = codec;
     this.receiver = receiver;
     this.suppress = false;
     this.memoryEstimate = memoryEstimate;
-
-    if (!COMPRESSED_FOR_REUSE.containsKey(bufferSize + HEADER_SIZE)) {
-      COMPRESSED_FOR_REUSE.put(bufferSize + HEADER_SIZE,
-          ByteBuffer.allocate(bufferSize + HEADER_SIZE));
-    }
+    this.compressionExecutor = codec == null ? null : compressionExecutor;
+    this.adaptiveCompression = codec == null ? null : adaptiveCompression;
+    this.inputBufferPool = this.compressionExecutor == null ? null : inputBufferPool;
   }
 
   public void clear() throws IOException {
+    discardPendingBlocks();
+    if (adaptiveCompression != null) {
+      adaptiveCompression.reset();
+    }
     uncompressedBytes = 0;
     compressedBytes = 0;
-    if (overflow != null) {
-      memoryEstimate.decrementTotalMemory(overflow.capacity());
-      overflow = null;
-    }
     if (current != null) {
-      memoryEstimate.decrementTotalMemory(current.capacity());
+      releaseInputBuffer(current);
       current = null;
     }
-    if (compressed != null) {
-      memoryEstimate.decrementTotalMemory(compressed.capacity());
-      compressed = null;
-    }
     suppress = false;
   }
 
@@ -134,21 +173,51 @@ class OutStream extends PositionedOutputStream {
   }
 
   private void getNewInputBuffer() throws IOException {
-    if (codec == null) {
-      current = ByteBuffer.allocate(bufferSize);
+    if (inputBufferPool != null) {
+      // the pool counts the buffers it allocates itself
+      current = inputBufferPool.take();
     } else {
-      current = ByteBuffer.allocate(bufferSize + HEADER_SIZE);
+      current = ByteBuffer.allocate(codec == null ? bufferSize : bufferSize + HEADER_SIZE);
+      memoryEstimate.incrementTotalMemory(current.capacity());
+    }
+    if (codec != null) {
       writeHeader(current, 0, bufferSize, true);
       current.position(HEADER_SIZE);
     }
-    memoryEstimate.incrementTotalMemory(current.capacity());
   }
 
   /**
-   * Allocate a new output buffer if we are compressing.
+   * Let go of an input buffer once the block it held has been output or discarded.
+   */
+  private void releaseInputBuffer(ByteBuffer buffer) {
+    if (inputBufferPool != null) {
+      inputBufferPool.give(buffer);
+    } else {
+      memoryEstimate.decrementTotalMemory(buffer.capacity());
+    }
+  }
+
+  /**
+   * Get the calling thread's buffer for compressing blocks into, with room for the header.
    */
-  private ByteBuffer getNewOutputBuffer() throws IOException {
-    return ByteBuffer.allocate(bufferSize + HEADER_SIZE);
+  private static ByteBuffer getScratch(int bufferSize) {
+    ByteBuffer scratch = SCRATCH.get();
+    if (scratch == null || scratch.capacity() < bufferSize + HEADER_SIZE) {
+      scratch = ByteBuffer.allocate(bufferSize + HEADER_SIZE);
+      SCRATCH.set(scratch);
+    }
+    scratch.clear();
+    return scratch;
+  }
+
+  /**
+   * Make current ready for the next block, once its contents have been output.
+   */
+  private void resetInputBuffer() {
+    current.clear();
+    if (codec != null) {
+      current.position(HEADER_SIZE);
+    }
   }
 
   private void flip() throws IOException {
@@ -162,7 +231,7 @@ class OutStream extends PositionedOutputStream {
       getNewInputBuffer();
     }
     if (current.remaining() < 1) {
-      spill(false);
+      spill();
     }
     uncompressedBytes += 1;
     current.put((byte) i);
@@ -178,7 +247,7 @@ class OutStream extends PositionedOutputStream {
     uncompressedBytes += remaining;
     length -= remaining;
     while (length != 0) {
-      spill(false);
+      spill();
       offset += remaining;
       remaining = Math.min(current.remaining(), length);
       current.put(bytes, offset, remaining);
@@ -187,7 +256,7 @@ class OutStream extends PositionedOutputStream {
     }
   }
 
-  private void spill(boolean reuseBuffer) throws java.io.IOException {
+  private void spill() throws java.io.IOException {
     ReaderWriterProfiler.start(ReaderWriterProfiler.Counter.COMPRESSION_TIME);
     // if there isn't anything in the current buffer, don't spill
     if (current == null || current.position() == (codec == null ? 0 : HEADER_SIZE)) {
@@ -197,79 +266,174 @@ class OutStream extends PositionedOutputStream {
     flip();
     if (codec == null) {
       receiver.output(current);
+      resetInputBuffer();
+    } else if (compressionExecutor != null) {
+      if (shouldCompress()) {
+        pendingBlocks.addLast(compressionExecutor.submit(
+            new CompressionTask(current, codec, bufferSize, adaptiveCompression)));
+      } else {
+        // keep the block in order behind the ones still being compressed
+        FutureTask<ByteBuffer> original = new FutureTask<ByteBuffer>(
+            new CompressionTask(current, null, bufferSize, null));
+        original.run();
+        pendingBlocks.addLast(original);
+      }
+      uncompressedBytes = 0;
+      // the block is owned by the task until it has been output
       getNewInputBuffer();
+      // don't let the writer get too far ahead of the compression threads
+      outputCompressedBlocks(MAX_PENDING_BLOCKS);
+    } else if (!shouldCompress()) {
+      outputOriginal();
     } else {
-      if (compressed == null) {
-        if (reuseBuffer) {
-          compressed = COMPRESSED_FOR_REUSE.get(bufferSize + HEADER_SIZE);
-          compressed.clear();
-        } else {
-          compressed = getNewOutputBuffer();
-        }
-        memoryEstimate.incrementTotalMemory(compressed.capacity());
-      } else if (overflow == null) {
-        overflow = getNewOutputBuffer();
-        memoryEstimate.incrementTotalMemory(overflow.capacity());
-      }
-      int sizePosn = compressed.position();
-      compressed.position(compressed.position() + HEADER_SIZE);
-      if (codec.compress(current, compressed, overflow)) {
-        uncompressedBytes = 0;
-        // move position back to after the header
-        current.position(HEADER_SIZE);
-        current.limit(current.capacity());
-        // find the total bytes in the chunk
-        int totalBytes = compressed.position() - sizePosn - HEADER_SIZE;
-        if (overflow != null) {
-          totalBytes += overflow.position();
+      ByteBuffer scratch = getScratch(bufferSize);
+      scratch.position(HEADER_SIZE);
+      // limit the output to the size of the input, if it doesn't fit there's no point in
+      // compressing it
+      scratch.limit(current.limit());
+      int inputLength = current.remaining();
+      if (codec.compress(current, scratch, null)) {
+        int totalBytes = scratch.position() - HEADER_SIZE;
+        writeHeader(scratch, 0, totalBytes, false);
+        if (adaptiveCompression != null) {
+          adaptiveCompression.recordBlock(inputLength, totalBytes);
         }
         compressedBytes += totalBytes + HEADER_SIZE;
-        writeHeader(compressed, sizePosn, totalBytes, false);
-        // if we have less than the next header left, spill it.
-        if (compressed.remaining() < HEADER_SIZE) {
-          compressed.flip();
-          receiver.output(compressed);
-          compressed = overflow;
-          overflow = null;
-        }
-      } else {
-        compressedBytes += uncompressedBytes + HEADER_SIZE;
         uncompressedBytes = 0;
-        // we are using the original, but need to spill the current
-        // compressed buffer first. So back up to where we started,
-        // flip it and add it to done.
-        if (sizePosn != 0) {
-          compressed.position(sizePosn);
-          compressed.flip();
-          receiver.output(compressed);
-          compressed = null;
-          // if we have an overflow, clear it and make it the new compress
-          // buffer
-          if (overflow != null) {
-            overflow.clear();
-            compressed = overflow;
-            overflow = null;
-          }
-        } else {
-          compressed.clear();
-          if (overflow != null) {
-            overflow.clear();
-          }
+        scratch.flip();
+        receiver.output(scratch);
+        resetInputBuffer();
+      } else {
+        if (adaptiveCompression != null) {
+          adaptiveCompression.recordBlock(inputLength, -1);
         }
-
-        // now add the current buffer into the done list and get a new one.
-        current.position(0);
-        // update the header with the current length
-        writeHeader(current, 0, current.limit() - HEADER_SIZE, true);
-        receiver.output(current);
-        getNewInputBuffer();
+        outputOriginal();
       }
     }
     ReaderWriterProfiler.end(ReaderWriterProfiler.Counter.COMPRESSION_TIME);
   }
 
+  private boolean shouldCompress() {
+    return adaptiveCompression == null || adaptiveCompression.shouldCompress();
+  }
+
+  /**
+   * Output the current block as the original, uncompressed bytes.
+   */
+  private void outputOriginal() throws IOException {
+    compressedBytes += uncompressedBytes + HEADER_SIZE;
+    uncompressedBytes = 0;
+    current.position(0);
+    // update the header with the current length
+    writeHeader(current, 0, current.limit() - HEADER_SIZE, true);
+    receiver.output(current);
+    resetInputBuffer();
+  }
+
+  /**
+   * Get the policy deciding which blocks are compressed, or null if all of them are.
+   */
+  AdaptiveCompression getAdaptiveCompression() {
+    return adaptiveCompression;
+  }
+
+  /**
+   * Compresses a single block off of the writer's thread.  The result is always the input
+   * buffer, holding either the header and the compressed bytes, or the original bytes with
+   * their header updated if the codec couldn't make the block any smaller.
+   */
+  private static class CompressionTask implements Callable<ByteBuffer> {
+    // Each compression thread compresses into its own scratch buffer and copies the result back
+    // into the input buffer, which is no longer needed and is output later by the writer.
+
+    private final ByteBuffer input;
+    // null to output the input as the original
+    private final CompressionCodec codec;
+    private final int bufferSize;
+    private final AdaptiveCompression adaptiveCompression;
+
+    CompressionTask(ByteBuffer input, CompressionCodec codec, int bufferSize,
+        AdaptiveCompression adaptiveCompression) {
+      this.input = input;
+      this.codec = codec;
+      this.bufferSize = bufferSize;
+      this.adaptiveCompression = adaptiveCompression;
+    }
+
+    @Override
+    public ByteBuffer call() throws IOException {
+      if (codec == null) {
+        input.position(0);
+        writeHeader(input, 0, input.limit() - HEADER_SIZE, true);
+        return input;
+      }
+      ByteBuffer scratch = getScratch(bufferSize);
+      scratch.position(HEADER_SIZE);
+      // limit the output to the size of the input, if it doesn't fit there's no point in
+      // compressing it
+      scratch.limit(input.limit());
+      int inputLength = input.remaining();
+      if (codec.compress(input, scratch, null)) {
+        int totalBytes = scratch.position() - HEADER_SIZE;
+        writeHeader(scratch, 0, totalBytes, false);
+        if (adaptiveCompression != null) {
+          adaptiveCompression.recordBlock(inputLength, totalBytes);
+        }
+        scratch.flip();
+        input.clear();
+        input.put(scratch);
+        input.flip();
+        return input;
+      }
+      if (adaptiveCompression != null) {
+        adaptiveCompression.recordBlock(inputLength, -1);
+      }
+      input.position(0);
+      writeHeader(input, 0, input.limit() - HEADER_SIZE, true);
+      return input;
+    }
+  }
+
+  /**
+   * Wait for the oldest blocks submitted to the compression executor and pass them on to the
+   * receiver until no more than maxPending blocks are outstanding.
+   */
+  private void outputCompressedBlocks(int maxPending) throws IOException {
+    while (pendingBlocks.size() > maxPending) {
+      ByteBuffer block = waitForBlock(pendingBlocks.removeFirst());
+      compressedBytes += block.remaining();
+      receiver.output(block);
+      // the receiver copied the block, so its buffer can be reused
+      releaseInputBuffer(block);
+    }
+  }
+
+  private void discardPendingBlocks() throws IOException {
+    while (!pendingBlocks.isEmpty()) {
+      // wait for the block even though we don't want it, so its buffer is no longer in use
+      releaseInputBuffer(waitForBlock(pendingBlocks.removeFirst()));
+    }
+  }
+
+  private ByteBuffer waitForBlock(Future<ByteBuffer> block) throws IOException {
+    try {
+      return block.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing " + name);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to compress " + name, e.getCause());
+    }
+  }
+
   @Override
   void getPosition(PositionRecorder recorder) throws IOException {
+    // positions are in terms of compressed bytes, so every block submitted so far needs to be
+    // compressed before we know where the next one starts
+    outputCompressedBlocks(0);
     if (codec == null) {
       recorder.addPosition(uncompressedBytes);
     } else {
@@ -280,22 +444,8 @@ class OutStream extends PositionedOutputStream {
 
   @Override
   public void flush() throws IOException {
-    flush(false);
-  }
-
-  @Override
-  /**
-   * @param reuseBuffer If this is set to true, the compressed data will be flushed to a reusable
-   *                    buffer, make sure to flush the buffers to disk before flushing any other
-   *                    stream.
-   */
-  public void flush(boolean reuseBuffer) throws IOException {
-    spill(reuseBuffer);
-    if (compressed != null && compressed.position() != 0) {
-      compressed.flip();
-      receiver.output(compressed);
-      compressed = null;
-    }
+    spill();
+    outputCompressedBlocks(0);
     clear();
   }
 
@@ -310,12 +460,7 @@ class OutStream extends PositionedOutputStream {
     if (current != null) {
       result += current.capacity();
     }
-    if (compressed != null) {
-      result += compressed.capacity();
-    }
-    if (overflow != null) {
-      result += overflow.capacity();
-    }
+    result += (long) pendingBlocks.size() * (bufferSize + HEADER_SIZE);
     return result;
   }
 
@@ -0,0 +1,101 @@
+//  Copyright (c) 2013, Facebook, Inc.  All rights reserved.
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.hive.orc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of small fixed size buffers shared by the streams of a writer to hold their output
+ * until the stripe is written.  A stream only holds the chunks its output needs, rather than a
+ * whole compression block for every stream, and the chunks are reused by the next stripe.  A
+ * writer compressing concurrently also keeps the blocks waiting to be compressed in a pool of
+ * its own.
+ *
+ * Every chunk the pool allocates is counted in the writer's memory estimate until the pool lets
+ * go of it, whether it is in use or waiting to be reused, so the MemoryManager sees the memory
+ * the pool holds on to.
+ *
+ * NOTE: Like the writer that owns it, this class is not synchronized.
+ */
+class OutputChunkPool {
+
+  static final int DEFAULT_CHUNK_SIZE = 32 * 1024;
+
+  // The maximum number of unused chunks kept for reuse, any more are left to the GC
+  private static final int MAX_POOLED_CHUNKS = 256;
+
+  private final int chunkSize;
+  private final int maxPooledChunks;
+  private final MemoryEstimate memoryEstimate;
+  private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<ByteBuffer>();
+
+  OutputChunkPool(int chunkSize, MemoryEstimate memoryEstimate) {
+    this(chunkSize, MAX_POOLED_CHUNKS, memoryEstimate);
+  }
+
+  OutputChunkPool(int chunkSize, int maxPooledChunks, MemoryEstimate memoryEstimate) {
+    this.chunkSize = chunkSize;
+    this.maxPooledChunks = maxPooledChunks;
+    this.memoryEstimate = memoryEstimate;
+  }
+
+  /**
+   * Get an empty chunk.
+   */
+  ByteBuffer take() {
+    ByteBuffer chunk = chunks.poll();
+    if (chunk == null) {
+      memoryEstimate.incrementTotalMemory(chunkSize);
+      return ByteBuffer.allocate(chunkSize);
+    }
+    chunk.clear();
+    return chunk;
+  }
+
+  /**
+   * Return a chunk that is no longer used.
+   */
+  void give(ByteBuffer chunk) {
+    if (chunks.size() < maxPooledChunks) {
+      chunks.push(chunk);
+    } else {
+      memoryEstimate.decrementTotalMemory(chunkSize);
+    }
+  }
+
+  /**
+   * Let go of unused chunks until at most maxBytes are kept for reuse.
+   */
+  void trim(long maxBytes) {
+    while (!chunks.isEmpty() && (long) chunks.size() * chunkSize > maxBytes) {
+      chunks.poll();
+      memoryEstimate.decrementTotalMemory(chunkSize);
+    }
+  }
+
+  /**
+   * Get the number of bytes in unused chunks kept for reuse.
+   */
+  long getPooledBytes() {
+    return (long) chunks.size() * chunkSize;
+  }
+}
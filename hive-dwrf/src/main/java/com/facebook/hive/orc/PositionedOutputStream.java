@@ -41,8 +41,6 @@ abstract class PositionedOutputStream extends OutputStream {
    */
   abstract long getBufferSize();
 
-  abstract void flush(boolean reuseBuffer) throws IOException;
-
   /**
    * Set suppress flag
    */
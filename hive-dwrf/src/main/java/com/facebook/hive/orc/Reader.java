@@ -132,6 +132,24 @@ public interface Reader {
   RecordReader rows(long offset, long length,
                     boolean[] include) throws IOException;
 
+  /**
+   * Create a RecordReader that will start reading at the first stripe after
+   * offset up to the stripe that starts at offset + length, and only read
+   * the given columns, which may be nested in other columns.
+   * @param offset a byte offset in the file
+   * @param length a number of bytes in the file
+   * @param columnPaths the columns to read, as dot separated paths of field
+   *    names, e.g. "s.a" reads field a of the struct column s.  Lists and maps
+   *    are passed through, so "l.a" reads field a of the elements of the list
+   *    column l, and "m.a" reads the keys and field a of the values of the map
+   *    column m.  The other fields of the structs are read as null.  A path
+   *    that doesn't match the file's schema reads its whole top level column.
+   * @return a new RecordReader that will read the specified rows.
+   * @throws IOException
+   */
+  RecordReader projectedRows(long offset, long length,
+                             List<String> columnPaths) throws IOException;
+
   /**
    * Create a StripeReader that will start reading at the first stripe after
    * offset up to the stripe that starts at offset + length.
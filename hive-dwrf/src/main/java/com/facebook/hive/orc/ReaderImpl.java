@@ -29,6 +29,7 @@ import java.util.List;
 
 import com.facebook.hive.orc.compression.CompressionCodec;
 import com.facebook.hive.orc.compression.CompressionKind;
+import com.facebook.hive.orc.compression.ZstdCodec;
 import com.facebook.hive.orc.statistics.ColumnStatistics;
 import com.facebook.hive.orc.statistics.ColumnStatisticsImpl;
 import org.apache.commons.logging.Log;
@@ -51,7 +52,10 @@ public final class ReaderImpl implements Reader {
   private final Path path;
   private final Configuration conf;
   private final CompressionKind compressionKind;
+  // the codec for the footers
   private final CompressionCodec codec;
+  // the codec for the streams, which differs from codec if it uses a compression dictionary
+  private final CompressionCodec streamCodec;
   private final int bufferSize;
   private final OrcProto.Footer footer;
   private final ObjectInspector inspector;
@@ -201,6 +205,25 @@ public final class ReaderImpl implements Reader {
     return result;
   }
 
+  static CompressionKind readCompressionKind(OrcProto.CompressionKind kind) {
+    switch (kind) {
+    case NONE:
+      return CompressionKind.NONE;
+    case ZLIB:
+      return CompressionKind.ZLIB;
+    case SNAPPY:
+      return CompressionKind.SNAPPY;
+    case LZO:
+      return CompressionKind.LZO;
+    case LZ4:
+      return CompressionKind.LZ4;
+    case ZSTD:
+      return CompressionKind.ZSTD;
+    default:
+      throw new IllegalArgumentException("Unknown compression");
+    }
+  }
+
   public ReaderImpl(FileSystem fs, Path path, Configuration conf) throws IOException {
     try {
       this.fileSystem = fs;
@@ -221,28 +244,22 @@ public final class ReaderImpl implements Reader {
       OrcProto.PostScript ps = OrcProto.PostScript.parseFrom(in);
       int footerSize = (int) ps.getFooterLength();
       bufferSize = (int) ps.getCompressionBlockSize();
-      switch (ps.getCompression()) {
-      case NONE:
-        compressionKind = CompressionKind.NONE;
-        break;
-      case ZLIB:
-        compressionKind = CompressionKind.ZLIB;
-        break;
-      case SNAPPY:
-        compressionKind = CompressionKind.SNAPPY;
-        break;
-      case LZO:
-        compressionKind = CompressionKind.LZO;
-        break;
-      default:
-        throw new IllegalArgumentException("Unknown compression");
-      }
+      compressionKind = readCompressionKind(ps.getCompression());
       codec = WriterImpl.createCodec(compressionKind);
 
       InputStream instream = InStream.create(
           "footer", file, size - 1 - psLen - footerSize, footerSize,
           codec, bufferSize);
       footer = OrcProto.Footer.parseFrom(instream);
+      if (footer.hasCompressionDictionary()) {
+        if (compressionKind != CompressionKind.ZSTD) {
+          throw new IllegalArgumentException("Compression dictionaries are not supported by " +
+              compressionKind);
+        }
+        streamCodec = new ZstdCodec(conf, footer.getCompressionDictionary().toByteArray());
+      } else {
+        streamCodec = codec;
+      }
       inspector = new OrcLazyRowObjectInspector(0, footer.getTypesList());
       file.close();
     } catch (IndexOutOfBoundsException e) {
@@ -293,10 +310,93 @@ public final class ReaderImpl implements Reader {
   public RecordReader rows(long offset, long length, boolean[] include
                            ) throws IOException {
     return new RecordReaderImpl(this.getStripes(), fileSystem,  path, offset,
-      length, footer.getTypesList(), codec, bufferSize,
+      length, footer.getTypesList(), codec, streamCodec, bufferSize,
       include, footer.getRowIndexStride(), conf);
   }
 
+  @Override
+  public RecordReader projectedRows(long offset, long length, List<String> columnPaths
+                                    ) throws IOException {
+    return rows(offset, length, findIncludedColumns(footer.getTypesList(), columnPaths));
+  }
+
+  /**
+   * Recurse down into a type subtree turning on all of the sub-columns.
+   * @param types the types of the file
+   * @param result the global view of columns that should be included
+   * @param typeId the root of tree to enable
+   */
+  static void includeColumnRecursive(List<OrcProto.Type> types, boolean[] result, int typeId) {
+    result[typeId] = true;
+    OrcProto.Type type = types.get(typeId);
+    int children = type.getSubtypesCount();
+    for (int i = 0; i < children; ++i) {
+      includeColumnRecursive(types, result, type.getSubtypes(i));
+    }
+  }
+
+  /**
+   * Find the columns to include to read the given columns, see
+   * {@link Reader#projectedRows(long, long, List)}.  A path that doesn't match the file's
+   * schema, because the file is older than the field or the path was meant for another table's
+   * column of the same name, includes its whole top level column.
+   * @param types the types of the file
+   * @param columnPaths the dot separated paths of the columns to read
+   * @return true for each column that should be included
+   */
+  static boolean[] findIncludedColumns(List<OrcProto.Type> types, List<String> columnPaths) {
+    boolean[] result = new boolean[types.size()];
+    result[0] = true;
+    OrcProto.Type root = types.get(0);
+    for (String columnPath : columnPaths) {
+      String[] names = columnPath.split("\\.");
+      if (!includeColumnPath(types, result, 0, names, 0)) {
+        for (int i = 0; i < root.getFieldNamesCount(); i++) {
+          if (root.getFieldNames(i).equalsIgnoreCase(names[0])) {
+            includeColumnRecursive(types, result, root.getSubtypes(i));
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Turn on the columns containing the column at the given path, the column
+   * itself and all of its sub-columns.
+   * @param typeId the column containing the rest of the path
+   * @param names the field names of the path
+   * @param depth the position in names of the rest of the path
+   * @return false if the path doesn't match the columns' types
+   */
+  private static boolean includeColumnPath(List<OrcProto.Type> types, boolean[] result,
+      int typeId, String[] names, int depth) {
+    if (depth == names.length) {
+      includeColumnRecursive(types, result, typeId);
+      return true;
+    }
+    result[typeId] = true;
+    OrcProto.Type type = types.get(typeId);
+    switch (type.getKind()) {
+      case STRUCT:
+        for (int i = 0; i < type.getFieldNamesCount(); i++) {
+          if (type.getFieldNames(i).equalsIgnoreCase(names[depth])) {
+            return includeColumnPath(types, result, type.getSubtypes(i), names, depth + 1);
+          }
+        }
+        return false;
+      case LIST:
+        return includeColumnPath(types, result, type.getSubtypes(0), names, depth);
+      case MAP:
+        // maps can't be read without their keys
+        includeColumnRecursive(types, result, type.getSubtypes(0));
+        return includeColumnPath(types, result, type.getSubtypes(1), names, depth);
+      default:
+        // the path goes on past a column that isn't a struct
+        return false;
+    }
+  }
+
   @Override
   public StripeReader stripes(long offset, long length) throws IOException {
     return new StripeReader(this.getStripes(), fileSystem, path, offset, length);
@@ -22,6 +22,7 @@ package com.facebook.hive.orc;
 import com.facebook.hive.orc.lazy.OrcLazyRow;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * A row-by-row iterator for ORC files.
@@ -75,4 +76,59 @@ public interface RecordReader {
    * Get the underlying reader.
    */
   OrcLazyRow getReader();
+
+  /**
+   * Is the value of a column of the row last returned by next() null.  This and the typed
+   * getters below read the column directly, without creating an OrcStruct or any writables.
+   * @param column the index of the column among the top level columns of the file
+   * @return true if the value is null
+   * @throws java.io.IOException
+   */
+  boolean isNull(int column) throws IOException;
+
+  /**
+   * Get the value of a byte, short, int, long or timestamp column of the row last returned by
+   * next(), timestamps are given as microseconds since the epoch.  The value must not be null.
+   * @param column the index of the column among the top level columns of the file
+   * @return the value of the column
+   * @throws java.io.IOException
+   */
+  long getLong(int column) throws IOException;
+
+  /**
+   * Get the value of a float or double column of the row last returned by next().  The value
+   * must not be null.
+   * @param column the index of the column among the top level columns of the file
+   * @return the value of the column
+   * @throws java.io.IOException
+   */
+  double getDouble(int column) throws IOException;
+
+  /**
+   * Get the value of a boolean column of the row last returned by next().  The value must not
+   * be null.
+   * @param column the index of the column among the top level columns of the file
+   * @return the value of the column
+   * @throws java.io.IOException
+   */
+  boolean getBoolean(int column) throws IOException;
+
+  /**
+   * Get the bytes of a string or binary column of the row last returned by next().
+   * @param column the index of the column among the top level columns of the file
+   * @return the bytes of the value, or null if the value is null
+   * @throws java.io.IOException
+   */
+  byte[] getBytes(int column) throws IOException;
+
+  /**
+   * Get a view of the bytes of a string or binary column of the row last returned by next(),
+   * like getBytes but without copying them.  The bytes are the reader's own and are only valid
+   * until the next row is read.
+   * @param column the index of the column among the top level columns of the file
+   * @return a buffer holding the bytes of the value from its position to its limit, or null if
+   * the value is null
+   * @throws java.io.IOException
+   */
+  ByteBuffer getBytesView(int column) throws IOException;
 }
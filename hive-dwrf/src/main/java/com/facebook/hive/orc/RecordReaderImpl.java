@@ -20,6 +20,7 @@
 package com.facebook.hive.orc;
 
 import com.facebook.hive.orc.compression.CompressionCodec;
+import com.facebook.hive.orc.compression.CompressionKind;
 import com.facebook.hive.orc.lazy.LazyBinaryTreeReader;
 import com.facebook.hive.orc.lazy.LazyBooleanTreeReader;
 import com.facebook.hive.orc.lazy.LazyByteTreeReader;
@@ -57,9 +58,12 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.serde2.ReaderWriterProfiler;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -78,7 +82,13 @@ class RecordReaderImpl implements RecordReader {
 
   /** Count of all the rows accessible from this reader */
   private final long totalRowCount;
+  /** For each stripe, the number of rows before it in this reader, followed by the total */
+  private final long[] stripeRowStarts;
+  private final CompressionCodec footerCodec;
   private final CompressionCodec codec;
+  // the codecs for streams whose compression differs from the file's
+  private final Map<CompressionKind, CompressionCodec> streamCodecs =
+      new EnumMap<CompressionKind, CompressionCodec>(CompressionKind.class);
   private final int bufferSize;
 
   /**
@@ -96,6 +106,7 @@ class RecordReaderImpl implements RecordReader {
   private final int readStrides;
   private final boolean readEagerlyFromHdfs;
   private final long readEagerlyFromHdfsBytes;
+  private final boolean randomAccess;
 
   /**
    * Constructor
@@ -106,7 +117,8 @@ class RecordReaderImpl implements RecordReader {
    * @param offset start byte offset in the file for the reader
    * @param length a number of bytes to be read from the start offset
    * @param types information about all the columns
-   * @param codec compression codec being used
+   * @param footerCodec compression codec used for the stripe footers
+   * @param codec compression codec used for the streams
    * @param bufferSize
    * @param included columns to be included by the reader
    * @param strideRate
@@ -119,16 +131,21 @@ class RecordReaderImpl implements RecordReader {
                    long offset,
                    long length,
                    List<OrcProto.Type> types,
+                   CompressionCodec footerCodec,
                    CompressionCodec codec,
                    int bufferSize,
                    boolean[] included,
                    long strideRate,
                    Configuration conf) throws IOException {
     this.file = fileSystem.open(path);
+    this.footerCodec = footerCodec;
     this.codec = codec;
     this.bufferSize = bufferSize;
-    this.included = included;
-    this.readStrides = OrcConf.getIntVar(conf, OrcConf.ConfVars.HIVE_ORC_READ_COMPRESSION_STRIDES);
+    this.included = includeRequiredColumns(types, included);
+    this.randomAccess = OrcConf.getBoolVar(conf, OrcConf.ConfVars.HIVE_ORC_RANDOM_ACCESS);
+    // a point read only needs the compression blocks of the index stride of its row
+    this.readStrides = randomAccess ? 1 :
+        OrcConf.getIntVar(conf, OrcConf.ConfVars.HIVE_ORC_READ_COMPRESSION_STRIDES);
     this.readEagerlyFromHdfs = OrcConf.getBoolVar(conf, OrcConf.ConfVars.HIVE_ORC_EAGER_HDFS_READ);
     this.readEagerlyFromHdfsBytes =
       OrcConf.getLongVar(conf, OrcConf.ConfVars.HIVE_ORC_EAGER_HDFS_READ_BYTES);
@@ -153,14 +170,61 @@ class RecordReaderImpl implements RecordReader {
     }
     firstRow = skippedRows;
     totalRowCount = rows;
+    stripeRowStarts = new long[this.stripes.size() + 1];
+    for (int i = 0; i < this.stripes.size(); i++) {
+      stripeRowStarts[i + 1] = stripeRowStarts[i] + this.stripes.get(i).getNumberOfRows();
+    }
     indexes = new OrcProto.RowIndex[types.size()];
     rowIndexStride = strideRate;
-    reader = createLazyRow(types, included);
-    if (this.stripes.size() > 0) {
+    reader = createLazyRow(types, this.included);
+    if (randomAccess) {
+      // the first stripe is read by the first call to next or seekToRow, which may be to
+      // another stripe
+      currentStripe = -1;
+    } else if (this.stripes.size() > 0) {
       readStripe();
     }
   }
 
+  /**
+   * Include the columns needed to read the included columns, so only the streams of those are
+   * read: the columns containing them, and the elements of lists and the keys and values of
+   * maps, which their readers always read.  The fields of structs and the children of unions
+   * can be left out, they're read as null, so e.g. only reading one child of a union only reads
+   * the union's tags and that child's streams.
+   * @param types the types of the file
+   * @param included true for each column that should be included, or null for all of them
+   * @return a copy of included with the needed columns turned on
+   */
+  static boolean[] includeRequiredColumns(List<OrcProto.Type> types, boolean[] included) {
+    if (included == null) {
+      return null;
+    }
+    boolean[] result = Arrays.copyOf(included, types.size());
+    // the columns are numbered in pre-order, so a column comes after the columns containing it
+    int[] parents = new int[types.size()];
+    for (int i = 0; i < types.size(); i++) {
+      for (int subtype : types.get(i).getSubtypesList()) {
+        parents[subtype] = i;
+      }
+    }
+    for (int i = types.size() - 1; i > 0; i--) {
+      if (result[i]) {
+        result[parents[i]] = true;
+      }
+    }
+    for (int i = 0; i < types.size(); i++) {
+      OrcProto.Type type = types.get(i);
+      if (result[i] && (type.getKind() == OrcProto.Type.Kind.LIST ||
+          type.getKind() == OrcProto.Type.Kind.MAP)) {
+        for (int subtype : type.getSubtypesList()) {
+          result[subtype] = true;
+        }
+      }
+    }
+    return result;
+  }
+
   OrcLazyRow createLazyRow(List<OrcProto.Type> types, boolean[] included) throws IOException {
     OrcProto.Type type = types.get(0);
     int structFieldCount = type.getFieldNamesCount();
@@ -175,8 +239,8 @@ class RecordReaderImpl implements RecordReader {
   }
 
   LazyTreeReader createLazyTreeReader(int columnId,
-                                      List<OrcProto.Type> types,
-                                      boolean[] included) throws IOException {
+                                      final List<OrcProto.Type> types,
+                                      final boolean[] included) throws IOException {
     final OrcProto.Type type = types.get(columnId);
     switch (type.getKind()) {
       case BOOLEAN:
@@ -212,18 +276,29 @@ class RecordReaderImpl implements RecordReader {
 
       case LIST:
         final LazyTreeReader elementReader = createLazyTreeReader(type.getSubtypes(0), types, included);
-        return new LazyListTreeReader(columnId, rowIndexStride, elementReader);
+        return new LazyListTreeReader(columnId, rowIndexStride, elementReader,
+            types.get(type.getSubtypes(0)).getKind());
 
       case MAP:
         final LazyTreeReader keyReader = createLazyTreeReader(type.getSubtypes(0), types, included);
         final LazyTreeReader valueReader = createLazyTreeReader(type.getSubtypes(1), types, included);
-        return new LazyMapTreeReader(columnId, rowIndexStride, keyReader, valueReader);
+        final int valueColumn = type.getSubtypes(1);
+        return new LazyMapTreeReader(columnId, rowIndexStride, keyReader, valueReader,
+            types.get(type.getSubtypes(0)).getKind(), types.get(valueColumn).getKind(),
+            new LazyMapTreeReader.ValueReaderFactory() {
+              @Override
+              public LazyTreeReader createValueReader() throws IOException {
+                return createLazyTreeReader(valueColumn, types, included);
+              }
+            });
 
       case UNION:
         final int unionFieldCount = type.getSubtypesCount();
         final LazyTreeReader[] unionFields = new LazyTreeReader[unionFieldCount];
         for(int i = 0; i < unionFieldCount; ++i) {
-          unionFields[i] = createLazyTreeReader(type.getSubtypes(i), types, included);
+          if (included == null || included[type.getSubtypes(i)]) {
+            unionFields[i] = createLazyTreeReader(type.getSubtypes(i), types, included);
+          }
         }
         return new LazyUnionTreeReader(columnId, rowIndexStride, unionFields);
 
@@ -275,7 +350,21 @@ class RecordReaderImpl implements RecordReader {
     int tailLength = (int) stripe.getFooterLength();
 
     return OrcProto.StripeFooter.parseFrom(InStream.create("stripe-footer", file, offset,
-        tailLength, codec, bufferSize));
+        tailLength, footerCodec, bufferSize));
+  }
+
+  /**
+   * Get the codec for a stream, which is the file's unless the stream's column overrode it.
+   */
+  private CompressionCodec getCodec(OrcProto.Stream stream) {
+    if (!stream.hasCompression()) {
+      return codec;
+    }
+    CompressionKind kind = ReaderImpl.readCompressionKind(stream.getCompression());
+    if (!streamCodecs.containsKey(kind)) {
+      streamCodecs.put(kind, WriterImpl.createCodec(kind));
+    }
+    return streamCodecs.get(kind);
   }
 
   private void readEntireStripeEagerly(StripeInformation stripe, long offset) throws IOException {
@@ -289,10 +378,11 @@ class RecordReaderImpl implements RecordReader {
 
       if (area == StreamName.Area.DATA || area == StreamName.Area.DICTIONARY) {
         final int sectionLength = (int) section.getLength();
-        final StreamName name = new StreamName(section.getColumn(), section.getKind());
+        final StreamName name = new StreamName(section.getColumn(), section.getKind(),
+            section.getSequence());
         final ByteBuffer sectionBuffer = ByteBuffer.wrap(buffer, sectionOffset, sectionLength);
-        streams.put(name, InStream.create(name.toString(), sectionBuffer, codec, bufferSize,
-            section.getUseVInts()));
+        streams.put(name, InStream.create(name.toString(), sectionBuffer, getCodec(section),
+            bufferSize, section.getUseVInts(), section.getIntegerEncoding()));
         sectionOffset += sectionLength;
       }
     }
@@ -304,10 +394,11 @@ class RecordReaderImpl implements RecordReader {
       if (StreamName.getArea(section.getKind()) == StreamName.Area.DATA ||
           StreamName.getArea(section.getKind()) == StreamName.Area.DICTIONARY) {
         final int sectionLength = (int) section.getLength();
-        final StreamName name = new StreamName(section.getColumn(), section.getKind());
+        final StreamName name = new StreamName(section.getColumn(), section.getKind(),
+            section.getSequence());
         streams.put(name, InStream.create(name.toString(), file,
-            offset + stripe.getIndexLength() + sectionOffset, sectionLength, codec, bufferSize,
-            section.getUseVInts(), readStrides));
+            offset + stripe.getIndexLength() + sectionOffset, sectionLength, getCodec(section),
+            bufferSize, section.getUseVInts(), section.getIntegerEncoding(), readStrides));
         sectionOffset += sectionLength;
       }
     }
@@ -336,11 +427,12 @@ class RecordReaderImpl implements RecordReader {
         bytes = 0;
         while (currentSection < excluded) {
           OrcProto.Stream section = streamList.get(currentSection);
-          StreamName name =
-            new StreamName(section.getColumn(), section.getKind());
+          StreamName name = new StreamName(section.getColumn(), section.getKind(),
+              section.getSequence());
           this.streams.put(name,
               InStream.create(name.toString(), ByteBuffer.wrap(buffer, bytes,
-                  (int) section.getLength()), codec, bufferSize, section.getUseVInts()));
+                  (int) section.getLength()), getCodec(section), bufferSize,
+                  section.getUseVInts(), section.getIntegerEncoding()));
           currentSection++;
           bytes += section.getLength();
         }
@@ -360,12 +452,12 @@ class RecordReaderImpl implements RecordReader {
     while (currentSection < streamList.size()) {
       if (included[streamList.get(currentSection).getColumn()]) {
         OrcProto.Stream section = streamList.get(currentSection);
-        StreamName name =
-          new StreamName(section.getColumn(), section.getKind());
+        StreamName name = new StreamName(section.getColumn(), section.getKind(),
+            section.getSequence());
         this.streams.put(name,
             InStream.create(name.toString(), file, offset + sectionOffset,
-                (int) section.getLength(), codec, bufferSize, section.getUseVInts(),
-                readStrides));
+                (int) section.getLength(), getCodec(section), bufferSize, section.getUseVInts(),
+                section.getIntegerEncoding(), readStrides));
       }
       sectionOffset += streamList.get(currentSection).getLength();
       currentSection += 1;
@@ -377,6 +469,9 @@ class RecordReaderImpl implements RecordReader {
    * If this sum is <= {@code readEagerlyFromHdfsBytes}, return true else return false
    */
   protected boolean shouldReadEagerly(StripeInformation stripe, int currentSection) {
+    if (randomAccess) {
+      return false;
+    }
     if (readEagerlyFromHdfsBytes <= 0) {
       return readEagerlyFromHdfs;
     }
@@ -431,10 +526,7 @@ class RecordReaderImpl implements RecordReader {
 
     rowInStripe = 0;
     rowCountInStripe = stripe.getNumberOfRows();
-    rowBaseInStripe = 0;
-    for(int i=0; i < currentStripe; ++i) {
-      rowBaseInStripe += stripes.get(i).getNumberOfRows();
-    }
+    rowBaseInStripe = stripeRowStarts[currentStripe];
     readRowIndex();
     ReaderWriterProfiler.start(ReaderWriterProfiler.Counter.DESERIALIZATION_TIME);
     reader.startStripe(streams, stripeFooter.getColumnsList(), indexes, rowBaseInStripe);
@@ -475,6 +567,19 @@ class RecordReaderImpl implements RecordReader {
   public void close() throws IOException {
     file.close();
     reader.close();
+    if (footerCodec instanceof Closeable) {
+      // release any native memory the codec is holding for reuse, the codec is shared with
+      // other readers of the file, so it must remain usable
+      ((Closeable) footerCodec).close();
+    }
+    if (codec != footerCodec && codec instanceof Closeable) {
+      ((Closeable) codec).close();
+    }
+    for (CompressionCodec streamCodec : streamCodecs.values()) {
+      if (streamCodec instanceof Closeable) {
+        ((Closeable) streamCodec).close();
+      }
+    }
   }
 
   @Override
@@ -500,15 +605,19 @@ class RecordReaderImpl implements RecordReader {
     }
 
     rowNumber -= firstRow;
-    for (int i = 0; i < stripes.size(); i++) {
-      final StripeInformation stripe = stripes.get(i);
-      if (stripe.getNumberOfRows() > rowNumber) {
-        return i;
-      }
-      rowNumber -= stripe.getNumberOfRows();
+    if (rowNumber >= totalRowCount) {
+      throw new IllegalArgumentException("Seek after the end of reader range. rowNumber = " +
+                                             (rowNumber - totalRowCount));
+    }
+    // binary search for the last stripe starting at or before the row, skipping empty stripes
+    int stripe = Arrays.binarySearch(stripeRowStarts, 0, stripes.size(), rowNumber);
+    if (stripe < 0) {
+      return -stripe - 2;
+    }
+    while (stripeRowStarts[stripe + 1] == rowNumber) {
+      stripe++;
     }
-    throw new IllegalArgumentException("Seek after the end of reader range. rowNumber = " +
-                                           rowNumber);
+    return stripe;
   }
 
   private void readRowIndex() throws IOException {
@@ -516,10 +625,18 @@ class RecordReaderImpl implements RecordReader {
     for(OrcProto.Stream stream: stripeFooter.getStreamsList()) {
       if (stream.getKind() == OrcProto.Stream.Kind.ROW_INDEX) {
         int col = stream.getColumn();
-        if ((included == null || included[col]) && indexes[col] == null) {
+        if (stream.getSequence() != 0) {
+          // the indexes of the keys of flat maps are only read for the keys that are read
+          if (included == null || included[col]) {
+            StreamName name = new StreamName(col, stream.getKind(), stream.getSequence());
+            streams.put(name, InStream.create(name.toString(), file, offset,
+                (int) stream.getLength(), getCodec(stream), bufferSize, stream.getUseVInts(),
+                stream.getIntegerEncoding(), readStrides));
+          }
+        } else if ((included == null || included[col]) && indexes[col] == null) {
           indexes[col] = OrcProto.RowIndex.parseFrom(InStream.create("index",
-              file, offset, (int) stream.getLength(), codec, bufferSize,
-              stream.getUseVInts(), readStrides));
+              file, offset, (int) stream.getLength(), getCodec(stream), bufferSize,
+              stream.getUseVInts(), stream.getIntegerEncoding(), readStrides));
         }
       }
       offset += stream.getLength();
@@ -546,4 +663,75 @@ class RecordReaderImpl implements RecordReader {
   public OrcLazyRow getReader() {
     return reader;
   }
+
+  /**
+   * Get the lazy object of a top level column, which isn't there if the column isn't included.
+   */
+  private OrcLazyObject getColumn(int column) {
+    OrcLazyObject field = reader.getFieldValue(column);
+    if (field == null) {
+      throw new IllegalArgumentException("Column " + column + " is not read by this reader");
+    }
+    return field;
+  }
+
+  @Override
+  public boolean isNull(int column) throws IOException {
+    return getColumn(column).nextIsNull();
+  }
+
+  @Override
+  public long getLong(int column) throws IOException {
+    OrcLazyObject field = getColumn(column);
+    if (field instanceof OrcLazyLong || field instanceof OrcLazyTimestamp) {
+      return field.materializeLong();
+    } else if (field instanceof OrcLazyInt) {
+      return field.materializeInt();
+    } else if (field instanceof OrcLazyShort) {
+      return field.materializeShort();
+    } else if (field instanceof OrcLazyByte) {
+      return field.materializeByte();
+    }
+    throw new IOException("Cannot read column " + column + " as a long: not the right type.");
+  }
+
+  @Override
+  public double getDouble(int column) throws IOException {
+    OrcLazyObject field = getColumn(column);
+    if (field instanceof OrcLazyDouble) {
+      return field.materializeDouble();
+    } else if (field instanceof OrcLazyFloat) {
+      return field.materializeFloat();
+    }
+    throw new IOException("Cannot read column " + column + " as a double: not the right type.");
+  }
+
+  @Override
+  public boolean getBoolean(int column) throws IOException {
+    OrcLazyObject field = getColumn(column);
+    if (field instanceof OrcLazyBoolean) {
+      return field.materializeBoolean();
+    }
+    throw new IOException("Cannot read column " + column + " as a boolean: not the right type.");
+  }
+
+  @Override
+  public byte[] getBytes(int column) throws IOException {
+    ByteBuffer view = getBytesView(column);
+    if (view == null) {
+      return null;
+    }
+    byte[] bytes = new byte[view.remaining()];
+    view.duplicate().get(bytes);
+    return bytes;
+  }
+
+  @Override
+  public ByteBuffer getBytesView(int column) throws IOException {
+    OrcLazyObject field = getColumn(column);
+    if (field instanceof OrcLazyString || field instanceof OrcLazyBinary) {
+      return field.nextIsNull() ? null : field.materializeBytes();
+    }
+    throw new IOException("Cannot read column " + column + " as bytes: not the right type.");
+  }
 }
@@ -130,6 +130,53 @@ public class RunLengthByteReader {
     }
   }
 
+  /**
+   * Skip the next items bytes, returning the number of bits set in them.  Each repeated byte is
+   * only counted once, so runs, e.g. of a present stream's bytes for rows which are all null,
+   * are skipped in constant time.
+   */
+  long countBits(long items) throws IOException {
+    long result = 0;
+    while (items > 0) {
+      if (used == numLiterals) {
+        readValues();
+      }
+      int consume = (int) Math.min(items, numLiterals - used);
+      if (isRunLengthEncoded) {
+        result += (long) Integer.bitCount(0xff & literals[0]) * consume;
+      } else {
+        for (int i = used; i < used + consume; i++) {
+          result += Integer.bitCount(0xff & literals[i]);
+        }
+      }
+      used += consume;
+      items -= consume;
+    }
+    return result;
+  }
+
+  /**
+   * Skip the next items bytes, adding the number of times each value occurs in them to counts,
+   * which is indexed by the values.  Each run is counted at once rather than a byte at a time.
+   */
+  public void countValues(long items, long[] counts) throws IOException {
+    while (items > 0) {
+      if (used == numLiterals) {
+        readValues();
+      }
+      int consume = (int) Math.min(items, numLiterals - used);
+      if (isRunLengthEncoded) {
+        counts[literals[0]] += consume;
+      } else {
+        for (int i = used; i < used + consume; i++) {
+          counts[literals[i]]++;
+        }
+      }
+      used += consume;
+      items -= consume;
+    }
+  }
+
   public void close() throws IOException {
     input.close();
   }
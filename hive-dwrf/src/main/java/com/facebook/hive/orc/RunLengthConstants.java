@@ -10,4 +10,10 @@ public class RunLengthConstants {
 
   /* Max repetitions of a literal allowed in a 'run' which is run length encoded */
   static final int MAX_REPEAT_SIZE = 127 + MIN_REPEAT_SIZE;
+
+  /* Max values in a run of the v2 integer encoding */
+  static final int MAX_SCOPE = 512;
+
+  /* Max repetitions of a value in a short repeat run of the v2 integer encoding */
+  static final int MAX_SHORT_REPEAT_SIZE = 10;
 }
@@ -26,20 +26,23 @@ import java.util.List;
 import com.facebook.hive.orc.OrcProto.RowIndexEntry;
 
 /**
- * A reader that reads a sequence of integers.
+ * A reader that reads a sequence of integers, written by RunLengthIntegerWriter, or by
+ * RunLengthIntegerWriterV2 if the stream's integer encoding is RLE_V2.
  * */
 public class RunLengthIntegerReader {
   private final InStream input;
   private final boolean signed;
   private final int numBytes;
   private final boolean useVInts;
-  private final long[] literals =
-    new long[RunLengthConstants.MAX_LITERAL_SIZE];
+  private final boolean rleV2;
+  private final long[] literals;
   private int numLiterals = 0;
-  private int delta = 0;
+  private long delta = 0;
   private int used = 0;
   private boolean repeat = false;
   private int[] indeces;
+  // The patches of a patched base run
+  private long[] patches;
 
   public RunLengthIntegerReader(InStream input, boolean signed, int numBytes)
       throws IOException {
@@ -47,9 +50,16 @@ public class RunLengthIntegerReader {
     this.signed = signed;
     this.numBytes = numBytes;
     this.useVInts = input.useVInts();
+    this.rleV2 = input.getIntegerEncoding() == OrcProto.IntegerEncoding.RLE_V2;
+    this.literals = new long[rleV2 ? RunLengthConstants.MAX_SCOPE :
+        RunLengthConstants.MAX_LITERAL_SIZE];
   }
 
   private void readValues() throws IOException {
+    if (rleV2) {
+      readValuesV2();
+      return;
+    }
     int control = input.read();
     if (control == -1) {
       throw new EOFException("Read past end of RLE integer from " + input);
@@ -62,7 +72,7 @@ public class RunLengthIntegerReader {
         throw new EOFException("End of stream in RLE Integer from " + input);
       }
       // convert from 0 to 255 to -128 to 127 by converting to a signed byte
-      delta = (byte) (0 + delta);
+      delta = (byte) delta;
       literals[0] = SerializationUtils.readIntegerType(input, numBytes, signed, useVInts);
     } else {
       repeat = false;
@@ -74,6 +84,104 @@ public class RunLengthIntegerReader {
     }
   }
 
+  private int readByte() throws IOException {
+    int b = input.read();
+    if (b == -1) {
+      throw new EOFException("End of stream in RLE Integer from " + input);
+    }
+    return b;
+  }
+
+  private long readBase() throws IOException {
+    return signed ? SerializationUtils.readVslong(input) : SerializationUtils.readVulong(input);
+  }
+
+  private long decode(long value) {
+    return signed ? SerializationUtils.zigzagDecode(value) : value;
+  }
+
+  /**
+   * Read a run written by RunLengthIntegerWriterV2, which describes the layout of each type.
+   */
+  private void readValuesV2() throws IOException {
+    int header = input.read();
+    if (header == -1) {
+      throw new EOFException("Read past end of RLE integer from " + input);
+    }
+    used = 0;
+    int encodedWidth = (header >>> 1) & 0x1f;
+    switch (RunLengthIntegerWriterV2.EncodingType.values()[header >>> 6]) {
+      case SHORT_REPEAT:
+        numLiterals = (header & 0x07) + RunLengthConstants.MIN_REPEAT_SIZE;
+        literals[0] = decode(SerializationUtils.readLongBE(input, ((header >>> 3) & 0x07) + 1));
+        repeat = true;
+        delta = 0;
+        break;
+      case DIRECT:
+        numLiterals = (((header & 0x01) << 8) | readByte()) + 1;
+        SerializationUtils.readInts(literals, 0, numLiterals,
+            SerializationUtils.decodeBitWidth(encodedWidth), input);
+        for (int i = 0; i < numLiterals; i++) {
+          literals[i] = decode(literals[i]);
+        }
+        repeat = false;
+        break;
+      case PATCHED_BASE:
+        numLiterals = (((header & 0x01) << 8) | readByte()) + 1;
+        readPatchedBase(SerializationUtils.decodeBitWidth(encodedWidth));
+        repeat = false;
+        break;
+      case DELTA:
+        numLiterals = (((header & 0x01) << 8) | readByte()) + 1;
+        literals[0] = readBase();
+        if (encodedWidth == 0) {
+          delta = SerializationUtils.readVslong(input);
+          repeat = true;
+        } else {
+          long firstDelta = SerializationUtils.readVslong(input);
+          literals[1] = literals[0] + firstDelta;
+          SerializationUtils.readInts(literals, 2, numLiterals - 2,
+              SerializationUtils.decodeBitWidth(encodedWidth), input);
+          for (int i = 2; i < numLiterals; i++) {
+            literals[i] = firstDelta < 0 ? literals[i - 1] - literals[i] :
+                literals[i - 1] + literals[i];
+          }
+          repeat = false;
+        }
+        break;
+    }
+  }
+
+  private void readPatchedBase(int width) throws IOException {
+    int third = readByte();
+    int fourth = readByte();
+    int baseBytes = ((third >>> 5) & 0x07) + 1;
+    int patchWidth = SerializationUtils.decodeBitWidth(third & 0x1f);
+    int gapWidth = ((fourth >>> 5) & 0x07) + 1;
+    int numPatches = fourth & 0x1f;
+    long base = SerializationUtils.readLongBE(input, baseBytes);
+    long signBit = 1L << (baseBytes * 8 - 1);
+    if ((base & signBit) != 0) {
+      base = -(base & ~signBit);
+    }
+    SerializationUtils.readInts(literals, 0, numLiterals, width, input);
+    if (patches == null) {
+      patches = new long[32];
+    }
+    SerializationUtils.readInts(patches, 0, numPatches,
+        SerializationUtils.getClosestFixedBits(patchWidth + gapWidth), input);
+    long patchMask = (1L << patchWidth) - 1;
+    int index = 0;
+    for (int i = 0; i < numPatches; i++) {
+      // gaps that don't fit are split across patches of 0
+      index += (int) (patches[i] >>> patchWidth);
+      literals[index] |= (patches[i] & patchMask) << width;
+    }
+    for (int i = 0; i < numLiterals; i++) {
+      literals[i] += base;
+    }
+  }
+
   boolean hasNext() throws IOException {
     return used != numLiterals || input.available() > 0;
   }
@@ -91,6 +199,28 @@ public class RunLengthIntegerReader {
     return result;
   }
 
+  /**
+   * Read the next length values into data starting at offset.
+   */
+  public void next(long[] data, int offset, int length) throws IOException {
+    while (length > 0) {
+      if (used == numLiterals) {
+        readValues();
+      }
+      int count = Math.min(length, numLiterals - used);
+      if (repeat) {
+        for (int i = 0; i < count; i++) {
+          data[offset + i] = literals[0] + (used + i) * delta;
+        }
+      } else {
+        System.arraycopy(literals, used, data, offset, count);
+      }
+      used += count;
+      offset += count;
+      length -= count;
+    }
+  }
+
   public void seek(int index) throws IOException {
     input.seek(index);
     int consumed = (int) indeces[index];
@@ -27,7 +27,7 @@ import java.io.IOException;
  * repetition is offset by a delta. If the control byte is -1 to -128, 1 to 128
  * literal vint values follow.
  */
-class RunLengthIntegerWriter extends PositionedOutputStream {
+class RunLengthIntegerWriter extends IntegerWriter {
   static final int MAX_DELTA = 127;
   static final int MIN_DELTA = -128;
 
@@ -78,6 +78,7 @@ class RunLengthIntegerWriter extends PositionedOutputStream {
     write((long) value);
   }
 
+  @Override
   void write(long value) throws IOException {
     if (numLiterals == 0) {
       literals[numLiterals++] = value;
@@ -142,10 +143,4 @@ class RunLengthIntegerWriter extends PositionedOutputStream {
   long getBufferSize() {
     return output.getBufferSize();
   }
-
-  @Override
-  void flush(boolean reuseBuffer) throws IOException {
-    writeValues();
-    output.flush(reuseBuffer);
-  }
 }
@@ -0,0 +1,306 @@
+//  Copyright (c) 2013, Facebook, Inc.  All rights reserved.
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.hive.orc;
+
+import java.io.IOException;
+
+/**
+ * A writer that writes a sequence of integers in runs of up to 512 values.  The top 2 bits of
+ * the header of each run give the kind of run:
+ *
+ * SHORT_REPEAT: 3 to 10 repetitions of a value, which is written in as few bytes as possible.
+ * DIRECT: the values are bit packed with the width of the largest value.
+ * PATCHED_BASE: the values minus the smallest value are bit packed with a width that fits 95%
+ *   of them, and the high bits of the rest are written afterwards as a list of patches.
+ * DELTA: a monotonic sequence, the first value and delta are written as vints followed by the
+ *   remaining deltas bit packed, or nothing more if the delta is fixed, which is also how runs
+ *   of more than 10 repetitions are written.
+ *
+ * Signed values are zigzag encoded before they are bit packed.  The layout is the same as the
+ * RLE v2 integer encoding of Apache ORC.
+ */
+class RunLengthIntegerWriterV2 extends IntegerWriter {
+
+  enum EncodingType {
+    SHORT_REPEAT, DIRECT, PATCHED_BASE, DELTA
+  }
+
+  // The largest magnitude of a base value of a patched run, so it fits in 8 bytes with its sign
+  private static final long MAX_BASE_VALUE = 1L << 56;
+  // The largest number of patches, the size of the header field for it
+  private static final int MAX_PATCHES = 31;
+  // The largest gap between patches, the size of the header field for the gap width
+  private static final int MAX_PATCH_GAP = 255;
+
+  private final PositionedOutputStream output;
+  private final boolean signed;
+  private final long[] literals = new long[RunLengthConstants.MAX_SCOPE];
+  private int numLiterals = 0;
+  // The number of values at the end of literals that are equal to the last one
+  private int tailRunLength = 0;
+  // Scratch space for the literals as they are bit packed
+  private final long[] encoded = new long[RunLengthConstants.MAX_SCOPE];
+  private final long[] patches = new long[MAX_PATCHES];
+
+  RunLengthIntegerWriterV2(PositionedOutputStream output, boolean signed) {
+    this.output = output;
+    this.signed = signed;
+  }
+
+  @Override
+  void write(long value) throws IOException {
+    if (numLiterals > 0 && value == literals[numLiterals - 1]) {
+      tailRunLength += 1;
+    } else {
+      if (tailRunLength >= RunLengthConstants.MIN_REPEAT_SIZE) {
+        // once a run is long enough the values before it are written, so literals is all run
+        writeRepeat();
+      }
+      tailRunLength = 1;
+    }
+    literals[numLiterals++] = value;
+    if (tailRunLength == RunLengthConstants.MIN_REPEAT_SIZE &&
+        numLiterals > RunLengthConstants.MIN_REPEAT_SIZE) {
+      numLiterals -= RunLengthConstants.MIN_REPEAT_SIZE;
+      writeVariableRun();
+      for (int i = 0; i < RunLengthConstants.MIN_REPEAT_SIZE; i++) {
+        literals[i] = value;
+      }
+      numLiterals = RunLengthConstants.MIN_REPEAT_SIZE;
+      tailRunLength = RunLengthConstants.MIN_REPEAT_SIZE;
+    }
+    if (numLiterals == RunLengthConstants.MAX_SCOPE) {
+      writeValues();
+    }
+  }
+
+  @Override
+  public void write(int value) throws IOException {
+    write((long) value);
+  }
+
+  private void writeValues() throws IOException {
+    if (numLiterals != 0) {
+      if (tailRunLength >= RunLengthConstants.MIN_REPEAT_SIZE) {
+        writeRepeat();
+      } else {
+        writeVariableRun();
+      }
+    }
+  }
+
+  private void reset() {
+    numLiterals = 0;
+    tailRunLength = 0;
+  }
+
+  private long encode(long value) {
+    return signed ? SerializationUtils.zigzagEncode(value) : value;
+  }
+
+  private void writeBase(long value) throws IOException {
+    if (signed) {
+      SerializationUtils.writeVslong(output, value);
+    } else {
+      SerializationUtils.writeVulong(output, value);
+    }
+  }
+
+  /**
+   * Write the first 2 bytes of the header, which are the same for all but short repeats.
+   */
+  private void writeHeader(EncodingType type, int encodedWidth, int length) throws IOException {
+    int storedLength = length - 1;
+    output.write((type.ordinal() << 6) | (encodedWidth << 1) | (storedLength >>> 8));
+    output.write(storedLength & 0xff);
+  }
+
+  /**
+   * Write literals, which all have the same value.
+   */
+  private void writeRepeat() throws IOException {
+    if (numLiterals <= RunLengthConstants.MAX_SHORT_REPEAT_SIZE) {
+      long value = encode(literals[0]);
+      int numBytes = Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 7) / 8);
+      output.write((EncodingType.SHORT_REPEAT.ordinal() << 6) | ((numBytes - 1) << 3) |
+          (numLiterals - RunLengthConstants.MIN_REPEAT_SIZE));
+      SerializationUtils.writeLongBE(output, value, numBytes);
+    } else {
+      writeFixedDelta(0);
+    }
+    reset();
+  }
+
+  private void writeFixedDelta(long delta) throws IOException {
+    writeHeader(EncodingType.DELTA, 0, numLiterals);
+    writeBase(literals[0]);
+    SerializationUtils.writeVslong(output, delta);
+  }
+
+  /**
+   * Write literals, which don't end in a run of repetitions, choosing the smallest encoding.
+   */
+  private void writeVariableRun() throws IOException {
+    if (numLiterals <= RunLengthConstants.MIN_REPEAT_SIZE) {
+      writeDirect();
+      reset();
+      return;
+    }
+    long min = literals[0];
+    long max = literals[0];
+    long firstDelta = literals[1] - literals[0];
+    boolean fixedDelta = true;
+    boolean increasing = true;
+    boolean decreasing = true;
+    for (int i = 1; i < numLiterals; i++) {
+      long previous = literals[i - 1];
+      long current = literals[i];
+      min = Math.min(min, current);
+      max = Math.max(max, current);
+      fixedDelta &= current - previous == firstDelta;
+      increasing &= previous <= current;
+      decreasing &= previous >= current;
+    }
+    // if the range overflows so might the deltas
+    if ((max ^ min) < 0 && (max ^ (max - min)) < 0) {
+      writeDirect();
+    } else if (fixedDelta) {
+      writeFixedDelta(firstDelta);
+    } else if (firstDelta != 0 && (increasing || decreasing)) {
+      writeDelta(firstDelta);
+    } else if (!writePatchedBase(min)) {
+      writeDirect();
+    }
+    reset();
+  }
+
+  private void writeDirect() throws IOException {
+    long bits = 0;
+    for (int i = 0; i < numLiterals; i++) {
+      encoded[i] = encode(literals[i]);
+      bits |= encoded[i];
+    }
+    int width = SerializationUtils.findClosestNumBits(bits);
+    writeHeader(EncodingType.DIRECT, SerializationUtils.encodeBitWidth(width), numLiterals);
+    SerializationUtils.writeInts(encoded, 0, numLiterals, width, output);
+  }
+
+  /**
+   * Write the monotonic literals as the first value and delta, followed by the magnitudes of
+   * the rest of the deltas bit packed.
+   */
+  private void writeDelta(long firstDelta) throws IOException {
+    long maxDelta = 0;
+    for (int i = 2; i < numLiterals; i++) {
+      encoded[i - 2] = Math.abs(literals[i] - literals[i - 1]);
+      maxDelta = Math.max(maxDelta, encoded[i - 2]);
+    }
+    int width = SerializationUtils.findClosestNumBits(maxDelta);
+    // an encoded width of 0, i.e. 1 bit, means the delta is fixed
+    if (width == 1) {
+      width = 2;
+    }
+    writeHeader(EncodingType.DELTA, SerializationUtils.encodeBitWidth(width), numLiterals);
+    writeBase(literals[0]);
+    SerializationUtils.writeVslong(output, firstDelta);
+    SerializationUtils.writeInts(encoded, 0, numLiterals - 2, width, output);
+  }
+
+  /**
+   * Write the literals as a patched run if a few outliers need many more bits than the rest.
+   * @return false if the literals weren't written because a patched run isn't worthwhile
+   */
+  private boolean writePatchedBase(long min) throws IOException {
+    if (min <= -MAX_BASE_VALUE || min >= MAX_BASE_VALUE) {
+      return false;
+    }
+    for (int i = 0; i < numLiterals; i++) {
+      encoded[i] = encode(literals[i]);
+    }
+    if (SerializationUtils.percentileBits(encoded, numLiterals, 1.0) -
+        SerializationUtils.percentileBits(encoded, numLiterals, 0.9) <= 1) {
+      return false;
+    }
+    for (int i = 0; i < numLiterals; i++) {
+      encoded[i] = literals[i] - min;
+    }
+    int width = SerializationUtils.percentileBits(encoded, numLiterals, 0.95);
+    int maxWidth = SerializationUtils.percentileBits(encoded, numLiterals, 1.0);
+    if (width == maxWidth) {
+      return false;
+    }
+    int patchWidth = SerializationUtils.getClosestFixedBits(maxWidth - width);
+    long mask = (1L << width) - 1;
+
+    // each patch holds the high bits of a value and its distance from the previous patch
+    int numPatches = 0;
+    int previous = 0;
+    int maxGap = 0;
+    for (int i = 0; i < numLiterals; i++) {
+      if (encoded[i] > mask) {
+        if (numPatches == MAX_PATCHES || i - previous > MAX_PATCH_GAP) {
+          return false;
+        }
+        maxGap = Math.max(maxGap, i - previous);
+        patches[numPatches++] = ((long) (i - previous) << patchWidth) | (encoded[i] >>> width);
+        encoded[i] &= mask;
+        previous = i;
+      }
+    }
+    int gapWidth = Math.max(1, 32 - Integer.numberOfLeadingZeros(maxGap));
+    if (patchWidth + gapWidth > 64) {
+      return false;
+    }
+
+    // the base is written in as few bytes as possible, with its sign in the top bit
+    long base = Math.abs(min);
+    int baseBytes = (64 - Long.numberOfLeadingZeros(base) + 8) / 8;
+    if (min < 0) {
+      base |= 1L << (baseBytes * 8 - 1);
+    }
+    writeHeader(EncodingType.PATCHED_BASE, SerializationUtils.encodeBitWidth(width),
+        numLiterals);
+    output.write(((baseBytes - 1) << 5) | SerializationUtils.encodeBitWidth(patchWidth));
+    output.write(((gapWidth - 1) << 5) | numPatches);
+    SerializationUtils.writeLongBE(output, base, baseBytes);
+    SerializationUtils.writeInts(encoded, 0, numLiterals, width, output);
+    SerializationUtils.writeInts(patches, 0, numPatches,
+        SerializationUtils.getClosestFixedBits(patchWidth + gapWidth), output);
+    return true;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    writeValues();
+    output.flush();
+  }
+
+  @Override
+  void getPosition(PositionRecorder recorder) throws IOException {
+    output.getPosition(recorder);
+    recorder.addPosition(numLiterals);
+  }
+
+  @Override
+  long getBufferSize() {
+    return output.getBufferSize();
+  }
+}
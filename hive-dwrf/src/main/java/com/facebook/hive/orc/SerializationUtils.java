@@ -116,6 +116,165 @@ public final class SerializationUtils {
     }
   }
 
+  static long zigzagEncode(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static long zigzagDecode(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Write the low numBytes bytes of value, most significant first.
+   */
+  static void writeLongBE(OutputStream output, long value, int numBytes) throws IOException {
+    for (int i = numBytes - 1; i >= 0; i--) {
+      output.write((int) (value >>> (i * 8)) & 0xff);
+    }
+  }
+
+  static long readLongBE(InputStream in, int numBytes) throws IOException {
+    long result = 0;
+    for (int i = 0; i < numBytes; i++) {
+      int b = in.read();
+      if (b == -1) {
+        throw new EOFException("Reading BE long past EOF");
+      }
+      result = (result << 8) | b;
+    }
+    return result;
+  }
+
+  /**
+   * Round a number of bits up to one of the widths values can be bit packed with, 1 to 24, 26,
+   * 28, 30, 32, 40, 48, 56 or 64.
+   */
+  static int getClosestFixedBits(int numBits) {
+    if (numBits == 0) {
+      return 1;
+    } else if (numBits <= 24) {
+      return numBits;
+    } else if (numBits <= 32) {
+      return numBits + (numBits & 1);
+    } else if (numBits <= 64) {
+      return (numBits + 7) & ~7;
+    } else {
+      return 64;
+    }
+  }
+
+  /**
+   * Get the width needed to bit pack value.
+   */
+  static int findClosestNumBits(long value) {
+    return getClosestFixedBits(64 - Long.numberOfLeadingZeros(value));
+  }
+
+  /**
+   * Encode a bit packing width in the 5 bits available for it in a header.
+   */
+  static int encodeBitWidth(int numBits) {
+    numBits = getClosestFixedBits(numBits);
+    if (numBits <= 24) {
+      return numBits - 1;
+    } else if (numBits <= 32) {
+      return 24 + (numBits - 26) / 2;
+    } else {
+      return 28 + (numBits - 40) / 8;
+    }
+  }
+
+  static int decodeBitWidth(int encodedWidth) {
+    if (encodedWidth < 24) {
+      return encodedWidth + 1;
+    } else if (encodedWidth < 28) {
+      return 26 + (encodedWidth - 24) * 2;
+    } else {
+      return 40 + (encodedWidth - 28) * 8;
+    }
+  }
+
+  /**
+   * Get the width needed to bit pack the fraction p of the first length values of data.
+   */
+  static int percentileBits(long[] data, int length, double p) {
+    int[] histogram = new int[32];
+    for (int i = 0; i < length; i++) {
+      histogram[encodeBitWidth(findClosestNumBits(data[i]))]++;
+    }
+    int outliers = (int) (length * (1.0 - p));
+    for (int i = histogram.length - 1; i >= 0; i--) {
+      outliers -= histogram[i];
+      if (outliers < 0) {
+        return decodeBitWidth(i);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Bit pack length values from data using numBits bits for each, most significant bit first.
+   */
+  static void writeInts(long[] data, int offset, int length, int numBits, OutputStream output)
+      throws IOException {
+    int current = 0;
+    int bitsLeft = 8;
+    for (int i = offset; i < offset + length; i++) {
+      long value = data[i];
+      int bitsToWrite = numBits;
+      while (bitsToWrite > bitsLeft) {
+        bitsToWrite -= bitsLeft;
+        current |= (int) (value >>> bitsToWrite) & ((1 << bitsLeft) - 1);
+        output.write(current);
+        current = 0;
+        bitsLeft = 8;
+      }
+      bitsLeft -= bitsToWrite;
+      current |= ((int) value & ((1 << bitsToWrite) - 1)) << bitsLeft;
+      if (bitsLeft == 0) {
+        output.write(current);
+        current = 0;
+        bitsLeft = 8;
+      }
+    }
+    if (bitsLeft != 8) {
+      output.write(current);
+    }
+  }
+
+  /**
+   * Read length values bit packed by writeInts into data.
+   */
+  static void readInts(long[] data, int offset, int length, int numBits, InputStream in)
+      throws IOException {
+    if ((numBits & 7) == 0) {
+      // byte aligned, so there's no need to track the bits
+      int numBytes = numBits >>> 3;
+      for (int i = offset; i < offset + length; i++) {
+        data[i] = readLongBE(in, numBytes);
+      }
+      return;
+    }
+    int current = 0;
+    int bitsLeft = 0;
+    for (int i = offset; i < offset + length; i++) {
+      long result = 0;
+      int bitsToRead = numBits;
+      while (bitsToRead > bitsLeft) {
+        result = (result << bitsLeft) | (current & ((1 << bitsLeft) - 1));
+        bitsToRead -= bitsLeft;
+        current = in.read();
+        if (current == -1) {
+          throw new EOFException("Reading bit packed ints past EOF");
+        }
+        bitsLeft = 8;
+      }
+      bitsLeft -= bitsToRead;
+      result = (result << bitsToRead) | ((current >>> bitsLeft) & ((1 << bitsToRead) - 1));
+      data[i] = result;
+    }
+  }
+
   public static float readFloat(InputStream in) throws IOException {
     int ser = in.read() | (in.read() << 8) | (in.read() << 16) |
       (in.read() << 24);
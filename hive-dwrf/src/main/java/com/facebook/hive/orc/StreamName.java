@@ -28,21 +28,30 @@ import com.facebook.hive.orc.OrcProto.Stream.Kind;
 public class StreamName implements Comparable<StreamName> {
   private final int column;
   private final OrcProto.Stream.Kind kind;
+  private final int sequence;
 
   public static enum Area {
     DATA, DICTIONARY, INDEX
   }
 
   public StreamName(int column, OrcProto.Stream.Kind kind) {
+    this(column, kind, 0);
+  }
+
+  /**
+   * @param sequence for the streams of a key of a flat map column, the key's sequence
+   */
+  public StreamName(int column, OrcProto.Stream.Kind kind, int sequence) {
     this.column = column;
     this.kind = kind;
+    this.sequence = sequence;
   }
 
   @Override
   public boolean equals(Object obj) {
     if (obj != null && obj instanceof  StreamName) {
       StreamName other = (StreamName) obj;
-      return other.column == column && other.kind == kind;
+      return other.column == column && other.kind == kind && other.sequence == sequence;
     } else {
       return false;
     }
@@ -61,6 +70,10 @@ public class StreamName implements Comparable<StreamName> {
     if (column != streamName.column) {
       return column < streamName.column ? -1 : 1;
     }
+    // keep the streams of each key of a flat map together
+    if (sequence != streamName.sequence) {
+      return sequence < streamName.sequence ? -1 : 1;
+    }
     return compareKinds(kind, streamName.kind);
   }
 
@@ -87,6 +100,10 @@ public class StreamName implements Comparable<StreamName> {
     return kind;
   }
 
+  public int getSequence() {
+    return sequence;
+  }
+
   public Area getArea() {
     return getArea(kind);
   }
@@ -105,12 +122,15 @@ public class StreamName implements Comparable<StreamName> {
 
   @Override
   public String toString() {
+    if (sequence != 0) {
+      return "Stream for column " + column + " kind " + kind + " sequence " + sequence;
+    }
     return "Stream for column " + column + " kind " + kind;
   }
 
   @Override
   public int hashCode() {
-    return column * 101 + kind.getNumber();
+    return (column * 101 + kind.getNumber()) * 31 + sequence;
   }
 }
 
@@ -0,0 +1,146 @@
+//  Copyright (c) 2013, Facebook, Inc.  All rights reserved.
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.hive.orc;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A local scratch file that a writer's buffered streams spill their compressed buffers to as
+ * they fill, rather than holding the whole stripe on the heap. The buffers of all the streams
+ * are appended to the same file, and each stream remembers the sections that belong to it, so
+ * that they can be copied into the ORC file in stream order when the stripe is flushed. After
+ * that the scratch file is reused for the next stripe.  The file is deleted when this is closed,
+ * which the writer does even if closing the ORC file fails.
+ *
+ * NOTE: Like the writer that owns it, this class is not synchronized.
+ */
+class StreamSpillFile {
+
+  private static final Log LOG = LogFactory.getLog(StreamSpillFile.class);
+
+  private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final FileChannel channel;
+  private long length = 0;
+  private byte[] copyBuffer = null;
+
+  StreamSpillFile(String directory) throws IOException {
+    file = File.createTempFile("orc-spill-", ".tmp", new File(directory));
+    try {
+      randomAccessFile = new RandomAccessFile(file, "rw");
+    } catch (IOException e) {
+      delete();
+      throw e;
+    }
+    channel = randomAccessFile.getChannel();
+  }
+
+  /**
+   * Append the remaining contents of the buffer to the scratch file. The buffer's position is
+   * left unchanged, and it can be reused as soon as this returns.
+   * @param buffer the buffer to spill
+   * @return the offset in the scratch file the contents were written at
+   * @throws IOException
+   */
+  long write(ByteBuffer buffer) throws IOException {
+    long offset = length;
+    ByteBuffer data = buffer.duplicate();
+    while (data.hasRemaining()) {
+      length += channel.write(data, length);
+    }
+    return offset;
+  }
+
+  /**
+   * Copy a section of the scratch file to the given stream.
+   * @param out the stream to write to
+   * @param offset the offset of the section in the scratch file
+   * @param size the number of bytes in the section
+   * @throws IOException
+   */
+  void copyTo(OutputStream out, long offset, long size) throws IOException {
+    if (copyBuffer == null) {
+      copyBuffer = new byte[COPY_BUFFER_SIZE];
+    }
+    ByteBuffer wrapper = ByteBuffer.wrap(copyBuffer);
+    while (size > 0) {
+      wrapper.clear();
+      wrapper.limit((int) Math.min(size, copyBuffer.length));
+      int read = channel.read(wrapper, offset);
+      if (read < 0) {
+        throw new EOFException("Spill file " + file + " ended before offset " + offset);
+      }
+      out.write(copyBuffer, 0, read);
+      offset += read;
+      size -= read;
+    }
+  }
+
+  /**
+   * Get the number of bytes spilled since the last reset.
+   */
+  long getLength() {
+    return length;
+  }
+
+  /**
+   * Start over from the beginning of the scratch file, once everything spilled has been copied.
+   */
+  void reset() {
+    length = 0;
+    // writers can stay open for a long time between stripes, don't hold on to the buffer
+    copyBuffer = null;
+  }
+
+  /**
+   * Close and delete the scratch file.  Failing to delete it only logs a warning, since by the
+   * time this is called the ORC file has been written.
+   */
+  void close() throws IOException {
+    try {
+      channel.close();
+      randomAccessFile.close();
+    } finally {
+      delete();
+    }
+  }
+
+  private void delete() {
+    if (!file.delete()) {
+      LOG.warn("Failed to delete spill file " + file);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return file.toString();
+  }
+}
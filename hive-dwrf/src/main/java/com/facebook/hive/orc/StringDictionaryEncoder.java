@@ -19,250 +19,195 @@
  */
 package com.facebook.hive.orc;
 
-import it.unimi.dsi.fastutil.ints.IntArrays;
-import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.HashCommon;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import org.apache.hadoop.hive.ql.io.slice.Slice;
+import org.apache.hadoop.hive.ql.io.slice.Slices;
 import org.apache.hadoop.io.Text;
 
-import com.google.common.primitives.Ints;
-
 /**
- * A fast, memory efficient implementation of dictionary encoding stores strings. The strings are stored as UTF-8 bytes
- * and an offset/length for each entry.
+ * A fast, memory efficient implementation of dictionary encoding stores strings. The strings are
+ * stored as UTF-8 bytes in fixed size pages, and each entry is identified by the order in which
+ * it was added.
+ *
+ * Lookups use an open addressing hash table with linear probing. Each slot is a single long
+ * holding the hash code of the key in the high 32 bits and the entry plus one in the low 32 bits
+ * (0 means the slot is empty), so most mismatches are ruled out without touching the key bytes,
+ * and probing walks through consecutive memory.
  */
 class StringDictionaryEncoder extends DictionaryEncoder {
-  private final DynamicByteArray byteArray;
+  // Keys are copied into pages of this size, so unlike a DynamicByteArray the existing keys are
+  // never copied when the dictionary grows.  An entry's address is its page number shifted left
+  // by PAGE_SHIFT plus its offset in the page.  Keys larger than a page get a page to themselves.
+  private static final int PAGE_SHIFT = 15;
+  private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  // The fraction of the hash table that can be filled before it grows
+  private static final float LOAD_FACTOR = 0.75f;
+  // The number of entries the hash table should be initialized to expect
+  private static final int MIN_EXPECTED = 128;
+
+  private final List<Slice> pages = new ArrayList<Slice>();
+  // The page new keys are added to, and the offset of the free space in it
+  private Slice currentPage = null;
+  private int currentPageIndex = -1;
+  private int currentPageOffset = 0;
+  private long pageBytes = 0;
+  // The total number of bytes in all the keys
+  private int keyBytes = 0;
 
   // The following int arrays represent entries in the dictionary
   // int[]'s were used instead of DynamicIntArrays because they are
   // accessed a lot, and DynamicIntArrays perform poorly
-  private int[] offsets = new int[DynamicIntArray.DEFAULT_SIZE];
-  private int[] hashcodes = new int[DynamicIntArray.DEFAULT_SIZE];
-  private int[] nexts = new int[DynamicIntArray.DEFAULT_SIZE];
+  private int[] addresses = new int[DynamicIntArray.DEFAULT_SIZE];
+  private int[] lengths = new int[DynamicIntArray.DEFAULT_SIZE];
   private int[] counts = new int[DynamicIntArray.DEFAULT_SIZE];
   private int[] indexStrides = new int[DynamicIntArray.DEFAULT_SIZE];
 
-  private Text newKey = new Text();
+  // The hash table, see the class comment
+  private long[] slots;
+  private int mask;
+  private int maxFill;
 
-  private final TextCompressedHashSet htDictionary = new TextCompressedHashSet();
+  private Text newKey = new Text();
 
   // The number of elements in the dictionary
   private int numElements = 0;
 
   private final boolean sortByStride;
 
-  // A custom implementation of a hash set, based on fastutil's ObjectOpenCustomHashSet
-  // Takes in indices into the int arrays of the surrounding class
-  // NOTE: For the sake of speed and simplicity, assumes index 0 is never used (means we don't
-  // have to initialize all the values in the set to -1 or some other impossible value)
-  private class TextCompressedHashSet {
-    // Essentially an alias for length - 1
-    private int mask;
-    // An array of indeces into the int[]'s in StringDictionaryEncoder
-    private int[] key;
-    // The number of values in the dictionary
-    private int numValues;
-    // The point beyond which the dictionary needs to grow
-    private int maxFill;
-    // The current size of the dictionary
-    private int length;
+  public StringDictionaryEncoder(MemoryEstimate memoryEstimate) {
+    this(true, false, memoryEstimate);
+  }
 
-    // The fraction of the dictionary size beyond which it should grow
-    private static final float LOAD_FACTOR = 0.75f;
-    // The number of entries the set should be initialized to expect
-    private static final int MIN_EXPECTED = 128;
+  /**
+   * Returns the size of the int arrays used by this class, it's 4 times the length of the arrays
+   */
+  private int getSizeOfIntArrays() {
+    return (addresses.length + lengths.length + counts.length + indexStrides.length) * 4;
+  }
 
-    public TextCompressedHashSet() {
-      this.length = it.unimi.dsi.fastutil.HashCommon.arraySize(MIN_EXPECTED, LOAD_FACTOR);
-      this.mask = length - 1;
-      this.maxFill = it.unimi.dsi.fastutil.HashCommon.maxFill(length, LOAD_FACTOR);
-      this.key = new int[length];
-    }
+  public StringDictionaryEncoder(boolean sortKeys, boolean sortByStride,
+      MemoryEstimate memoryEstimate) {
+    super(sortKeys, memoryEstimate);
+    this.sortByStride = sortByStride;
+    allocateSlots(HashCommon.arraySize(MIN_EXPECTED, LOAD_FACTOR));
+    // Add to the memory the size of each int[] (length of array * size of int)
+    // Current list of arrays addresses, lengths, counts, indexStrides
+    memoryEstimate.incrementTotalMemory(getSizeOfIntArrays());
+  }
 
-    public int get(int k) {
-      // Compute the bucket the value at k is in
-      int pos = it.unimi.dsi.fastutil.HashCommon.murmurHash3(hashcodes[k]) & mask;
-      // Iterate over the chain in that bucket
-      int other = key[pos];
-      while(other != 0) {
-        // Compare the hashcodes as a quick way to rule out some results
-        if (hashcodes[k] == hashcodes[other] && equalsValue(offsets[other], getEnd(other) - offsets[other])) {
-          return other;
+  public int add(Text value, int indexStride) {
+    newKey = value;
+    final byte[] bytes = value.getBytes();
+    final int length = value.getLength();
+    final int hashcode = value.hashCode();
+    int pos = HashCommon.murmurHash3(hashcode) & mask;
+    long slot;
+    while ((slot = slots[pos]) != 0) {
+      // Compare the hashcodes and lengths as a quick way to rule out most entries before
+      // comparing the bytes
+      if ((int) (slot >>> 32) == hashcode) {
+        int entry = (int) slot - 1;
+        if (lengths[entry] == length &&
+            getPage(entry).equals(getOffset(entry), length, bytes, 0, length)) {
+          counts[entry]++;
+          return entry;
         }
-        other = nexts[other];
       }
-      return 0;
+      pos = (pos + 1) & mask;
     }
 
-    public int add(final int k) {
-      // Compute the bucket the value at k is in
-      int pos = it.unimi.dsi.fastutil.HashCommon.murmurHash3(hashcodes[k]) & mask;
-      int other = key[pos];
-      int prev = 0;
-      // Iterate over the chain in that bucket
-      while(other != 0) {
-        // Compare the hashcodes as a quick way to rule out some results
-        if (hashcodes[k] == hashcodes[other] && equalsValue(offsets[other], getEnd(other) - offsets[other])) {
-          // If the value is found to already exist, and it's not already at the head of the chain
-          // move it there to speed up adding this value in the future.
-          if (other != key[pos]) {
-            nexts[prev] = nexts[other];
-            nexts[other] = key[pos];
-            key[pos] = other;
-          }
-          counts[other]++;
-          return other;
-        }
-        prev = other;
-        other = nexts[other];
-      }
-
-      // If it's not already in the bucket add it at the front
-      nexts[k] = key[pos];
-      key[pos] = k;
-      counts[k] = 1;
-      // Check if it's necessary to rehash
-      if (++numValues >= maxFill) {
-        rehash(it.unimi.dsi.fastutil.HashCommon.arraySize(numValues + 1, LOAD_FACTOR));
-      }
-      // Add one to the total memory for the int key
-      memoryEstimate.incrementTotalMemory(4);
-      return 0;
+    int entry = numElements;
+    numElements += 1;
+    // If we've outgrown the arrays, resize them
+    if (entry >= addresses.length) {
+      // Make sure the memory estimate reflects the new array sizes
+      memoryEstimate.decrementTotalMemory(getSizeOfIntArrays());
+      addresses = getDoubleSizeArray(addresses);
+      lengths = getDoubleSizeArray(lengths);
+      counts = getDoubleSizeArray(counts);
+      indexStrides = getDoubleSizeArray(indexStrides);
+      memoryEstimate.incrementTotalMemory(getSizeOfIntArrays());
     }
-
-    private void rehash(final int newN) {
-      int i = 0;
-      int pos;
-      int k;
-      int next;
-      final int[] key = this.key;
-      final int newMask = newN - 1;
-      final int[] newKey = new int[newN];
-      // Iterate over all values in the set and rehash them
-      for(int j = numValues; j != 0;) {
-        while((k = key[i]) == 0) {
-          i++;
-        }
-        do {
-          // Compute the new hash
-          pos = it.unimi.dsi.fastutil.HashCommon.murmurHash3(hashcodes[k])  & newMask;
-          // Store the next value in the current bucket of the old set
-          next = nexts[k];
-          // Add the value to the beginning of the new bucket
-          nexts[k] = newKey[pos];
-          newKey[pos] = k;
-          j--;
-          // Repeat for each value in the old bucket
-        } while ((k = next) != 0);
-        i++;
-      }
-      length = newN;
-      mask = newMask;
-      maxFill = it.unimi.dsi.fastutil.HashCommon.maxFill(length, LOAD_FACTOR);
-      this.key = newKey;
+    addresses[entry] = addKey(bytes, length);
+    keyBytes += length;
+    lengths[entry] = length;
+    counts[entry] = 1;
+    indexStrides[entry] = indexStride;
+    slots[pos] = ((long) hashcode << 32) | (entry + 1);
+    if (numElements >= maxFill) {
+      rehash(HashCommon.arraySize(numElements + 1, LOAD_FACTOR));
     }
-    public void clear() {
-      if (numValues == 0) {
-        return;
-      }
 
-      // Decrement the total memory by the size of all the int keys we had added
-      memoryEstimate.decrementTotalMemory(numValues * 4);
-      numValues = 0;
-      // Set all values to 0
-      for (int i = 0; i < length; i++) {
-        key[i] = 0;
-      }
-    }
+    // Update the size of the dictionary in memory
+    memoryEstimate.incrementDictionaryMemory(length);
+    return entry;
+  }
 
-    public int size() {
-      return numValues;
-      }
+  /**
+   * Copy the key into the pages.
+   * @return the address of the key
+   */
+  private int addKey(byte[] bytes, int length) {
+    if (length > PAGE_SIZE) {
+      Slice page = Slices.allocate(length);
+      page.setBytes(0, bytes, 0, length);
+      addPage(page);
+      return (pages.size() - 1) << PAGE_SHIFT;
     }
-
-  public class TextPositionComparator implements IntComparator {
-    @Override
-    public int compare (Integer k1, Integer k2) {
-      return this.compare(k1.intValue(), k2.intValue());
+    if (currentPage == null || PAGE_SIZE - currentPageOffset < length) {
+      currentPage = Slices.allocate(PAGE_SIZE);
+      addPage(currentPage);
+      currentPageIndex = pages.size() - 1;
+      currentPageOffset = 0;
     }
+    currentPage.setBytes(currentPageOffset, bytes, 0, length);
+    int address = (currentPageIndex << PAGE_SHIFT) | currentPageOffset;
+    currentPageOffset += length;
+    return address;
+  }
 
-    @Override
-    public int compare (int k1, int k2) {
-      if (sortByStride) {
-        if ((counts[k1] == 1 || counts[k2] == 1) && (counts[k1] != 1 || counts[k2] != 1)) {
-          return Ints.compare(counts[k1], counts[k2]);
-        }
-
-        if ((counts[k1] == 1 && counts[k2] == 1) && indexStrides[k1] != indexStrides[k2]) {
-          return Ints.compare(indexStrides[k1], indexStrides[k2]);
-        }
-      }
-
-      int k1Length = getEnd(k1) - offsets[k1];
-
-      int k2Length = getEnd(k2) - offsets[k2];
-
-      return byteArray.compare(offsets[k1], k1Length, offsets[k2], k2Length);
-    }
+  private void addPage(Slice page) {
+    pages.add(page);
+    pageBytes += page.length();
+    memoryEstimate.incrementTotalMemory(page.length());
   }
 
-  public StringDictionaryEncoder(MemoryEstimate memoryEstimate) {
-    this(true, false, memoryEstimate);
+  private Slice getPage(int entry) {
+    return pages.get(addresses[entry] >>> PAGE_SHIFT);
   }
 
-  /**
-   * Returns the size of the int arrays used by this class, it's 4 times the length of the arrays
-   */
-  private int getSizeOfIntArrays() {
-    return (offsets.length + hashcodes.length + nexts.length + counts.length +
-        indexStrides.length) * 4;
+  private int getOffset(int entry) {
+    return addresses[entry] & PAGE_MASK;
   }
 
-  public StringDictionaryEncoder(boolean sortKeys, boolean sortByStride,
-      MemoryEstimate memoryEstimate) {
-    super(sortKeys, memoryEstimate);
-    this.sortByStride = sortByStride;
-    this.byteArray = new DynamicByteArray(memoryEstimate);
-    // Add to the memory the size of each int[] (length of array * size of int)
-    // Current list of arrays offsets, hashcodes, nexts, counts, indexStrides
-    memoryEstimate.incrementTotalMemory(getSizeOfIntArrays());
+  private void allocateSlots(int length) {
+    slots = new long[length];
+    mask = length - 1;
+    maxFill = HashCommon.maxFill(length, LOAD_FACTOR);
+    memoryEstimate.incrementTotalMemory(length * 8);
   }
 
-  public int add(Text value, int indexStride) {
-    newKey = value;
-    int len = newKey.getLength();
-    // See the comment on TextCompressedHashSet
-    // This intentionally skips index 0
-    int newKeyIndex = numElements + 1;
-    hashcodes[newKeyIndex] = newKey.hashCode();
-    int existing = htDictionary.add(newKeyIndex);
-    if (existing != 0) {
-      return existing - 1;
-    } else {
-      // update count of hashset keys
-      int valRow = numElements;
-      numElements += 1;
-      // If we've outgrown the arrays, resize them
-      if (newKeyIndex + 1 >= offsets.length) {
-        // Make sure the memory estimate reflects the new array sizes
-        memoryEstimate.decrementTotalMemory(getSizeOfIntArrays());
-        offsets = getDoubleSizeArray(offsets);
-        hashcodes = getDoubleSizeArray(hashcodes);
-        nexts = getDoubleSizeArray(nexts);
-        counts = getDoubleSizeArray(counts);
-        indexStrides = getDoubleSizeArray(indexStrides);
-        memoryEstimate.incrementTotalMemory(getSizeOfIntArrays());
+  private void rehash(int newLength) {
+    final long[] oldSlots = slots;
+    memoryEstimate.decrementTotalMemory(oldSlots.length * 8);
+    allocateSlots(newLength);
+    for (long slot : oldSlots) {
+      if (slot != 0) {
+        int pos = HashCommon.murmurHash3((int) (slot >>> 32)) & mask;
+        while (slots[pos] != 0) {
+          pos = (pos + 1) & mask;
+        }
+        slots[pos] = slot;
       }
-      // set current key offset and length
-      offsets[newKeyIndex] = byteArray.add(newKey.getBytes(), 0, len);
-      indexStrides[newKeyIndex] = indexStride;
-
-      // Update the size of the dictionary in memory
-      memoryEstimate.incrementDictionaryMemory(len);
-      return valRow;
     }
   }
 
@@ -272,26 +217,15 @@ class StringDictionaryEncoder extends DictionaryEncoder {
     return newArray;
   }
 
-  private int getEnd(int pos) {
-    if (pos + 1 > numElements) {
-      return byteArray.size();
-    }
-
-    return offsets[pos + 1];
-  }
-
   @Override
   protected int compareValue(int position) {
-    return byteArray.compare(newKey.getBytes(), 0, newKey.getLength(),
-        offsets[position], getEnd(position) - offsets[position]);
-  }
-
-  protected boolean equalsValue(int offset, int length) {
-    return byteArray.equals(newKey.getBytes(), 0, newKey.getLength(), offset, length);
+    return 0 - getPage(position).compareTo(getOffset(position), lengths[position],
+        newKey.getBytes(), 0, newKey.getLength());
   }
 
   private class VisitorContextImpl implements VisitorContext<Text> {
     private int originalPosition;
+    private Slice page;
     private int start;
     private int length;
     private int count;
@@ -299,9 +233,10 @@ class StringDictionaryEncoder extends DictionaryEncoder {
     private final Text text = new Text();
 
     public void setOriginalPosition(int pos) {
-      originalPosition = pos - 1;
-      start = offsets[pos];
-      length = getEnd(pos) - offsets[pos];
+      originalPosition = pos;
+      page = getPage(pos);
+      start = getOffset(pos);
+      length = lengths[pos];
       count = counts[pos];
       indexStride = indexStrides[pos];
     }
@@ -311,12 +246,12 @@ class StringDictionaryEncoder extends DictionaryEncoder {
     }
 
     public Text getKey() {
-      byteArray.setText(text, start, length);
+      text.set(page.getBytes(), start, length);
       return text;
     }
 
     public void writeBytes(OutputStream out) throws IOException {
-        byteArray.write(out, start, length);
+      page.getBytes(start, out, length);
     }
 
     public int getLength() {
@@ -332,19 +267,125 @@ class StringDictionaryEncoder extends DictionaryEncoder {
     }
   }
 
+  // Buckets smaller than this are sorted by insertion sort rather than split further
+  private static final int MIN_RADIX_SORT_SIZE = 32;
+
+  /**
+   * Get the byte of the key at the given depth as a bucket for the radix sort, 0 if the key is
+   * shorter than that, otherwise the unsigned value of the byte plus one.
+   */
+  private int getBucket(int entry, int depth) {
+    if (depth >= lengths[entry]) {
+      return 0;
+    }
+    return (getPage(entry).getBytes()[getOffset(entry) + depth] & 0xff) + 1;
+  }
+
+  private int compareKeys(int entry, int otherEntry) {
+    return getPage(entry).compareTo(getOffset(entry), lengths[entry], getPage(otherEntry),
+        getOffset(otherEntry), lengths[otherEntry]);
+  }
+
+  /**
+   * Sort the entries between start (inclusive) and end (exclusive) by their key bytes using an
+   * MSD radix sort. All of the entries are known to have the same first depth bytes.
+   */
+  private void sortEntries(int[] entries, int[] scratch, int start, int end, int depth) {
+    int[] offsets = new int[258];
+    while (end - start >= MIN_RADIX_SORT_SIZE) {
+      Arrays.fill(offsets, 0);
+      for (int i = start; i < end; i++) {
+        offsets[getBucket(entries[i], depth) + 1]++;
+      }
+      if (offsets[getBucket(entries[start], depth) + 1] == end - start) {
+        // every key has the same byte here, so move on to the next one without recursing, that
+        // way long common prefixes don't use up the stack
+        if (getBucket(entries[start], depth) == 0) {
+          return;
+        }
+        depth++;
+        continue;
+      }
+      for (int bucket = 1; bucket < offsets.length; bucket++) {
+        offsets[bucket] += offsets[bucket - 1];
+      }
+      // offsets[bucket] is now the start of the bucket, and is incremented to its end
+      for (int i = start; i < end; i++) {
+        scratch[start + offsets[getBucket(entries[i], depth)]++] = entries[i];
+      }
+      System.arraycopy(scratch, start, entries, start, end - start);
+      // keys in bucket 0 have ended, and since keys are unique there's at most one of them
+      int bucketStart = start + offsets[0];
+      for (int bucket = 1; bucket < 257; bucket++) {
+        int bucketEnd = start + offsets[bucket];
+        if (bucketEnd - bucketStart > 1) {
+          sortEntries(entries, scratch, bucketStart, bucketEnd, depth + 1);
+        }
+        bucketStart = bucketEnd;
+      }
+      return;
+    }
+
+    for (int i = start + 1; i < end; i++) {
+      int entry = entries[i];
+      int j = i - 1;
+      while (j >= start && compareKeys(entries[j], entry) > 0) {
+        entries[j + 1] = entries[j];
+        j--;
+      }
+      entries[j + 1] = entry;
+    }
+  }
+
+  /**
+   * Get the order the entries should be written in when sorting the keys.  If sorting by stride,
+   * keys that were only added once come first, grouped by the index stride they were added in,
+   * followed by the rest of the keys.  Each group is sorted by the key bytes.
+   */
+  private int[] sortEntries() {
+    int[] entries = new int[numElements];
+    int[] scratch = new int[numElements];
+    if (!sortByStride) {
+      for (int idx = 0; idx < numElements; idx++) {
+        entries[idx] = idx;
+      }
+      sortEntries(entries, scratch, 0, numElements, 0);
+      return entries;
+    }
+
+    // counting sort the entries into their groups, the last group is the repeated keys
+    int numGroups = 1;
+    for (int idx = 0; idx < numElements; idx++) {
+      if (counts[idx] == 1) {
+        numGroups = Math.max(numGroups, indexStrides[idx] + 2);
+      }
+    }
+    int[] groupOffsets = new int[numGroups + 1];
+    for (int idx = 0; idx < numElements; idx++) {
+      groupOffsets[(counts[idx] == 1 ? indexStrides[idx] : numGroups - 1) + 1]++;
+    }
+    for (int group = 1; group <= numGroups; group++) {
+      groupOffsets[group] += groupOffsets[group - 1];
+    }
+    int[] groupEnds = Arrays.copyOf(groupOffsets, numGroups);
+    for (int idx = 0; idx < numElements; idx++) {
+      entries[groupEnds[counts[idx] == 1 ? indexStrides[idx] : numGroups - 1]++] = idx;
+    }
+    for (int group = 0; group < numGroups; group++) {
+      sortEntries(entries, scratch, groupOffsets[group], groupOffsets[group + 1], 0);
+    }
+    return entries;
+  }
+
   private void visitDictionary(Visitor<Text> visitor, VisitorContextImpl context
                       ) throws IOException {
       int[] keysArray = null;
       if (sortKeys) {
-        keysArray = new int[numElements];
-        for (int idx = 0; idx < numElements; idx++) {
-          keysArray[idx] = idx + 1;
-        }
-        IntArrays.quickSort(keysArray, new TextPositionComparator());
+        keysArray = sortEntries();
       }
 
       for (int pos = 0; pos < numElements; pos++) {
-        context.setOriginalPosition(keysArray == null? pos + 1: keysArray[pos]);
+        context.setOriginalPosition(keysArray == null? pos : keysArray[pos]);
         visitor.visit(context);
       }
       keysArray = null;
@@ -360,7 +401,19 @@ class StringDictionaryEncoder extends DictionaryEncoder {
   }
 
   public void getText(Text result, int originalPosition) {
-    byteArray.setText(result, offsets[originalPosition + 1], getEnd(originalPosition + 1) - offsets[originalPosition + 1]);
+    result.set(getPage(originalPosition).getBytes(), getOffset(originalPosition),
+        lengths[originalPosition]);
+  }
+
+  private void releasePages() {
+    memoryEstimate.decrementTotalMemory(pageBytes);
+    memoryEstimate.decrementDictionaryMemory(keyBytes);
+    pages.clear();
+    currentPage = null;
+    currentPageIndex = -1;
+    currentPageOffset = 0;
+    pageBytes = 0;
+    keyBytes = 0;
   }
 
   /**
@@ -368,20 +421,16 @@ class StringDictionaryEncoder extends DictionaryEncoder {
    */
   @Override
   public void clear() {
-    // Subtract the amount of memory being used for the dictionary
-    memoryEstimate.decrementDictionaryMemory(byteArray.size());
-    byteArray.clear();
-    // Add the new size
-    memoryEstimate.incrementDictionaryMemory(byteArray.size());
-    htDictionary.clear();
+    releasePages();
     // Make sure the memory estimate reflects the new array sizes
     memoryEstimate.decrementTotalMemory(getSizeOfIntArrays());
-    offsets = new int[DynamicIntArray.DEFAULT_SIZE];
-    hashcodes = new int[DynamicIntArray.DEFAULT_SIZE];
-    nexts = new int[DynamicIntArray.DEFAULT_SIZE];
+    addresses = new int[DynamicIntArray.DEFAULT_SIZE];
+    lengths = new int[DynamicIntArray.DEFAULT_SIZE];
     counts = new int[DynamicIntArray.DEFAULT_SIZE];
     indexStrides = new int[DynamicIntArray.DEFAULT_SIZE];
     memoryEstimate.incrementTotalMemory(getSizeOfIntArrays());
+    memoryEstimate.decrementTotalMemory(slots.length * 8);
+    allocateSlots(HashCommon.arraySize(MIN_EXPECTED, LOAD_FACTOR));
     numElements = 0;
   }
 
@@ -390,12 +439,12 @@ class StringDictionaryEncoder extends DictionaryEncoder {
    * @return the bytes used by the table
    */
   public long getCharacterSize() {
-    return byteArray.getSizeInBytes();
+    return pageBytes;
   }
 
   public int getUncompressedLength() {
     // The amount of memory used by entries in the dictionary
-    return byteArray.size();
+    return keyBytes;
   }
 
   /**
@@ -408,9 +457,8 @@ class StringDictionaryEncoder extends DictionaryEncoder {
 
   // A cleanup method that should be called before allowing the object to leave scope
   public void cleanup() {
-    htDictionary.clear();
-    memoryEstimate.decrementTotalMemory(byteArray.getSizeInBytes());
+    releasePages();
     memoryEstimate.decrementTotalMemory(getSizeOfIntArrays());
-    memoryEstimate.decrementDictionaryMemory(byteArray.size());
+    memoryEstimate.decrementTotalMemory(slots.length * 8);
   }
 }
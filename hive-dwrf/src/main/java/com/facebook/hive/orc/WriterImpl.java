@@ -20,27 +20,32 @@
 
 package com.facebook.hive.orc;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.facebook.hive.orc.compression.CompressionCodec;
+import com.facebook.hive.orc.compression.CompressionCodecRegistry;
 import com.facebook.hive.orc.compression.CompressionKind;
-import com.facebook.hive.orc.compression.SnappyCodec;
-import com.facebook.hive.orc.compression.ZlibCodec;
+import com.facebook.hive.orc.compression.ZstdCodec;
 import com.facebook.hive.orc.statistics.ColumnStatisticsImpl;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -90,6 +95,10 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
 
   private static final int MIN_ROW_INDEX_STRIDE = 1000;
 
+  // The most input buffers of concurrently compressed blocks kept for reuse, enough for all the
+  // blocks a stream may have in flight: the pending ones, the one being submitted and the next
+  private static final int MAX_POOLED_INPUT_BUFFERS = OutStream.MAX_PENDING_BLOCKS + 2;
+
   public static final int SHORT_BYTE_SIZE = 2;
   public static final int INT_BYTE_SIZE = 4;
   public static final int LONG_BYTE_SIZE = 8;
@@ -103,7 +112,19 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
   private final long stripeSize;
   private final int rowIndexStride;
   private final CompressionKind compress;
+  // the codec for the footers
   private final CompressionCodec codec;
+  // the codec for the streams, which differs from codec if it uses a compression dictionary
+  private final CompressionCodec streamCodec;
+  private final byte[] compressionDictionary;
+  // the compression of each column that overrides the file's, null for columns that don't
+  private final CompressionKind[] columnCompression;
+  // whether each column is a flat map
+  private final boolean[] flatMapColumns;
+  private final CompressionCodec[] columnCodecs;
+  private final ExecutorService compressionExecutor;
+  // the input buffers of the blocks compressed on compressionExecutor, null if there's none
+  private final OutputChunkPool inputBufferPool;
   private final int bufferSize;
   // the streams that make up the current stripe
   private final Map<StreamName, BufferedStream> streams =
@@ -131,8 +152,21 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
   private final boolean buildIndex;
   private final MemoryManager memoryManager;
   private final boolean useVInts;
+  private final OrcProto.IntegerEncoding integerEncoding;
   private final long maxDictSize;
   private final MemoryEstimate memoryEstimate = new MemoryEstimate();
+  // the buffers holding the output of the streams until the stripe is written
+  private final OutputChunkPool chunkPool;
+  // if not null, the streams are spilled here as their buffers fill
+  private StreamSpillFile spillFile = null;
+  // the number of times each encoding was chosen for a stripe of a string column
+  private int dictionaryEncodedStripes = 0;
+  private int directEncodedStripes = 0;
+  private int earlyDirectEncodedStripes = 0;
+  private int floatingPointDictionaryEncodedStripes = 0;
+  private int floatingPointDirectEncodedStripes = 0;
+  // whether a tree writer asked for the stripe to be ended after the row being written
+  private boolean stripeFlushRequested = false;
 
   private final Configuration conf;
 
@@ -153,9 +187,26 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
     this.bufferSize = bufferSize;
     this.rowIndexStride = rowIndexStride;
     this.memoryManager = memoryManager;
+    // small streams shouldn't use more memory than a compression block
+    chunkPool = new OutputChunkPool(
+        Math.min(OutputChunkPool.DEFAULT_CHUNK_SIZE, bufferSize + OutStream.HEADER_SIZE),
+        memoryEstimate);
     buildIndex = rowIndexStride > 0;
     codec = createCodec(compress, conf);
+    compressionDictionary = readCompressionDictionary(compress, conf);
+    streamCodec = compressionDictionary == null ? codec :
+        new ZstdCodec(conf, compressionDictionary);
+    columnCompression = new CompressionKind[getColumnCount(inspector)];
+    columnCodecs = new CompressionCodec[columnCompression.length];
+    setColumnCompression(inspector, conf);
+    flatMapColumns = new boolean[columnCompression.length];
+    setFlatMapColumns(inspector, conf);
+    compressionExecutor = getCompressionExecutor(conf);
+    inputBufferPool = compressionExecutor == null ? null : new OutputChunkPool(
+        bufferSize + OutStream.HEADER_SIZE, MAX_POOLED_INPUT_BUFFERS, memoryEstimate);
     useVInts = OrcConf.getBoolVar(conf, OrcConf.ConfVars.HIVE_ORC_USE_VINTS);
+    integerEncoding = OrcProto.IntegerEncoding.valueOf(
+        OrcConf.getVar(conf, OrcConf.ConfVars.HIVE_ORC_INTEGER_ENCODING));
     treeWriter = createTreeWriter(inspector, streamFactory, false, conf, useVInts,
         memoryManager.isLowMemoryMode(), memoryEstimate);
     if (buildIndex && rowIndexStride < MIN_ROW_INDEX_STRIDE) {
@@ -163,10 +214,34 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
           MIN_ROW_INDEX_STRIDE);
     }
     maxDictSize = OrcConf.getLongVar(conf, OrcConf.ConfVars.HIVE_ORC_MAX_DICTIONARY_SIZE);
+    if (OrcConf.getBoolVar(conf, ConfVars.HIVE_ORC_SPILL_STREAMS)) {
+      spillFile = new StreamSpillFile(OrcConf.getVar(conf, ConfVars.HIVE_ORC_SPILL_DIRECTORY));
+      LOG.info("Spilling the streams of file " + path + " to " + spillFile);
+    }
     // ensure that we are able to handle callbacks before we register ourselves
     memoryManager.addWriter(path, stripeSize, this, memoryEstimate.getTotalMemory());
   }
 
+  int getDictionaryEncodedStripes() {
+    return dictionaryEncodedStripes;
+  }
+
+  int getDirectEncodedStripes() {
+    return directEncodedStripes;
+  }
+
+  int getEarlyDirectEncodedStripes() {
+    return earlyDirectEncodedStripes;
+  }
+
+  int getFloatingPointDictionaryEncodedStripes() {
+    return floatingPointDictionaryEncodedStripes;
+  }
+
+  int getFloatingPointDirectEncodedStripes() {
+    return floatingPointDirectEncodedStripes;
+  }
+
   static CompressionCodec createCodec(CompressionKind kind) {
     // To be used for cases where we don't care about configuring the codec,
     // e.g. reads
@@ -174,32 +249,242 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
   }
 
   static CompressionCodec createCodec(CompressionKind kind, Configuration conf) {
+    return CompressionCodecRegistry.createCodec(kind, conf);
+  }
+
+  /**
+   * Get the number of columns used to store values of a type, including the column for the
+   * type itself.
+   */
+  private static int getColumnCount(ObjectInspector inspector) {
+    int count = 1;
+    switch (inspector.getCategory()) {
+      case STRUCT:
+        for (StructField field : ((StructObjectInspector) inspector).getAllStructFieldRefs()) {
+          count += getColumnCount(field.getFieldObjectInspector());
+        }
+        break;
+      case MAP:
+        MapObjectInspector mapInspector = (MapObjectInspector) inspector;
+        count += getColumnCount(mapInspector.getMapKeyObjectInspector());
+        count += getColumnCount(mapInspector.getMapValueObjectInspector());
+        break;
+      case LIST:
+        count += getColumnCount(
+            ((ListObjectInspector) inspector).getListElementObjectInspector());
+        break;
+      case UNION:
+        for (ObjectInspector child : ((UnionObjectInspector) inspector).getObjectInspectors()) {
+          count += getColumnCount(child);
+        }
+        break;
+      default:
+        break;
+    }
+    return count;
+  }
+
+  /**
+   * Set the compression of the columns listed in hive.exec.orc.column.compress, a comma
+   * separated list of column:kind or column:kind:level entries, where column is the name of a
+   * top level column. The compression also applies to the column's nested columns.
+   */
+  private void setColumnCompression(ObjectInspector inspector, Configuration conf) {
+    String value = OrcConf.getVar(conf, ConfVars.HIVE_ORC_COLUMN_COMPRESSION);
+    if (value == null || value.trim().isEmpty()) {
+      return;
+    }
+    if (inspector.getCategory() != ObjectInspector.Category.STRUCT) {
+      throw new IllegalArgumentException("Column compression requires a struct, not " +
+          inspector.getTypeName());
+    }
+    List<? extends StructField> fields =
+        ((StructObjectInspector) inspector).getAllStructFieldRefs();
+    // columns with the same settings share a codec
+    Map<String, CompressionCodec> codecs = new HashMap<String, CompressionCodec>();
+    for (String entry : value.split(",")) {
+      String[] parts = entry.trim().split(":");
+      if (parts.length < 2 || parts.length > 3) {
+        throw new IllegalArgumentException("Bad column compression " + entry);
+      }
+      String columnName = parts[0].trim();
+      CompressionKind kind = CompressionKind.valueOf(parts[1].trim().toUpperCase());
+      String level = parts.length == 3 ? parts[2].trim() : null;
+      String settings = kind + ":" + level;
+      if (!codecs.containsKey(settings)) {
+        codecs.put(settings, createCodec(kind, conf, level));
+      }
+
+      int column = 1;
+      boolean found = false;
+      for (StructField field : fields) {
+        int count = getColumnCount(field.getFieldObjectInspector());
+        if (field.getFieldName().equalsIgnoreCase(columnName)) {
+          for (int i = column; i < column + count; i++) {
+            columnCompression[i] = kind;
+            columnCodecs[i] = codecs.get(settings);
+          }
+          found = true;
+          break;
+        }
+        column += count;
+      }
+      if (!found) {
+        throw new IllegalArgumentException("Unknown column " + columnName +
+            " in column compression " + value);
+      }
+    }
+  }
+
+  /**
+   * Mark the columns listed in hive.exec.orc.map.flat.columns, a comma separated list of the
+   * names of top level map columns, as flat maps.
+   */
+  private void setFlatMapColumns(ObjectInspector inspector, Configuration conf) {
+    String value = OrcConf.getVar(conf, ConfVars.HIVE_ORC_FLAT_MAP_COLUMNS);
+    if (value == null || value.trim().isEmpty()) {
+      return;
+    }
+    if (inspector.getCategory() != ObjectInspector.Category.STRUCT) {
+      throw new IllegalArgumentException("Flat map columns require a struct, not " +
+          inspector.getTypeName());
+    }
+    List<? extends StructField> fields =
+        ((StructObjectInspector) inspector).getAllStructFieldRefs();
+    for (String entry : value.split(",")) {
+      String columnName = entry.trim();
+      int column = 1;
+      boolean found = false;
+      for (StructField field : fields) {
+        ObjectInspector fieldInspector = field.getFieldObjectInspector();
+        if (field.getFieldName().equalsIgnoreCase(columnName)) {
+          if (fieldInspector.getCategory() != ObjectInspector.Category.MAP ||
+              !FlatMapTreeWriter.isFlatMapKey(
+                  ((MapObjectInspector) fieldInspector).getMapKeyObjectInspector())) {
+            throw new IllegalArgumentException("Flat map column " + columnName +
+                " must be a map with integer or string keys, not " +
+                fieldInspector.getTypeName());
+          }
+          flatMapColumns[column] = true;
+          found = true;
+          break;
+        }
+        column += getColumnCount(fieldInspector);
+      }
+      if (!found) {
+        throw new IllegalArgumentException("Unknown column " + columnName +
+            " in flat map columns " + value);
+      }
+    }
+  }
+
+  private static CompressionCodec createCodec(CompressionKind kind, Configuration conf,
+      String level) {
+    if (level == null) {
+      return createCodec(kind, conf);
+    }
+    Configuration levelConf = new Configuration(conf);
     switch (kind) {
-      case NONE:
-        return null;
       case ZLIB:
-        return new ZlibCodec(conf);
-      case SNAPPY:
-        return new SnappyCodec();
-      case LZO:
-        try {
-          Class<? extends CompressionCodec> lzo =
-              (Class<? extends CompressionCodec>)
-                  Class.forName("com.facebook.hive.orc.LzoCodec");
-          return lzo.newInstance();
-        } catch (ClassNotFoundException e) {
-          throw new IllegalArgumentException("LZO is not available.", e);
-        } catch (InstantiationException e) {
-          throw new IllegalArgumentException("Problem initializing LZO", e);
-        } catch (IllegalAccessException e) {
-          throw new IllegalArgumentException("Insufficient access to LZO", e);
-        }
+        OrcConf.setIntVar(levelConf, ConfVars.HIVE_ORC_ZLIB_COMPRESSION_LEVEL,
+            Integer.parseInt(level));
+        break;
+      case ZSTD:
+        OrcConf.setIntVar(levelConf, ConfVars.HIVE_ORC_ZSTD_COMPRESSION_LEVEL,
+            Integer.parseInt(level));
+        break;
       default:
-        throw new IllegalArgumentException("Unknown compression codec: " +
-            kind);
+        throw new IllegalArgumentException("Compression levels are not supported by " + kind);
+    }
+    return createCodec(kind, levelConf);
+  }
+
+  /**
+   * Get the codec for the streams of a column.
+   */
+  private CompressionCodec getCodec(int column) {
+    return columnCompression[column] == null ? streamCodec : columnCodecs[column];
+  }
+
+  /**
+   * Read the dictionary the streams should be compressed with, if one is configured.
+   * @return the dictionary, or null if there isn't one
+   */
+  private static byte[] readCompressionDictionary(CompressionKind kind, Configuration conf)
+      throws IOException {
+    String dictionaryPath = OrcConf.getVar(conf, ConfVars.HIVE_ORC_ZSTD_DICTIONARY);
+    if (kind != CompressionKind.ZSTD || dictionaryPath == null || dictionaryPath.isEmpty()) {
+      return null;
+    }
+    Path path = new Path(dictionaryPath);
+    FileSystem fs = path.getFileSystem(conf);
+    byte[] dictionary = new byte[(int) fs.getFileStatus(path).getLen()];
+    FSDataInputStream in = fs.open(path);
+    try {
+      in.readFully(0, dictionary);
+    } finally {
+      in.close();
+    }
+    return dictionary;
+  }
+
+  private static ExecutorService sharedCompressionExecutor = null;
+
+  /**
+   * Get the thread pool that is shared by all writers to compress blocks of their streams.
+   * Like the memory manager, it is sized by the configuration of the first writer that uses it.
+   * @return the pool, or null if blocks should be compressed on the writer's thread
+   */
+  /**
+   * Create the policy deciding which blocks of a stream are worth compressing, or null if all
+   * blocks should be compressed.
+   */
+  private AdaptiveCompression createAdaptiveCompression() {
+    int poorBlocks = OrcConf.getIntVar(conf, ConfVars.HIVE_ORC_ADAPTIVE_COMPRESSION_POOR_BLOCKS);
+    if (poorBlocks <= 0) {
+      return null;
+    }
+    return new AdaptiveCompression(
+        OrcConf.getFloatVar(conf, ConfVars.HIVE_ORC_ADAPTIVE_COMPRESSION_MIN_RATIO), poorBlocks,
+        OrcConf.getIntVar(conf, ConfVars.HIVE_ORC_ADAPTIVE_COMPRESSION_PROBE_INTERVAL));
+  }
+
+  /**
+   * Log the streams that stopped compressing blocks because they didn't compress well.
+   */
+  private void logAdaptiveCompression() {
+    for (Map.Entry<StreamName, BufferedStream> pair : streams.entrySet()) {
+      AdaptiveCompression adaptive = pair.getValue().outStream.getAdaptiveCompression();
+      if (adaptive != null && adaptive.getSkipDecisions() > 0) {
+        LOG.info("Stream " + pair.getKey() + " of file " + path + " stopped compressing " +
+            adaptive.getSkipDecisions() + " times, skipping " + adaptive.getSkippedBlocks() +
+            " blocks and compressing " + adaptive.getCompressedBlocks() + " blocks");
+      }
     }
   }
 
+  private static synchronized ExecutorService getCompressionExecutor(Configuration conf) {
+    final int threads = OrcConf.getIntVar(conf, ConfVars.HIVE_ORC_COMPRESSION_THREADS);
+    if (threads <= 0) {
+      return null;
+    }
+    if (sharedCompressionExecutor == null) {
+      final AtomicInteger threadCount = new AtomicInteger();
+      sharedCompressionExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable,
+              "ORC compression thread " + threadCount.incrementAndGet());
+          // don't keep the task alive if the writers were never closed
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      LOG.info("Compressing ORC streams using " + threads + " threads");
+    }
+    return sharedCompressionExecutor;
+  }
+
   @Override
   public synchronized void enterLowMemoryMode() throws IOException {
     // Don't use dictionaries
@@ -215,16 +500,31 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
   /**
    * This class is used to hold the contents of streams as they are buffered.
    * The TreeWriters write to the outStream and the codec compresses the
-   * data as buffers fill up and stores them in the output list. When the
-   * stripe is being written, the whole stream is written to the file.
+   * data as buffers fill up and copies it to chunks shared by all of the
+   * streams. When the stripe is being written, the whole stream is written
+   * to the file.
+   *
+   * If the writer has a spill file, the buffers are written to it as they are
+   * received instead, and only the sections of the spill file that belong to
+   * this stream are remembered.
    */
   private class BufferedStream implements OutStream.OutputReceiver {
     private final OutStream outStream;
+    // chunks from chunkPool, all but the last of which are full
     private final List<ByteBuffer> output = new ArrayList<ByteBuffer>();
+    // the offset and length of each section of the spill file holding this stream
+    private final List<long[]> spilled = new ArrayList<long[]>();
+    // the compression of the stream if it differs from the file's, otherwise null
+    private final CompressionKind compression;
+    // the encoding of the integers in the stream if they were run length encoded using RLE v2,
+    // otherwise null
+    private OrcProto.IntegerEncoding integerEncoding = null;
 
     BufferedStream(String name, int bufferSize,
-                   CompressionCodec codec) throws IOException {
-      outStream = new OutStream(name, bufferSize, codec, this, memoryEstimate);
+                   CompressionCodec codec, CompressionKind compression) throws IOException {
+      outStream = new OutStream(name, bufferSize, codec, this, memoryEstimate,
+          compressionExecutor, createAdaptiveCompression(), inputBufferPool);
+      this.compression = compression;
     }
 
     /**
@@ -233,8 +533,35 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
      * @throws IOException
      */
     @Override
-    public void output(ByteBuffer buffer) {
-      output.add(buffer);
+    public void output(ByteBuffer buffer) throws IOException {
+      if (spillFile == null) {
+        copyToChunks(buffer);
+        return;
+      }
+      long offset = spillFile.write(buffer);
+      long[] last = spilled.isEmpty() ? null : spilled.get(spilled.size() - 1);
+      if (last != null && last[0] + last[1] == offset) {
+        // nothing else was spilled in between, so just extend the last section
+        last[1] += buffer.remaining();
+      } else {
+        spilled.add(new long[] {offset, buffer.remaining()});
+      }
+    }
+
+    private void copyToChunks(ByteBuffer buffer) {
+      ByteBuffer chunk = output.isEmpty() ? null : output.get(output.size() - 1);
+      int offset = buffer.position();
+      int remaining = buffer.remaining();
+      while (remaining > 0) {
+        if (chunk == null || !chunk.hasRemaining()) {
+          chunk = chunkPool.take();
+          output.add(chunk);
+        }
+        int length = Math.min(remaining, chunk.remaining());
+        chunk.put(buffer.array(), buffer.arrayOffset() + offset, length);
+        offset += length;
+        remaining -= length;
+      }
     }
 
     /**
@@ -253,8 +580,8 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
      * Flush the stream to the codec.
      * @throws IOException
      */
-    public void flush(boolean reuseBuffer) throws IOException {
-      outStream.flush(reuseBuffer);
+    public void flush() throws IOException {
+      outStream.flush();
     }
 
     /**
@@ -264,9 +591,10 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
     public void clear() throws IOException {
       outStream.clear();
       for(ByteBuffer buf: output) {
-        memoryEstimate.decrementTotalMemory(buf.capacity());
+        chunkPool.give(buf);
       }
       output.clear();
+      spilled.clear();
     }
 
     /**
@@ -284,8 +612,10 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
      */
     void spillTo(OutputStream out) throws IOException {
       for(ByteBuffer buffer: output) {
-        out.write(buffer.array(), buffer.arrayOffset() + buffer.position(),
-          buffer.remaining());
+        out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+      }
+      for(long[] section: spilled) {
+        spillFile.copyTo(out, section[0], section[1]);
       }
     }
 
@@ -310,7 +640,6 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
     public void output(ByteBuffer buffer) throws IOException {
       output.write(buffer.array(), buffer.arrayOffset() + buffer.position(),
         buffer.remaining());
-      memoryEstimate.decrementTotalMemory(buffer.capacity());
     }
   }
 
@@ -342,13 +671,45 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
     public OutStream createStream(int column,
                                                OrcProto.Stream.Kind kind
                                               ) throws IOException {
-      StreamName name = new StreamName(column, kind);
+      return getStream(column, kind).outStream;
+    }
+
+    BufferedStream getStream(int column, OrcProto.Stream.Kind kind) throws IOException {
+      StreamName name = new StreamName(column, kind, getSequence());
       BufferedStream result = streams.get(name);
       if (result == null) {
-        result = new BufferedStream(name.toString(), bufferSize, codec);
+        result = new BufferedStream(name.toString(), bufferSize, getCodec(column),
+            columnCompression[column]);
         streams.put(name, result);
       }
-      return result.outStream;
+      return result;
+    }
+
+    /**
+     * Create a stream of run length encoded integers to store part of a column.
+     * @param column the column id for the stream
+     * @param kind the kind of stream
+     * @param signed whether the integers can be negative
+     * @param numBytes the size of the integers, used if RLE v1 doesn't use vints
+     * @param useVInts whether RLE v1 should write the integers as vints
+     * @return the writer the integers need to be written to
+     * @throws IOException
+     */
+    public IntegerWriter createIntegerWriter(int column, OrcProto.Stream.Kind kind,
+        boolean signed, int numBytes, boolean useVInts) throws IOException {
+      BufferedStream stream = getStream(column, kind);
+      if (integerEncoding == OrcProto.IntegerEncoding.RLE_V2) {
+        stream.integerEncoding = integerEncoding;
+        return new RunLengthIntegerWriterV2(stream.outStream, signed);
+      }
+      return new RunLengthIntegerWriter(stream.outStream, signed, numBytes, useVInts);
+    }
+
+    /**
+     * Get the encoding integer streams are written with.
+     */
+    public OrcProto.IntegerEncoding getIntegerEncoding() {
+      return integerEncoding;
     }
 
     /**
@@ -359,6 +720,38 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       return columnCount++;
     }
 
+    /**
+     * Get the sequence of the streams created, which is 0 unless they are for a key of a flat
+     * map.
+     */
+    public int getSequence() {
+      return 0;
+    }
+
+    /**
+     * Is the column a flat map?
+     * @param column the column id
+     */
+    public boolean isFlatMap(int column) {
+      return flatMapColumns[column];
+    }
+
+    /**
+     * Get a factory for the streams of a key of a flat map.
+     * @param sequence the key's sequence
+     * @param valueColumn the column id of the map's values
+     */
+    public KeyStreamFactory forKey(int sequence, int valueColumn) {
+      return new KeyStreamFactory(sequence, valueColumn);
+    }
+
+    /**
+     * End the stripe once the row being written is complete.
+     */
+    public void flushStripeAfterRow() {
+      stripeFlushRequested = true;
+    }
+
     /**
      * Get the stride rate of the row index.
      */
@@ -375,11 +768,88 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
     }
 
     /**
-     * Is the ORC file compressed?
+     * Are the streams of a column compressed?
+     * @param column the column id
      * @return are the streams compressed
      */
-    public boolean isCompressed() {
-      return codec != null;
+    public boolean isCompressed(int column) {
+      return getCodec(column) != null;
+    }
+
+    /**
+     * Record the encoding chosen for a stripe of a string column.
+     * @param useDictionaryEncoding whether dictionary encoding was chosen
+     * @param early whether the choice was made before the stripe was complete
+     */
+    public void recordStringEncoding(boolean useDictionaryEncoding, boolean early) {
+      if (useDictionaryEncoding) {
+        dictionaryEncodedStripes++;
+      } else {
+        directEncodedStripes++;
+        if (early) {
+          earlyDirectEncodedStripes++;
+        }
+      }
+    }
+
+    /**
+     * Record the encoding chosen for a stripe of a float or double column.
+     */
+    public void recordFloatingPointEncoding(boolean useDictionaryEncoding) {
+      if (useDictionaryEncoding) {
+        floatingPointDictionaryEncodedStripes++;
+      } else {
+        floatingPointDirectEncodedStripes++;
+      }
+    }
+  }
+
+  /**
+   * Creates the streams of a key of a flat map.  The key's values are written by tree writers
+   * with the column ids of the map's values, whose streams are told apart from the other keys'
+   * by the key's sequence.
+   */
+  private class KeyStreamFactory extends StreamFactory {
+    private final int sequence;
+    private int nextColumnId;
+    // the streams created for the key
+    private final List<StreamName> names = new ArrayList<StreamName>();
+
+    KeyStreamFactory(int sequence, int valueColumn) {
+      this.sequence = sequence;
+      this.nextColumnId = valueColumn;
+    }
+
+    @Override
+    public int getSequence() {
+      return sequence;
+    }
+
+    @Override
+    public int getNextColumnId() {
+      return nextColumnId++;
+    }
+
+    @Override
+    BufferedStream getStream(int column, OrcProto.Stream.Kind kind) throws IOException {
+      StreamName name = new StreamName(column, kind, sequence);
+      if (!streams.containsKey(name)) {
+        names.add(name);
+      }
+      return super.getStream(column, kind);
+    }
+
+    /**
+     * Remove the key's streams from the file, so they aren't in the following stripes.
+     */
+    void removeStreams() throws IOException {
+      for (StreamName name : names) {
+        BufferedStream stream = streams.remove(name);
+        if (stream != null) {
+          stream.clear();
+        }
+      }
+      names.clear();
     }
   }
 
@@ -427,7 +897,7 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       this.conf = conf;
       this.useVInts = useVInts;
       this.memoryEstimate = memoryEstimate;
-      this.isCompressed = streamFactory.isCompressed();
+      this.isCompressed = streamFactory.isCompressed(columnId);
       if (nullable) {
         isPresentOutStream = streamFactory.createStream(id, OrcProto.Stream.Kind.PRESENT);
         isPresent = new BitFieldWriter(isPresentOutStream, 1);
@@ -761,8 +1231,7 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
         rows = new DynamicIntArray(memoryEstimate);
       } else {
         abandonDictionaries = true;
-        rowOutput = writer.createStream(id,
-            OrcProto.Stream.Kind.DATA);
+        rowOutput = createDirectStream();
         useDictionaryEncoding = false;
       }
       output = writer.createStream(id,
@@ -836,8 +1305,7 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
         buffer[i] = null;
         if (val != null) {
           if (useCarriedOverDirectEncoding()) {
-            SerializationUtils.writeIntegerType(rowOutput,
-                val, numBytes, true, useVInts);
+            writeDirect(val);
           } else {
             rows.add(dictionary.add(val));
           }
@@ -871,12 +1339,10 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
         useDictionaryEncoding = getUseDictionaryEncoding();
       }
       if (useDictionaryEncoding) {
-        rowOutput =
-          new RunLengthIntegerWriter(writer.createStream(id,
-          OrcProto.Stream.Kind.DATA), false, INT_BYTE_SIZE, useVInts);
+        rowOutput = writer.createIntegerWriter(id, OrcProto.Stream.Kind.DATA, false,
+            INT_BYTE_SIZE, useVInts);
       } else if (determineEncodingStripe()){
-        rowOutput = writer.createStream(id,
-          OrcProto.Stream.Kind.DATA);
+        rowOutput = createDirectStream();
       }
 
       final long[] dumpOrder;
@@ -931,7 +1397,7 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       recordPosition(rowIndexPosition);
       dictionarySize = 0;
       if (useCarriedOverDirectEncoding())  {
-        rowOutput = writer.createStream(id, OrcProto.Stream.Kind.DATA);
+        rowOutput = createDirectStream();
         rowOutput.getPosition(rowIndexPosition);
         if (dictionary != null) {
           dictionary.cleanup();
@@ -954,6 +1420,26 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       rowIndexValueCount.add(0L);
     }
 
+    /**
+     * Create the stream for directly encoded values, which are run length encoded if the writer
+     * uses RLE v2, otherwise they're written as they are.
+     */
+    private PositionedOutputStream createDirectStream() throws IOException {
+      if (writer.getIntegerEncoding() == OrcProto.IntegerEncoding.RLE_V2) {
+        return writer.createIntegerWriter(id, OrcProto.Stream.Kind.DATA, true, numBytes,
+            useVInts);
+      }
+      return writer.createStream(id, OrcProto.Stream.Kind.DATA);
+    }
+
+    private void writeDirect(long value) throws IOException {
+      if (rowOutput instanceof IntegerWriter) {
+        ((IntegerWriter) rowOutput).write(value);
+      } else {
+        SerializationUtils.writeIntegerType(rowOutput, value, numBytes, true, useVInts);
+      }
+    }
+
     private void convertDictionaryToDirect() throws IOException {
       writeData(false, null, null);
     }
@@ -999,15 +1485,14 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
 
         if (i < length) {
           if (useDictionaryEncoding && dumpOrder != null) {
-            ((RunLengthIntegerWriter) rowOutput).write(dumpOrder[rows.get(i)]);
+            ((IntegerWriter) rowOutput).write(dumpOrder[rows.get(i)]);
             if (!useStrideDictionaries || counts[rows.get(i)] > 1) {
               inDictionary.write(1);
             } else {
               inDictionary.write(0);
             }
           } else {
-            SerializationUtils.writeIntegerType(rowOutput,
-                dictionary.getValue(rows.get(i)), numBytes, true, useVInts);
+            writeDirect(dictionary.getValue(rows.get(i)));
           }
         }
       }
@@ -1054,28 +1539,253 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
 
     @Override
     public void abandonDictionaries() throws IOException {
-      boolean useCarriedOverDirectEncoding = useCarriedOverDirectEncoding();
+      boolean useCarriedOverDirectEncoding = useCarriedOverDirectEncoding();
+      abandonDictionaries = true;
+      if (!useCarriedOverDirectEncoding) {
+        rowOutput = createDirectStream();
+        useDictionaryEncoding = false;
+        convertDictionaryToDirect();
+        if (rows.size() == 0) {
+          rowOutput.getPosition(rowIndexPosition);
+        }
+      }
+      if (dictionary != null) {
+        dictionary.cleanup();
+        dictionary = null;
+        rows.cleanup();
+        rows = null;
+      }
+      savedRowIndex.clear();
+    }
+  }
+
+  /**
+   * The parent of the float and double writers.  Values are written as they are, unless floating
+   * point dictionaries are enabled, in which case the values of a stripe are kept as ids into a
+   * dictionary of their bits until the stripe is written, and are written as the ids and the
+   * dictionary if there are few enough distinct values.  The size of the dictionary is also
+   * checked at every row index entry, and if it's already too big the column switches to direct
+   * encoding for the rest of the stripe, so columns with many distinct values aren't buffered.
+   */
+  private abstract static class FloatingPointTreeWriter extends TreeWriter {
+    private final StreamFactory writer;
+    private final boolean buildIndex;
+    private final float dictionaryKeySizeThreshold;
+    private final boolean useDictionaries;
+    private final PositionedOutputStream dictionaryOutput;
+    // The values, or the ids in the dictionary if the stripe is dictionary encoded
+    private PositionedOutputStream rowOutput;
+    private IntDictionaryEncoder dictionary;
+    private DynamicIntArray rows;
+    private boolean useDictionaryEncoding;
+    private boolean abandonDictionaries = false;
+    // The entries of the row index of the stripe so far, which are missing the positions in the
+    // data stream until it's written, and the number of values before each of them
+    private final List<OrcProto.RowIndexEntry> savedRowIndex =
+        new ArrayList<OrcProto.RowIndexEntry>();
+    private final List<Integer> rowIndexValueCount = new ArrayList<Integer>();
+
+    FloatingPointTreeWriter(int columnId,
+                            ObjectInspector inspector,
+                            StreamFactory writer,
+                            boolean nullable, Configuration conf,
+                            boolean useVInts, boolean lowMemoryMode,
+                            MemoryEstimate memoryEstimate) throws IOException {
+      super(columnId, inspector, writer, nullable, conf, useVInts, memoryEstimate);
+      this.writer = writer;
+      buildIndex = writer.buildIndex();
+      dictionaryKeySizeThreshold = OrcConf.getFloatVar(conf,
+          OrcConf.ConfVars.HIVE_ORC_DICTIONARY_FLOATING_POINT_KEY_SIZE_THRESHOLD);
+      useDictionaries = dictionaryKeySizeThreshold > 0;
+      if (useDictionaries) {
+        dictionaryOutput = writer.createStream(id, OrcProto.Stream.Kind.DICTIONARY_DATA);
+      } else {
+        dictionaryOutput = null;
+      }
+      abandonDictionaries = lowMemoryMode;
+      startStripe();
+      recordPosition(rowIndexPosition);
+    }
+
+    /**
+     * Write a value, given its bits, to the stream.
+     */
+    abstract void writeValue(PositionedOutputStream out, long bits) throws IOException;
+
+    /**
+     * Add the bits of a value to the column.
+     */
+    protected void add(long bits) throws IOException {
+      if (useDictionaryEncoding) {
+        rows.add(dictionary.add(bits));
+      } else {
+        writeValue(rowOutput, bits);
+      }
+    }
+
+    private void startStripe() throws IOException {
+      savedRowIndex.clear();
+      rowIndexValueCount.clear();
+      useDictionaryEncoding = useDictionaries && !abandonDictionaries;
+      if (useDictionaryEncoding) {
+        if (dictionary == null) {
+          dictionary = new IntDictionaryEncoder(false, LONG_BYTE_SIZE, useVInts, memoryEstimate);
+          rows = new DynamicIntArray(memoryEstimate);
+        } else {
+          dictionary.clear();
+          rows.clear();
+        }
+        rowIndexValueCount.add(0);
+      } else {
+        rowOutput = writer.createStream(id, OrcProto.Stream.Kind.DATA);
+      }
+    }
+
+    private boolean isDictionaryTooBig() {
+      return dictionary.size() > rows.size() * dictionaryKeySizeThreshold;
+    }
+
+    /**
+     * Write the values buffered so far directly and write the rest of the stripe directly.
+     */
+    private void switchToDirectEncoding() throws IOException {
+      useDictionaryEncoding = false;
+      rowOutput = writer.createStream(id, OrcProto.Stream.Kind.DATA);
+      writeRows();
+      dictionary.clear();
+      rows.clear();
+    }
+
+    /**
+     * Write the buffered values, directly or as their ids, filling in the positions of the saved
+     * row index entries.  If the column has switched to direct encoding the position of the
+     * entry currently being built is also recorded.
+     */
+    private void writeRows() throws IOException {
+      int length = rows.size();
+      int rowIndexEntry = 0;
+      for (int i = 0; i <= length; ++i) {
+        if (buildIndex) {
+          while (rowIndexEntry < rowIndexValueCount.size() &&
+              i == rowIndexValueCount.get(rowIndexEntry) &&
+              (rowIndexEntry < savedRowIndex.size() ||
+                  (!useDictionaryEncoding && rowIndexEntry == savedRowIndex.size()))) {
+            if (rowIndexEntry < savedRowIndex.size()) {
+              OrcProto.RowIndexEntry.Builder base = savedRowIndex.get(rowIndexEntry).toBuilder();
+              rowOutput.getPosition(new RowIndexPositionRecorder(base));
+              getRowIndex().addEntry(base.build());
+            } else {
+              rowOutput.getPosition(rowIndexPosition);
+            }
+            rowIndexEntry++;
+          }
+        }
+
+        if (i < length) {
+          if (useDictionaryEncoding) {
+            ((IntegerWriter) rowOutput).write(rows.get(i));
+          } else {
+            writeValue(rowOutput, dictionary.getValue(rows.get(i)));
+          }
+        }
+      }
+      savedRowIndex.clear();
+    }
+
+    private void cleanupDictionary() {
+      if (dictionary != null) {
+        dictionary.cleanup();
+        dictionary = null;
+        rows.cleanup();
+        rows = null;
+      }
+    }
+
+    @Override
+    void writeStripe(OrcProto.StripeFooter.Builder builder,
+                     int requiredIndexEntries) throws IOException {
+      if (useDictionaryEncoding && (rows.size() == 0 || isDictionaryTooBig())) {
+        switchToDirectEncoding();
+      }
+      if (useDictionaryEncoding) {
+        for (int i = 0; i < dictionary.size(); i++) {
+          writeValue(dictionaryOutput, dictionary.getValue(i));
+        }
+        rowOutput = writer.createIntegerWriter(id, OrcProto.Stream.Kind.DATA, false,
+            INT_BYTE_SIZE, useVInts);
+        writeRows();
+      }
+      if (useDictionaries) {
+        writer.recordFloatingPointEncoding(useDictionaryEncoding);
+      }
+      // we need to build the rowindex before calling super, since it
+      // writes it out.
+      super.writeStripe(builder, requiredIndexEntries);
+      if (dictionaryOutput != null) {
+        if (useDictionaryEncoding) {
+          dictionaryOutput.unsuppress();
+          dictionaryOutput.flush();
+        } else {
+          dictionaryOutput.suppress();
+        }
+      }
+      rowOutput.flush();
+      startStripe();
+      recordPosition(rowIndexPosition);
+    }
+
+    @Override
+    OrcProto.ColumnEncoding getEncoding() {
+      if (useDictionaryEncoding) {
+        return OrcProto.ColumnEncoding.newBuilder().setKind(
+            OrcProto.ColumnEncoding.Kind.DICTIONARY).
+            setDictionarySize(dictionary.size()).build();
+      }
+      return super.getEncoding();
+    }
+
+    /**
+     * While the stripe is dictionary encoded, the entries are saved until the positions in the
+     * data stream are known, see IntegerTreeWriter.
+     */
+    @Override
+    void createRowIndexEntry() throws IOException {
+      if (useDictionaryEncoding && isDictionaryTooBig()) {
+        switchToDirectEncoding();
+      }
+      if (!useDictionaryEncoding) {
+        super.createRowIndexEntry();
+        return;
+      }
+      getFileStatistics().merge(indexStatistics);
+      OrcProto.RowIndexEntry.Builder rowIndexEntry = getRowIndexEntry();
+      rowIndexEntry.setStatistics(indexStatistics.serialize());
+      indexStatistics.reset();
+      savedRowIndex.add(rowIndexEntry.build());
+      rowIndexEntry.clear();
+      recordPosition(rowIndexPosition);
+      rowIndexValueCount.add(rows.size());
+    }
+
+    @Override
+    void recordPosition(PositionRecorder recorder) throws IOException {
+      super.recordPosition(recorder);
+      if (!useDictionaryEncoding) {
+        rowOutput.getPosition(recorder);
+      }
+    }
+
+    @Override
+    public void abandonDictionaries() throws IOException {
       abandonDictionaries = true;
-      if (!useCarriedOverDirectEncoding) {
-        rowOutput = writer.createStream(id, OrcProto.Stream.Kind.DATA);
-        useDictionaryEncoding = false;
-        convertDictionaryToDirect();
-        if (rows.size() == 0) {
-          rowOutput.getPosition(rowIndexPosition);
-        }
-      }
-      if (dictionary != null) {
-        dictionary.cleanup();
-        dictionary = null;
-        rows.cleanup();
-        rows = null;
+      if (useDictionaryEncoding) {
+        switchToDirectEncoding();
       }
-      savedRowIndex.clear();
+      cleanupDictionary();
     }
   }
 
-  private static class FloatTreeWriter extends TreeWriter {
-    private final PositionedOutputStream stream;
+  private static class FloatTreeWriter extends FloatingPointTreeWriter {
 
     FloatTreeWriter(int columnId,
                       ObjectInspector inspector,
@@ -1083,10 +1793,8 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
                       boolean nullable, Configuration conf,
                       boolean useVInts, boolean lowMemoryMode,
                       MemoryEstimate memoryEstimate) throws IOException {
-      super(columnId, inspector, writer, nullable, conf, useVInts, memoryEstimate);
-      this.stream = writer.createStream(id,
-          OrcProto.Stream.Kind.DATA);
-      recordPosition(rowIndexPosition);
+      super(columnId, inspector, writer, nullable, conf, useVInts, lowMemoryMode,
+          memoryEstimate);
     }
 
     @Override
@@ -1095,27 +1803,17 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       if (obj != null) {
         float val = ((FloatObjectInspector) inspector).get(obj);
         indexStatistics.updateDouble(val);
-        SerializationUtils.writeFloat(stream, val);
+        add(Float.floatToRawIntBits(val));
       }
     }
 
     @Override
-    void writeStripe(OrcProto.StripeFooter.Builder builder,
-                     int requiredIndexEntries) throws IOException {
-      super.writeStripe(builder, requiredIndexEntries);
-      stream.flush();
-      recordPosition(rowIndexPosition);
-    }
-
-    @Override
-    void recordPosition(PositionRecorder recorder) throws IOException {
-      super.recordPosition(recorder);
-      stream.getPosition(recorder);
+    void writeValue(PositionedOutputStream out, long bits) throws IOException {
+      SerializationUtils.writeFloat(out, Float.intBitsToFloat((int) bits));
     }
   }
 
-  private static class DoubleTreeWriter extends TreeWriter {
-    private final PositionedOutputStream stream;
+  private static class DoubleTreeWriter extends FloatingPointTreeWriter {
 
     DoubleTreeWriter(int columnId,
                     ObjectInspector inspector,
@@ -1123,10 +1821,8 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
                     boolean nullable, Configuration conf,
                     boolean useVInts, boolean lowMemoryMode,
                     MemoryEstimate memoryEstimate) throws IOException {
-      super(columnId, inspector, writer, nullable, conf, useVInts, memoryEstimate);
-      this.stream = writer.createStream(id,
-          OrcProto.Stream.Kind.DATA);
-      recordPosition(rowIndexPosition);
+      super(columnId, inspector, writer, nullable, conf, useVInts, lowMemoryMode,
+          memoryEstimate);
     }
 
     @Override
@@ -1135,34 +1831,25 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       if (obj != null) {
         double val = ((DoubleObjectInspector) inspector).get(obj);
         indexStatistics.updateDouble(val);
-        SerializationUtils.writeDouble(stream, val);
+        add(Double.doubleToRawLongBits(val));
       }
     }
 
     @Override
-    void writeStripe(OrcProto.StripeFooter.Builder builder,
-                     int requiredIndexEntries) throws IOException {
-      super.writeStripe(builder, requiredIndexEntries);
-      stream.flush();
-      recordPosition(rowIndexPosition);
-    }
-
-    @Override
-    void recordPosition(PositionRecorder recorder) throws IOException {
-      super.recordPosition(recorder);
-      stream.getPosition(recorder);
+    void writeValue(PositionedOutputStream out, long bits) throws IOException {
+      SerializationUtils.writeDouble(out, Double.longBitsToDouble(bits));
     }
   }
 
   private static class StringTreeWriter extends TreeWriter {
     private final PositionedOutputStream stringOutput;
-    private final RunLengthIntegerWriter lengthOutput;
+    private final IntegerWriter lengthOutput;
     private final PositionedOutputStream inDictionaryStream;
     private final BitFieldWriter inDictionary;
     private StringDictionaryEncoder dictionary;
     private DynamicIntArray rows;
-    private final RunLengthIntegerWriter directLengthOutput;
-    private final RunLengthIntegerWriter strideDictionaryLengthOutput;
+    private final IntegerWriter directLengthOutput;
+    private final IntegerWriter strideDictionaryLengthOutput;
     private final List<OrcProto.RowIndexEntry> savedRowIndex =
         new ArrayList<OrcProto.RowIndexEntry>();
     private final boolean buildIndex;
@@ -1177,6 +1864,14 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
     private final int entropyMinSamples;
     private final float entropyDictSampleFraction;
     private final int entropyThreshold;
+    // The characters seen while estimating the entropy
+    private final BitSet entropyChars = new BitSet();
+    private int entropyCharCount;
+    // The number of non-null rows in a stripe after which the dictionary is checked against
+    // dictionaryKeySizeThreshold, if 0 the encoding is only chosen when the stripe is written
+    private final int earlyEncodingDecisionRows;
+    // True iff direct encoding was chosen for the current stripe before it was written
+    private boolean directEncodingChosenEarly = false;
 
     private boolean useDictionaryEncoding = true;
     private final boolean useStrideDictionaries;
@@ -1217,16 +1912,16 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       }
       stringOutput = writer.createStream(id,
           OrcProto.Stream.Kind.DICTIONARY_DATA);
-      lengthOutput = new RunLengthIntegerWriter(writer.createStream(id,
-          OrcProto.Stream.Kind.LENGTH), false, INT_BYTE_SIZE, useVInts);
+      lengthOutput = writer.createIntegerWriter(id,
+          OrcProto.Stream.Kind.LENGTH, false, INT_BYTE_SIZE, useVInts);
       inDictionaryStream = writer.createStream(id, OrcProto.Stream.Kind.IN_DICTIONARY);
       inDictionary = new BitFieldWriter(inDictionaryStream, 1);
-      strideDictionaryLengthOutput = new RunLengthIntegerWriter(writer.createStream(id,
-          OrcProto.Stream.Kind.STRIDE_DICTIONARY_LENGTH), false, INT_BYTE_SIZE, useVInts);
+      strideDictionaryLengthOutput = writer.createIntegerWriter(id,
+          OrcProto.Stream.Kind.STRIDE_DICTIONARY_LENGTH, false, INT_BYTE_SIZE, useVInts);
       strideDictionaryOutput = writer.createStream(id,
           OrcProto.Stream.Kind.STRIDE_DICTIONARY);
-      directLengthOutput = new RunLengthIntegerWriter(writer.createStream(id,
-          OrcProto.Stream.Kind.LENGTH), false, INT_BYTE_SIZE, useVInts);
+      directLengthOutput = writer.createIntegerWriter(id,
+          OrcProto.Stream.Kind.LENGTH, false, INT_BYTE_SIZE, useVInts);
       dictionaryKeySizeThreshold = OrcConf.getFloatVar(conf,
           OrcConf.ConfVars.HIVE_ORC_DICTIONARY_STRING_KEY_SIZE_THRESHOLD);
       entropyKeySizeThreshold = OrcConf.getFloatVar(conf,
@@ -1237,6 +1932,8 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
           OrcConf.ConfVars.HIVE_ORC_ENTROPY_STRING_DICT_SAMPLE_FRACTION);
       entropyThreshold = OrcConf.getIntVar(conf,
           OrcConf.ConfVars.HIVE_ORC_ENTROPY_STRING_THRESHOLD);
+      earlyEncodingDecisionRows = OrcConf.getIntVar(conf,
+          OrcConf.ConfVars.HIVE_ORC_DICTIONARY_EARLY_DECISION_ROWS);
 
       int bufferLength = OrcConf.getIntVar(conf, OrcConf.ConfVars.HIVE_ORC_ROW_BUFFER_SIZE);
       buffer = new Text[bufferLength];
@@ -1285,6 +1982,9 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
             directLengthOutput.write(val.getLength());
           } else {
             rows.add(dictionary.add(val, savedRowIndex.size()));
+            if (rows.size() == earlyEncodingDecisionRows && determineEncodingStripe()) {
+              chooseEncodingEarly();
+            }
           }
         }
         super.flushRow(val);
@@ -1294,12 +1994,48 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       bufferedBytes = 0;
     }
 
-    private boolean isEntropyThresholdExceeded(Set<Character> chars, Text text, int index) {
+    /**
+     * If the keys seen so far in this stripe are distinct enough that dictionary encoding would
+     * be turned off when the stripe is written, switch to direct encoding now rather than build
+     * the rest of the dictionary.
+     */
+    private void chooseEncodingEarly() throws IOException {
+      float repeatedValuesFraction =
+          (float)(rows.size() - dictionary.size()) / (float)rows.size();
+      if (repeatedValuesFraction <= 1.0 - dictionaryKeySizeThreshold) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Using direct encoding for column " + id + ", " + dictionary.size() +
+              " of the first " + rows.size() + " values in the stripe are distinct");
+        }
+        writer.recordStringEncoding(false, true);
+        directEncodingChosenEarly = true;
+        useDictionaryEncoding = false;
+        convertToDirectEncoding();
+      }
+    }
+
+    private void addEntropyChar(char character) {
+      if (!entropyChars.get(character)) {
+        entropyChars.set(character);
+        entropyCharCount++;
+      }
+    }
+
+    private boolean isEntropyThresholdExceeded(Text text, int index) {
       dictionary.getText(text, index);
-      for (char character : text.toString().toCharArray()) {
-        chars.add(character);
+      byte[] bytes = text.getBytes();
+      int length = text.getLength();
+      for (int i = 0; i < length; i++) {
+        if (bytes[i] < 0) {
+          // Not ASCII, so the bytes need to be decoded into characters
+          for (char character : text.toString().toCharArray()) {
+            addEntropyChar(character);
+          }
+          break;
+        }
+        addEntropyChar((char) bytes[i]);
       }
-      return chars.size() > entropyThreshold;
+      return entropyCharCount > entropyThreshold;
     }
 
     private int[] getSampleIndecesForEntropy() {
@@ -1340,20 +2076,21 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
     }
 
     private boolean useDictionaryEncodingEntropyHeuristic() {
-      Set<Character> chars = new HashSet<Character>();
+      entropyChars.clear();
+      entropyCharCount = 0;
       Text text = new Text();
       if (dictionary.size() > entropyMinSamples) {
 
         int[] samples = getSampleIndecesForEntropy();
 
         for (int sampleIndex : samples) {
-          if (isEntropyThresholdExceeded(chars, text, sampleIndex)) {
+          if (isEntropyThresholdExceeded(text, sampleIndex)) {
             return true;
           }
         }
       } else {
         for (int i = 0; i < dictionary.size(); i++) {
-          if (isEntropyThresholdExceeded(chars, text, i)) {
+          if (isEntropyThresholdExceeded(text, i)) {
             return true;
           }
         }
@@ -1364,17 +2101,18 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
 
     /**
      * Returns true iff the encoding is not being determined using this stripe, and
-     * the previously determined encoding was direct.
+     * the previously determined encoding was direct, or if direct encoding was already
+     * chosen for this stripe.
      */
     private boolean useCarriedOverDirectEncoding() {
-      return !determineEncodingStripe() && !useDictionaryEncoding;
+      return directEncodingChosenEarly || (!determineEncodingStripe() && !useDictionaryEncoding);
     }
 
     @Override
     void writeStripe(OrcProto.StripeFooter.Builder builder,
                      int requiredIndexEntries) throws IOException {
 
-      if (determineEncodingStripe()) {
+      if (determineEncodingStripe() && !directEncodingChosenEarly) {
 
           // Set the flag indicating whether or not to use dictionary encoding based on whether
           // or not the fraction of distinct keys over number of non-null rows is less than the
@@ -1399,13 +2137,14 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
           // so 1 - dictionaryKeySizeThreshold is the number of repeated values below which
           // dictionary encoding should be turned off
           useDictionaryEncoding = useDictionaryEncoding && (repeatedValuesFraction > 1.0 - dictionaryKeySizeThreshold);
+          writer.recordStringEncoding(useDictionaryEncoding, false);
         }
       }
 
       if (useDictionaryEncoding) {
-        rowOutput = new RunLengthIntegerWriter(writer.createStream(id,
-            OrcProto.Stream.Kind.DATA), false, INT_BYTE_SIZE, useVInts);
-      } else if (determineEncodingStripe()) {
+        rowOutput = writer.createIntegerWriter(id,
+            OrcProto.Stream.Kind.DATA, false, INT_BYTE_SIZE, useVInts);
+      } else if (!useCarriedOverDirectEncoding()) {
         rowOutput = writer.createStream(id,
             OrcProto.Stream.Kind.DATA);
       }
@@ -1512,16 +2251,12 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       rowIndexValueCount.clear();
       recordPosition(rowIndexPosition);
       dictionarySize = 0;
+      directEncodingChosenEarly = false;
       if (useCarriedOverDirectEncoding())  {
         rowOutput = writer.createStream(id, OrcProto.Stream.Kind.DATA);
         rowOutput.getPosition(rowIndexPosition);
         directLengthOutput.getPosition(rowIndexPosition);
-        if (dictionary != null) {
-          dictionary.cleanup();
-          dictionary = null;
-          rows.cleanup();
-          rows = null;
-        }
+        releaseDictionary();
       } else {
         if (dictionary == null) {
           dictionary = new StringDictionaryEncoder(sortKeys, useStrideDictionaries, memoryEstimate);
@@ -1664,28 +2399,43 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       boolean useCarriedOverDirectEncoding = useCarriedOverDirectEncoding();
       abandonDictionaries = true;
       if (!useCarriedOverDirectEncoding) {
-        rowOutput = writer.createStream(id,
-            OrcProto.Stream.Kind.DATA);
         useDictionaryEncoding = false;
-        convertDictionaryToDirect();
-        if (rows.size() == 0) {
-          rowOutput.getPosition(rowIndexPosition);
-          directLengthOutput.getPosition(rowIndexPosition);
-        }
+        convertToDirectEncoding();
+      } else {
+        releaseDictionary();
+        savedRowIndex.clear();
+      }
+    }
+
+    /**
+     * Write out the rows added to the dictionary so far using direct encoding, and release the
+     * dictionary. The rest of the stripe is written directly.
+     */
+    private void convertToDirectEncoding() throws IOException {
+      rowOutput = writer.createStream(id,
+          OrcProto.Stream.Kind.DATA);
+      convertDictionaryToDirect();
+      if (rows.size() == 0) {
+        rowOutput.getPosition(rowIndexPosition);
+        directLengthOutput.getPosition(rowIndexPosition);
       }
+      releaseDictionary();
+      savedRowIndex.clear();
+    }
+
+    private void releaseDictionary() {
       if (dictionary != null) {
         dictionary.cleanup();
         dictionary = null;
         rows.cleanup();
         rows = null;
       }
-      savedRowIndex.clear();
     }
   }
 
   private static class BinaryTreeWriter extends TreeWriter {
     private final PositionedOutputStream stream;
-    private final RunLengthIntegerWriter length;
+    private final IntegerWriter length;
 
     BinaryTreeWriter(int columnId,
                      ObjectInspector inspector,
@@ -1696,8 +2446,8 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       super(columnId, inspector, writer, nullable, conf, useVInts, memoryEstimate);
       this.stream = writer.createStream(id,
           OrcProto.Stream.Kind.DATA);
-      this.length = new RunLengthIntegerWriter(writer.createStream(id,
-          OrcProto.Stream.Kind.LENGTH), false, INT_BYTE_SIZE, useVInts);
+      this.length = writer.createIntegerWriter(id,
+          OrcProto.Stream.Kind.LENGTH, false, INT_BYTE_SIZE, useVInts);
       recordPosition(rowIndexPosition);
     }
 
@@ -1738,8 +2488,11 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       Timestamp.valueOf("2015-01-01 00:00:00").getTime() / MILLIS_PER_SECOND;
 
   private static class TimestampTreeWriter extends TreeWriter {
-    private final RunLengthIntegerWriter seconds;
-    private final RunLengthIntegerWriter nanos;
+    private final IntegerWriter seconds;
+    private final IntegerWriter nanos;
+    private final boolean useDeltaEncoding;
+    // The seconds of the previous value of the stripe, if delta encoding is used
+    private long previousSeconds = 0;
 
     TimestampTreeWriter(int columnId,
                      ObjectInspector inspector,
@@ -1748,10 +2501,12 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
                      boolean useVInts, boolean lowMemoryMode,
                      MemoryEstimate memoryEstimate) throws IOException {
       super(columnId, inspector, writer, nullable, conf, useVInts, memoryEstimate);
-      this.seconds = new RunLengthIntegerWriter(writer.createStream(id,
-          OrcProto.Stream.Kind.DATA), true, LONG_BYTE_SIZE, useVInts);
-      this.nanos = new RunLengthIntegerWriter(writer.createStream(id,
-          OrcProto.Stream.Kind.NANO_DATA), false, LONG_BYTE_SIZE, useVInts);
+      this.seconds = writer.createIntegerWriter(id,
+          OrcProto.Stream.Kind.DATA, true, LONG_BYTE_SIZE, useVInts);
+      this.nanos = writer.createIntegerWriter(id,
+          OrcProto.Stream.Kind.NANO_DATA, false, LONG_BYTE_SIZE, useVInts);
+      useDeltaEncoding = OrcConf.getBoolVar(conf,
+          OrcConf.ConfVars.HIVE_ORC_TIMESTAMP_DELTA_ENCODING);
       recordPosition(rowIndexPosition);
     }
 
@@ -1767,7 +2522,13 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
         Timestamp val =
             ((TimestampObjectInspector) inspector).
                 getPrimitiveJavaObject(obj);
-        seconds.write((val.getTime() / MILLIS_PER_SECOND) - BASE_TIMESTAMP);
+        long secs = (val.getTime() / MILLIS_PER_SECOND) - BASE_TIMESTAMP;
+        if (useDeltaEncoding) {
+          seconds.write(secs - previousSeconds);
+          previousSeconds = secs;
+        } else {
+          seconds.write(secs);
+        }
         nanos.write(formatNanos(val.getNanos()));
       }
     }
@@ -1778,9 +2539,19 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       super.writeStripe(builder, requiredIndexEntries);
       seconds.flush();
       nanos.flush();
+      previousSeconds = 0;
       recordPosition(rowIndexPosition);
     }
 
+    @Override
+    OrcProto.ColumnEncoding getEncoding() {
+      if (useDeltaEncoding) {
+        return OrcProto.ColumnEncoding.newBuilder().setKind(
+            OrcProto.ColumnEncoding.Kind.DIRECT_DELTA).build();
+      }
+      return super.getEncoding();
+    }
+
     private static long formatNanos(int nanos) {
       if (nanos == 0) {
         return 0;
@@ -1802,6 +2573,10 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       super.recordPosition(recorder);
       seconds.getPosition(recorder);
       nanos.getPosition(recorder);
+      if (useDeltaEncoding) {
+        // readers seeking to the entry need the value the first difference is relative to
+        recorder.addPosition(previousSeconds);
+      }
     }
   }
 
@@ -1854,7 +2629,7 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
   }
 
   private static class ListTreeWriter extends TreeWriter {
-    private final RunLengthIntegerWriter lengths;
+    private final IntegerWriter lengths;
 
     ListTreeWriter(int columnId,
                    ObjectInspector inspector,
@@ -1869,8 +2644,8 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
         createTreeWriter(listObjectInspector.getListElementObjectInspector(),
           writer, true, conf, useVInts, lowMemoryMode, memoryEstimate);
       lengths =
-        new RunLengthIntegerWriter(writer.createStream(columnId,
-            OrcProto.Stream.Kind.LENGTH), false, INT_BYTE_SIZE, useVInts);
+        writer.createIntegerWriter(columnId,
+            OrcProto.Stream.Kind.LENGTH, false, INT_BYTE_SIZE, useVInts);
       recordPosition(rowIndexPosition);
     }
 
@@ -1908,7 +2683,7 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
   }
 
   private static class MapTreeWriter extends TreeWriter {
-    private final RunLengthIntegerWriter lengths;
+    private final IntegerWriter lengths;
 
     MapTreeWriter(int columnId,
                   ObjectInspector inspector,
@@ -1926,8 +2701,8 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
         createTreeWriter(insp.getMapValueObjectInspector(), writer, true, conf, useVInts,
             lowMemoryMode, memoryEstimate);
       lengths =
-        new RunLengthIntegerWriter(writer.createStream(columnId,
-            OrcProto.Stream.Kind.LENGTH), false, INT_BYTE_SIZE, useVInts);
+        writer.createIntegerWriter(columnId,
+            OrcProto.Stream.Kind.LENGTH, false, INT_BYTE_SIZE, useVInts);
       recordPosition(rowIndexPosition);
     }
 
@@ -1970,6 +2745,407 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
     }
   }
 
+  /**
+   * Writes maps with the values of each key in their own streams, so readers can read a key
+   * without reading the others.  The keys are given sequences in the order they are first seen,
+   * and each key has a bit field with its sequence in the key column recording whether each
+   * non-null map has the key, and tree writers for its values, which use the column ids of the
+   * map's values with the key's sequence.  The map's own key and value writers don't write any
+   * values, they only hold the statistics of the keys and values.  Once a key has been seen it's
+   * written in every following stripe, so a key keeps its sequence for the whole file.
+   *
+   * Once a column has more keys than HIVE_ORC_FLAT_MAP_MAX_KEYS the stripe is ended after the
+   * row that added them, so a stripe has at most the keys of one map more than that.  The column
+   * then drops the writers of its keys and writes the rest of the file as regular maps, using
+   * the map's own key and value writers like MapTreeWriter.
+   */
+  private static class FlatMapTreeWriter extends TreeWriter {
+    // A rough estimate of the memory taken by the writers of a key, per column of the values,
+    // besides their streams' buffers which are counted as they're allocated
+    private static final int KEY_WRITER_MEMORY = 1024;
+
+    private final StreamFactory writer;
+    private final Configuration conf;
+    private final boolean lowMemoryMode;
+    private final PrimitiveObjectInspector keyInspector;
+    private final boolean stringKeys;
+    private final ObjectInspector valueInspector;
+    private final Map<Object, KeyWriter> keys = new HashMap<Object, KeyWriter>();
+    private final List<KeyWriter> keyWriters = new ArrayList<KeyWriter>();
+    // The keys and the encodings of their values in the stripe being written
+    private final List<OrcProto.FlatMapKey> stripeKeys = new ArrayList<OrcProto.FlatMapKey>();
+    // The number of non-null maps in each of the stripe's finished row index entries, and in
+    // the current one, which keys first seen part way through the stripe need to catch up on
+    private final List<Integer> entryMaps = new ArrayList<Integer>();
+    private int mapsInEntry = 0;
+    // The number of non-null maps written, each key remembers the last one it was in
+    private long maps = 0;
+    private final int maxKeys;
+    // The estimated memory taken by the writers of each key
+    private final long keyWriterMemory;
+    // Whether the stripe being written is a flat map, and if it has more than maxKeys keys
+    private boolean flat = true;
+    private boolean tooManyKeys = false;
+    // Once the column isn't flat, the lengths of the maps, and the keys whose streams are still
+    // to be removed once the last flat stripe has been written
+    private IntegerWriter lengths = null;
+    private final List<KeyWriter> droppedKeyWriters = new ArrayList<KeyWriter>();
+
+    FlatMapTreeWriter(int columnId,
+                      ObjectInspector inspector,
+                      StreamFactory writer,
+                      boolean nullable, Configuration conf,
+                      boolean useVInts, boolean lowMemoryMode,
+                      MemoryEstimate memoryEstimate) throws IOException {
+      super(columnId, inspector, writer, nullable, conf, useVInts, memoryEstimate);
+      this.writer = writer;
+      this.conf = conf;
+      this.lowMemoryMode = lowMemoryMode;
+      MapObjectInspector insp = (MapObjectInspector) inspector;
+      keyInspector = (PrimitiveObjectInspector) insp.getMapKeyObjectInspector();
+      stringKeys = keyInspector.getPrimitiveCategory() ==
+          PrimitiveObjectInspector.PrimitiveCategory.STRING;
+      valueInspector = insp.getMapValueObjectInspector();
+      childrenWriters = new TreeWriter[2];
+      childrenWriters[0] =
+        createTreeWriter(keyInspector, writer, true, conf, useVInts,
+            lowMemoryMode, memoryEstimate);
+      childrenWriters[1] =
+        createTreeWriter(valueInspector, writer, true, conf, useVInts,
+            lowMemoryMode, memoryEstimate);
+      maxKeys = OrcConf.getIntVar(conf, OrcConf.ConfVars.HIVE_ORC_FLAT_MAP_MAX_KEYS);
+      keyWriterMemory = KEY_WRITER_MEMORY * getColumnCount(childrenWriters[1]);
+      recordPosition(rowIndexPosition);
+    }
+
+    private static int getColumnCount(TreeWriter writer) {
+      int count = 1;
+      for (TreeWriter child : writer.getChildrenWriters()) {
+        count += getColumnCount(child);
+      }
+      return count;
+    }
+
+    /**
+     * Can maps with keys of this type be flat maps?
+     */
+    static boolean isFlatMapKey(ObjectInspector keyInspector) {
+      if (keyInspector.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+        return false;
+      }
+      switch (((PrimitiveObjectInspector) keyInspector).getPrimitiveCategory()) {
+        case BYTE:
+        case SHORT:
+        case INT:
+        case LONG:
+        case STRING:
+          return true;
+        default:
+          return false;
+      }
+    }
+
+    @Override
+    void write(Object obj) throws IOException {
+      if (!flat) {
+        writeMap(obj);
+        return;
+      }
+      long rawDataSize = 0;
+      if (obj != null) {
+        maps++;
+        Map<?, ?> valueMap = ((MapObjectInspector) inspector).getMap(obj);
+        for (Map.Entry<?, ?> entry : valueMap.entrySet()) {
+          KeyWriter keyWriter = getKeyWriter(entry.getKey());
+          keyWriter.inMap.write(1);
+          keyWriter.lastMap = maps;
+          keyWriter.values.write(entry.getValue());
+          rawDataSize += keyWriter.rawDataSize;
+          rawDataSize += keyWriter.values.getRowRawDataSize();
+        }
+        for (KeyWriter keyWriter : keyWriters) {
+          if (keyWriter.lastMap != maps) {
+            keyWriter.inMap.write(0);
+          }
+        }
+        mapsInEntry++;
+      }
+      super.write(obj, rawDataSize);
+    }
+
+    /**
+     * Write a map once the column isn't flat, the same way MapTreeWriter does.
+     */
+    private void writeMap(Object obj) throws IOException {
+      if (!droppedKeyWriters.isEmpty()) {
+        // the last flat stripe has been written
+        for (KeyWriter keyWriter : droppedKeyWriters) {
+          keyWriter.streams.removeStreams();
+        }
+        droppedKeyWriters.clear();
+      }
+      long rawDataSize = 0;
+      if (obj != null) {
+        Map<?, ?> valueMap = ((MapObjectInspector) inspector).getMap(obj);
+        lengths.write(valueMap.size());
+        for (Map.Entry<?, ?> entry : valueMap.entrySet()) {
+          childrenWriters[0].write(entry.getKey());
+          childrenWriters[1].write(entry.getValue());
+          rawDataSize += childrenWriters[0].getRowRawDataSize();
+          rawDataSize += childrenWriters[1].getRowRawDataSize();
+        }
+      }
+      super.write(obj, rawDataSize);
+    }
+
+    /**
+     * Get the writer for a key, creating it if this is the first time the key is seen, and add
+     * the key to the statistics of the key column.
+     */
+    private KeyWriter getKeyWriter(Object key) throws IOException {
+      if (key == null) {
+        throw new IllegalArgumentException("Flat map column " + id + " can't have null keys");
+      }
+      ColumnStatisticsImpl keyStatistics = childrenWriters[0].indexStatistics;
+      keyStatistics.increment();
+      KeyWriter keyWriter;
+      if (stringKeys) {
+        Text value = ((StringObjectInspector) keyInspector).getPrimitiveWritableObject(key);
+        keyWriter = keys.get(value);
+        if (keyWriter == null) {
+          value = new Text(value);
+          keyWriter = createKeyWriter(OrcProto.FlatMapKey.newBuilder()
+              .setBytesKey(ByteString.copyFrom(value.getBytes(), 0, value.getLength())).build(),
+              value.toString(), value.getLength());
+          keys.put(value, keyWriter);
+        }
+        keyStatistics.updateString(keyWriter.stringKey);
+      } else {
+        long value;
+        int rawDataSize;
+        switch (keyInspector.getPrimitiveCategory()) {
+          case BYTE:
+            value = ((ByteObjectInspector) keyInspector).get(key);
+            rawDataSize = RawDatasizeConst.BYTE_SIZE;
+            break;
+          case SHORT:
+            value = ((ShortObjectInspector) keyInspector).get(key);
+            rawDataSize = RawDatasizeConst.SHORT_SIZE;
+            break;
+          case INT:
+            value = ((IntObjectInspector) keyInspector).get(key);
+            rawDataSize = RawDatasizeConst.INT_SIZE;
+            break;
+          default:
+            value = ((LongObjectInspector) keyInspector).get(key);
+            rawDataSize = RawDatasizeConst.LONG_SIZE;
+            break;
+        }
+        keyWriter = keys.get(value);
+        if (keyWriter == null) {
+          keyWriter = createKeyWriter(OrcProto.FlatMapKey.newBuilder().setIntKey(value).build(),
+              null, rawDataSize);
+          keys.put(value, keyWriter);
+        }
+        keyStatistics.updateInteger(value);
+      }
+      return keyWriter;
+    }
+
+    private KeyWriter createKeyWriter(OrcProto.FlatMapKey key, String stringKey,
+        int rawDataSize) throws IOException {
+      int sequence = keyWriters.size() + 1;
+      if (sequence > maxKeys && !tooManyKeys) {
+        LOG.warn("Flat map column " + id + " has more than " + maxKeys +
+            " keys, the stripe is ended and the following ones are written as regular maps");
+        tooManyKeys = true;
+        writer.flushStripeAfterRow();
+      }
+      KeyStreamFactory keyStreams = writer.forKey(sequence, childrenWriters[1].id);
+      int keyColumn = childrenWriters[0].id;
+      KeyWriter keyWriter = new KeyWriter(key, stringKey, rawDataSize,
+          new BitFieldWriter(keyStreams.createStream(keyColumn, OrcProto.Stream.Kind.IN_MAP), 1),
+          createTreeWriter(valueInspector, keyStreams, true, conf, useVInts, lowMemoryMode,
+              memoryEstimate),
+          writer.buildIndex() ?
+              keyStreams.createStream(keyColumn, OrcProto.Stream.Kind.ROW_INDEX) : null,
+          keyStreams);
+      keyWriters.add(keyWriter);
+      memoryEstimate.incrementTotalMemory(keyWriterMemory);
+      // the key wasn't in any of the stripe's earlier maps
+      for (int mapsInFinishedEntry : entryMaps) {
+        for (int i = 0; i < mapsInFinishedEntry; i++) {
+          keyWriter.inMap.write(0);
+        }
+        keyWriter.createRowIndexEntry();
+      }
+      for (int i = 0; i < mapsInEntry; i++) {
+        keyWriter.inMap.write(0);
+      }
+      return keyWriter;
+    }
+
+    @Override
+    void writeStripe(OrcProto.StripeFooter.Builder builder,
+                     int requiredIndexEntries) throws IOException {
+      stripeKeys.clear();
+      for (KeyWriter keyWriter : keyWriters) {
+        stripeKeys.add(keyWriter.writeStripe(requiredIndexEntries));
+      }
+      super.writeStripe(builder, requiredIndexEntries);
+      if (lengths != null) {
+        lengths.flush();
+      }
+      for(TreeWriter child: childrenWriters) {
+        child.writeStripe(builder, requiredIndexEntries);
+      }
+      entryMaps.clear();
+      mapsInEntry = 0;
+      if (tooManyKeys && flat) {
+        stopFlattening();
+      }
+      recordPosition(rowIndexPosition);
+    }
+
+    /**
+     * Write the rest of the file as regular maps, the keys' streams are removed once they've
+     * been written out with the stripe.
+     */
+    private void stopFlattening() throws IOException {
+      flat = false;
+      lengths = writer.createIntegerWriter(id, OrcProto.Stream.Kind.LENGTH, false,
+          INT_BYTE_SIZE, useVInts);
+      droppedKeyWriters.addAll(keyWriters);
+      memoryEstimate.decrementTotalMemory(keyWriterMemory * keyWriters.size());
+      keyWriters.clear();
+      keys.clear();
+      stripeKeys.clear();
+    }
+
+    @Override
+    OrcProto.ColumnEncoding getEncoding() {
+      if (!flat) {
+        return super.getEncoding();
+      }
+      return OrcProto.ColumnEncoding.newBuilder()
+          .setKind(OrcProto.ColumnEncoding.Kind.MAP_FLAT)
+          .addAllKeys(stripeKeys).build();
+    }
+
+    @Override
+    void recordPosition(PositionRecorder recorder) throws IOException {
+      super.recordPosition(recorder);
+      if (lengths != null) {
+        lengths.getPosition(recorder);
+      }
+    }
+
+    @Override
+    void createRowIndexEntry() throws IOException {
+      if (!flat) {
+        super.createRowIndexEntry();
+        return;
+      }
+      for (KeyWriter keyWriter : keyWriters) {
+        mergeIndexStatistics(childrenWriters[1], keyWriter.values);
+      }
+      super.createRowIndexEntry();
+      for (KeyWriter keyWriter : keyWriters) {
+        keyWriter.createRowIndexEntry();
+      }
+      entryMaps.add(mapsInEntry);
+      mapsInEntry = 0;
+    }
+
+    /**
+     * Add the statistics of a key's values to the map's value columns.
+     */
+    private static void mergeIndexStatistics(TreeWriter to, TreeWriter from) {
+      to.indexStatistics.merge(from.indexStatistics);
+      for (int i = 0; i < to.childrenWriters.length; i++) {
+        mergeIndexStatistics(to.childrenWriters[i], from.childrenWriters[i]);
+      }
+    }
+
+    @Override
+    void flush() throws IOException {
+      super.flush();
+      for (KeyWriter keyWriter : keyWriters) {
+        keyWriter.values.flush();
+      }
+    }
+
+    @Override
+    public void abandonDictionaries() throws IOException {
+      super.abandonDictionaries();
+      for (KeyWriter keyWriter : keyWriters) {
+        keyWriter.values.abandonDictionaries();
+      }
+    }
+
+    private static class KeyWriter {
+      private final OrcProto.FlatMapKey key;
+      // The key as a string for the statistics of string keys
+      private final String stringKey;
+      private final int rawDataSize;
+      private final BitFieldWriter inMap;
+      private final TreeWriter values;
+      private final PositionedOutputStream inMapIndexStream;
+      private final OrcProto.RowIndex.Builder inMapIndex = OrcProto.RowIndex.newBuilder();
+      private final OrcProto.RowIndexEntry.Builder inMapIndexEntry =
+          OrcProto.RowIndexEntry.newBuilder();
+      private final RowIndexPositionRecorder inMapPosition =
+          new RowIndexPositionRecorder(inMapIndexEntry);
+      private final KeyStreamFactory streams;
+      // The last map that had the key
+      private long lastMap = 0;
+
+      KeyWriter(OrcProto.FlatMapKey key, String stringKey, int rawDataSize, BitFieldWriter inMap,
+          TreeWriter values, PositionedOutputStream inMapIndexStream, KeyStreamFactory streams)
+          throws IOException {
+        this.key = key;
+        this.streams = streams;
+        this.stringKey = stringKey;
+        this.rawDataSize = rawDataSize;
+        this.inMap = inMap;
+        this.values = values;
+        this.inMapIndexStream = inMapIndexStream;
+        inMap.getPosition(inMapPosition);
+      }
+
+      void createRowIndexEntry() throws IOException {
+        values.createRowIndexEntry();
+        inMapIndex.addEntry(inMapIndexEntry);
+        inMapIndexEntry.clear();
+        inMap.getPosition(inMapPosition);
+      }
+
+      /**
+       * Write the key's streams for the stripe.
+       * @return the key with the encodings of its values
+       */
+      OrcProto.FlatMapKey writeStripe(int requiredIndexEntries) throws IOException {
+        inMap.flush();
+        // the key's value columns aren't in the stripe's list of columns
+        OrcProto.StripeFooter.Builder valueColumns = OrcProto.StripeFooter.newBuilder();
+        values.writeStripe(valueColumns, requiredIndexEntries);
+        if (inMapIndexStream != null) {
+          if (inMapIndex.getEntryCount() != requiredIndexEntries) {
+            throw new IllegalArgumentException("Key has wrong number of " +
+                "index entries found: " + inMapIndex.getEntryCount() + " expected: " +
+                requiredIndexEntries);
+          }
+          inMapIndex.build().writeTo(inMapIndexStream);
+          inMapIndexStream.flush();
+        }
+        inMapIndex.clear();
+        inMapIndexEntry.clear();
+        inMap.getPosition(inMapPosition);
+        return key.toBuilder().addAllValueEncodings(valueColumns.getColumnsList()).build();
+      }
+    }
+  }
+
   private static class UnionTreeWriter extends TreeWriter {
     private final RunLengthByteWriter tags;
 
@@ -2072,7 +3248,12 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
         return new StructTreeWriter(streamFactory.getNextColumnId(), inspector,
             streamFactory, nullable, conf, useVInts, lowMemoryMode, memoryEstimate);
       case MAP:
-        return new MapTreeWriter(streamFactory.getNextColumnId(), inspector,
+        int columnId = streamFactory.getNextColumnId();
+        if (streamFactory.isFlatMap(columnId)) {
+          return new FlatMapTreeWriter(columnId, inspector, streamFactory, nullable, conf,
+              useVInts, lowMemoryMode, memoryEstimate);
+        }
+        return new MapTreeWriter(columnId, inspector,
             streamFactory, nullable, conf, useVInts, lowMemoryMode, memoryEstimate);
       case LIST:
         return new ListTreeWriter(streamFactory.getNextColumnId(), inspector,
@@ -2181,6 +3362,10 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
   }
 
   public void addStripe(StripeInformation si, byte[] data) throws IOException {
+    if (compressionDictionary != null) {
+      throw new IllegalStateException(
+          "Stripes can't be added to a file whose streams use a compression dictionary");
+    }
     ensureWriter();
     OrcProto.StripeInformation dirEntry =
       OrcProto.StripeInformation.newBuilder()
@@ -2213,7 +3398,8 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       if (!pair.getValue().isSuppressed()) {
         StreamName name = pair.getKey();
         if (name.getKind() == Kind.LENGTH) {
-          Integer index = indexMap.get(new StreamName(name.getColumn(), Kind.DICTIONARY_DATA));
+          Integer index = indexMap.get(new StreamName(name.getColumn(), Kind.DICTIONARY_DATA,
+              name.getSequence()));
           if (index != null) {
             streamList.add(index + increment, pair);
             increment++;
@@ -2233,6 +3419,7 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
 
   protected void flushStripe() throws IOException {
     ensureWriter();
+    stripeFlushRequested = false;
 
     ReaderWriterProfiler.start(ReaderWriterProfiler.Counter.ENCODING_TIME);
     treeWriter.flush();
@@ -2258,21 +3445,34 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       List<Map.Entry<StreamName, BufferedStream>> streamList = cleanUpStreams();
       for (Map.Entry<StreamName, BufferedStream> pair : streamList) {
         BufferedStream stream = pair.getValue();
-        stream.flush(true);
+        stream.flush();
         stream.spillTo(rawWriter);
         long end = rawWriter.getPos();
         StreamName name = pair.getKey();
-        builder.addStreams(OrcProto.Stream.newBuilder()
+        OrcProto.Stream.Builder streamBuilder = OrcProto.Stream.newBuilder()
             .setColumn(name.getColumn())
             .setKind(name.getKind())
             .setLength(end-section)
-            .setUseVInts(useVInts));
+            .setUseVInts(useVInts);
+        if (stream.compression != null) {
+          streamBuilder.setCompression(writeCompressionKind(stream.compression));
+        }
+        if (stream.integerEncoding != null) {
+          streamBuilder.setIntegerEncoding(stream.integerEncoding);
+        }
+        if (name.getSequence() != 0) {
+          streamBuilder.setSequence(name.getSequence());
+        }
+        builder.addStreams(streamBuilder);
         section = end;
         if (StreamName.Area.INDEX == name.getArea()) {
           indexEnd = end;
         }
         stream.clear();
       }
+      if (spillFile != null) {
+        spillFile.reset();
+      }
       builder.build().writeTo(protobufWriter);
       protobufWriter.flush();
       writer.flush();
@@ -2292,12 +3492,23 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
     }
   }
 
+  private boolean hasColumnCompression() {
+    for (CompressionKind kind : columnCompression) {
+      if (kind != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private OrcProto.CompressionKind writeCompressionKind(CompressionKind kind) {
     switch (kind) {
       case NONE: return OrcProto.CompressionKind.NONE;
       case ZLIB: return OrcProto.CompressionKind.ZLIB;
       case SNAPPY: return OrcProto.CompressionKind.SNAPPY;
       case LZO: return OrcProto.CompressionKind.LZO;
+      case LZ4: return OrcProto.CompressionKind.LZ4;
+      case ZSTD: return OrcProto.CompressionKind.ZSTD;
       default:
         throw new IllegalArgumentException("Unknown compression " + kind);
     }
@@ -2336,6 +3547,9 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       builder.addMetadata(OrcProto.UserMetadataItem.newBuilder()
         .setName(entry.getKey()).setValue(entry.getValue()));
     }
+    if (compressionDictionary != null) {
+      builder.setCompressionDictionary(ByteString.copyFrom(compressionDictionary));
+    }
     long startPosn = rawWriter.getPos();
     builder.build().writeTo(protobufWriter);
     protobufWriter.flush();
@@ -2348,7 +3562,7 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
       OrcProto.PostScript.newBuilder()
         .setCompression(writeCompressionKind(compress))
         .setFooterLength(footerLength);
-    if (compress != CompressionKind.NONE) {
+    if (compress != CompressionKind.NONE || hasColumnCompression()) {
       builder.setCompressionBlockSize(bufferSize);
     }
     OrcProto.PostScript ps = builder.build();
@@ -2382,8 +3596,16 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
         }
       }
     }
-    if (memoryManager.shouldFlush(memoryEstimate, path, stripeSize, maxDictSize)) {
+    if (memoryManager.shouldFlush(memoryEstimate, path, stripeSize, maxDictSize) ||
+        // the spilled streams don't count against the memory pool, but they still count towards
+        // the size of the stripe
+        (spillFile != null &&
+            memoryEstimate.getTotalMemory() + spillFile.getLength() > stripeSize) ||
+        stripeFlushRequested) {
       flushStripe();
+      // the unused chunks count against the writer's memory, keep few enough of them that the
+      // next stripe isn't flushed early, this also follows the writer's share as it shrinks
+      chunkPool.trim(memoryManager.getMemoryLimit(path, stripeSize) / 4);
     }
     memoryManager.addedRow();
     ReaderWriterProfiler.end(ReaderWriterProfiler.Counter.ENCODING_TIME);
@@ -2404,17 +3626,49 @@ public class WriterImpl implements Writer, MemoryManager.Callback {
     memoryManager.removeWriter(path);
     // actually close the file
     synchronized (this) {
-      LOG.info("Flushing the last stripe of file " + path);
-      flushStripe();
-      LOG.info("Writing out the footer for file " + path);
-      int footerLength = writeFooter(rawWriter.getPos(), columnStats);
-      LOG.info("Footer length was " + footerLength + ". Writing it at the end of the file " + path);
-      rawWriter.writeByte(writePostScript(footerLength));
-      LOG.info("Flushing file " + path);
-      rawWriter.flush();
-      LOG.info("Closing file " + path);
-      rawWriter.close();
-      LOG.info("Closed file " + path);
+      try {
+        LOG.info("Flushing the last stripe of file " + path);
+        flushStripe();
+        LOG.info("Writing out the footer for file " + path);
+        int footerLength = writeFooter(rawWriter.getPos(), columnStats);
+        LOG.info("Footer length was " + footerLength + ". Writing it at the end of the file " +
+            path);
+        rawWriter.writeByte(writePostScript(footerLength));
+        LOG.info("Flushing file " + path);
+        rawWriter.flush();
+        LOG.info("Closing file " + path);
+        rawWriter.close();
+        LOG.info("Closed file " + path);
+        if (dictionaryEncodedStripes + directEncodedStripes > 0) {
+          LOG.info("String columns of file " + path + " used dictionary encoding for " +
+              dictionaryEncodedStripes + " stripes and direct encoding for " +
+              directEncodedStripes + " stripes, " + earlyDirectEncodedStripes +
+              " of which were chosen early");
+        }
+        if (floatingPointDictionaryEncodedStripes + floatingPointDirectEncodedStripes > 0) {
+          LOG.info("Floating point columns of file " + path + " used dictionary encoding for " +
+              floatingPointDictionaryEncodedStripes + " stripes and direct encoding for " +
+              floatingPointDirectEncodedStripes + " stripes");
+        }
+        logAdaptiveCompression();
+      } finally {
+        // delete the spill file even if writing out the file failed
+        if (spillFile != null) {
+          spillFile.close();
+        }
+      }
+      if (codec instanceof Closeable) {
+        // release any native memory held by the codec
+        ((Closeable) codec).close();
+      }
+      if (streamCodec != codec && streamCodec instanceof Closeable) {
+        ((Closeable) streamCodec).close();
+      }
+      for (CompressionCodec columnCodec : columnCodecs) {
+        if (columnCodec instanceof Closeable) {
+          ((Closeable) columnCodec).close();
+        }
+      }
     }
   }
 }
@@ -0,0 +1,184 @@
+//  Copyright (c) 2013, Facebook, Inc.  All rights reserved.
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.hive.orc.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A base class for codecs that compress and decompress a block between two contiguous
+ * arrays or buffers in a single call.
+ */
+abstract class BlockCodec implements CompressionCodec {
+
+  /**
+   * Compress a block.
+   * @return the number of compressed bytes, or -1 if they don't fit in maxOutLength bytes
+   */
+  protected abstract int compressBlock(byte[] in, int inOffset, int inLength,
+                                       byte[] out, int outOffset, int maxOutLength
+                                      ) throws IOException;
+
+  /**
+   * Decompress a block.
+   * @return the number of decompressed bytes
+   */
+  protected abstract int decompressBlock(byte[] in, int inOffset, int inLength,
+                                         byte[] out, int outOffset, int maxOutLength
+                                        ) throws IOException;
+
+  /**
+   * Compress a block between buffers that may not be backed by arrays, the offsets are absolute
+   * and the positions of the buffers are not changed. By default the buffers are copied to
+   * arrays, codecs with native support for direct buffers should override this.
+   * @return the number of compressed bytes, or -1 if they don't fit in maxOutLength bytes
+   */
+  protected int compressBlock(ByteBuffer in, int inOffset, int inLength,
+                              ByteBuffer out, int outOffset, int maxOutLength
+                             ) throws IOException {
+    byte[] input = new byte[inLength];
+    ByteBuffer view = in.duplicate();
+    view.position(inOffset);
+    view.get(input);
+    byte[] output = new byte[maxOutLength];
+    int outLength = compressBlock(input, 0, inLength, output, 0, maxOutLength);
+    if (outLength > 0) {
+      view = out.duplicate();
+      view.position(outOffset);
+      view.put(output, 0, outLength);
+    }
+    return outLength;
+  }
+
+  /**
+   * Decompress a block between buffers that may not be backed by arrays, the offsets are
+   * absolute and the positions of the buffers are not changed. By default the buffers are
+   * copied to arrays, codecs with native support for direct buffers should override this.
+   * @return the number of decompressed bytes
+   */
+  protected int decompressBlock(ByteBuffer in, int inOffset, int inLength,
+                                ByteBuffer out, int outOffset, int maxOutLength
+                               ) throws IOException {
+    byte[] input = new byte[inLength];
+    ByteBuffer view = in.duplicate();
+    view.position(inOffset);
+    view.get(input);
+    byte[] output = new byte[maxOutLength];
+    int outLength = decompressBlock(input, 0, inLength, output, 0, maxOutLength);
+    view = out.duplicate();
+    view.position(outOffset);
+    view.put(output, 0, outLength);
+    return outLength;
+  }
+
+  @Override
+  public boolean compress(ByteBuffer in, ByteBuffer out,
+                          ByteBuffer overflow) throws IOException {
+    int inBytes = in.remaining();
+    // the output is only used if it's smaller than the input
+    int maxOutBytes = inBytes - 1;
+    if (maxOutBytes <= 0) {
+      return false;
+    }
+    if (!HeapBuffers.hasArrays(in, out, overflow)) {
+      return compressBuffers(in, out, overflow, maxOutBytes);
+    }
+    byte[] input = in.array();
+    int inOffset = in.arrayOffset() + in.position();
+    if (out.remaining() >= maxOutBytes) {
+      int outBytes = compressBlock(input, inOffset, inBytes, out.array(),
+          out.arrayOffset() + out.position(), maxOutBytes);
+      if (outBytes < 0) {
+        return false;
+      }
+      out.position(out.position() + outBytes);
+      return true;
+    }
+
+    // the output may need to be split between out and overflow
+    byte[] compressed = new byte[maxOutBytes];
+    int outBytes = compressBlock(input, inOffset, inBytes, compressed, 0, maxOutBytes);
+    if (outBytes < 0) {
+      return false;
+    }
+    int remaining = out.remaining();
+    if (outBytes <= remaining) {
+      out.put(compressed, 0, outBytes);
+    } else if (overflow == null) {
+      return false;
+    } else {
+      out.put(compressed, 0, remaining);
+      overflow.put(compressed, remaining, outBytes - remaining);
+    }
+    return true;
+  }
+
+  private boolean compressBuffers(ByteBuffer in, ByteBuffer out, ByteBuffer overflow,
+                                  int maxOutBytes) throws IOException {
+    int inBytes = in.remaining();
+    if (out.remaining() >= maxOutBytes) {
+      int outBytes = compressBlock(in, in.position(), inBytes, out, out.position(), maxOutBytes);
+      if (outBytes < 0) {
+        return false;
+      }
+      out.position(out.position() + outBytes);
+      return true;
+    }
+
+    // the output may need to be split between out and overflow
+    ByteBuffer compressed = out.isDirect() ? ByteBuffer.allocateDirect(maxOutBytes) :
+        ByteBuffer.allocate(maxOutBytes);
+    int outBytes = compressBlock(in, in.position(), inBytes, compressed, 0, maxOutBytes);
+    if (outBytes < 0) {
+      return false;
+    }
+    compressed.limit(outBytes);
+    int remaining = out.remaining();
+    if (outBytes <= remaining) {
+      out.put(compressed);
+    } else if (overflow == null) {
+      return false;
+    } else {
+      compressed.limit(remaining);
+      out.put(compressed);
+      compressed.limit(outBytes);
+      overflow.put(compressed);
+    }
+    return true;
+  }
+
+  @Override
+  public void decompress(ByteBuffer in, ByteBuffer out) throws IOException {
+    if (!HeapBuffers.hasArrays(in, out)) {
+      int outBytes = decompressBlock(in, in.position(), in.remaining(), out, out.position(),
+          out.remaining());
+      out.position(out.position() + outBytes);
+      out.flip();
+      in.position(in.limit());
+      return;
+    }
+    int outBytes = decompressBlock(in.array(), in.arrayOffset() + in.position(), in.remaining(),
+        out.array(), out.arrayOffset() + out.position(), out.remaining());
+    out.position(out.position() + outBytes);
+    out.flip();
+    in.position(in.limit());
+  }
+}
@@ -24,6 +24,10 @@ import java.nio.ByteBuffer;
 
 import org.apache.hadoop.conf.Configuration;
 
+/**
+ * Compresses and decompresses blocks of a stream. The buffers passed to a codec may be heap,
+ * direct or memory mapped buffers, codecs whose libraries can't use a kind of buffer copy it.
+ */
 public interface CompressionCodec {
   /**
    * Compress the in buffer to the out buffer.
@@ -0,0 +1,44 @@
+//  Copyright (c) 2013, Facebook, Inc.  All rights reserved.
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.hive.orc.compression;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Creates the codecs for a kind of compression. Providers can be registered with
+ * CompressionCodecRegistry, or listed in
+ * META-INF/services/com.facebook.hive.orc.compression.CompressionCodecProvider to be
+ * registered when the registry is first used, replacing the built in codec for the kind.
+ */
+public interface CompressionCodecProvider {
+  /**
+   * Get the kind of compression this provides codecs for.
+   */
+  CompressionKind getKind();
+
+  /**
+   * Create a codec.
+   * @param conf the configuration to read settings such as the compression level from, this may
+   *             be null for reads
+   * @return the codec
+   */
+  CompressionCodec createCodec(Configuration conf);
+}
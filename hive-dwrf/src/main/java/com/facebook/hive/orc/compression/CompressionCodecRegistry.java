@@ -0,0 +1,144 @@
+//  Copyright (c) 2013, Facebook, Inc.  All rights reserved.
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.hive.orc.compression;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * The codecs used for each kind of compression.
+ */
+public final class CompressionCodecRegistry {
+
+  private static final Map<CompressionKind, CompressionCodecProvider> PROVIDERS =
+      new EnumMap<CompressionKind, CompressionCodecProvider>(CompressionKind.class);
+
+  static {
+    register(new CompressionCodecProvider() {
+      @Override
+      public CompressionKind getKind() {
+        return CompressionKind.ZLIB;
+      }
+
+      @Override
+      public CompressionCodec createCodec(Configuration conf) {
+        return new ZlibCodec(conf);
+      }
+    });
+    register(new CompressionCodecProvider() {
+      @Override
+      public CompressionKind getKind() {
+        return CompressionKind.SNAPPY;
+      }
+
+      @Override
+      public CompressionCodec createCodec(Configuration conf) {
+        return new SnappyCodec();
+      }
+    });
+    register(new CompressionCodecProvider() {
+      @Override
+      public CompressionKind getKind() {
+        return CompressionKind.LZO;
+      }
+
+      @Override
+      public CompressionCodec createCodec(Configuration conf) {
+        try {
+          Class<? extends CompressionCodec> lzo =
+              (Class<? extends CompressionCodec>)
+                  Class.forName("com.facebook.hive.orc.LzoCodec");
+          return lzo.newInstance();
+        } catch (ClassNotFoundException e) {
+          throw new IllegalArgumentException("LZO is not available.", e);
+        } catch (InstantiationException e) {
+          throw new IllegalArgumentException("Problem initializing LZO", e);
+        } catch (IllegalAccessException e) {
+          throw new IllegalArgumentException("Insufficient access to LZO", e);
+        }
+      }
+    });
+    register(new CompressionCodecProvider() {
+      @Override
+      public CompressionKind getKind() {
+        return CompressionKind.LZ4;
+      }
+
+      @Override
+      public CompressionCodec createCodec(Configuration conf) {
+        return new Lz4Codec();
+      }
+    });
+    register(new CompressionCodecProvider() {
+      @Override
+      public CompressionKind getKind() {
+        return CompressionKind.ZSTD;
+      }
+
+      @Override
+      public CompressionCodec createCodec(Configuration conf) {
+        return new ZstdCodec(conf);
+      }
+    });
+
+    for (CompressionCodecProvider provider :
+        ServiceLoader.load(CompressionCodecProvider.class)) {
+      register(provider);
+    }
+  }
+
+  private CompressionCodecRegistry() {
+  }
+
+  /**
+   * Use provider to create the codecs for its kind of compression, replacing any previously
+   * registered provider for that kind.
+   */
+  public static synchronized void register(CompressionCodecProvider provider) {
+    if (provider.getKind() == CompressionKind.NONE) {
+      throw new IllegalArgumentException("Can't register a codec for NONE");
+    }
+    PROVIDERS.put(provider.getKind(), provider);
+  }
+
+  /**
+   * Create a codec for a kind of compression.
+   * @param kind the kind of compression
+   * @param conf the configuration for the codec, may be null for reads
+   * @return the codec, or null for NONE
+   */
+  public static CompressionCodec createCodec(CompressionKind kind, Configuration conf) {
+    if (kind == CompressionKind.NONE) {
+      return null;
+    }
+    CompressionCodecProvider provider;
+    synchronized (CompressionCodecRegistry.class) {
+      provider = PROVIDERS.get(kind);
+    }
+    if (provider == null) {
+      throw new IllegalArgumentException("Unknown compression codec: " + kind);
+    }
+    return provider.createCodec(conf);
+  }
+}
@@ -25,5 +25,5 @@ package com.facebook.hive.orc.compression;
  * can be applied to ORC files.
  */
 public enum CompressionKind {
-  NONE, ZLIB, SNAPPY, LZO
+  NONE, ZLIB, SNAPPY, LZO, LZ4, ZSTD
 }
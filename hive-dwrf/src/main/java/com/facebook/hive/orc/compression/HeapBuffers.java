@@ -0,0 +1,104 @@
+//  Copyright (c) 2013, Facebook, Inc.  All rights reserved.
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.hive.orc.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Adapts codecs whose libraries only accept arrays to buffers that aren't backed by an
+ * accessible array, e.g. direct or read only buffers, by copying through heap buffers.
+ */
+final class HeapBuffers {
+
+  private HeapBuffers() {
+  }
+
+  /**
+   * Are all of the buffers backed by arrays the codecs can use, null buffers are ignored.
+   */
+  static boolean hasArrays(ByteBuffer... buffers) {
+    for (ByteBuffer buffer : buffers) {
+      if (buffer != null && !buffer.hasArray()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copy the remaining bytes of a buffer to a heap buffer, without moving its position.
+   */
+  static ByteBuffer copyOf(ByteBuffer buffer) {
+    ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+    copy.put(buffer.duplicate());
+    copy.flip();
+    return copy;
+  }
+
+  /**
+   * Get a heap buffer to use as the output in place of buffer.
+   */
+  private static ByteBuffer heapOutput(ByteBuffer buffer) {
+    if (buffer == null || buffer.hasArray()) {
+      return buffer;
+    }
+    return ByteBuffer.allocate(buffer.remaining());
+  }
+
+  /**
+   * Copy the bytes written to a heap buffer used as the output in place of buffer.
+   */
+  private static void copyOutput(ByteBuffer heap, ByteBuffer buffer) {
+    if (heap != buffer) {
+      heap.flip();
+      buffer.put(heap);
+    }
+  }
+
+  static boolean compress(CompressionCodec codec, ByteBuffer in, ByteBuffer out,
+                          ByteBuffer overflow) throws IOException {
+    ByteBuffer heapIn = in.hasArray() ? in : copyOf(in);
+    ByteBuffer heapOut = heapOutput(out);
+    ByteBuffer heapOverflow = heapOutput(overflow);
+    boolean result = codec.compress(heapIn, heapOut, heapOverflow);
+    copyOutput(heapOut, out);
+    if (heapOverflow != null) {
+      copyOutput(heapOverflow, overflow);
+    }
+    return result;
+  }
+
+  static void decompress(CompressionCodec codec, ByteBuffer in,
+                         ByteBuffer out) throws IOException {
+    ByteBuffer heapIn = in.hasArray() ? in : copyOf(in);
+    if (out.hasArray()) {
+      codec.decompress(heapIn, out);
+    } else {
+      ByteBuffer heapOut = ByteBuffer.allocate(out.remaining());
+      codec.decompress(heapIn, heapOut);
+      // heapOut was flipped by the codec
+      out.put(heapOut);
+      out.flip();
+    }
+    in.position(in.limit());
+  }
+}
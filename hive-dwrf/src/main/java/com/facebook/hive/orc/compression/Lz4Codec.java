@@ -0,0 +1,89 @@
+//  Copyright (c) 2013, Facebook, Inc.  All rights reserved.
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.hive.orc.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A codec for LZ4 blocks, the compressor and decompressor are thread safe and use heap and
+ * direct buffers without copying them.
+ */
+public class Lz4Codec extends BlockCodec {
+
+  private static final LZ4Factory FACTORY = LZ4Factory.fastestInstance();
+
+  private final LZ4Compressor compressor = FACTORY.fastCompressor();
+  private final LZ4SafeDecompressor decompressor = FACTORY.safeDecompressor();
+
+  @Override
+  public void reloadConfigurations(Configuration conf) {
+  }
+
+  @Override
+  protected int compressBlock(byte[] in, int inOffset, int inLength,
+                              byte[] out, int outOffset, int maxOutLength) {
+    try {
+      return compressor.compress(in, inOffset, inLength, out, outOffset, maxOutLength);
+    } catch (LZ4Exception e) {
+      // the compressed block is larger than maxOutLength
+      return -1;
+    }
+  }
+
+  @Override
+  protected int decompressBlock(byte[] in, int inOffset, int inLength,
+                                byte[] out, int outOffset, int maxOutLength
+                               ) throws IOException {
+    try {
+      return decompressor.decompress(in, inOffset, inLength, out, outOffset, maxOutLength);
+    } catch (LZ4Exception e) {
+      throw new IOException("Bad compression data", e);
+    }
+  }
+
+  @Override
+  protected int compressBlock(ByteBuffer in, int inOffset, int inLength,
+                              ByteBuffer out, int outOffset, int maxOutLength) {
+    try {
+      return compressor.compress(in, inOffset, inLength, out, outOffset, maxOutLength);
+    } catch (LZ4Exception e) {
+      return -1;
+    }
+  }
+
+  @Override
+  protected int decompressBlock(ByteBuffer in, int inOffset, int inLength,
+                                ByteBuffer out, int outOffset, int maxOutLength
+                               ) throws IOException {
+    try {
+      return decompressor.decompress(in, inOffset, inLength, out, outOffset, maxOutLength);
+    } catch (LZ4Exception e) {
+      throw new IOException("Bad compression data", e);
+    }
+  }
+}
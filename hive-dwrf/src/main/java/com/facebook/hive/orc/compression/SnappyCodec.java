@@ -36,6 +36,10 @@ public class SnappyCodec implements CompressionCodec {
   @Override
   public boolean compress(ByteBuffer in, ByteBuffer out,
                           ByteBuffer overflow) throws IOException {
+    if (!HeapBuffers.hasArrays(in, out, overflow)) {
+      // this Snappy implementation only accepts arrays
+      return HeapBuffers.compress(this, in, out, overflow);
+    }
     int inBytes = in.remaining();
     // I should work on a patch for Snappy to support an overflow buffer
     // to prevent the extra buffer copy.
@@ -65,6 +69,10 @@ public class SnappyCodec implements CompressionCodec {
 
   @Override
   public void decompress(ByteBuffer in, ByteBuffer out) throws IOException {
+    if (!HeapBuffers.hasArrays(in, out)) {
+      HeapBuffers.decompress(this, in, out);
+      return;
+    }
     int inOffset = in.position();
     int uncompressLen =
         Snappy.uncompress(in.array(), in.arrayOffset() + inOffset,
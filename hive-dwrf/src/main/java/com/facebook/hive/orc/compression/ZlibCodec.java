@@ -19,8 +19,10 @@
  */
 package com.facebook.hive.orc.compression;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -29,9 +31,26 @@ import com.facebook.hive.orc.OrcConf;
 import com.facebook.hive.orc.compression.CompressionCodec;
 import org.apache.hadoop.conf.Configuration;
 
-public class ZlibCodec implements CompressionCodec {
+/**
+ * A codec for zlib. The native state of the Deflaters and Inflaters is expensive to allocate,
+ * so they are reset and pooled for reuse rather than created for every compression block.
+ * At most MAX_POOLED of each are kept, any more are released when they're returned.
+ * Buffers that aren't backed by arrays are copied through heap buffers.
+ * The codec may be used by several threads at once.
+ */
+public class ZlibCodec implements CompressionCodec, Closeable {
+
+  // The most Deflaters, and Inflaters, kept for reuse, which is plenty for the threads that
+  // compress the streams of a writer
+  public static final int MAX_POOLED = 16;
 
   private int compressionLevel;
+  // Deflaters and Inflaters that are not in use, all of the Deflaters use compressionLevel
+  private final ArrayDeque<Deflater> deflaters = new ArrayDeque<Deflater>();
+  private final ArrayDeque<Inflater> inflaters = new ArrayDeque<Inflater>();
+  // The number of Deflaters and Inflaters created by this codec
+  private int createdDeflaters = 0;
+  private int createdInflaters = 0;
 
   public ZlibCodec() {
     compressionLevel = Deflater.DEFAULT_COMPRESSION;
@@ -46,13 +65,78 @@ public class ZlibCodec implements CompressionCodec {
   }
 
   public void reloadConfigurations(Configuration conf) {
-    compressionLevel = OrcConf.getIntVar(conf, OrcConf.ConfVars.HIVE_ORC_ZLIB_COMPRESSION_LEVEL);
+    synchronized (deflaters) {
+      compressionLevel = OrcConf.getIntVar(conf, OrcConf.ConfVars.HIVE_ORC_ZLIB_COMPRESSION_LEVEL);
+      // The pooled Deflaters use the old level
+      endDeflaters();
+    }
+  }
+
+  private Deflater borrowDeflater() {
+    synchronized (deflaters) {
+      Deflater deflater = deflaters.poll();
+      if (deflater == null) {
+        deflater = new Deflater(compressionLevel, true);
+        createdDeflaters++;
+      }
+      return deflater;
+    }
+  }
+
+  private void returnDeflater(Deflater deflater, int level) {
+    deflater.reset();
+    synchronized (deflaters) {
+      if (level == compressionLevel && deflaters.size() < MAX_POOLED) {
+        deflaters.push(deflater);
+        return;
+      }
+    }
+    deflater.end();
+  }
+
+  private Inflater borrowInflater() {
+    synchronized (inflaters) {
+      Inflater inflater = inflaters.poll();
+      if (inflater == null) {
+        inflater = new Inflater(true);
+        createdInflaters++;
+      }
+      return inflater;
+    }
+  }
+
+  private void returnInflater(Inflater inflater) {
+    inflater.reset();
+    synchronized (inflaters) {
+      if (inflaters.size() < MAX_POOLED) {
+        inflaters.push(inflater);
+        return;
+      }
+    }
+    inflater.end();
   }
 
   @Override
   public boolean compress(ByteBuffer in, ByteBuffer out,
                           ByteBuffer overflow) throws IOException {
-    Deflater deflater = new Deflater(compressionLevel, true);
+    if (!HeapBuffers.hasArrays(in, out, overflow)) {
+      // Deflater only accepts arrays
+      return HeapBuffers.compress(this, in, out, overflow);
+    }
+    int level;
+    synchronized (deflaters) {
+      level = compressionLevel;
+    }
+    Deflater deflater = borrowDeflater();
+    try {
+      return compress(deflater, in, out, overflow);
+    } finally {
+      returnDeflater(deflater, level);
+    }
+  }
+
+  private boolean compress(Deflater deflater, ByteBuffer in, ByteBuffer out,
+                           ByteBuffer overflow) {
     int length = in.remaining();
     deflater.setInput(in.array(), in.arrayOffset() + in.position(), length);
     deflater.finish();
@@ -66,36 +150,110 @@ public class ZlibCodec implements CompressionCodec {
       // if we run out of space in the out buffer, use the overflow
       if (out.remaining() == 0) {
         if (overflow == null) {
-          deflater.end();
           return false;
         }
         out = overflow;
         offset = out.arrayOffset() + out.position();
       }
     }
-    deflater.end();
     return length > outSize;
   }
 
   @Override
   public void decompress(ByteBuffer in, ByteBuffer out) throws IOException {
-    Inflater inflater = new Inflater(true);
-    inflater.setInput(in.array(), in.arrayOffset() + in.position(),
-                      in.remaining());
-    while (!(inflater.finished() || inflater.needsDictionary() ||
-             inflater.needsInput())) {
-      try {
+    if (!HeapBuffers.hasArrays(in, out)) {
+      HeapBuffers.decompress(this, in, out);
+      return;
+    }
+    Inflater inflater = borrowInflater();
+    // Only reuse the Inflater if it finished without an error, one that saw corrupt data or was
+    // interrupted by some other failure may be left in any state
+    boolean reusable = false;
+    try {
+      inflater.setInput(in.array(), in.arrayOffset() + in.position(),
+                        in.remaining());
+      while (!(inflater.finished() || inflater.needsDictionary() ||
+               inflater.needsInput())) {
         int count = inflater.inflate(out.array(),
                                      out.arrayOffset() + out.position(),
                                      out.remaining());
         out.position(count + out.position());
-      } catch (DataFormatException dfe) {
-        throw new IOException("Bad compression data", dfe);
+      }
+      reusable = true;
+    } catch (DataFormatException dfe) {
+      throw new IOException("Bad compression data", dfe);
+    } finally {
+      if (reusable) {
+        returnInflater(inflater);
+      } else {
+        inflater.end();
       }
     }
     out.flip();
-    inflater.end();
     in.position(in.limit());
   }
 
+  /**
+   * Get the number of Deflaters waiting in the pool to be reused.
+   */
+  public int getPooledDeflaters() {
+    synchronized (deflaters) {
+      return deflaters.size();
+    }
+  }
+
+  /**
+   * Get the number of Inflaters waiting in the pool to be reused.
+   */
+  public int getPooledInflaters() {
+    synchronized (inflaters) {
+      return inflaters.size();
+    }
+  }
+
+  /**
+   * Get the number of Deflaters created by this codec, including ones that have been released.
+   */
+  public int getCreatedDeflaters() {
+    synchronized (deflaters) {
+      return createdDeflaters;
+    }
+  }
+
+  /**
+   * Get the number of Inflaters created by this codec, including ones that have been released.
+   */
+  public int getCreatedInflaters() {
+    synchronized (inflaters) {
+      return createdInflaters;
+    }
+  }
+
+  private void endDeflaters() {
+    for (Deflater deflater : deflaters) {
+      deflater.end();
+    }
+    deflaters.clear();
+  }
+
+  private void endInflaters() {
+    for (Inflater inflater : inflaters) {
+      inflater.end();
+    }
+    inflaters.clear();
+  }
+
+  /**
+   * Release the native memory of the pooled Deflaters and Inflaters. The codec can still be
+   * used afterwards, any Deflaters and Inflaters in use are pooled when they are returned.
+   */
+  @Override
+  public void close() {
+    synchronized (deflaters) {
+      endDeflaters();
+    }
+    synchronized (inflaters) {
+      endInflaters();
+    }
+  }
 }
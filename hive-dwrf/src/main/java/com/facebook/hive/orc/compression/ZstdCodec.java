@@ -0,0 +1,278 @@
+//  Copyright (c) 2013, Facebook, Inc.  All rights reserved.
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.hive.orc.compression;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+
+import com.facebook.hive.orc.OrcConf;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdException;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A codec for Zstandard, optionally using a trained dictionary. Like the zlib codec, the native
+ * compression and decompression contexts are pooled for reuse, and the codec may be used by
+ * several threads at once. Blocks between direct buffers are compressed without copying them.
+ */
+public class ZstdCodec extends BlockCodec implements Closeable {
+
+  private int compressionLevel;
+  // A dictionary trained on data like the data being compressed, or null
+  private final byte[] dictionary;
+  // The dictionary digested for compressionLevel, and for decompression, contexts refer to these
+  // rather than copying them, so a digested dictionary that was replaced is only closed once the
+  // last context that loaded it is closed
+  private ZstdDictCompress compressDictionary = null;
+  private ZstdDictDecompress decompressDictionary = null;
+  private final IdentityHashMap<ZstdCompressCtx, ZstdDictCompress> compressDictionaries =
+      new IdentityHashMap<ZstdCompressCtx, ZstdDictCompress>();
+  private final IdentityHashMap<ZstdDecompressCtx, ZstdDictDecompress> decompressDictionaries =
+      new IdentityHashMap<ZstdDecompressCtx, ZstdDictDecompress>();
+  // Contexts that are not in use, all of the compression contexts use compressionLevel
+  private final ArrayDeque<ZstdCompressCtx> compressors = new ArrayDeque<ZstdCompressCtx>();
+  private final ArrayDeque<ZstdDecompressCtx> decompressors =
+      new ArrayDeque<ZstdDecompressCtx>();
+
+  public ZstdCodec(Configuration conf) {
+    this(conf, null);
+  }
+
+  public ZstdCodec(Configuration conf, byte[] dictionary) {
+    if (conf == null) {
+      compressionLevel = OrcConf.ConfVars.HIVE_ORC_ZSTD_COMPRESSION_LEVEL.defaultIntVal;
+    } else {
+      compressionLevel = OrcConf.getIntVar(conf, OrcConf.ConfVars.HIVE_ORC_ZSTD_COMPRESSION_LEVEL);
+    }
+    this.dictionary = dictionary;
+  }
+
+  @Override
+  public void reloadConfigurations(Configuration conf) {
+    synchronized (compressors) {
+      compressionLevel = OrcConf.getIntVar(conf, OrcConf.ConfVars.HIVE_ORC_ZSTD_COMPRESSION_LEVEL);
+      // The pooled contexts and the digested dictionary use the old level
+      compressDictionary = null;
+      closeCompressors();
+    }
+  }
+
+  private ZstdCompressCtx borrowCompressor() {
+    synchronized (compressors) {
+      ZstdCompressCtx compressor = compressors.poll();
+      if (compressor == null) {
+        compressor = new ZstdCompressCtx();
+        if (dictionary == null) {
+          compressor.setLevel(compressionLevel);
+        } else {
+          if (compressDictionary == null) {
+            compressDictionary = new ZstdDictCompress(dictionary, compressionLevel);
+          }
+          compressor.loadDict(compressDictionary);
+          compressDictionaries.put(compressor, compressDictionary);
+        }
+      }
+      return compressor;
+    }
+  }
+
+  private void returnCompressor(ZstdCompressCtx compressor, int level) {
+    synchronized (compressors) {
+      if (level == compressionLevel &&
+          compressDictionaries.get(compressor) == compressDictionary) {
+        compressors.push(compressor);
+      } else {
+        closeCompressor(compressor);
+      }
+    }
+  }
+
+  // Must be called while holding the lock on compressors
+  private void closeCompressor(ZstdCompressCtx compressor) {
+    compressor.close();
+    ZstdDictCompress loaded = compressDictionaries.remove(compressor);
+    if (loaded != null && loaded != compressDictionary &&
+        !compressDictionaries.containsValue(loaded)) {
+      loaded.close();
+    }
+  }
+
+  private ZstdDecompressCtx borrowDecompressor() {
+    synchronized (decompressors) {
+      ZstdDecompressCtx decompressor = decompressors.poll();
+      if (decompressor == null) {
+        decompressor = new ZstdDecompressCtx();
+        if (dictionary != null) {
+          if (decompressDictionary == null) {
+            decompressDictionary = new ZstdDictDecompress(dictionary);
+          }
+          decompressor.loadDict(decompressDictionary);
+          decompressDictionaries.put(decompressor, decompressDictionary);
+        }
+      }
+      return decompressor;
+    }
+  }
+
+  private void returnDecompressor(ZstdDecompressCtx decompressor) {
+    synchronized (decompressors) {
+      if (decompressDictionaries.get(decompressor) == decompressDictionary) {
+        decompressors.push(decompressor);
+      } else {
+        closeDecompressor(decompressor);
+      }
+    }
+  }
+
+  private void discardDecompressor(ZstdDecompressCtx decompressor) {
+    synchronized (decompressors) {
+      closeDecompressor(decompressor);
+    }
+  }
+
+  // Must be called while holding the lock on decompressors
+  private void closeDecompressor(ZstdDecompressCtx decompressor) {
+    decompressor.close();
+    ZstdDictDecompress loaded = decompressDictionaries.remove(decompressor);
+    if (loaded != null && loaded != decompressDictionary &&
+        !decompressDictionaries.containsValue(loaded)) {
+      loaded.close();
+    }
+  }
+
+  @Override
+  protected int compressBlock(byte[] in, int inOffset, int inLength,
+                              byte[] out, int outOffset, int maxOutLength
+                             ) throws IOException {
+    int level;
+    synchronized (compressors) {
+      level = compressionLevel;
+    }
+    ZstdCompressCtx compressor = borrowCompressor();
+    try {
+      return compressor.compressByteArray(out, outOffset, maxOutLength, in, inOffset, inLength);
+    } catch (ZstdException e) {
+      if (e.getErrorCode() == Zstd.errDstSizeTooSmall()) {
+        return -1;
+      }
+      throw new IOException("Zstd compression failed", e);
+    } finally {
+      returnCompressor(compressor, level);
+    }
+  }
+
+  @Override
+  protected int decompressBlock(byte[] in, int inOffset, int inLength,
+                                byte[] out, int outOffset, int maxOutLength
+                               ) throws IOException {
+    ZstdDecompressCtx decompressor = borrowDecompressor();
+    int result;
+    try {
+      result = decompressor.decompressByteArray(out, outOffset, maxOutLength, in, inOffset,
+          inLength);
+    } catch (ZstdException e) {
+      // Don't reuse a context that saw corrupt data
+      discardDecompressor(decompressor);
+      throw new IOException("Bad compression data", e);
+    }
+    returnDecompressor(decompressor);
+    return result;
+  }
+
+  @Override
+  protected int compressBlock(ByteBuffer in, int inOffset, int inLength,
+                              ByteBuffer out, int outOffset, int maxOutLength
+                             ) throws IOException {
+    if (!in.isDirect() || !out.isDirect()) {
+      return super.compressBlock(in, inOffset, inLength, out, outOffset, maxOutLength);
+    }
+    int level;
+    synchronized (compressors) {
+      level = compressionLevel;
+    }
+    ZstdCompressCtx compressor = borrowCompressor();
+    try {
+      return compressor.compressDirectByteBuffer(out, outOffset, maxOutLength, in, inOffset,
+          inLength);
+    } catch (ZstdException e) {
+      if (e.getErrorCode() == Zstd.errDstSizeTooSmall()) {
+        return -1;
+      }
+      throw new IOException("Zstd compression failed", e);
+    } finally {
+      returnCompressor(compressor, level);
+    }
+  }
+
+  @Override
+  protected int decompressBlock(ByteBuffer in, int inOffset, int inLength,
+                                ByteBuffer out, int outOffset, int maxOutLength
+                               ) throws IOException {
+    if (!in.isDirect() || !out.isDirect()) {
+      return super.decompressBlock(in, inOffset, inLength, out, outOffset, maxOutLength);
+    }
+    ZstdDecompressCtx decompressor = borrowDecompressor();
+    int result;
+    try {
+      result = decompressor.decompressDirectByteBuffer(out, outOffset, maxOutLength, in,
+          inOffset, inLength);
+    } catch (ZstdException e) {
+      discardDecompressor(decompressor);
+      throw new IOException("Bad compression data", e);
+    }
+    returnDecompressor(decompressor);
+    return result;
+  }
+
+  // Must be called while holding the lock on compressors
+  private void closeCompressors() {
+    for (ZstdCompressCtx compressor : compressors) {
+      closeCompressor(compressor);
+    }
+    compressors.clear();
+  }
+
+  /**
+   * Release the native memory of the pooled contexts and the digested dictionaries, contexts
+   * in use are closed when they're returned. The codec can still be used afterwards.
+   */
+  @Override
+  public void close() {
+    synchronized (compressors) {
+      compressDictionary = null;
+      closeCompressors();
+    }
+    synchronized (decompressors) {
+      decompressDictionary = null;
+      for (ZstdDecompressCtx decompressor : decompressors) {
+        closeDecompressor(decompressor);
+      }
+      decompressors.clear();
+    }
+  }
+}
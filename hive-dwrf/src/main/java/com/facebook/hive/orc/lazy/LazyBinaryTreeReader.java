@@ -22,6 +22,8 @@ package com.facebook.hive.orc.lazy;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -34,11 +36,16 @@ import com.facebook.hive.orc.StreamName;
 import com.facebook.hive.orc.WriterImpl;
 import com.facebook.hive.orc.OrcProto.RowIndex;
 import com.facebook.hive.orc.OrcProto.RowIndexEntry;
+import com.facebook.hive.orc.lazy.OrcLazyObject.ValueNotPresentException;
 
 public class LazyBinaryTreeReader extends LazyTreeReader {
 
   private InStream stream;
   private RunLengthIntegerReader lengths;
+  // The bytes of the latest value read, which are reused for every value
+  private byte[] latestBytes = new byte[0];
+  private int latestLength = 0;
+  private ByteBuffer view = null;
 
   public LazyBinaryTreeReader(int columnId, long rowIndexStride) {
     super(columnId, rowIndexStride);
@@ -72,26 +79,57 @@ public class LazyBinaryTreeReader extends LazyTreeReader {
     return lengths.loadIndeces(rowIndexEntries, updatedStartIndex);
   }
 
+  private void readBytes() throws IOException {
+    int len = (int) lengths.next();
+    if (len > latestBytes.length) {
+      latestBytes = Arrays.copyOf(latestBytes, Math.max(len, latestBytes.length * 2));
+    }
+    latestLength = len;
+    int offset = 0;
+    while (len > 0) {
+      int written = stream.read(latestBytes, offset, len);
+      if (written < 0) {
+        throw new EOFException("Can't finish byte read from " + stream);
+      }
+      len -= written;
+      offset += written;
+    }
+  }
+
+  BytesWritable createWritable(Object previous) {
+    BytesWritable result = null;
+    if (previous == null) {
+      result = new BytesWritable();
+    } else {
+      result = (BytesWritable) previous;
+    }
+    result.set(latestBytes, 0, latestLength);
+    return result;
+  }
+
+  @Override
+  public Object createWritableFromLatest(Object previous) throws IOException {
+    return createWritable(previous);
+  }
+
+  @Override
+  public ByteBuffer nextBytes(boolean readStream) throws IOException {
+    if (readStream) {
+      if (!valuePresent) {
+        throw new ValueNotPresentException("Cannot materialize binary.");
+      }
+      readBytes();
+    }
+    view = setView(view, latestBytes, 0, latestLength);
+    return view;
+  }
+
   @Override
   public Object next(Object previous) throws IOException {
     BytesWritable result = null;
     if (valuePresent) {
-      if (previous == null) {
-        result = new BytesWritable();
-      } else {
-        result = (BytesWritable) previous;
-      }
-      int len = (int) lengths.next();
-      result.setSize(len);
-      int offset = 0;
-      while (len > 0) {
-        int written = stream.read(result.getBytes(), offset, len);
-        if (written < 0) {
-          throw new EOFException("Can't finish byte read from " + stream);
-        }
-        len -= written;
-        offset += written;
-      }
+      readBytes();
+      result = createWritable(previous);
     }
     return result;
   }
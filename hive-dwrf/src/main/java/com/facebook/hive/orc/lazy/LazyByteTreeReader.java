@@ -32,10 +32,12 @@ import com.facebook.hive.orc.RunLengthByteReader;
 import com.facebook.hive.orc.StreamName;
 import com.facebook.hive.orc.OrcProto.RowIndex;
 import com.facebook.hive.orc.OrcProto.RowIndexEntry;
+import com.facebook.hive.orc.lazy.OrcLazyObject.ValueNotPresentException;
 
 public class LazyByteTreeReader extends LazyTreeReader {
 
   private RunLengthByteReader reader = null;
+  private byte latestRead = 0; //< Latest value from stream.
 
   public LazyByteTreeReader(int columnId, long rowIndexStride) {
     super(columnId, rowIndexStride);
@@ -63,16 +65,46 @@ public class LazyByteTreeReader extends LazyTreeReader {
     return reader.loadIndeces(rowIndexEntries, updatedStartIndex);
   }
 
+  byte readByte() throws IOException {
+    latestRead = reader.next();
+    return latestRead;
+  }
+
+  ByteWritable createWritable(Object previous, byte v) throws IOException {
+    ByteWritable result = null;
+    if (previous == null) {
+      result = new ByteWritable();
+    } else {
+      result = (ByteWritable) previous;
+    }
+    result.set(v);
+    return result;
+  }
+
+  @Override
+  public Object createWritableFromLatest(Object previous) throws IOException {
+    return createWritable(previous, latestRead);
+  }
+
+  /**
+   * Give the next byte as a primitive
+   */
+  @Override
+  public byte nextByte(boolean readStream) throws IOException {
+    if (!readStream) {
+      return latestRead;
+    }
+    if (!valuePresent) {
+      throw new ValueNotPresentException("Cannot materialize byte.");
+    }
+    return readByte();
+  }
+
   @Override
   public Object next(Object previous) throws IOException {
     ByteWritable result = null;
     if (valuePresent) {
-      if (previous == null) {
-        result = new ByteWritable();
-      } else {
-        result = (ByteWritable) previous;
-      }
-      result.set(reader.next());
+      result = createWritable(previous, readByte());
     }
     return result;
   }
@@ -28,16 +28,26 @@ import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 
 import com.facebook.hive.orc.InStream;
 import com.facebook.hive.orc.OrcProto;
-import com.facebook.hive.orc.SerializationUtils;
+import com.facebook.hive.orc.RunLengthIntegerReader;
 import com.facebook.hive.orc.StreamName;
+import com.facebook.hive.orc.WriterImpl;
 import com.facebook.hive.orc.OrcProto.RowIndex;
 import com.facebook.hive.orc.OrcProto.RowIndexEntry;
 import com.facebook.hive.orc.lazy.OrcLazyObject.ValueNotPresentException;
 
 public class LazyDoubleTreeReader extends LazyTreeReader {
 
+  private static final int VALUE_BUFFER_SIZE = 1024;
+
   private InStream stream;
   private double latestRead = 0.0; //< Last value that was read from the stream.
+  // Values read from the stream in bulk that haven't been returned yet
+  private final double[] values = new double[VALUE_BUFFER_SIZE];
+  private int numValues = 0;
+  private int nextValue = 0;
+  // If the stripe is dictionary encoded, the dictionary and the ids of the values
+  private double[] dictionary;
+  private RunLengthIntegerReader ids;
 
   public LazyDoubleTreeReader(int columnId, long rowIndexStride) {
     super(columnId, rowIndexStride);
@@ -51,6 +61,20 @@ public class LazyDoubleTreeReader extends LazyTreeReader {
       new StreamName(columnId,
         OrcProto.Stream.Kind.DATA);
     stream = streams.get(name);
+    OrcProto.ColumnEncoding encoding = encodings.get(columnId);
+    if (encoding.getKind() == OrcProto.ColumnEncoding.Kind.DICTIONARY) {
+      dictionary = new double[encoding.getDictionarySize()];
+      InStream in = streams.get(new StreamName(columnId,
+          OrcProto.Stream.Kind.DICTIONARY_DATA));
+      in.readDoubles(dictionary, 0, dictionary.length);
+      in.close();
+      ids = new RunLengthIntegerReader(stream, false, WriterImpl.INT_BYTE_SIZE);
+    } else {
+      dictionary = null;
+      ids = null;
+    }
+    numValues = 0;
+    nextValue = 0;
     if (indexes[columnId] != null) {
       loadIndeces(indexes[columnId].getEntryList(), 0);
     }
@@ -58,12 +82,21 @@ public class LazyDoubleTreeReader extends LazyTreeReader {
 
   @Override
   public void seek(int index) throws IOException {
-    stream.seek(index);
+    if (ids != null) {
+      ids.seek(index);
+    } else {
+      stream.seek(index);
+    }
+    numValues = 0;
+    nextValue = 0;
   }
 
   @Override
   public int loadIndeces(List<RowIndexEntry> rowIndexEntries, int startIndex) {
     int updatedStartIndex = super.loadIndeces(rowIndexEntries, startIndex);
+    if (ids != null) {
+      return ids.loadIndeces(rowIndexEntries, updatedStartIndex);
+    }
     return stream.loadIndeces(rowIndexEntries, updatedStartIndex);
   }
 
@@ -71,7 +104,17 @@ public class LazyDoubleTreeReader extends LazyTreeReader {
    * Read a double value from the stream.
    */
   private double readDouble() throws IOException {
-    latestRead = SerializationUtils.readDouble(stream);;
+    if (ids != null) {
+      latestRead = dictionary[(int) ids.next()];
+      return latestRead;
+    }
+    if (nextValue == numValues) {
+      // read the rest of the current block, at least one value may be split between blocks
+      numValues = Math.max(1, Math.min(values.length, stream.available() / 8));
+      stream.readDoubles(values, 0, numValues);
+      nextValue = 0;
+    }
+    latestRead = values[nextValue++];
     return latestRead;
   }
 
@@ -120,7 +163,13 @@ public class LazyDoubleTreeReader extends LazyTreeReader {
 
   @Override
   public void skipRows(long numNonNullValues) throws IOException {
-    stream.skip(numNonNullValues * 8);
+    if (ids != null) {
+      ids.skip(numNonNullValues);
+      return;
+    }
+    long buffered = Math.min(numNonNullValues, numValues - nextValue);
+    nextValue += buffered;
+    stream.skip((numNonNullValues - buffered) * 8);
   }
 
   @Override
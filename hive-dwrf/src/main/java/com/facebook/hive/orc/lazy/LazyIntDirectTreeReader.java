@@ -24,7 +24,6 @@ import java.io.IOException;
 
 import org.apache.hadoop.io.IntWritable;
 
-import com.facebook.hive.orc.SerializationUtils;
 import com.facebook.hive.orc.WriterImpl;
 import com.facebook.hive.orc.lazy.OrcLazyObject.ValueNotPresentException;
 
@@ -40,8 +39,7 @@ class LazyIntDirectTreeReader extends LazyNumericDirectTreeReader {
    * Read an int value from the stream.
    */
   private int readInt() throws IOException {
-    latestRead = (int)SerializationUtils.readIntegerType(input, WriterImpl.INT_BYTE_SIZE,
-                                                         true, input.useVInts());
+    latestRead = (int) readInteger(WriterImpl.INT_BYTE_SIZE);
     return latestRead;
   }
 
@@ -86,9 +84,6 @@ class LazyIntDirectTreeReader extends LazyNumericDirectTreeReader {
 
   @Override
   public void skipRows(long numNonNullValues) throws IOException {
-    for (int i = 0; i < numNonNullValues; i++) {
-      SerializationUtils.readIntegerType(input, WriterImpl.INT_BYTE_SIZE,
-          true, input.useVInts());
-    }
+    skipIntegers(numNonNullValues, WriterImpl.INT_BYTE_SIZE);
   }
 }
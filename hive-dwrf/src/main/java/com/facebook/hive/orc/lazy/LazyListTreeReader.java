@@ -22,6 +22,7 @@ package com.facebook.hive.orc.lazy;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -35,20 +36,45 @@ import com.facebook.hive.orc.OrcProto.RowIndexEntry;
 
 public class LazyListTreeReader extends LazyTreeReader {
   private final LazyTreeReader elementReader;
+  // If the elements are of a primitive type, reads them into primitive lists
+  private final PrimitiveList.Reader primitiveReader;
   private RunLengthIntegerReader lengths;
 
+  // The row whose list is being read element by element, or -1, and its length, the number of
+  // its elements that have been read or skipped, and the elements that have been read
+  private long elementRow = -1;
+  private int elementLength;
+  private int elementsConsumed;
+  private Object[] elements = new Object[0];
+  private boolean[] decoded = new boolean[0];
+
   public LazyListTreeReader(int columnId, long rowIndexStride, LazyTreeReader elementReader) {
+    this(columnId, rowIndexStride, elementReader, null);
+  }
+
+  /**
+   * @param elementKind the type of the elements, lists of primitive types are read as primitive
+   *                    lists, or null to always read lists of writables
+   */
+  public LazyListTreeReader(int columnId, long rowIndexStride, LazyTreeReader elementReader,
+      OrcProto.Type.Kind elementKind) {
     super(columnId, rowIndexStride);
     this.elementReader = elementReader;
+    primitiveReader = elementKind != null && PrimitiveList.isSupported(elementKind) ?
+        new PrimitiveList.Reader(elementReader, elementKind) : null;
   }
 
   @Override
   public Object next(Object previous) throws IOException {
     List<Object> result = null;
+    finishElements();
     if (valuePresent) {
       final int length = nextLength();
+      if (primitiveReader != null) {
+        return primitiveReader.read(length, previousRow);
+      }
       final List<Object> prevResult = previous == null ?
-          null : (ArrayList<Object>) previous;
+          null : (List<Object>) previous;
       final int prevLength = prevResult == null ? -1 : prevResult.size();
 
       // read the new elements into the array
@@ -61,6 +87,95 @@ public class LazyListTreeReader extends LazyTreeReader {
     return result;
   }
 
+  @Override
+  public Object get(long currentRow, Object previous) throws IOException {
+    if (currentRow != elementRow) {
+      return super.get(currentRow, previous);
+    }
+    // some of the list's elements have already been read on their own, read the rest into the
+    // same kind of list next would have returned
+    if (primitiveReader != null) {
+      PrimitiveList result = primitiveReader.create(elementLength);
+      for (int i = 0; i < elementLength; i++) {
+        result.setElement(i, getElement(currentRow, i));
+      }
+      return result;
+    }
+    List<Object> result = new ArrayList<Object>(elementLength);
+    for (int i = 0; i < elementLength; i++) {
+      result.add(getElement(currentRow, i));
+    }
+    return result;
+  }
+
+  /**
+   * Get the length of the list of a row, without reading its elements.
+   */
+  public int getLength(long currentRow) throws IOException {
+    if (currentRow != elementRow) {
+      seekToRow(currentRow);
+      finishElements();
+      elementLength = nextLength();
+      elementsConsumed = 0;
+      elementRow = currentRow;
+      if (elements.length < elementLength) {
+        elements = new Object[elementLength];
+        decoded = new boolean[elementLength];
+      }
+    }
+    return elementLength;
+  }
+
+  /**
+   * Get an element of the list of a row, only reading that element.  The elements before it
+   * that haven't been read are skipped, if one of those is read later the list is read again
+   * from the start of its row index entry.
+   * @return the element, or null if it's null or the list doesn't have that many elements
+   */
+  public Object getElement(long currentRow, int index) throws IOException {
+    int length = getLength(currentRow);
+    if (index < 0 || index >= length) {
+      return null;
+    }
+    if (index < elementsConsumed && !decoded[index]) {
+      // the element was skipped, so read the list again as if the reader had gone past the row
+      // and was seeking back to it
+      clearElements();
+      previousRow = currentRow + 1;
+      previousPresentRow = currentRow + 1;
+      getLength(currentRow);
+    }
+    if (index >= elementsConsumed) {
+      if (index > elementsConsumed) {
+        elementReader.skipRowsInComplexType(index - elementsConsumed);
+      }
+      elements[index] = elementReader.getInComplexType(null, previousRow);
+      decoded[index] = true;
+      elementsConsumed = index + 1;
+    }
+    return elements[index];
+  }
+
+  /**
+   * Skip the elements of the list being read element by element that haven't been read.
+   */
+  private void finishElements() throws IOException {
+    if (elementRow != -1) {
+      if (elementsConsumed < elementLength) {
+        elementReader.skipRowsInComplexType(elementLength - elementsConsumed);
+      }
+      clearElements();
+    }
+  }
+
+  private void clearElements() {
+    if (elementRow != -1) {
+      Arrays.fill(elements, 0, elementLength, null);
+      Arrays.fill(decoded, 0, elementLength, false);
+      elementRow = -1;
+    }
+  }
+
   @Override
   protected void seek(int rowIndexEntry, boolean backwards) throws IOException {
     super.seek(rowIndexEntry, backwards);
@@ -77,6 +192,7 @@ public class LazyListTreeReader extends LazyTreeReader {
     elementReader.startStripe(streams, encodings, indexes, rowBaseInStripe);
     lengths = new RunLengthIntegerReader(streams.get(new StreamName(columnId,
         OrcProto.Stream.Kind.LENGTH)), false, WriterImpl.INT_BYTE_SIZE);
+    clearElements();
     if (indexes[columnId] != null) {
       loadIndeces(indexes[columnId].getEntryList(), 0);
     }
@@ -84,6 +200,7 @@ public class LazyListTreeReader extends LazyTreeReader {
 
   @Override
   public void seek(int index) throws IOException {
+    clearElements();
     lengths.seek(index);
   }
 
@@ -99,6 +216,7 @@ public class LazyListTreeReader extends LazyTreeReader {
 
   @Override
   public void skipRows(long numNonNullValues) throws IOException {
+    finishElements();
     long childSkip = 0;
     for(long i=0; i < numNonNullValues; ++i) {
       childSkip += lengths.next();
@@ -24,7 +24,6 @@ import java.io.IOException;
 
 import org.apache.hadoop.io.LongWritable;
 
-import com.facebook.hive.orc.SerializationUtils;
 import com.facebook.hive.orc.WriterImpl;
 import com.facebook.hive.orc.lazy.OrcLazyObject.ValueNotPresentException;
 
@@ -37,8 +36,7 @@ class LazyLongDirectTreeReader extends LazyNumericDirectTreeReader {
   }
 
   private long readLong() throws IOException {
-    latestRead = (long)SerializationUtils.readIntegerType(input, WriterImpl.LONG_BYTE_SIZE,
-                                                          true, input.useVInts());
+    latestRead = readInteger(WriterImpl.LONG_BYTE_SIZE);
     return latestRead;
   }
 
@@ -78,9 +76,6 @@ class LazyLongDirectTreeReader extends LazyNumericDirectTreeReader {
 
   @Override
   public void skipRows(long numNonNullValues) throws IOException {
-    for (int i = 0; i < numNonNullValues; i++) {
-      SerializationUtils.readIntegerType(input, WriterImpl.LONG_BYTE_SIZE,
-          true, input.useVInts());
-    }
+    skipIntegers(numNonNullValues, WriterImpl.LONG_BYTE_SIZE);
   }
 }
@@ -21,10 +21,19 @@
 package com.facebook.hive.orc.lazy;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+import com.facebook.hive.orc.BitFieldReader;
 import com.facebook.hive.orc.InStream;
 import com.facebook.hive.orc.OrcProto;
 import com.facebook.hive.orc.RunLengthIntegerReader;
@@ -34,21 +43,89 @@ import com.facebook.hive.orc.OrcProto.RowIndex;
 import com.facebook.hive.orc.OrcProto.RowIndexEntry;
 
 public class LazyMapTreeReader extends LazyTreeReader {
+
+  /**
+   * Creates readers for the values of the keys of flat maps.
+   */
+  public interface ValueReaderFactory {
+    LazyTreeReader createValueReader() throws IOException;
+  }
+
   private final LazyTreeReader keyReader;
   private final LazyTreeReader valueReader;
+  private final OrcProto.Type.Kind keyKind;
+  // If the keys and values are of primitive types, reads them into primitive lists
+  private final PrimitiveList.Reader primitiveKeyReader;
+  private final PrimitiveList.Reader primitiveValueReader;
+  private final ValueReaderFactory valueReaderFactory;
   private RunLengthIntegerReader lengths;
 
-  public LazyMapTreeReader(int columnId, long rowIndexStride, LazyTreeReader keyReader, LazyTreeReader valueReader) {
+  // If the stripe's maps are flat maps, the keys, and the readers of the keys that have been
+  // read, which are only created once a key is read
+  private Object[] keys;
+  private Map<Object, Integer> keyIndexes;
+  private List<OrcProto.FlatMapKey> flatMapKeys;
+  private KeyReader[] keyReaders;
+  // The streams of each key, by sequence, named as if they weren't a key's
+  private Map<Integer, Map<StreamName, InStream>> keyStreams;
+  private List<OrcProto.ColumnEncoding> encodings;
+  // The position of the maps in a flat map stripe, as the row index entry last sought to and
+  // the number of non-null maps read or skipped since, which the keys catch up to when read
+  private int entry;
+  private long maps;
+  // The row whose map getValue last read from, which is already counted in maps
+  private long projectedRow = -1;
+
+  // If only some of the keys are read, the keys and their positions in the projection,
+  // otherwise null
+  private Object[] projectedKeys;
+  private Map<Object, Integer> projectedIndexes;
+  // The key the keys are decoded into when looking for the projected keys, and the entries of
+  // the map being read with projected keys, and the positions of those keys in the projection
+  private Object scratchKey;
+  private int[] projectedEntries = new int[0];
+  private int[] projectedSlots = new int[0];
+
+  /**
+   * @param keyKind the type of the keys
+   * @param valueKind the type of the values, if both it and the key type are primitive types the
+   *                  maps are read as primitive maps, or null to always read maps of writables
+   * @param valueReaderFactory creates readers for the values of flat maps
+   */
+  public LazyMapTreeReader(int columnId, long rowIndexStride, LazyTreeReader keyReader,
+      LazyTreeReader valueReader, OrcProto.Type.Kind keyKind, OrcProto.Type.Kind valueKind,
+      ValueReaderFactory valueReaderFactory) {
     super(columnId, rowIndexStride);
     this.keyReader = keyReader;
     this.valueReader = valueReader;
+    this.keyKind = keyKind;
+    this.valueReaderFactory = valueReaderFactory;
+    if (valueKind != null && PrimitiveList.isSupported(keyKind) &&
+        PrimitiveList.isSupported(valueKind)) {
+      primitiveKeyReader = new PrimitiveList.Reader(keyReader, keyKind);
+      primitiveValueReader = new PrimitiveList.Reader(valueReader, valueKind);
+    } else {
+      primitiveKeyReader = null;
+      primitiveValueReader = null;
+    }
   }
 
   @Override
   public Object next(Object previous) throws IOException {
     Map<Object, Object> result = null;
     if (valuePresent) {
+      if (keys != null) {
+        return nextFlatMap(maps++);
+      }
       final int length = nextLength();
+      if (projectedKeys != null) {
+        return nextProjected(length);
+      }
+      if (primitiveKeyReader != null) {
+        // the keys and values are in separate streams, so all the keys can be read first
+        return new PrimitiveMap(primitiveKeyReader.read(length, previousRow),
+            primitiveValueReader.read(length, previousRow));
+      }
       result = new HashMap<Object, Object>(length);
 
       // read the new elements into the array
@@ -60,11 +137,211 @@ public class LazyMapTreeReader extends LazyTreeReader {
     return result;
   }
 
+  @Override
+  public Object get(long currentRow, Object previous) throws IOException {
+    if (keys != null && currentRow == projectedRow) {
+      // getValue already moved to the row
+      return nextFlatMap(maps - 1);
+    }
+    return super.get(currentRow, previous);
+  }
+
+  /**
+   * Only read the values of the given keys, the maps that are read only have the entries with
+   * these keys, and getValue returns null for any other key.  The keys are decoded to find the
+   * projected ones, and the values of the other keys are skipped, or for flat maps the other
+   * keys aren't read at all.
+   * @param keys the keys as writables of the type of the map's keys, or null to read every key
+   */
+  public void setProjectedKeys(Collection<?> keys) {
+    if (keys == null) {
+      projectedKeys = null;
+      projectedIndexes = null;
+      return;
+    }
+    projectedKeys = keys.toArray();
+    projectedIndexes = new HashMap<Object, Integer>();
+    for (int i = 0; i < projectedKeys.length; i++) {
+      projectedIndexes.put(projectedKeys[i], i);
+    }
+  }
+
+  /**
+   * Read the map's keys, and only read the values of the projected keys, skipping the others.
+   */
+  private Map<Object, Object> nextProjected(int length) throws IOException {
+    ProjectedMap result = new ProjectedMap(projectedKeys);
+    if (projectedEntries.length < length) {
+      projectedEntries = new int[length];
+      projectedSlots = new int[length];
+    }
+    int found = 0;
+    for (int i = 0; i < length; i++) {
+      Object key = keyReader.getInComplexType(scratchKey, previousRow);
+      if (key != null) {
+        scratchKey = key;
+        Integer slot = projectedIndexes.get(key);
+        if (slot != null) {
+          projectedEntries[found] = i;
+          projectedSlots[found] = slot;
+          found++;
+        }
+      }
+    }
+    int entry = 0;
+    for (int i = 0; i < found; i++) {
+      if (projectedEntries[i] > entry) {
+        valueReader.skipRowsInComplexType(projectedEntries[i] - entry);
+      }
+      result.put(projectedSlots[i], valueReader.getInComplexType(null, previousRow));
+      entry = projectedEntries[i] + 1;
+    }
+    if (length > entry) {
+      valueReader.skipRowsInComplexType(length - entry);
+    }
+    return result;
+  }
+
+  /**
+   * Is the current stripe's maps flat maps, whose keys can be read without the others.
+   */
+  public boolean isFlat() {
+    return keys != null;
+  }
+
+  /**
+   * Get the value of a key in the map of a row of a flat map stripe, reading only that key.
+   * @param key the key, as a writable
+   * @return the value, or null if the map is null or doesn't have the key
+   */
+  public Object getValue(long currentRow, Object key) throws IOException {
+    if (projectedIndexes != null && !projectedIndexes.containsKey(key)) {
+      return null;
+    }
+    if (currentRow != projectedRow) {
+      seekToRow(currentRow);
+      if (!valuePresent) {
+        return null;
+      }
+      projectedRow = currentRow;
+      maps++;
+    }
+    Integer index = keyIndexes.get(key);
+    if (index == null) {
+      return null;
+    }
+    KeyReader keyReader = getKeyReader(index);
+    if (!nextInMap(keyReader, maps - 1)) {
+      return null;
+    }
+    return keyReader.values.getInComplexType(null, previousRow);
+  }
+
+  /**
+   * Read every key of the map at the given position in a flat map stripe.
+   */
+  private Map<Object, Object> nextFlatMap(long map) throws IOException {
+    if (projectedKeys != null) {
+      ProjectedMap result = new ProjectedMap(projectedKeys);
+      for (int i = 0; i < projectedKeys.length; i++) {
+        Integer index = keyIndexes.get(projectedKeys[i]);
+        if (index != null) {
+          KeyReader keyReader = getKeyReader(index);
+          if (nextInMap(keyReader, map)) {
+            result.put(i, keyReader.values.getInComplexType(null, previousRow));
+          }
+        }
+      }
+      return result;
+    }
+    Map<Object, Object> result = new HashMap<Object, Object>();
+    for (int i = 0; i < keys.length; i++) {
+      KeyReader keyReader = getKeyReader(i);
+      if (nextInMap(keyReader, map)) {
+        result.put(keys[i], keyReader.values.getInComplexType(null, previousRow));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Move a key's streams to the map at the given position, and read whether the map has the
+   * key, if it does the value is next.
+   */
+  private boolean nextInMap(KeyReader keyReader, long map) throws IOException {
+    if (keyReader.entry != entry || keyReader.maps > map) {
+      keyReader.inMap.seek(entry);
+      keyReader.values.seek(entry, true);
+      keyReader.entry = entry;
+      keyReader.maps = 0;
+    }
+    if (keyReader.maps < map) {
+      long values = 0;
+      for (long i = keyReader.maps; i < map; i++) {
+        values += keyReader.inMap.next();
+      }
+      keyReader.values.skipRowsInComplexType(values);
+    }
+    keyReader.maps = map + 1;
+    return keyReader.inMap.next() == 1;
+  }
+
+  private KeyReader getKeyReader(int index) throws IOException {
+    if (keyReaders[index] == null) {
+      Map<StreamName, InStream> streams = keyStreams.get(index + 1);
+      // the key's values are read as if they were the map's value columns
+      List<OrcProto.ColumnEncoding> valueEncodings =
+          flatMapKeys.get(index).getValueEncodingsList();
+      List<OrcProto.ColumnEncoding> keyEncodings =
+          new ArrayList<OrcProto.ColumnEncoding>(encodings);
+      RowIndex[] indexes = new RowIndex[encodings.size()];
+      for (int i = 0; i < valueEncodings.size(); i++) {
+        keyEncodings.set(valueReader.columnId + i, valueEncodings.get(i));
+        indexes[valueReader.columnId + i] = readIndex(streams, valueReader.columnId + i);
+      }
+      LazyTreeReader values = valueReaderFactory.createValueReader();
+      values.startStripe(streams, keyEncodings, indexes, rowBaseInStripe);
+      BitFieldReader inMap = new BitFieldReader(streams.get(new StreamName(keyReader.columnId,
+          OrcProto.Stream.Kind.IN_MAP)));
+      RowIndex inMapIndex = readIndex(streams, keyReader.columnId);
+      if (inMapIndex != null) {
+        inMap.loadIndeces(inMapIndex.getEntryList(), 0);
+      }
+      keyReaders[index] = new KeyReader(inMap, values);
+    }
+    return keyReaders[index];
+  }
+
+  private static RowIndex readIndex(Map<StreamName, InStream> streams, int column)
+      throws IOException {
+    InStream in = streams.get(new StreamName(column, OrcProto.Stream.Kind.ROW_INDEX));
+    return in == null ? null : RowIndex.parseFrom(in);
+  }
+
+  private Object createKey(OrcProto.FlatMapKey key) {
+    switch (keyKind) {
+      case BYTE:
+        return new ByteWritable((byte) key.getIntKey());
+      case SHORT:
+        return new ShortWritable((short) key.getIntKey());
+      case INT:
+        return new IntWritable((int) key.getIntKey());
+      case LONG:
+        return new LongWritable(key.getIntKey());
+      case STRING:
+        return new Text(key.getBytesKey().toByteArray());
+      default:
+        throw new IllegalArgumentException("Unsupported flat map key type " + keyKind);
+    }
+  }
+
   @Override
   protected void seek(int rowIndexEntry, boolean backwards) throws IOException {
     super.seek(rowIndexEntry, backwards);
-    keyReader.seek(rowIndexEntry, backwards);
-    valueReader.seek(rowIndexEntry,backwards);
+    if (keys == null) {
+      keyReader.seek(rowIndexEntry, backwards);
+      valueReader.seek(rowIndexEntry,backwards);
+    }
   }
 
   @Override
@@ -74,23 +351,72 @@ public class LazyMapTreeReader extends LazyTreeReader {
       long rowBaseInStripe
      ) throws IOException {
     super.startStripe(streams, encodings, indexes, rowBaseInStripe);
-    keyReader.startStripe(streams, encodings, indexes, rowBaseInStripe);
-    valueReader.startStripe(streams, encodings, indexes, rowBaseInStripe);
-    lengths = new RunLengthIntegerReader(streams.get(new StreamName(columnId,
-        OrcProto.Stream.Kind.LENGTH)), false, WriterImpl.INT_BYTE_SIZE);
+    OrcProto.ColumnEncoding encoding = encodings.get(columnId);
+    if (encoding.getKind() == OrcProto.ColumnEncoding.Kind.MAP_FLAT) {
+      startFlatMapStripe(streams, encodings, encoding.getKeysList());
+      lengths = null;
+    } else {
+      keys = null;
+      keyReaders = null;
+      keyStreams = null;
+      keyReader.startStripe(streams, encodings, indexes, rowBaseInStripe);
+      valueReader.startStripe(streams, encodings, indexes, rowBaseInStripe);
+      lengths = new RunLengthIntegerReader(streams.get(new StreamName(columnId,
+          OrcProto.Stream.Kind.LENGTH)), false, WriterImpl.INT_BYTE_SIZE);
+    }
     if (indexes[columnId] != null) {
       loadIndeces(indexes[columnId].getEntryList(), 0);
     }
   }
 
+  private void startFlatMapStripe(Map<StreamName, InStream> streams,
+      List<OrcProto.ColumnEncoding> encodings, List<OrcProto.FlatMapKey> flatMapKeys) {
+    this.encodings = encodings;
+    this.flatMapKeys = flatMapKeys;
+    keys = new Object[flatMapKeys.size()];
+    keyIndexes = new HashMap<Object, Integer>();
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = createKey(flatMapKeys.get(i));
+      keyIndexes.put(keys[i], i);
+    }
+    keyReaders = new KeyReader[keys.length];
+    keyStreams = new HashMap<Integer, Map<StreamName, InStream>>();
+    int valueColumns = keys.length == 0 ? 0 : flatMapKeys.get(0).getValueEncodingsCount();
+    for (Map.Entry<StreamName, InStream> stream : streams.entrySet()) {
+      StreamName name = stream.getKey();
+      int column = name.getColumn();
+      if (name.getSequence() != 0 && (column == keyReader.columnId ||
+          (column >= valueReader.columnId && column < valueReader.columnId + valueColumns))) {
+        Map<StreamName, InStream> sequenceStreams = keyStreams.get(name.getSequence());
+        if (sequenceStreams == null) {
+          sequenceStreams = new HashMap<StreamName, InStream>();
+          keyStreams.put(name.getSequence(), sequenceStreams);
+        }
+        sequenceStreams.put(new StreamName(column, name.getKind()), stream.getValue());
+      }
+    }
+    entry = 0;
+    maps = 0;
+    projectedRow = -1;
+  }
+
   @Override
   public void seek(int index) throws IOException {
-    lengths.seek(index);
+    if (keys != null) {
+      entry = index;
+      maps = 0;
+      projectedRow = -1;
+    } else {
+      lengths.seek(index);
+    }
   }
 
   @Override
   public int loadIndeces(List<RowIndexEntry> rowIndexEntries, int startIndex) {
     int updatedStartIndex = super.loadIndeces(rowIndexEntries, startIndex);
+    if (lengths == null) {
+      return updatedStartIndex;
+    }
     return lengths.loadIndeces(rowIndexEntries, updatedStartIndex);
   }
 
@@ -100,6 +426,10 @@ public class LazyMapTreeReader extends LazyTreeReader {
 
   @Override
   public void skipRows(long numNonNullValues) throws IOException {
+    if (keys != null) {
+      maps += numNonNullValues;
+      return;
+    }
     long childSkip = 0;
     for(long i=0; i < numNonNullValues; ++i) {
       childSkip += lengths.next();
@@ -119,5 +449,26 @@ public class LazyMapTreeReader extends LazyTreeReader {
     if (lengths != null) {
       lengths.close();
     }
+    if (keyReaders != null) {
+      for (KeyReader reader : keyReaders) {
+        if (reader != null) {
+          reader.inMap.close();
+          reader.values.close();
+        }
+      }
+    }
+  }
+
+  private static class KeyReader {
+    private final BitFieldReader inMap;
+    private final LazyTreeReader values;
+    // The position of the key's streams, like the map's
+    private int entry = 0;
+    private long maps = 0;
+
+    KeyReader(BitFieldReader inMap, LazyTreeReader values) {
+      this.inMap = inMap;
+      this.values = values;
+    }
   }
 }
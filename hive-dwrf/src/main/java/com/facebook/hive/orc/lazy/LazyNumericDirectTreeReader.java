@@ -26,12 +26,17 @@ import java.util.Map;
 
 import com.facebook.hive.orc.InStream;
 import com.facebook.hive.orc.OrcProto;
+import com.facebook.hive.orc.RunLengthIntegerReader;
+import com.facebook.hive.orc.SerializationUtils;
 import com.facebook.hive.orc.StreamName;
+import com.facebook.hive.orc.WriterImpl;
 import com.facebook.hive.orc.OrcProto.RowIndex;
 import com.facebook.hive.orc.OrcProto.RowIndexEntry;
 
 abstract class LazyNumericDirectTreeReader extends LazyTreeReader {
   protected InStream input;
+  // If the values are integers that were run length encoded, they are read from this instead
+  private RunLengthIntegerReader integers;
 
   LazyNumericDirectTreeReader(int columnId, long rowIndexStride) {
     super(columnId, rowIndexStride);
@@ -44,6 +49,8 @@ abstract class LazyNumericDirectTreeReader extends LazyTreeReader {
     StreamName name = new StreamName(columnId,
         OrcProto.Stream.Kind.DATA);
     input = streams.get(name);
+    integers = input.getIntegerEncoding() == OrcProto.IntegerEncoding.RLE_V2 ?
+        new RunLengthIntegerReader(input, true, WriterImpl.LONG_BYTE_SIZE) : null;
     if (indexes[columnId] != null) {
       loadIndeces(indexes[columnId].getEntryList(), 0);
     }
@@ -51,15 +58,42 @@ abstract class LazyNumericDirectTreeReader extends LazyTreeReader {
 
   @Override
   public void seek(int index) throws IOException {
-    input.seek(index);
+    if (integers != null) {
+      integers.seek(index);
+    } else {
+      input.seek(index);
+    }
   }
 
   @Override
   public int loadIndeces(List<RowIndexEntry> rowIndexEntries, int startIndex) {
     int updatedStartIndex = super.loadIndeces(rowIndexEntries, startIndex);
+    if (integers != null) {
+      return integers.loadIndeces(rowIndexEntries, updatedStartIndex);
+    }
     return input.loadIndeces(rowIndexEntries, updatedStartIndex);
   }
 
+  /**
+   * Read the next value of an integer column.
+   */
+  protected long readInteger(int numBytes) throws IOException {
+    if (integers != null) {
+      return integers.next();
+    }
+    return SerializationUtils.readIntegerType(input, numBytes, true, input.useVInts());
+  }
+
+  protected void skipIntegers(long numValues, int numBytes) throws IOException {
+    if (integers != null) {
+      integers.skip(numValues);
+      return;
+    }
+    for (int i = 0; i < numValues; i++) {
+      SerializationUtils.readIntegerType(input, numBytes, true, input.useVInts());
+    }
+  }
+
   @Override
   public void close() throws IOException {
     super.close();
@@ -24,7 +24,6 @@ import java.io.IOException;
 
 import org.apache.hadoop.hive.serde2.io.ShortWritable;
 
-import com.facebook.hive.orc.SerializationUtils;
 import com.facebook.hive.orc.WriterImpl;
 import com.facebook.hive.orc.lazy.OrcLazyObject.ValueNotPresentException;
 
@@ -39,9 +38,7 @@ class LazyShortDirectTreeReader extends LazyNumericDirectTreeReader {
    * Read a short value from the stream.
    */
   private short readShort() throws IOException {
-    latestRead =
-      (short)SerializationUtils.readIntegerType(input, WriterImpl.SHORT_BYTE_SIZE,
-                                                true, input.useVInts());
+    latestRead = (short) readInteger(WriterImpl.SHORT_BYTE_SIZE);
     return latestRead;
   }
 
@@ -85,9 +82,6 @@ class LazyShortDirectTreeReader extends LazyNumericDirectTreeReader {
 
   @Override
   public void skipRows(long numNonNullValues) throws IOException {
-    for (int i = 0; i < numNonNullValues; i++) {
-      SerializationUtils.readIntegerType(input, WriterImpl.SHORT_BYTE_SIZE,
-          true, input.useVInts());
-    }
+    skipIntegers(numNonNullValues, WriterImpl.SHORT_BYTE_SIZE);
   }
 }
@@ -21,6 +21,7 @@
 package com.facebook.hive.orc.lazy;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
@@ -36,9 +37,11 @@ import org.apache.hadoop.io.Text;
 
 import com.facebook.hive.orc.OrcProto.RowIndex;
 import com.facebook.hive.orc.OrcProto.RowIndexEntry;
+import com.facebook.hive.orc.lazy.OrcLazyObject.ValueNotPresentException;
 
 public class LazyStringDictionaryTreeReader extends LazyTreeReader {
   private static final MemoryEstimate DUMMY_MEMORY_ESTIMATE = new MemoryEstimate();
+  private static final byte[] EMPTY_BYTES = new byte[0];
 
   private DynamicByteArray dictionaryBuffer = null;
   private DynamicByteArray strideDictionaryBuffer;
@@ -51,6 +54,12 @@ public class LazyStringDictionaryTreeReader extends LazyTreeReader {
   private InStream directReader;
   private RunLengthIntegerReader directLengths;
   private int currentUnitDictionary = -1;
+  // The dictionary holding the latest value read and where it is in it, the dictionary is null
+  // if the value is empty
+  private DynamicByteArray latestBuffer = null;
+  private int latestOffset = 0;
+  private int latestLength = 0;
+  private ByteBuffer view = null;
 
   LazyStringDictionaryTreeReader(int columnId, long rowIndexStride) {
     super(columnId, rowIndexStride);
@@ -73,9 +82,11 @@ public class LazyStringDictionaryTreeReader extends LazyTreeReader {
         dictionaryOffsets.length < dictionarySize + 1) {
       dictionaryOffsets = new int[dictionarySize + 1];
     }
+    long[] lengths = new long[dictionarySize];
+    lenReader.next(lengths, 0, dictionarySize);
     for(int i=0; i < dictionarySize; ++i) {
       dictionaryOffsets[i] = offset;
-      offset += (int) lenReader.next();
+      offset += (int) lengths[i];
     }
     dictionaryOffsets[dictionarySize] = offset;
     in.close();
@@ -138,18 +149,12 @@ public class LazyStringDictionaryTreeReader extends LazyTreeReader {
     }
   }
 
-  private void nextFromDictionary(Text result) throws IOException {
+  private void nextFromDictionary() throws IOException {
     int entry = (int) reader.next();
-    int offset = dictionaryOffsets[entry];
-    int length = dictionaryOffsets[entry + 1] - dictionaryOffsets[entry];
-
-    // If the column is just empty strings, the size will be zero, so the buffer will be null,
-    // in that case just return result as it will default to empty
-    if (dictionaryBuffer != null) {
-      dictionaryBuffer.setText(result, offset, length);
-    } else {
-      result.clear();
-    }
+    latestOffset = dictionaryOffsets[entry];
+    latestLength = dictionaryOffsets[entry + 1] - dictionaryOffsets[entry];
+    // If the column is just empty strings, the size will be zero, so the buffer will be null
+    latestBuffer = dictionaryBuffer;
   }
 
   private void loadStrideDictionary(int indexEntry) throws IOException {
@@ -176,7 +181,7 @@ public class LazyStringDictionaryTreeReader extends LazyTreeReader {
     }
   }
 
-  private void nextFromStrideDictionary(Text result) throws IOException {
+  private void nextFromStrideDictionary() throws IOException {
     int indexEntry = computeRowIndexEntry(previousRow);
     if (indexEntry != currentUnitDictionary) {
       loadStrideDictionary(indexEntry);
@@ -191,30 +196,66 @@ public class LazyStringDictionaryTreeReader extends LazyTreeReader {
     } else {
       length = strideDictionaryBuffer.size() - offset;
     }
-    // If the column is just empty strings, the size will be zero, so the buffer will be null,
-    // in that case just return result as it will default to empty
-    if (strideDictionaryBuffer != null) {
-      strideDictionaryBuffer.setText(result, offset, length);
+    latestOffset = offset;
+    latestLength = length;
+    // If the column is just empty strings, the size will be zero, so the buffer will be null
+    latestBuffer = strideDictionaryBuffer;
+  }
+
+  private void readEntry() throws IOException {
+    boolean isDictionaryEncoded = inDictionary == null ||  inDictionary.next() == 1;
+    if  (isDictionaryEncoded) {
+      nextFromDictionary();
+    } else {
+      nextFromStrideDictionary();
+    }
+  }
+
+  Text createWritable(Object previous) {
+    Text result = null;
+    if (previous == null) {
+      result = new Text();
+    } else {
+      result = (Text) previous;
+    }
+    if (latestBuffer != null) {
+      latestBuffer.setText(result, latestOffset, latestLength);
     } else {
       result.clear();
     }
+    return result;
+  }
+
+  @Override
+  public Object createWritableFromLatest(Object previous) throws IOException {
+    return createWritable(previous);
+  }
+
+  /**
+   * Give the bytes of the next value, straight from the dictionary.
+   */
+  @Override
+  public ByteBuffer nextBytes(boolean readStream) throws IOException {
+    if (readStream) {
+      if (!valuePresent) {
+        throw new ValueNotPresentException("Cannot materialize string.");
+      }
+      readEntry();
+    }
+    if (latestBuffer != null) {
+      view = setView(view, latestBuffer.getBytes(), latestOffset, latestLength);
+    } else {
+      view = setView(view, EMPTY_BYTES, 0, 0);
+    }
+    return view;
   }
 
   @Override
   public Object next(Object previous) throws IOException {
     Text result = null;
     if (valuePresent) {
-      if (previous == null) {
-        result = new Text();
-      } else {
-        result = (Text) previous;
-      }
-      boolean isDictionaryEncoded = inDictionary == null ||  inDictionary.next() == 1;
-      if  (isDictionaryEncoded) {
-        nextFromDictionary(result);
-      } else {
-        nextFromStrideDictionary(result);
-      }
+      readEntry();
+      result = createWritable(previous);
     }
     return result;
   }
@@ -244,6 +285,8 @@ public class LazyStringDictionaryTreeReader extends LazyTreeReader {
     }
     dictionaryBuffer = null;
     strideDictionaryBuffer = null;
+    latestBuffer = null;
+    view = null;
     strideDictionarySizes = null;
     dictionaryOffsets = null;
     strideDictionaryOffsets = null;
@@ -22,6 +22,8 @@ package com.facebook.hive.orc.lazy;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -34,10 +36,15 @@ import com.facebook.hive.orc.StreamName;
 import com.facebook.hive.orc.WriterImpl;
 import com.facebook.hive.orc.OrcProto.RowIndex;
 import com.facebook.hive.orc.OrcProto.RowIndexEntry;
+import com.facebook.hive.orc.lazy.OrcLazyObject.ValueNotPresentException;
 
 class LazyStringDirectTreeReader extends LazyTreeReader {
   private InStream stream;
   private RunLengthIntegerReader lengths;
+  // The bytes of the latest value read, which are reused for every value
+  private byte[] latestBytes = new byte[0];
+  private int latestLength = 0;
+  private ByteBuffer view = null;
 
   LazyStringDirectTreeReader(int columnId, long rowIndexStride) {
     super(columnId, rowIndexStride);
@@ -71,27 +78,57 @@ class LazyStringDirectTreeReader extends LazyTreeReader {
     return lengths.loadIndeces(rowIndexEntries, updatedStartIndex);
   }
 
+  private void readBytes() throws IOException {
+    int len = (int) lengths.next();
+    if (len > latestBytes.length) {
+      latestBytes = Arrays.copyOf(latestBytes, Math.max(len, latestBytes.length * 2));
+    }
+    latestLength = len;
+    int offset = 0;
+    while (len > 0) {
+      int written = stream.read(latestBytes, offset, len);
+      if (written < 0) {
+        throw new EOFException("Can't finish byte read from " + stream);
+      }
+      len -= written;
+      offset += written;
+    }
+  }
+
+  Text createWritable(Object previous) {
+    Text result = null;
+    if (previous == null) {
+      result = new Text();
+    } else {
+      result = (Text) previous;
+    }
+    result.set(latestBytes, 0, latestLength);
+    return result;
+  }
+
+  @Override
+  public Object createWritableFromLatest(Object previous) throws IOException {
+    return createWritable(previous);
+  }
+
+  @Override
+  public ByteBuffer nextBytes(boolean readStream) throws IOException {
+    if (readStream) {
+      if (!valuePresent) {
+        throw new ValueNotPresentException("Cannot materialize string.");
+      }
+      readBytes();
+    }
+    view = setView(view, latestBytes, 0, latestLength);
+    return view;
+  }
+
   @Override
   public Object next(Object previous) throws IOException {
     Text result = null;
     if (valuePresent) {
-      if (previous == null) {
-        result = new Text();
-      } else {
-        result = (Text) previous;
-      }
-      int len = (int) lengths.next();
-      int offset = 0;
-      byte[] bytes = new byte[len];
-      while (len > 0) {
-        int written = stream.read(bytes, offset, len);
-        if (written < 0) {
-          throw new EOFException("Can't finish byte read from " + stream);
-        }
-        len -= written;
-        offset += written;
-      }
-      result.set(bytes);
+      readBytes();
+      result = createWritable(previous);
     }
     return result;
   }
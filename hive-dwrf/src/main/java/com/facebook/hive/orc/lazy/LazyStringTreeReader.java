@@ -21,6 +21,7 @@
 package com.facebook.hive.orc.lazy;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
@@ -108,6 +109,21 @@ public class LazyStringTreeReader extends LazyTreeReader {
     return reader.get(currentRow, previous);
   }
 
+  @Override
+  public ByteBuffer getBytes(long currentRow) throws IOException {
+    return reader.getBytes(currentRow);
+  }
+
+  @Override
+  public ByteBuffer nextBytes(boolean readStream) throws IOException {
+    return reader.nextBytes(readStream);
+  }
+
+  @Override
+  public Object createWritableFromLatest(Object previous) throws IOException {
+    return reader.createWritableFromLatest(previous);
+  }
+
   @Override
   public void close() throws IOException {
     super.close();
@@ -34,11 +34,25 @@ import com.facebook.hive.orc.StreamName;
 import com.facebook.hive.orc.WriterImpl;
 import com.facebook.hive.orc.OrcProto.RowIndex;
 import com.facebook.hive.orc.OrcProto.RowIndexEntry;
+import com.facebook.hive.orc.lazy.OrcLazyObject.ValueNotPresentException;
 
 public class LazyTimestampTreeReader extends LazyTreeReader {
 
+  private static final long MICROS_PER_SECOND = 1000000L;
+  private static final int NANOS_PER_MICRO = 1000;
+
   private RunLengthIntegerReader data;
   private RunLengthIntegerReader nanos;
+  // Whether the seconds are stored as the difference from the previous value
+  private boolean deltaEncoded;
+  private long previousSeconds = 0;
+  // The value before each row index stride, if the seconds are delta encoded
+  private long[] strideBases;
+  // The last value that was read from the streams
+  private long latestSeconds = 0;
+  private int latestNanos = 0;
+  // Scratch space for skipping delta encoded seconds
+  private long[] skipped;
 
   public LazyTimestampTreeReader(int columnId, long rowIndexStride) {
     super(columnId, rowIndexStride);
@@ -52,6 +66,9 @@ public class LazyTimestampTreeReader extends LazyTreeReader {
         OrcProto.Stream.Kind.DATA)), true, WriterImpl.LONG_BYTE_SIZE);
     nanos = new RunLengthIntegerReader(streams.get(new StreamName(columnId,
         OrcProto.Stream.Kind.NANO_DATA)), false, WriterImpl.LONG_BYTE_SIZE);
+    deltaEncoded = encodings.get(columnId).getKind() ==
+        OrcProto.ColumnEncoding.Kind.DIRECT_DELTA;
+    previousSeconds = 0;
     if (indexes[columnId] != null) {
       loadIndeces(indexes[columnId].getEntryList(), 0);
     }
@@ -61,41 +78,105 @@ public class LazyTimestampTreeReader extends LazyTreeReader {
   public void seek(int index) throws IOException {
     data.seek(index);
     nanos.seek(index);
+    if (deltaEncoded) {
+      previousSeconds = strideBases[index];
+    }
   }
 
   @Override
   public int loadIndeces(List<RowIndexEntry> rowIndexEntries, int startIndex) {
     int updatedStartIndex = super.loadIndeces(rowIndexEntries, startIndex);
     updatedStartIndex = data.loadIndeces(rowIndexEntries, updatedStartIndex);
-    return nanos.loadIndeces(rowIndexEntries, updatedStartIndex);
+    updatedStartIndex = nanos.loadIndeces(rowIndexEntries, updatedStartIndex);
+    if (deltaEncoded) {
+      strideBases = new long[rowIndexEntries.size()];
+      for (int i = 0; i < strideBases.length; i++) {
+        strideBases[i] = rowIndexEntries.get(i).getPositions(updatedStartIndex);
+      }
+      updatedStartIndex++;
+    }
+    return updatedStartIndex;
+  }
+
+  /**
+   * Read the next value from the streams into latestSeconds and latestNanos.
+   */
+  private void readTimestamp() throws IOException {
+    long seconds = data.next();
+    if (deltaEncoded) {
+      seconds += previousSeconds;
+      previousSeconds = seconds;
+    }
+    latestSeconds = seconds + WriterImpl.BASE_TIMESTAMP;
+    latestNanos = parseNanos(nanos.next());
+  }
+
+  /**
+   * Get the milliseconds since the epoch of the latest value.
+   */
+  private long getLatestMillis() {
+    long millis = latestSeconds * WriterImpl.MILLIS_PER_SECOND;
+    // fix the rounding when we divided by 1000.
+    if (millis >= 0) {
+      millis += latestNanos / 1000000;
+    } else {
+      millis -= latestNanos / 1000000;
+    }
+    return millis;
+  }
+
+  private TimestampWritable createWritable(Object previous) {
+    TimestampWritable result;
+    if (previous == null) {
+      result = new TimestampWritable();
+    } else {
+      result = (TimestampWritable) previous;
+    }
+    Timestamp timestamp = result.getTimestamp();
+    timestamp.setTime(getLatestMillis());
+    timestamp.setNanos(latestNanos);
+    result.set(timestamp);
+    return result;
+  }
+
+  @Override
+  public Object createWritableFromLatest(Object previous) throws IOException {
+    return createWritable(previous);
   }
 
   @Override
   public Object next(Object previous) throws IOException {
     TimestampWritable result = null;
     if (valuePresent) {
-      if (previous == null) {
-        result = new TimestampWritable();
-      } else {
-        result = (TimestampWritable) previous;
-      }
-      long millis = (data.next() + WriterImpl.BASE_TIMESTAMP) *
-          WriterImpl.MILLIS_PER_SECOND;
-      int newNanos = parseNanos(nanos.next());
-      // fix the rounding when we divided by 1000.
-      if (millis >= 0) {
-        millis += newNanos / 1000000;
-      } else {
-        millis -= newNanos / 1000000;
-      }
-      Timestamp timestamp = result.getTimestamp();
-      timestamp.setTime(millis);
-      timestamp.setNanos(newNanos);
-      result.set(timestamp);
+      readTimestamp();
+      result = createWritable(previous);
     }
     return result;
   }
 
+  /**
+   * Give the next timestamp as microseconds since the epoch, the instant the Timestamp next
+   * would return truncated to microseconds, without creating any objects.  Nanoseconds since
+   * the epoch would overflow a long for timestamps before 1677 or after 2262, microseconds
+   * cover every year a Hive timestamp may have.
+   */
+  @Override
+  public long nextLong(boolean readStream) throws IOException {
+    if (readStream) {
+      if (!valuePresent) {
+        throw new ValueNotPresentException("Cannot materialize timestamp.");
+      }
+      readTimestamp();
+    }
+    // Timestamp.setTime rounds the seconds down, and setNanos replaces the fraction
+    long millis = getLatestMillis();
+    long seconds = millis / WriterImpl.MILLIS_PER_SECOND;
+    if (millis % WriterImpl.MILLIS_PER_SECOND < 0) {
+      seconds--;
+    }
+    return seconds * MICROS_PER_SECOND + latestNanos / NANOS_PER_MICRO;
+  }
+
   private static int parseNanos(long serialized) {
     int zeros = 7 & (int) serialized;
     int result = (int) serialized >>> 3;
@@ -109,7 +190,23 @@ public class LazyTimestampTreeReader extends LazyTreeReader {
 
   @Override
   public void skipRows(long numNonNullValues) throws IOException {
-    data.skip(numNonNullValues);
+    if (deltaEncoded) {
+      // the skipped differences still need to be added up
+      if (skipped == null) {
+        skipped = new long[1024];
+      }
+      long remaining = numNonNullValues;
+      while (remaining > 0) {
+        int length = (int) Math.min(remaining, skipped.length);
+        data.next(skipped, 0, length);
+        for (int i = 0; i < length; i++) {
+          previousSeconds += skipped[i];
+        }
+        remaining -= length;
+      }
+    } else {
+      data.skip(numNonNullValues);
+    }
     nanos.skip(numNonNullValues);
   }
 
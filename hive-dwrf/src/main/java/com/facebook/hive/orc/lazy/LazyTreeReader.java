@@ -21,6 +21,7 @@
 package com.facebook.hive.orc.lazy;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
@@ -42,6 +43,9 @@ public abstract class LazyTreeReader {
   protected long previousPresentRow;
   private long numNonNulls;
   protected int previousRowIndexEntry = -1;
+  // Whether all the values of each index stride of the stripe are null according to the row
+  // index statistics, or null if the column has no nulls or no row index
+  private boolean[] nullStrides = null;
 
   protected abstract void seek(int index) throws IOException;
 
@@ -54,13 +58,7 @@ public abstract class LazyTreeReader {
    */
   protected long countNonNulls(long rows) throws IOException {
     if (present != null) {
-      long result = 0;
-      for(long c=0; c < rows; ++c) {
-        if (present.next() == 1) {
-          result += 1;
-        }
-      }
-      return result;
+      return present.countBits(rows);
     } else {
       return rows;
     }
@@ -127,6 +125,14 @@ public abstract class LazyTreeReader {
    */
   public boolean nextIsNull(long currentRow) throws IOException {
     if (present != null) {
+      if (isInNullStride(currentRow)) {
+        // Don't read any streams, but act as if they were at this row, any other row read is
+        // either in the same stride, or in another stride, and seeks all the streams
+        valuePresent = false;
+        previousPresentRow = currentRow;
+        previousRow = currentRow;
+        return true;
+      }
       seekToPresentRow(currentRow);
       valuePresent = present.next() == 1;
       if (valuePresent) {
@@ -166,6 +172,20 @@ public abstract class LazyTreeReader {
     return !valuePresent;
   }
 
+  /**
+   * Returns whether the row is in an index stride where all the values are null
+   *
+   * @param currentRow
+   * @return
+   */
+  private boolean isInNullStride(long currentRow) {
+    if (nullStrides == null) {
+      return false;
+    }
+    int rowIndexEntry = computeRowIndexEntry(currentRow);
+    return rowIndexEntry < nullStrides.length && nullStrides[rowIndexEntry];
+  }
+
   /**
    * Computes the number of the row index entry that immediately precedes row
    *
@@ -183,14 +203,15 @@ public abstract class LazyTreeReader {
    * @throws IOException
    */
   protected void seekToPresentRow(long currentRow) throws IOException {
-    if (currentRow != previousPresentRow + 1) {
+    // The streams weren't read for rows in strides which are all null, so leaving one needs a seek
+    if (currentRow != previousPresentRow + 1 || isInNullStride(previousPresentRow)) {
       long rowInStripe = currentRow - rowBaseInStripe - 1;
       int rowIndexEntry = computeRowIndexEntry(currentRow);
       if (rowIndexEntry != computeRowIndexEntry(previousPresentRow) ||
-          currentRow < previousPresentRow) {
+          currentRow <= previousPresentRow) {
         // Since we're resetting numNulls we need to seek to the appropriate row not just in the
         // present stream, but in all streams for the column
-        seek(rowIndexEntry, currentRow < previousPresentRow);
+        seek(rowIndexEntry, currentRow <= previousPresentRow);
         numNonNulls = countNonNulls(rowInStripe - (rowIndexEntry * rowIndexStride));
       } else {
         numNonNulls += countNonNulls(currentRow - previousPresentRow - 1);
@@ -264,6 +285,16 @@ public abstract class LazyTreeReader {
     return nextShort(true);
   }
 
+  public byte getByte(long currentRow) throws IOException {
+    seekToRow(currentRow);
+    return nextByte(true);
+  }
+
+  public ByteBuffer getBytes(long currentRow) throws IOException {
+    seekToRow(currentRow);
+    return nextBytes(true);
+  }
+
   public double nextDouble(boolean readStream) throws IOException {
     throw new IOException("Cannot materialize double: not the right type.");
   }
@@ -288,6 +319,32 @@ public abstract class LazyTreeReader {
     throw new IOException("Cannot materialize short: not the right type.");
   }
 
+  public byte nextByte(boolean readStream) throws IOException {
+    throw new IOException("Cannot materialize byte: not the right type.");
+  }
+
+  /**
+   * Give the bytes of the next string or binary value, from the position to the limit of the
+   * returned buffer.  The buffer wraps the reader's own bytes without copying them, it's reused
+   * and is only valid until the next value is read.
+   */
+  public ByteBuffer nextBytes(boolean readStream) throws IOException {
+    throw new IOException("Cannot materialize bytes: not the right type.");
+  }
+
+  /**
+   * Point a view at the given bytes, reusing it if it already wraps the same array.
+   */
+  protected static ByteBuffer setView(ByteBuffer view, byte[] bytes, int offset, int length) {
+    if (view == null || view.array() != bytes) {
+      return ByteBuffer.wrap(bytes, offset, length);
+    }
+    view.clear();
+    view.position(offset);
+    view.limit(offset + length);
+    return view;
+  }
+
   /**
    * Adjust all streams to the beginning of the row index entry specified, backwards means that
    * a previous value is being read and forces the index entry to be restarted, otherwise, has
@@ -326,8 +383,9 @@ public abstract class LazyTreeReader {
     boolean seeked = false;
 
     // If this holds it means we checked if the row is null, and it was not,
-    // and when we skipRows we don't want to skip this row.
-    if (currentRow != previousPresentRow) {
+    // and when we skipRows we don't want to skip this row.  A row that was already read, e.g.
+    // after seeking back to the last row read, is checked again from the start of its stride.
+    if (currentRow != previousPresentRow || currentRow <= previousRow) {
       nextIsNull(currentRow);
     }
 
@@ -336,10 +394,10 @@ public abstract class LazyTreeReader {
         numNonNulls--;
         long rowInStripe = currentRow - rowBaseInStripe - 1;
         int rowIndexEntry = computeRowIndexEntry(currentRow);
-        // if previous == rowIndexEntry * rowIndexStride - 1 even though they are in different
-        // index strides seeking will only leaves us where we are.
-        if ((previousRow != rowIndexEntry * rowIndexStride  - 1 &&
-            rowIndexEntry != computeRowIndexEntry(previousRow)) || currentRow < previousRow) {
+        // always seek when moving to another index stride, even if previousRow is the last row
+        // before it, since numNonNulls only counts the rows since the start of the stride, and if
+        // the rows since previousRow were only checked for nulls they haven't been skipped
+        if (rowIndexEntry != computeRowIndexEntry(previousRow) || currentRow <= previousRow) {
           if (present == null) {
             previousRowIndexEntry = rowIndexEntry;
             numNonNulls = countNonNulls(rowInStripe - (rowIndexEntry * rowIndexStride));
@@ -370,6 +428,15 @@ public abstract class LazyTreeReader {
    */
   public int loadIndeces(List<RowIndexEntry> rowIndexEntries, int startIndex) {
     if (present != null) {
+      if (rowIndexStride > 0) {
+        nullStrides = new boolean[rowIndexEntries.size()];
+        for (int i = 0; i < rowIndexEntries.size(); i++) {
+          RowIndexEntry rowIndexEntry = rowIndexEntries.get(i);
+          nullStrides[i] = rowIndexEntry.hasStatistics() &&
+              rowIndexEntry.getStatistics().hasNumberOfValues() &&
+              rowIndexEntry.getStatistics().getNumberOfValues() == 0;
+        }
+      }
       return present.loadIndeces(rowIndexEntries, startIndex);
     } else {
       return startIndex;
@@ -382,6 +449,7 @@ public abstract class LazyTreeReader {
     this.previousPresentRow = rowBaseInStripe;
     this.rowBaseInStripe = rowBaseInStripe;
     this.numNonNulls = 0;
+    this.nullStrides = null;
 
     InStream in = streams.get(new StreamName(columnId,
         OrcProto.Stream.Kind.PRESENT));
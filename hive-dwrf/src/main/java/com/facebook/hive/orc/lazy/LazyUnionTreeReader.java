@@ -34,9 +34,15 @@ import com.facebook.hive.orc.OrcProto.RowIndexEntry;
 
 public class LazyUnionTreeReader extends LazyTreeReader {
 
+  // The readers of the children, a child is null if it's not included, in which case the values
+  // of the rows with its tag are read as null, and its streams are never read
   private final LazyTreeReader[] fields;
   private RunLengthByteReader tags;
 
+  // The row whose tag has been read without reading its value, or -1, and the tag
+  private long tagRow = -1;
+  private byte rowTag;
+
   public LazyUnionTreeReader(int columnId, long rowIndexStride, LazyTreeReader[] fields) {
     super(columnId, rowIndexStride);
     this.fields = fields;
@@ -45,25 +51,68 @@ public class LazyUnionTreeReader extends LazyTreeReader {
   @Override
   public Object next(Object previous) throws IOException {
     OrcUnion result = null;
+    finishTag();
     if (valuePresent) {
-      if (previous == null) {
-        result = new OrcUnion();
-      } else {
-        result = (OrcUnion) previous;
-      }
-      byte tag = nextTag();
-      Object previousVal = result.getObject();
-      result.set(tag, fields[tag].getInComplexType(tag == result.getTag() ?
-          previousVal : null, previousRow));
+      result = nextValue(previous, nextTag());
+    }
+    return result;
+  }
+
+  private OrcUnion nextValue(Object previous, byte tag) throws IOException {
+    OrcUnion result;
+    if (previous == null) {
+      result = new OrcUnion();
+    } else {
+      result = (OrcUnion) previous;
     }
+    Object previousVal = result.getObject();
+    result.set(tag, fields[tag] == null ? null : fields[tag].getInComplexType(
+        tag == result.getTag() ? previousVal : null, previousRow));
     return result;
   }
 
+  @Override
+  public Object get(long currentRow, Object previous) throws IOException {
+    if (currentRow != tagRow) {
+      return super.get(currentRow, previous);
+    }
+    // the tag has already been read on its own, read the value
+    tagRow = -1;
+    return nextValue(previous, rowTag);
+  }
+
+  /**
+   * Get the tag of the union of a row, without reading its value.
+   */
+  public byte getTag(long currentRow) throws IOException {
+    if (currentRow != tagRow) {
+      seekToRow(currentRow);
+      finishTag();
+      rowTag = nextTag();
+      tagRow = currentRow;
+    }
+    return rowTag;
+  }
+
+  /**
+   * Skip the value of the row whose tag was read without its value.
+   */
+  private void finishTag() throws IOException {
+    if (tagRow != -1) {
+      if (fields[rowTag] != null) {
+        fields[rowTag].skipRowsInComplexType(1);
+      }
+      tagRow = -1;
+    }
+  }
+
   @Override
   protected void seek(int rowIndexEntry, boolean backwards) throws IOException {
     super.seek(rowIndexEntry, backwards);
     for (LazyTreeReader field : fields) {
-      field.seek(rowIndexEntry, backwards);
+      if (field != null) {
+        field.seek(rowIndexEntry, backwards);
+      }
     }
   }
 
@@ -72,8 +121,11 @@ public class LazyUnionTreeReader extends LazyTreeReader {
       RowIndex[] indexes, long rowBaseInStripe) throws IOException {
     super.startStripe(streams, encodings, indexes, rowBaseInStripe);
     for (int i = 0; i < fields.length; i++) {
-      fields[i].startStripe(streams, encodings, indexes, rowBaseInStripe);
+      if (fields[i] != null) {
+        fields[i].startStripe(streams, encodings, indexes, rowBaseInStripe);
+      }
     }
+    tagRow = -1;
     tags = new RunLengthByteReader(streams.get(new StreamName(columnId,
         OrcProto.Stream.Kind.DATA)));
     if (indexes[columnId] != null) {
@@ -83,6 +135,7 @@ public class LazyUnionTreeReader extends LazyTreeReader {
 
   @Override
   public void seek(int index) throws IOException {
+    tagRow = -1;
     tags.seek(index);
   }
 
@@ -98,12 +151,13 @@ public class LazyUnionTreeReader extends LazyTreeReader {
 
   @Override
   public void skipRows(long numNonNullValues) throws IOException {
+    finishTag();
     long[] counts = new long[fields.length];
-    for(int i=0; i < numNonNullValues; ++i) {
-      counts[tags.next()] += 1;
-    }
+    tags.countValues(numNonNullValues, counts);
     for(int i=0; i < counts.length; ++i) {
-      fields[i].skipRowsInComplexType(counts[i]);
+      if (fields[i] != null) {
+        fields[i].skipRowsInComplexType(counts[i]);
+      }
     }
   }
 
@@ -111,7 +165,9 @@ public class LazyUnionTreeReader extends LazyTreeReader {
   public void close() throws IOException {
     super.close();
     for (LazyTreeReader field : fields) {
-      field.close();
+      if (field != null) {
+        field.close();
+      }
     }
     if (tags != null) {
       tags.close();
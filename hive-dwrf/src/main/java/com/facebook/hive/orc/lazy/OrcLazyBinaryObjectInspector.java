@@ -20,7 +20,10 @@
 
 package com.facebook.hive.orc.lazy;
 
-import org.apache.hadoop.hive.serde2.lazy.LazyUtils;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
@@ -36,8 +39,33 @@ public class OrcLazyBinaryObjectInspector extends OrcLazyPrimitiveObjectInspecto
 
   @Override
   public byte[] getPrimitiveJavaObject(Object o) {
-    BytesWritable writable = getPrimitiveWritableObject(o);
-    return writable == null ? null : LazyUtils.createByteArray(writable);
+    ByteBuffer bytes = getBytes(o);
+    return bytes == null ? null : Arrays.copyOfRange(bytes.array(), bytes.position(),
+        bytes.limit());
+  }
+
+  /**
+   * Get the bytes of the value from the position to the limit of the returned buffer, which
+   * wraps the reader's bytes rather than a copy of them and is only valid until the next row is
+   * read.
+   */
+  public ByteBuffer getBytes(Object o) {
+    if (o == null) {
+      return null;
+    }
+    OrcLazyBinary value = (OrcLazyBinary) o;
+    try {
+      if (value.nextIsNull()) {
+        return null;
+      }
+      if (value.isWritableCreated()) {
+        BytesWritable writable = getPrimitiveWritableObject(o);
+        return ByteBuffer.wrap(writable.getBytes(), 0, writable.getLength());
+      }
+      return value.materializeBytes();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @Override
@@ -20,6 +20,8 @@
 
 package com.facebook.hive.orc.lazy;
 
+import java.io.IOException;
+
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
@@ -35,7 +37,15 @@ public class OrcLazyBooleanObjectInspector extends OrcLazyPrimitiveObjectInspect
 
   @Override
   public boolean get(Object o) {
-    return ((BooleanWritable)getPrimitiveWritableObject(o)).get();
+    OrcLazyBoolean value = (OrcLazyBoolean) o;
+    if (value.isWritableCreated()) {
+      return ((BooleanWritable)getPrimitiveWritableObject(o)).get();
+    }
+    try {
+      return value.materializeBoolean();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @Override
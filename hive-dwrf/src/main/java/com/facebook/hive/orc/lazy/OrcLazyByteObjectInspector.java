@@ -20,6 +20,8 @@
 
 package com.facebook.hive.orc.lazy;
 
+import java.io.IOException;
+
 import org.apache.hadoop.hive.serde2.io.ByteWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
@@ -35,7 +37,15 @@ public class OrcLazyByteObjectInspector extends OrcLazyPrimitiveObjectInspector<
 
   @Override
   public byte get(Object o) {
-    return ((ByteWritable)getPrimitiveWritableObject(o)).get();
+    OrcLazyByte value = (OrcLazyByte) o;
+    if (value.isWritableCreated()) {
+      return ((ByteWritable)getPrimitiveWritableObject(o)).get();
+    }
+    try {
+      return value.materializeByte();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @Override
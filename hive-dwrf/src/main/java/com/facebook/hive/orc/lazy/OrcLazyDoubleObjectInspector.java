@@ -20,6 +20,8 @@
 
 package com.facebook.hive.orc.lazy;
 
+import java.io.IOException;
+
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
@@ -34,7 +36,15 @@ public class OrcLazyDoubleObjectInspector extends OrcLazyPrimitiveObjectInspecto
   }
 
   public double get(Object o) {
-    return ((DoubleWritable)getPrimitiveWritableObject(o)).get();
+    OrcLazyDouble value = (OrcLazyDouble) o;
+    if (value.isWritableCreated()) {
+      return ((DoubleWritable)getPrimitiveWritableObject(o)).get();
+    }
+    try {
+      return value.materializeDouble();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @Override
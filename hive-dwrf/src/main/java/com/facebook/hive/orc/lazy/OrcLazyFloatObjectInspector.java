@@ -20,6 +20,8 @@
 
 package com.facebook.hive.orc.lazy;
 
+import java.io.IOException;
+
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
@@ -34,7 +36,15 @@ public class OrcLazyFloatObjectInspector extends OrcLazyPrimitiveObjectInspector
   }
 
   public float get(Object o) {
-    return ((FloatWritable)getPrimitiveWritableObject(o)).get();
+    OrcLazyFloat value = (OrcLazyFloat) o;
+    if (value.isWritableCreated()) {
+      return ((FloatWritable)getPrimitiveWritableObject(o)).get();
+    }
+    try {
+      return value.materializeFloat();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @Override
@@ -20,6 +20,8 @@
 
 package com.facebook.hive.orc.lazy;
 
+import java.io.IOException;
+
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
@@ -35,7 +37,15 @@ public class OrcLazyIntObjectInspector extends OrcLazyPrimitiveObjectInspector<O
 
   @Override
   public int get(Object o) {
-    return ((IntWritable)getPrimitiveWritableObject(o)).get();
+    OrcLazyInt value = (OrcLazyInt) o;
+    if (value.isWritableCreated()) {
+      return ((IntWritable)getPrimitiveWritableObject(o)).get();
+    }
+    try {
+      return value.materializeInt();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @Override
@@ -20,9 +20,46 @@
 
 package com.facebook.hive.orc.lazy;
 
+import java.io.IOException;
+import java.util.List;
+
 public class OrcLazyList extends OrcLazyObject {
 
   public OrcLazyList(LazyListTreeReader treeReader) {
     super(treeReader);
   }
+
+  /**
+   * Get the length of the list, which only reads the length if the list hasn't already been
+   * materialized.
+   * @return the length, or -1 if the list is null
+   */
+  public int getLength() throws IOException {
+    LazyListTreeReader treeReader = (LazyListTreeReader) getLazyTreeReader();
+    if (isMaterialized() || treeReader == null) {
+      List<?> list = (List<?>) materialize();
+      return list == null ? -1 : list.size();
+    }
+    if (nextIsNull()) {
+      return -1;
+    }
+    return treeReader.getLength(getCurrentRow());
+  }
+
+  /**
+   * Get an element of the list, which only reads that element if the list hasn't already been
+   * materialized.
+   * @return the element, or null if the list is null or doesn't have that many elements
+   */
+  public Object getElement(int index) throws IOException {
+    LazyListTreeReader treeReader = (LazyListTreeReader) getLazyTreeReader();
+    if (isMaterialized() || treeReader == null) {
+      List<?> list = (List<?>) materialize();
+      return list == null || index < 0 || index >= list.size() ? null : list.get(index);
+    }
+    if (nextIsNull()) {
+      return null;
+    }
+    return treeReader.getElement(getCurrentRow(), index);
+  }
 }
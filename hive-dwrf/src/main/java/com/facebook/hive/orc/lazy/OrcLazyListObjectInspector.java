@@ -25,6 +25,8 @@ import java.util.List;
 
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
 
 import com.facebook.hive.orc.OrcProto;
@@ -57,13 +59,62 @@ public class OrcLazyListObjectInspector implements ListObjectInspector {
 
   @Override
   public Object getListElement(Object data, int index) {
+    if (data == null) {
+      return null;
+    }
+
+    try {
+      return ((OrcLazyList) data).getElement(index);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Get the list as a primitive list, which is how lists of integers, floating point numbers
+   * and strings are read, so their elements can be read without writables.
+   * @return the list, or null if the list is null or isn't a primitive list
+   */
+  public PrimitiveList getPrimitiveList(Object data) {
     List<?> list = getList(data);
+    return list instanceof PrimitiveList ? (PrimitiveList) list : null;
+  }
 
-    if (list == null || index < 0 || index >= list.size()) {
-      return null;
+  public boolean isListElementNull(Object data, int index) {
+    PrimitiveList list = getPrimitiveList(data);
+    if (list != null && index >= 0 && index < list.size()) {
+      return list.isNull(index);
     }
+    return getListElement(data, index) == null;
+  }
 
-    return list.get(index);
+  /**
+   * Get an element of a list of integers as a long, without creating a writable if the list is
+   * a primitive list.  The element must not be null.
+   */
+  public long getListElementLong(Object data, int index) {
+    PrimitiveList list = getPrimitiveList(data);
+    if (list instanceof PrimitiveList.Longs) {
+      return ((PrimitiveList.Longs) list).getLong(index);
+    }
+    return PrimitiveObjectInspectorUtils.getLong(getListElement(data, index),
+        (PrimitiveObjectInspector) child);
+  }
+
+  /**
+   * Get an element of a list of numbers as a double, without creating a writable if the list is
+   * a primitive list.  The element must not be null.
+   */
+  public double getListElementDouble(Object data, int index) {
+    PrimitiveList list = getPrimitiveList(data);
+    if (list instanceof PrimitiveList.Doubles) {
+      return ((PrimitiveList.Doubles) list).getDouble(index);
+    }
+    if (list instanceof PrimitiveList.Longs) {
+      return ((PrimitiveList.Longs) list).getLong(index);
+    }
+    return PrimitiveObjectInspectorUtils.getDouble(getListElement(data, index),
+        (PrimitiveObjectInspector) child);
   }
 
   @Override
@@ -77,7 +128,11 @@ public class OrcLazyListObjectInspector implements ListObjectInspector {
       return -1;
     }
 
-    return getList(data).size();
+    try {
+      return ((OrcLazyList) data).getLength();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @Override
@@ -20,6 +20,8 @@
 
 package com.facebook.hive.orc.lazy;
 
+import java.io.IOException;
+
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
@@ -46,7 +48,15 @@ public class OrcLazyLongObjectInspector extends OrcLazyPrimitiveObjectInspector<
 
   @Override
   public long get(Object o) {
-    return getPrimitiveWritableObject(o).get();
+    OrcLazyLong value = (OrcLazyLong) o;
+    if (value.isWritableCreated()) {
+      return getPrimitiveWritableObject(o).get();
+    }
+    try {
+      return value.materializeLong();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @SuppressWarnings({"override", "UnusedDeclaration", "RedundantCast"}) // FB Hive
@@ -20,9 +20,38 @@
 
 package com.facebook.hive.orc.lazy;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
 public class OrcLazyMap extends OrcLazyObject {
 
   public OrcLazyMap(LazyMapTreeReader treeReader) {
     super(treeReader);
   }
+
+  /**
+   * Only read the given keys of this column's maps, see LazyMapTreeReader.setProjectedKeys.
+   * This applies to every row read after it's called.
+   */
+  public void setProjectedKeys(Collection<?> keys) {
+    ((LazyMapTreeReader) getLazyTreeReader()).setProjectedKeys(keys);
+  }
+
+  /**
+   * Get the value of a key, which only reads that key if the map is a flat map and hasn't
+   * already been materialized.  Otherwise the map is materialized, which only reads the values
+   * of the projected keys if there are any.
+   */
+  public Object getValue(Object key) throws IOException {
+    LazyMapTreeReader treeReader = (LazyMapTreeReader) getLazyTreeReader();
+    if (isMaterialized() || treeReader == null || !treeReader.isFlat()) {
+      Map<?, ?> map = (Map<?, ?>) materialize();
+      return map == null ? null : map.get(key);
+    }
+    if (nextIsNull()) {
+      return null;
+    }
+    return treeReader.getValue(getCurrentRow(), key);
+  }
 }
@@ -59,6 +59,17 @@ public class OrcLazyMapObjectInspector implements MapObjectInspector {
     }
   }
 
+  /**
+   * Get the map as a primitive map, which is how maps whose keys and values are both integers,
+   * floating point numbers or strings are read.  Its keys can be looked up with the indexOf
+   * methods of getKeys, and its values read from getValues, without creating writables.
+   * @return the map, or null if the map is null or isn't a primitive map
+   */
+  public PrimitiveMap getPrimitiveMap(Object data) {
+    Map<?, ?> map = getMap(data);
+    return map instanceof PrimitiveMap ? (PrimitiveMap) map : null;
+  }
+
   @Override
   public ObjectInspector getMapKeyObjectInspector() {
     return key;
@@ -79,7 +90,11 @@ public class OrcLazyMapObjectInspector implements MapObjectInspector {
       return null;
     }
 
-    return getMap(data).get(key);
+    try {
+      return ((OrcLazyMap) data).getValue(key);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @Override
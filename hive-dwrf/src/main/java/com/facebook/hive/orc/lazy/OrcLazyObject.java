@@ -30,6 +30,7 @@ import org.apache.hadoop.io.Writable;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
@@ -84,6 +85,22 @@ public abstract class OrcLazyObject implements Writable {
     return treeReader;
   }
 
+  protected long getCurrentRow() {
+    return currentRow;
+  }
+
+  protected boolean isMaterialized() {
+    return materialized;
+  }
+
+  /**
+   * Has the value been materialized as a writable.  Copies always have been, and need to be read
+   * through it since the tree reader they share may have read later values since.
+   */
+  protected boolean isWritableCreated() {
+    return materialized && writableCreated;
+  }
+
   public Object materialize() throws IOException {
     if (!materialized) {
       ReaderWriterProfiler.start(ReaderWriterProfiler.Counter.DECODING_TIME);
@@ -179,6 +196,24 @@ public abstract class OrcLazyObject implements Writable {
         }
     };
 
+  // A byte materializer
+  protected final static Materializer byteMaker =
+    new Materializer() {
+      public void materialize(LazyTreeReader treeReader, long currentRow) throws IOException
+        {
+          treeReader.getByte(currentRow);
+        }
+    };
+
+  // A string or binary materializer
+  protected final static Materializer bytesMaker =
+    new Materializer() {
+      public void materialize(LazyTreeReader treeReader, long currentRow) throws IOException
+        {
+          treeReader.getBytes(currentRow);
+        }
+    };
+
 
   // A Helper to materialize primitive data types
   public void materializeHelper(Materializer maker) throws IOException {
@@ -237,6 +272,20 @@ public abstract class OrcLazyObject implements Writable {
     return treeReader.nextShort(false);
   }
 
+  public byte materializeByte() throws IOException {
+    materializeHelper(byteMaker);
+    return treeReader.nextByte(false);
+  }
+
+  /**
+   * Get the bytes of a string or binary value without copying them, see
+   * LazyTreeReader.nextBytes.
+   */
+  public ByteBuffer materializeBytes() throws IOException {
+    materializeHelper(bytesMaker);
+    return treeReader.nextBytes(false);
+  }
+
 
   public void next() {
     currentRow++;
@@ -60,7 +60,8 @@ public class OrcLazyRowObjectInspector extends OrcLazyStructObjectInspector {
     try {
       OrcLazyObject obj = ((OrcLazyRow) data).getFieldValue(offset);
       if (obj != null) {
-        obj.materialize();
+        // only check whether the field is null, so that its inspector can read just the parts it
+        // needs, e.g. the length of a list
         return obj.nextIsNull() ? null : obj;
       }
       return null;
@@ -20,6 +20,8 @@
 
 package com.facebook.hive.orc.lazy;
 
+import java.io.IOException;
+
 import org.apache.hadoop.hive.serde2.io.ShortWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
@@ -35,7 +37,15 @@ public class OrcLazyShortObjectInspector extends OrcLazyPrimitiveObjectInspector
 
   @Override
   public short get(Object o) {
-    return ((ShortWritable)getPrimitiveWritableObject(o)).get();
+    OrcLazyShort value = (OrcLazyShort) o;
+    if (value.isWritableCreated()) {
+      return ((ShortWritable)getPrimitiveWritableObject(o)).get();
+    }
+    try {
+      return value.materializeShort();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @Override
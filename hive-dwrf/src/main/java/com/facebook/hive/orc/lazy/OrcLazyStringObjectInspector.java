@@ -20,6 +20,10 @@
 
 package com.facebook.hive.orc.lazy;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
 import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
@@ -35,8 +39,37 @@ public class OrcLazyStringObjectInspector extends OrcLazyPrimitiveObjectInspecto
 
   @Override
   public String getPrimitiveJavaObject(Object o) {
-    Text text = getPrimitiveWritableObject(o);
-    return text == null ? null : text.toString();
+    ByteBuffer bytes = getBytes(o);
+    try {
+      return bytes == null ? null :
+          Text.decode(bytes.array(), bytes.position(), bytes.remaining());
+    } catch (CharacterCodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Get the bytes of the string from the position to the limit of the returned buffer, which
+   * wraps the reader's bytes rather than a copy of them and is only valid until the next row is
+   * read.
+   */
+  public ByteBuffer getBytes(Object o) {
+    if (o == null) {
+      return null;
+    }
+    OrcLazyString value = (OrcLazyString) o;
+    try {
+      if (value.nextIsNull()) {
+        return null;
+      }
+      if (value.isWritableCreated()) {
+        Text text = getPrimitiveWritableObject(o);
+        return ByteBuffer.wrap(text.getBytes(), 0, text.getLength());
+      }
+      return value.materializeBytes();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @Override
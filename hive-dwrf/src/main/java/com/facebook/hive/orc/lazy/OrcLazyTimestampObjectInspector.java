@@ -20,6 +20,7 @@
 
 package com.facebook.hive.orc.lazy;
 
+import java.io.IOException;
 import java.sql.Timestamp;
 
 import org.apache.hadoop.hive.serde2.io.TimestampWritable;
@@ -31,6 +32,9 @@ import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
 public class OrcLazyTimestampObjectInspector extends
     OrcLazyPrimitiveObjectInspector<OrcLazyTimestamp, TimestampWritable> implements TimestampObjectInspector {
 
+  private static final long MICROS_PER_SECOND = 1000000L;
+  private static final int NANOS_PER_MICRO = 1000;
+
   protected OrcLazyTimestampObjectInspector() {
     super(PrimitiveObjectInspectorUtils.timestampTypeEntry);
   }
@@ -41,6 +45,22 @@ public class OrcLazyTimestampObjectInspector extends
     return writable == null ? null : writable.getTimestamp();
   }
 
+  /**
+   * Get the timestamp as microseconds since the epoch, without creating a Timestamp.
+   */
+  public long getMicros(Object o) {
+    OrcLazyTimestamp value = (OrcLazyTimestamp) o;
+    if (value.isWritableCreated()) {
+      TimestampWritable writable = getPrimitiveWritableObject(o);
+      return writable.getSeconds() * MICROS_PER_SECOND + writable.getNanos() / NANOS_PER_MICRO;
+    }
+    try {
+      return value.materializeLong();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   @Override
   public Object copyObject(Object o) {
     return o == null ? null : new OrcLazyTimestamp((OrcLazyTimestamp) o);
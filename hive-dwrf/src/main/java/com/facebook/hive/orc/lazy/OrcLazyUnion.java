@@ -20,10 +20,30 @@
 
 package com.facebook.hive.orc.lazy;
 
+import java.io.IOException;
+
+import com.facebook.hive.orc.OrcUnion;
+
 public class OrcLazyUnion extends OrcLazyObject {
 
   public OrcLazyUnion(LazyUnionTreeReader treeReader) {
     super(treeReader);
   }
 
+  /**
+   * Get the tag of the union, which only reads the tag if the union hasn't already been
+   * materialized, so rows can be filtered by their tag without reading their values.
+   * @return the tag, or -1 if the union is null
+   */
+  public byte getTag() throws IOException {
+    LazyUnionTreeReader treeReader = (LazyUnionTreeReader) getLazyTreeReader();
+    if (isMaterialized() || treeReader == null) {
+      OrcUnion union = (OrcUnion) materialize();
+      return union == null ? -1 : union.getTag();
+    }
+    if (nextIsNull()) {
+      return -1;
+    }
+    return treeReader.getTag(getCurrentRow());
+  }
 }
@@ -84,7 +84,11 @@ public class OrcLazyUnionObjectInspector implements UnionObjectInspector {
       return -1;
     }
 
-    return get(o).getTag();
+    try {
+      return ((OrcLazyUnion) o).getTag();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @Override
@@ -0,0 +1,565 @@
+//  Copyright (c) 2013, Facebook, Inc.  All rights reserved.
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.hive.orc.lazy;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+import com.facebook.hive.orc.OrcProto;
+
+/**
+ * A read only list of primitive values, which are kept in an array rather than as a writable
+ * per element.  This is what the lazy readers return for lists of integers, floating point
+ * numbers and strings, and for the keys and values of maps of them.  Accessing an element
+ * through the List interface creates a writable for it the first time, the subclasses have
+ * methods that read the values directly.  Looking up a value in a long list uses a hash table
+ * of the elements, which is built the first time it's needed.
+ */
+public abstract class PrimitiveList extends AbstractList<Object> {
+
+  // Lists up to this long are searched by comparing each element rather than hashing them
+  private static final int MAX_SCANNED_SIZE = 8;
+
+  protected final OrcProto.Type.Kind kind;
+  protected final int size;
+  // Which elements are null, or null if none of them are
+  private boolean[] nulls = null;
+  // The writables created for the elements by get, or null if there haven't been any
+  private Object[] writables = null;
+  // The position plus one of the first occurrence of each non-null value, by hash, or null
+  private int[] hashTable = null;
+
+  PrimitiveList(OrcProto.Type.Kind kind, int size) {
+    this.kind = kind;
+    this.size = size;
+  }
+
+  /**
+   * Can lists of this type be primitive lists.
+   */
+  static boolean isSupported(OrcProto.Type.Kind kind) {
+    switch (kind) {
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+      case STRING:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  static PrimitiveList create(OrcProto.Type.Kind kind, int size) {
+    switch (kind) {
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        return new Longs(kind, size);
+      case FLOAT:
+      case DOUBLE:
+        return new Doubles(kind, size);
+      case STRING:
+        return new Bytes(kind, size);
+      default:
+        throw new IllegalArgumentException("Unsupported primitive list type " + kind);
+    }
+  }
+
+  public OrcProto.Type.Kind getKind() {
+    return kind;
+  }
+
+  public boolean isNull(int index) {
+    return nulls != null && nulls[index];
+  }
+
+  private void setNull(int index) {
+    if (nulls == null) {
+      nulls = new boolean[size];
+    }
+    nulls[index] = true;
+    setEmpty(index);
+  }
+
+  /**
+   * Set the element at the given position from the writable it was read into, or null.
+   */
+  void setElement(int index, Object value) {
+    if (value == null) {
+      setNull(index);
+    } else {
+      setValue(index, value);
+    }
+  }
+
+  /**
+   * Set the element at the given position from the writable it was read into.
+   */
+  abstract void setValue(int index, Object value);
+
+  /**
+   * Record that the element at the given position is null.
+   */
+  abstract void setEmpty(int index);
+
+  /**
+   * Create a writable for the element at the given position.
+   */
+  abstract Object getWritable(int index);
+
+  /**
+   * Get the position of the first element equal to the given writable, or -1.
+   */
+  @Override
+  public int indexOf(Object value) {
+    if (value != null) {
+      return indexOfValue(value);
+    }
+    for (int i = 0; i < size; i++) {
+      if (isNull(i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Get the position of the first non-null element equal to the given writable, or -1.
+   */
+  abstract int indexOfValue(Object value);
+
+  /**
+   * Get the hash of the non-null element at the given position, equal elements have equal
+   * hashes.
+   */
+  abstract int hashAt(int index);
+
+  /**
+   * Are the non-null elements at the given positions equal.
+   */
+  abstract boolean equalAt(int index, int other);
+
+  /**
+   * Should lookups use the hash table rather than compare every element.
+   */
+  boolean isHashed() {
+    return size > MAX_SCANNED_SIZE;
+  }
+
+  /**
+   * Get the hash table of the elements, whose length is a power of two.  Each entry is the
+   * position plus one of the first element with a value, or 0, and a value is found by probing
+   * the entries from its hash until an empty one.
+   */
+  int[] getHashTable() {
+    if (hashTable == null) {
+      int[] table = new int[Integer.highestOneBit(size) * 4];
+      int mask = table.length - 1;
+      for (int i = 0; i < size; i++) {
+        if (isNull(i)) {
+          continue;
+        }
+        int slot = hashAt(i) & mask;
+        while (table[slot] != 0 && !equalAt(table[slot] - 1, i)) {
+          slot = (slot + 1) & mask;
+        }
+        if (table[slot] == 0) {
+          table[slot] = i + 1;
+        }
+      }
+      hashTable = table;
+    }
+    return hashTable;
+  }
+
+  static int hash(long value) {
+    return (int) ((value * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+
+  @Override
+  public Object get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " size " + size);
+    }
+    if (isNull(index)) {
+      return null;
+    }
+    // like a list of writables, get returns the same writable each time
+    if (writables == null) {
+      writables = new Object[size];
+    }
+    if (writables[index] == null) {
+      writables[index] = getWritable(index);
+    }
+    return writables[index];
+  }
+
+  @Override
+  public boolean contains(Object value) {
+    return indexOf(value) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * A list of bytes, shorts, ints or longs.
+   */
+  public static class Longs extends PrimitiveList {
+    private final long[] values;
+
+    Longs(OrcProto.Type.Kind kind, int size) {
+      super(kind, size);
+      values = new long[size];
+    }
+
+    public long getLong(int index) {
+      return values[index];
+    }
+
+    private boolean isWritable(Object value) {
+      switch (kind) {
+        case BYTE:
+          return value instanceof ByteWritable;
+        case SHORT:
+          return value instanceof ShortWritable;
+        case INT:
+          return value instanceof IntWritable;
+        default:
+          return value instanceof LongWritable;
+      }
+    }
+
+    private long toLong(Object value) {
+      switch (kind) {
+        case BYTE:
+          return ((ByteWritable) value).get();
+        case SHORT:
+          return ((ShortWritable) value).get();
+        case INT:
+          return ((IntWritable) value).get();
+        default:
+          return ((LongWritable) value).get();
+      }
+    }
+
+    @Override
+    void setValue(int index, Object value) {
+      values[index] = toLong(value);
+    }
+
+    @Override
+    void setEmpty(int index) {
+      values[index] = 0;
+    }
+
+    @Override
+    Object getWritable(int index) {
+      switch (kind) {
+        case BYTE:
+          return new ByteWritable((byte) values[index]);
+        case SHORT:
+          return new ShortWritable((short) values[index]);
+        case INT:
+          return new IntWritable((int) values[index]);
+        default:
+          return new LongWritable(values[index]);
+      }
+    }
+
+    @Override
+    int indexOfValue(Object value) {
+      // like the writables' equals, a writable of another type is never equal
+      if (!isWritable(value)) {
+        return -1;
+      }
+      return indexOfLong(toLong(value));
+    }
+
+    /**
+     * Get the position of the first non-null element with the given value, or -1.
+     */
+    public int indexOfLong(long value) {
+      if (!isHashed()) {
+        for (int i = 0; i < size; i++) {
+          if (values[i] == value && !isNull(i)) {
+            return i;
+          }
+        }
+        return -1;
+      }
+      int[] table = getHashTable();
+      int mask = table.length - 1;
+      for (int slot = hash(value) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+        if (values[table[slot] - 1] == value) {
+          return table[slot] - 1;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    int hashAt(int index) {
+      return hash(values[index]);
+    }
+
+    @Override
+    boolean equalAt(int index, int other) {
+      return values[index] == values[other];
+    }
+  }
+
+  /**
+   * A list of floats or doubles.
+   */
+  public static class Doubles extends PrimitiveList {
+    private final double[] values;
+
+    Doubles(OrcProto.Type.Kind kind, int size) {
+      super(kind, size);
+      values = new double[size];
+    }
+
+    public double getDouble(int index) {
+      return values[index];
+    }
+
+    private double toDouble(Object value) {
+      if (kind == OrcProto.Type.Kind.FLOAT) {
+        return ((FloatWritable) value).get();
+      }
+      return ((DoubleWritable) value).get();
+    }
+
+    @Override
+    void setValue(int index, Object value) {
+      values[index] = toDouble(value);
+    }
+
+    @Override
+    void setEmpty(int index) {
+      values[index] = 0;
+    }
+
+    @Override
+    Object getWritable(int index) {
+      if (kind == OrcProto.Type.Kind.FLOAT) {
+        return new FloatWritable((float) values[index]);
+      }
+      return new DoubleWritable(values[index]);
+    }
+
+    @Override
+    int indexOfValue(Object value) {
+      // like the writables' equals, a writable of another type is never equal
+      if (kind == OrcProto.Type.Kind.FLOAT ?
+          !(value instanceof FloatWritable) : !(value instanceof DoubleWritable)) {
+        return -1;
+      }
+      return indexOfDouble(toDouble(value));
+    }
+
+    /**
+     * Get the position of the first non-null element with the given value, or -1.  Values are
+     * compared like the writables' equals, so NaN equals itself.
+     */
+    public int indexOfDouble(double value) {
+      if (!isHashed()) {
+        for (int i = 0; i < size; i++) {
+          if (Double.compare(values[i], value) == 0 && !isNull(i)) {
+            return i;
+          }
+        }
+        return -1;
+      }
+      int[] table = getHashTable();
+      int mask = table.length - 1;
+      for (int slot = hash(Double.doubleToLongBits(value)) & mask; table[slot] != 0;
+           slot = (slot + 1) & mask) {
+        if (Double.compare(values[table[slot] - 1], value) == 0) {
+          return table[slot] - 1;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    int hashAt(int index) {
+      return hash(Double.doubleToLongBits(values[index]));
+    }
+
+    @Override
+    boolean equalAt(int index, int other) {
+      return Double.compare(values[index], values[other]) == 0;
+    }
+  }
+
+  /**
+   * A list of strings, whose bytes are kept one after the other in a single array.
+   */
+  public static class Bytes extends PrimitiveList {
+    private byte[] bytes = new byte[0];
+    // The start of each element in bytes, followed by the end of the last one
+    private final int[] offsets;
+
+    Bytes(OrcProto.Type.Kind kind, int size) {
+      super(kind, size);
+      offsets = new int[size + 1];
+    }
+
+    /**
+     * Get the array holding the bytes of every element, see getStart and getLength.
+     */
+    public byte[] getBytes() {
+      return bytes;
+    }
+
+    public int getStart(int index) {
+      return offsets[index];
+    }
+
+    public int getLength(int index) {
+      return offsets[index + 1] - offsets[index];
+    }
+
+    @Override
+    void setValue(int index, Object value) {
+      Text text = (Text) value;
+      int start = offsets[index];
+      int end = start + text.getLength();
+      if (end > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(end, bytes.length * 2));
+      }
+      System.arraycopy(text.getBytes(), 0, bytes, start, text.getLength());
+      offsets[index + 1] = end;
+    }
+
+    @Override
+    void setEmpty(int index) {
+      offsets[index + 1] = offsets[index];
+    }
+
+    @Override
+    Object getWritable(int index) {
+      Text result = new Text();
+      result.set(bytes, offsets[index], getLength(index));
+      return result;
+    }
+
+    @Override
+    int indexOfValue(Object value) {
+      if (!(value instanceof Text)) {
+        return -1;
+      }
+      Text text = (Text) value;
+      return indexOfBytes(text.getBytes(), 0, text.getLength());
+    }
+
+    /**
+     * Get the position of the first non-null element with the given bytes, or -1.
+     */
+    public int indexOfBytes(byte[] value, int start, int length) {
+      if (!isHashed()) {
+        for (int i = 0; i < size; i++) {
+          if (!isNull(i) && equalTo(i, value, start, length)) {
+            return i;
+          }
+        }
+        return -1;
+      }
+      int[] table = getHashTable();
+      int mask = table.length - 1;
+      for (int slot = WritableComparator.hashBytes(value, start, length) & mask; table[slot] != 0;
+           slot = (slot + 1) & mask) {
+        if (equalTo(table[slot] - 1, value, start, length)) {
+          return table[slot] - 1;
+        }
+      }
+      return -1;
+    }
+
+    private boolean equalTo(int index, byte[] value, int start, int length) {
+      return getLength(index) == length &&
+          WritableComparator.compareBytes(bytes, offsets[index], length, value, start,
+              length) == 0;
+    }
+
+    @Override
+    int hashAt(int index) {
+      return WritableComparator.hashBytes(bytes, offsets[index], getLength(index));
+    }
+
+    @Override
+    boolean equalAt(int index, int other) {
+      return equalTo(index, bytes, offsets[other], getLength(other));
+    }
+  }
+
+  /**
+   * Reads the elements of lists, or the keys or values of maps, of a primitive type into
+   * primitive lists, decoding each value into the same writable.
+   */
+  static class Reader {
+    private final LazyTreeReader reader;
+    private final OrcProto.Type.Kind kind;
+    private Object scratch = null;
+
+    Reader(LazyTreeReader reader, OrcProto.Type.Kind kind) {
+      this.reader = reader;
+      this.kind = kind;
+    }
+
+    /**
+     * Create an empty primitive list of the reader's type.
+     */
+    PrimitiveList create(int length) {
+      return PrimitiveList.create(kind, length);
+    }
+
+    PrimitiveList read(int length, long row) throws IOException {
+      PrimitiveList result = create(length);
+      for (int i = 0; i < length; i++) {
+        Object value = reader.getInComplexType(scratch, row);
+        if (value != null) {
+          scratch = value;
+        }
+        result.setElement(i, value);
+      }
+      return result;
+    }
+  }
+}
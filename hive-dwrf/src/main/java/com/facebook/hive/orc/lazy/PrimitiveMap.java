@@ -0,0 +1,108 @@
+//  Copyright (c) 2013, Facebook, Inc.  All rights reserved.
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.hive.orc.lazy;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read only map whose keys and values are primitive lists, which is what the lazy readers
+ * return for maps whose keys and values are both integers, floating point numbers or strings.
+ * Looking up a key finds it in the keys' hash table, or compares it with each of the keys of a
+ * small map, without creating writables for them.  The keys and values can be read directly
+ * from getKeys and getValues, and the keys looked up with their indexOf methods.
+ */
+public class PrimitiveMap extends AbstractMap<Object, Object> {
+
+  private final PrimitiveList keys;
+  private final PrimitiveList values;
+
+  PrimitiveMap(PrimitiveList keys, PrimitiveList values) {
+    this.keys = keys;
+    this.values = values;
+  }
+
+  public PrimitiveList getKeys() {
+    return keys;
+  }
+
+  public PrimitiveList getValues() {
+    return values;
+  }
+
+  @Override
+  public Object get(Object key) {
+    int index = keys.indexOf(key);
+    return index < 0 ? null : values.get(index);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return keys.indexOf(key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return keys.size();
+  }
+
+  @Override
+  public Set<Map.Entry<Object, Object>> entrySet() {
+    return new AbstractSet<Map.Entry<Object, Object>>() {
+      @Override
+      public Iterator<Map.Entry<Object, Object>> iterator() {
+        return new Iterator<Map.Entry<Object, Object>>() {
+          private int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return next < keys.size();
+          }
+
+          @Override
+          public Map.Entry<Object, Object> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            Map.Entry<Object, Object> entry = new AbstractMap.SimpleImmutableEntry<Object, Object>(
+                keys.get(next), values.get(next));
+            next++;
+            return entry;
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException("remove unsupported");
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return keys.size();
+      }
+    };
+  }
+}
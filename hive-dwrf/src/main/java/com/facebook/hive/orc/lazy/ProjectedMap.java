@@ -0,0 +1,129 @@
+//  Copyright (c) 2013, Facebook, Inc.  All rights reserved.
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.hive.orc.lazy;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read only map of the entries of a map whose keys are among the projected keys.  The values
+ * are kept in an array in the order of the projected keys rather than hashed.  The array of
+ * projected keys is shared by all the maps of the projection, each map has its own values.
+ * Projections only have a few keys, so a lookup just compares the key with each of them.
+ */
+class ProjectedMap extends AbstractMap<Object, Object> {
+
+  private final Object[] keys;
+  private final Object[] values;
+  private final boolean[] present;
+  private int size = 0;
+
+  ProjectedMap(Object[] keys) {
+    this.keys = keys;
+    values = new Object[keys.length];
+    present = new boolean[keys.length];
+  }
+
+  /**
+   * Set the value of the projected key at the given position.
+   */
+  void put(int index, Object value) {
+    if (!present[index]) {
+      present[index] = true;
+      size++;
+    }
+    values[index] = value;
+  }
+
+  private int indexOf(Object key) {
+    for (int i = 0; i < keys.length; i++) {
+      if (present[i] && keys[i].equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public Object get(Object key) {
+    int index = indexOf(key);
+    return index < 0 ? null : values[index];
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Set<Map.Entry<Object, Object>> entrySet() {
+    return new AbstractSet<Map.Entry<Object, Object>>() {
+      @Override
+      public Iterator<Map.Entry<Object, Object>> iterator() {
+        return new Iterator<Map.Entry<Object, Object>>() {
+          private int next = advance(0);
+
+          private int advance(int from) {
+            while (from < keys.length && !present[from]) {
+              from++;
+            }
+            return from;
+          }
+
+          @Override
+          public boolean hasNext() {
+            return next < keys.length;
+          }
+
+          @Override
+          public Map.Entry<Object, Object> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            Map.Entry<Object, Object> entry =
+                new AbstractMap.SimpleImmutableEntry<Object, Object>(keys[next], values[next]);
+            next = advance(next + 1);
+            return entry;
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException("remove unsupported");
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+}
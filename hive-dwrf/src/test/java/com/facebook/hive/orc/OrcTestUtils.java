@@ -1,6 +1,7 @@
 package com.facebook.hive.orc;
 
 import java.nio.ByteBuffer;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -122,6 +123,42 @@ public class OrcTestUtils {
     }
   }
 
+  public static class FloatingPointStruct {
+    Float float1;
+    Double double1;
+
+    public FloatingPointStruct(Double value) {
+      this.float1 = value == null ? null : value.floatValue();
+      this.double1 = value;
+    }
+  }
+
+  public static class TimestampStruct {
+    Timestamp ts;
+
+    public TimestampStruct(Timestamp ts) {
+      this.ts = ts;
+    }
+  }
+
+  public static class FlatMapStruct {
+    Map<Integer, Long> intMap;
+    Map<String, String> stringMap;
+
+    public FlatMapStruct(Map<Integer, Long> intMap, Map<String, String> stringMap) {
+      this.intMap = intMap;
+      this.stringMap = stringMap;
+    }
+  }
+
+  public static class LongListStruct {
+    List<Long> list;
+
+    public LongListStruct(List<Long> list) {
+      this.list = list;
+    }
+  }
+
   public static class DoubleRow {
     Double double1;
 
@@ -121,4 +121,45 @@ public class TestBitFieldReader {
       in.skip(0);
     }
   }
+
+  @Test
+  public void testCountBits() throws Exception {
+    ReaderWriterProfiler.setProfilerOptions(null);
+    TestInStream.OutputCollector collect = new TestInStream.OutputCollector();
+    BitFieldWriter out = new BitFieldWriter(
+        new OutStream("test", 100, null, collect, new MemoryEstimate()), 1);
+    final int COUNT = 16384;
+    // long runs of zeros, then a few bits, then bits that aren't runs
+    for(int i=0; i < COUNT; ++i) {
+      if (i < COUNT/2) {
+        out.write(i % 1000 == 999 ? 1 : 0);
+      } else {
+        out.write((i/3) & 1);
+      }
+    }
+    out.flush();
+    ByteBuffer inBuf = ByteBuffer.allocate(collect.buffer.size());
+    collect.buffer.setByteBuffer(inBuf, 0, collect.buffer.size());
+    inBuf.flip();
+    BitFieldReader in = new BitFieldReader(InStream.create
+        ("test", inBuf, null, 100));
+    int[] counts = {0, 3, 1000, 5, 8, 17, 2000, 1, 4000, 64};
+    int row = 0;
+    int c = 0;
+    while (row < COUNT) {
+      int items = Math.min(counts[c++ % counts.length], COUNT - row);
+      long expected = 0;
+      for (int i = row; i < row + items; i++) {
+        if (i < COUNT/2 ? i % 1000 == 999 : ((i/3) & 1) == 1) {
+          expected++;
+        }
+      }
+      assertEquals("row " + row, expected, in.countBits(items));
+      row += items;
+      if (row < COUNT) {
+        assertEquals(row < COUNT/2 ? (row % 1000 == 999 ? 1 : 0) : (row/3) & 1, in.next());
+        row++;
+      }
+    }
+  }
 }
@@ -18,16 +18,25 @@
 
 package com.facebook.hive.orc;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.facebook.hive.orc.compression.CompressionCodec;
 import com.facebook.hive.orc.compression.CompressionKind;
 import com.facebook.hive.orc.compression.ZlibCodec;
+import com.facebook.hive.orc.compression.ZstdCodec;
 import junit.framework.Assert;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.PositionedReadable;
 import org.apache.hadoop.fs.Seekable;
@@ -39,6 +48,7 @@ import com.facebook.hive.orc.OrcProto.RowIndexEntry;
 import com.facebook.hive.orc.WriterImpl.RowIndexPositionRecorder;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
 public class TestInStream {
@@ -176,6 +186,365 @@ public class TestInStream {
     }
   }
 
+  @Test
+  public void testCompressedBufferSize() throws Exception {
+    ReaderWriterProfiler.setProfilerOptions(null);
+    OutputCollector collect = new OutputCollector();
+    MemoryEstimate memoryEstimate = new MemoryEstimate();
+    OutStream out = new OutStream("test", 1000, new ZlibCodec(), collect, memoryEstimate);
+    for(int i=0; i < 10000; ++i) {
+      out.write(i / 10);
+      // the compressed blocks are passed on, so the stream only holds the block being written
+      assertEquals(1000 + OutStream.HEADER_SIZE, out.getBufferSize());
+      assertEquals(1000 + OutStream.HEADER_SIZE, memoryEstimate.getTotalMemory());
+    }
+    out.flush();
+    assertEquals(0, out.getBufferSize());
+    assertEquals(0, memoryEstimate.getTotalMemory());
+    assertTrue(collect.buffer.size() < 10000);
+  }
+
+  @Test
+  public void testOutputChunkPoolMemory() throws Exception {
+    MemoryEstimate memoryEstimate = new MemoryEstimate();
+    OutputChunkPool pool = new OutputChunkPool(100, memoryEstimate);
+    ByteBuffer first = pool.take();
+    ByteBuffer second = pool.take();
+    assertEquals(200, memoryEstimate.getTotalMemory());
+    // chunks waiting to be reused still count
+    pool.give(first);
+    pool.give(second);
+    assertEquals(200, memoryEstimate.getTotalMemory());
+    assertEquals(200, pool.getPooledBytes());
+    assertTrue(pool.take() == second);
+    assertEquals(200, memoryEstimate.getTotalMemory());
+    pool.give(second);
+    pool.trim(150);
+    assertEquals(100, pool.getPooledBytes());
+    assertEquals(100, memoryEstimate.getTotalMemory());
+    pool.trim(0);
+    assertEquals(0, memoryEstimate.getTotalMemory());
+  }
+
+  @Test
+  public void testCompressedConcurrently() throws Exception {
+    ReaderWriterProfiler.setProfilerOptions(null);
+    CompressionCodec codec = new ZlibCodec();
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      OutputCollector expected = new OutputCollector();
+      OutputCollector collect = new OutputCollector();
+      OutStream expectedOut = new OutStream("test", 300, codec, expected, new MemoryEstimate());
+      OutStream out = new OutStream("test", 300, codec, collect, new MemoryEstimate(), executor);
+      RowIndex.Builder rowIndex = OrcProto.RowIndex.newBuilder();
+      RowIndexEntry.Builder rowIndexEntry = OrcProto.RowIndexEntry.newBuilder();
+      WriterImpl.RowIndexPositionRecorder rowIndexPosition =
+          new RowIndexPositionRecorder(rowIndexEntry);
+      // only record positions every so often, so several blocks are compressed at once
+      for(int i=0; i < 20000; ++i) {
+        if (i % 1000 == 0) {
+          out.getPosition(rowIndexPosition);
+          rowIndex.addEntry(rowIndexEntry.build());
+          rowIndexEntry.clear();
+        }
+        out.write(i % 7 == 0 ? i : i / 100);
+        expectedOut.write(i % 7 == 0 ? i : i / 100);
+      }
+      out.flush();
+      expectedOut.flush();
+
+      // the blocks should end up in the same order as when compressing them inline
+      assertEquals(expected.buffer.size(), collect.buffer.size());
+      for(int i=0; i < expected.buffer.size(); ++i) {
+        assertEquals(expected.buffer.get(i), collect.buffer.get(i));
+      }
+
+      ByteBuffer inBuf = ByteBuffer.allocate(collect.buffer.size());
+      collect.buffer.setByteBuffer(inBuf, 0, collect.buffer.size());
+      inBuf.flip();
+      InStream in = InStream.create("test", inBuf, codec, 300);
+      in.loadIndeces(rowIndex.build().getEntryList(), 0);
+      for(int i=19; i >= 0; --i) {
+        in.seek(i);
+        for(int j=i * 1000; j < (i + 1) * 1000; ++j) {
+          assertEquals((byte) (j % 7 == 0 ? j : j / 100), (byte) in.read());
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testCompressedConcurrentlyReusesInputBuffers() throws Exception {
+    ReaderWriterProfiler.setProfilerOptions(null);
+    CompressionCodec codec = new ZlibCodec();
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      OutputCollector expected = new OutputCollector();
+      final Set<ByteBuffer> outputBuffers =
+          Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+      OutputCollector collect = new OutputCollector() {
+        @Override
+        public void output(ByteBuffer buffer) throws IOException {
+          outputBuffers.add(buffer);
+          super.output(buffer);
+        }
+      };
+      MemoryEstimate memoryEstimate = new MemoryEstimate();
+      OutputChunkPool pool = new OutputChunkPool(300 + OutStream.HEADER_SIZE,
+          OutStream.MAX_PENDING_BLOCKS + 2, memoryEstimate);
+      OutStream expectedOut = new OutStream("test", 300, codec, expected, new MemoryEstimate());
+      OutStream out = new OutStream("test", 300, codec, collect, memoryEstimate, executor, null,
+          pool);
+      for (int round = 0; round < 2; round++) {
+        for (int i = 0; i < 20000; ++i) {
+          out.write(i % 7 == 0 ? i : i / 100);
+          expectedOut.write(i % 7 == 0 ? i : i / 100);
+        }
+        out.flush();
+        expectedOut.flush();
+        // the buffers are back in the pool, which is all the stream's memory
+        assertTrue(pool.getPooledBytes() > 0);
+        assertEquals(pool.getPooledBytes(), memoryEstimate.getTotalMemory());
+        assertEquals(0, out.getBufferSize());
+      }
+
+      // compressed or not, every block was output from one of the few input buffers
+      assertTrue(outputBuffers.size() <= OutStream.MAX_PENDING_BLOCKS + 2);
+      assertEquals(expected.buffer.size(), collect.buffer.size());
+      for (int i = 0; i < expected.buffer.size(); ++i) {
+        assertEquals(expected.buffer.get(i), collect.buffer.get(i));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testZstdDictionaryAfterReloadAndClose() throws Exception {
+    byte[] dictionary = new byte[4096];
+    for (int i = 0; i < dictionary.length; i++) {
+      dictionary[i] = (byte) ("dictionary".charAt(i % 10) + i / 1024);
+    }
+    Configuration conf = new Configuration();
+    ZstdCodec codec = new ZstdCodec(conf, dictionary);
+    ByteBuffer first = compressZstd(codec, dictionary);
+    // the digested dictionary for the old level is released once its contexts are closed
+    OrcConf.setIntVar(conf, OrcConf.ConfVars.HIVE_ORC_ZSTD_COMPRESSION_LEVEL, 5);
+    codec.reloadConfigurations(conf);
+    ByteBuffer second = compressZstd(codec, dictionary);
+    codec.close();
+    // the codec can still be used after it was closed
+    ByteBuffer third = compressZstd(codec, dictionary);
+    for (ByteBuffer compressed : new ByteBuffer[] {first, second, third}) {
+      ByteBuffer out = ByteBuffer.allocate(dictionary.length);
+      codec.decompress(compressed, out);
+      assertEquals(ByteBuffer.wrap(dictionary), out);
+    }
+    codec.close();
+  }
+
+  private static ByteBuffer compressZstd(ZstdCodec codec, byte[] data) throws IOException {
+    ByteBuffer compressed = ByteBuffer.allocate(data.length);
+    assertTrue(codec.compress(ByteBuffer.wrap(data), compressed, null));
+    compressed.flip();
+    return compressed;
+  }
+
+  @Test
+  public void testCompressedDirect() throws Exception {
+    ReaderWriterProfiler.setProfilerOptions(null);
+    for (CompressionKind kind : new CompressionKind[] {CompressionKind.ZLIB,
+        CompressionKind.SNAPPY, CompressionKind.LZ4, CompressionKind.ZSTD}) {
+      OutputCollector collect = new OutputCollector();
+      CompressionCodec codec = WriterImpl.createCodec(kind);
+      OutStream out = new OutStream("test", 300, codec, collect, new MemoryEstimate());
+      RowIndex.Builder rowIndex = OrcProto.RowIndex.newBuilder();
+      RowIndexEntry.Builder rowIndexEntry = OrcProto.RowIndexEntry.newBuilder();
+      WriterImpl.RowIndexPositionRecorder rowIndexPosition =
+          new RowIndexPositionRecorder(rowIndexEntry);
+      for(int i=0; i < 1024; ++i) {
+        out.getPosition(rowIndexPosition);
+        rowIndex.addEntry(rowIndexEntry.build());
+        rowIndexEntry.clear();
+        // mix runs that compress with values that don't
+        out.write(i % 256 < 128 ? i / 64 : i * 7919);
+      }
+      out.flush();
+
+      // read the stream from off heap memory, as if it was memory mapped
+      ByteBuffer heapBuf = ByteBuffer.allocate(collect.buffer.size());
+      collect.buffer.setByteBuffer(heapBuf, 0, collect.buffer.size());
+      heapBuf.flip();
+      ByteBuffer inBuf = ByteBuffer.allocateDirect(heapBuf.remaining() + 5);
+      inBuf.position(5);
+      inBuf.put(heapBuf);
+      inBuf.flip();
+      inBuf.position(5);
+      InStream in = InStream.create("test", inBuf, codec, 300);
+      byte[] contents = new byte[1024];
+      int length = 0;
+      while (length < contents.length) {
+        length += in.read(contents, length, contents.length - length);
+      }
+      for(int i=0; i < 1024; ++i) {
+        assertEquals(kind.toString(), (byte) (i % 256 < 128 ? i / 64 : i * 7919), contents[i]);
+      }
+      assertEquals(0, in.available());
+      in.loadIndeces(rowIndex.build().getEntryList(), 0);
+      for(int i=1023; i >= 0; --i) {
+        in.seek(i);
+        assertEquals(kind.toString(), (i % 256 < 128 ? i / 64 : i * 7919) & 0xff, in.read());
+      }
+    }
+  }
+
+  @Test
+  public void testCodecsWithDirectBuffers() throws Exception {
+    byte[] data = new byte[10000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 100 < 50 ? i / 100 : i * 31);
+    }
+    for (CompressionKind kind : new CompressionKind[] {CompressionKind.ZLIB,
+        CompressionKind.SNAPPY, CompressionKind.LZ4, CompressionKind.ZSTD}) {
+      CompressionCodec codec = WriterImpl.createCodec(kind);
+      ByteBuffer in = ByteBuffer.allocateDirect(data.length);
+      in.put(data);
+      in.flip();
+      // split the output between out and overflow
+      ByteBuffer out = ByteBuffer.allocateDirect(1000);
+      ByteBuffer overflow = ByteBuffer.allocateDirect(data.length);
+      Assert.assertTrue(kind.toString(), codec.compress(in, out, overflow));
+      Assert.assertEquals(kind.toString(), 0, in.position());
+      out.flip();
+      overflow.flip();
+      ByteBuffer compressed = ByteBuffer.allocateDirect(out.remaining() + overflow.remaining());
+      compressed.put(out);
+      compressed.put(overflow);
+      compressed.flip();
+
+      ByteBuffer uncompressed = ByteBuffer.allocateDirect(data.length);
+      codec.decompress(compressed, uncompressed);
+      Assert.assertEquals(kind.toString(), data.length, uncompressed.remaining());
+      for (int i = 0; i < data.length; i++) {
+        Assert.assertEquals(kind.toString(), data[i], uncompressed.get(i));
+      }
+
+      // decompress from off heap memory into a heap buffer
+      compressed.rewind();
+      uncompressed = ByteBuffer.allocate(data.length);
+      codec.decompress(compressed, uncompressed);
+      Assert.assertEquals(kind.toString(), data.length, uncompressed.remaining());
+      Assert.assertEquals(kind.toString(), data[data.length - 1],
+          uncompressed.get(data.length - 1));
+    }
+  }
+
+  @Test
+  public void testAdaptiveCompression() throws Exception {
+    testAdaptiveCompression(null);
+  }
+
+  @Test
+  public void testAdaptiveCompressionConcurrently() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      testAdaptiveCompression(executor);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void testAdaptiveCompression(ExecutorService executor) throws Exception {
+    ReaderWriterProfiler.setProfilerOptions(null);
+    OutputCollector collect = new OutputCollector();
+    CompressionCodec codec = new ZlibCodec();
+    AdaptiveCompression adaptive = new AdaptiveCompression(1.1f, 2, 4);
+    OutStream out = new OutStream("test", 1000, codec, collect, new MemoryEstimate(), executor,
+        adaptive);
+    RowIndex.Builder rowIndex = OrcProto.RowIndex.newBuilder();
+    RowIndexEntry.Builder rowIndexEntry = OrcProto.RowIndexEntry.newBuilder();
+    WriterImpl.RowIndexPositionRecorder rowIndexPosition =
+        new RowIndexPositionRecorder(rowIndexEntry);
+    // 50 blocks of random bytes followed by 50 blocks that compress well
+    byte[] expected = new byte[100000];
+    Random random = new Random(13);
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = (byte) (i < 50000 ? random.nextInt() : i / 1000);
+      if (i % 1000 == 0) {
+        out.getPosition(rowIndexPosition);
+        rowIndex.addEntry(rowIndexEntry.build());
+        rowIndexEntry.clear();
+      }
+      out.write(expected[i]);
+    }
+    out.flush();
+
+    Assert.assertEquals(1, adaptive.getSkipDecisions());
+    Assert.assertTrue(adaptive.getSkippedBlocks() > 30);
+    Assert.assertEquals(100, adaptive.getSkippedBlocks() + adaptive.getCompressedBlocks());
+    // the compressible blocks are compressed after the first probe that sees them
+    Assert.assertTrue(collect.buffer.size() < 60000);
+
+    ByteBuffer inBuf = ByteBuffer.allocate(collect.buffer.size());
+    collect.buffer.setByteBuffer(inBuf, 0, collect.buffer.size());
+    inBuf.flip();
+    InStream in = InStream.create("test", inBuf, codec, 1000);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], (byte) in.read());
+    }
+    in.loadIndeces(rowIndex.build().getEntryList(), 0);
+    for (int i = 99; i >= 0; i--) {
+      in.seek(i);
+      assertEquals(expected[i * 1000], (byte) in.read());
+    }
+  }
+
+  @Test
+  public void testReadDoublesAndFloats() throws Exception {
+    ReaderWriterProfiler.setProfilerOptions(null);
+    for (CompressionCodec codec : new CompressionCodec[] {null, new ZlibCodec()}) {
+      // the buffer size isn't a multiple of the value sizes, so values are split between blocks
+      OutputCollector collect = new OutputCollector();
+      OutStream out = new OutStream("test", 100, codec, collect, new MemoryEstimate());
+      for (int i = 0; i < 1000; ++i) {
+        SerializationUtils.writeDouble(out, i * 1.5);
+      }
+      for (int i = 0; i < 1000; ++i) {
+        SerializationUtils.writeFloat(out, i * -0.25f);
+      }
+      out.flush();
+
+      ByteBuffer inBuf = ByteBuffer.allocate(collect.buffer.size());
+      collect.buffer.setByteBuffer(inBuf, 0, collect.buffer.size());
+      inBuf.flip();
+      InStream in = InStream.create("test", inBuf, codec, 100);
+      double[] doubles = new double[1000];
+      in.readDoubles(doubles, 0, 10);
+      assertEquals(100 * 8, in.skip(100 * 8));
+      in.readDoubles(doubles, 110, 890);
+      for (int i = 0; i < 1000; ++i) {
+        if (i < 10 || i >= 110) {
+          assertEquals(i * 1.5, doubles[i]);
+        }
+      }
+      float[] floats = new float[1001];
+      in.readFloats(floats, 1, 999);
+      assertEquals(SerializationUtils.readFloat(in), 999 * -0.25f);
+      for (int i = 0; i < 999; ++i) {
+        assertEquals(i * -0.25f, floats[i + 1]);
+      }
+      assertEquals(0, in.skip(8));
+      try {
+        in.readFloats(floats, 0, 1);
+        fail();
+      } catch (EOFException eof) {
+        // EXPECTED
+      }
+    }
+  }
+
   @Test
   public void testCorruptStream() throws Exception {
     ReaderWriterProfiler.setProfilerOptions(null);
@@ -23,6 +23,8 @@ import static junit.framework.Assert.assertEquals;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
 
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.junit.Test;
@@ -115,6 +117,32 @@ public class TestIntDictionaryEncoder {
     }
   }
 
+  @Test
+  public void testSortManyKeys() throws Exception {
+    IntDictionaryEncoder dictEncoder = new IntDictionaryEncoder(true, 8, true,
+        new MemoryEstimate());
+    Random random = new Random(42);
+    // the distinct values in the order they were added
+    final long[] values = new long[100000];
+    for (int i = 0; i < values.length; i++) {
+      // mix small and large, positive and negative values
+      long value = i % 3 == 0 ? random.nextInt(1000) - 500 : random.nextLong();
+      values[dictEncoder.add(value)] = value;
+    }
+    final long[] sorted = Arrays.copyOf(values, dictEncoder.size());
+    Arrays.sort(sorted);
+    dictEncoder.visit(new IntDictionaryEncoder.Visitor<Long>() {
+      private int current = 0;
+
+      @Override
+      public void visit(IntDictionaryEncoder.VisitorContext<Long> context) throws IOException {
+        assertEquals(sorted[current], context.getKey().longValue());
+        assertEquals(values[context.getOriginalPosition()], context.getKey().longValue());
+        current++;
+      }
+    });
+  }
+
   private static class TestVisitor implements IntDictionaryEncoder.Visitor<Long> {
     private final int[] values;
     private final int[] order;
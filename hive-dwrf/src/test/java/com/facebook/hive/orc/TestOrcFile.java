@@ -28,6 +28,7 @@ import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
 import java.io.EOFException;
 import java.io.File;
@@ -35,7 +36,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +52,7 @@ import com.facebook.hive.orc.statistics.IntegerColumnStatistics;
 import com.facebook.hive.orc.statistics.StringColumnStatistics;
 import com.google.common.collect.ImmutableList;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.serde2.ReaderWriterProfiler;
@@ -71,6 +75,7 @@ import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspecto
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
 import org.apache.hadoop.io.BooleanWritable;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.FloatWritable;
@@ -84,30 +89,41 @@ import org.junit.rules.TestName;
 
 import com.facebook.hive.orc.OrcTestUtils.BigRow;
 import com.facebook.hive.orc.OrcTestUtils.DoubleRow;
+import com.facebook.hive.orc.OrcTestUtils.FlatMapStruct;
+import com.facebook.hive.orc.OrcTestUtils.LongListStruct;
+import com.facebook.hive.orc.OrcTestUtils.FloatingPointStruct;
 import com.facebook.hive.orc.OrcTestUtils.InnerStruct;
 import com.facebook.hive.orc.OrcTestUtils.IntStruct;
 import com.facebook.hive.orc.OrcTestUtils.MiddleStruct;
 import com.facebook.hive.orc.OrcTestUtils.ReallyBigRow;
 import com.facebook.hive.orc.OrcTestUtils.StringListWithId;
 import com.facebook.hive.orc.OrcTestUtils.StringStruct;
+import com.facebook.hive.orc.OrcTestUtils.TimestampStruct;
 import com.facebook.hive.orc.lazy.LazyTreeReader;
 import com.facebook.hive.orc.lazy.OrcLazyBinary;
+import com.facebook.hive.orc.lazy.OrcLazyBinaryObjectInspector;
 import com.facebook.hive.orc.lazy.OrcLazyBoolean;
 import com.facebook.hive.orc.lazy.OrcLazyByte;
 import com.facebook.hive.orc.lazy.OrcLazyDouble;
 import com.facebook.hive.orc.lazy.OrcLazyFloat;
 import com.facebook.hive.orc.lazy.OrcLazyInt;
 import com.facebook.hive.orc.lazy.OrcLazyList;
+import com.facebook.hive.orc.lazy.OrcLazyListObjectInspector;
 import com.facebook.hive.orc.lazy.OrcLazyLong;
 import com.facebook.hive.orc.lazy.OrcLazyMap;
+import com.facebook.hive.orc.lazy.OrcLazyMapObjectInspector;
 import com.facebook.hive.orc.lazy.OrcLazyObject;
 import com.facebook.hive.orc.lazy.OrcLazyObjectInspectorUtils;
 import com.facebook.hive.orc.lazy.OrcLazyRow;
 import com.facebook.hive.orc.lazy.OrcLazyShort;
 import com.facebook.hive.orc.lazy.OrcLazyString;
+import com.facebook.hive.orc.lazy.OrcLazyStringObjectInspector;
 import com.facebook.hive.orc.lazy.OrcLazyStruct;
 import com.facebook.hive.orc.lazy.OrcLazyTimestamp;
+import com.facebook.hive.orc.lazy.OrcLazyTimestampObjectInspector;
 import com.facebook.hive.orc.lazy.OrcLazyUnion;
+import com.facebook.hive.orc.lazy.PrimitiveList;
+import com.facebook.hive.orc.lazy.PrimitiveMap;
 
 /**
  * Tests for the top level reader/streamFactory of ORC files.
@@ -190,6 +206,95 @@ public class TestOrcFile {
     assertEquals(0, row.getFieldValue(11).hashCode());
   }
 
+  @Test
+  public void testTypedColumnAccessors() throws Exception {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (BigRow.class, ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    ReaderWriterProfiler.setProfilerOptions(conf);
+    Writer writer = OrcFile.createWriter(fs, testFilePath, conf, inspector,
+        100000, CompressionKind.ZLIB, 10000, 10000);
+    writer.addRow(new BigRow(false, (byte) 1, (short) 1024, 65536,
+        Long.MAX_VALUE, (float) 1.0, -15.0, bytes(0, 1, 2, 3, 4), "hi",
+        null, null, null));
+    writer.addRow(new BigRow(null, null, null, null,
+        null, null, null, null, null, null, null, null));
+    writer.addRow(new BigRow(true, (byte) -100, (short) -2048, -65536,
+        Long.MIN_VALUE, (float) -2.5, 3.25, bytes(), "bye",
+        null, null, null));
+    writer.close();
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    RecordReader rows = reader.rows(null);
+
+    rows.next(null);
+    for (int i = 0; i < 9; i++) {
+      assertFalse(rows.isNull(i));
+    }
+    assertEquals(false, rows.getBoolean(0));
+    assertEquals(1, rows.getLong(1));
+    assertEquals(1024, rows.getLong(2));
+    assertEquals(65536, rows.getLong(3));
+    assertEquals(Long.MAX_VALUE, rows.getLong(4));
+    assertEquals(1.0, rows.getDouble(5));
+    assertEquals(-15.0, rows.getDouble(6));
+    assertTrue(Arrays.equals(new byte[] {0, 1, 2, 3, 4}, rows.getBytes(7)));
+    assertEquals("hi", new String(rows.getBytes(8), "UTF-8"));
+    // the views hold the same bytes
+    assertEquals(ByteBuffer.wrap(new byte[] {0, 1, 2, 3, 4}), rows.getBytesView(7));
+    assertEquals(ByteBuffer.wrap("hi".getBytes("UTF-8")), rows.getBytesView(8));
+    // reading a value again, or through the row, gives the same value
+    assertEquals(65536, rows.getLong(3));
+    OrcStruct row = (OrcStruct) rows.getReader().materialize();
+    assertEquals(new IntWritable(65536),
+        ((OrcLazyInt) row.getFieldValue(3)).materialize());
+    try {
+      rows.getDouble(4);
+      fail("Expected an IOException reading a long column as a double");
+    } catch (IOException e) {
+      // expected
+    }
+
+    rows.next(null);
+    for (int i = 0; i < 12; i++) {
+      assertTrue(rows.isNull(i));
+    }
+    assertNull(rows.getBytes(7));
+    assertNull(rows.getBytes(8));
+    assertNull(rows.getBytesView(7));
+    assertNull(rows.getBytesView(8));
+
+    rows.next(null);
+    assertEquals(true, rows.getBoolean(0));
+    assertEquals(-100, rows.getLong(1));
+    assertEquals(-2048, rows.getLong(2));
+    assertEquals(-65536, rows.getLong(3));
+    assertEquals(Long.MIN_VALUE, rows.getLong(4));
+    assertEquals(-2.5, rows.getDouble(5));
+    assertEquals(3.25, rows.getDouble(6));
+    assertEquals(0, rows.getBytes(7).length);
+    assertEquals("bye", new String(rows.getBytes(8), "UTF-8"));
+    assertEquals(0, rows.getBytesView(7).remaining());
+    assertEquals(ByteBuffer.wrap("bye".getBytes("UTF-8")), rows.getBytesView(8));
+    assertFalse(rows.hasNext());
+    rows.close();
+
+    // only read the int column
+    boolean[] include = new boolean[reader.getTypes().size()];
+    include[4] = true;
+    rows = reader.rows(include);
+    rows.next(null);
+    assertEquals(65536, rows.getLong(3));
+    try {
+      rows.getLong(4);
+      fail("Expected an IllegalArgumentException reading a column that isn't included");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    rows.close();
+  }
+
   @Test
   public void testDeepCopy() throws Exception {
     // Create a table and write a row to it
@@ -1014,6 +1119,11 @@ public class TestOrcFile {
   }
 
   private RandomRowInputs writeRandomRows(int count, boolean lowMemoryMode) throws IOException {
+    return writeRandomRows(count, lowMemoryMode, CompressionKind.ZLIB);
+  }
+
+  private RandomRowInputs writeRandomRows(int count, boolean lowMemoryMode,
+      CompressionKind compression) throws IOException {
     ObjectInspector inspector;
     synchronized (TestOrcFile.class) {
       inspector = ObjectInspectorFactory.getReflectionObjectInspector
@@ -1023,7 +1133,7 @@ public class TestOrcFile {
     ReaderWriterProfiler.setProfilerOptions(conf);
     OrcConf.setBoolVar(conf, OrcConf.ConfVars.HIVE_ORC_FILE_ENABLE_LOW_MEMORY_MODE, lowMemoryMode);
     Writer writer = new WriterImpl(fs, testFilePath, conf, inspector,
-        8000000, CompressionKind.ZLIB, 65536, 1000,
+        8000000, compression, 65536, 1000,
         new MemoryManager(conf));
     Random rand = new Random(42);
     RandomRowInputs inputs = new RandomRowInputs(count);
@@ -1545,192 +1655,1633 @@ public class TestOrcFile {
     testSeek(false, false, true);
   }
 
-  private void testSeek(boolean lowMemory, boolean testPrimitives, boolean lazyHdfsReads)
-      throws Exception {
-    final int COUNT=32768;
-    RandomRowInputs inputs = writeRandomRows(COUNT, lowMemory);
-    ReaderWriterProfiler.setProfilerOptions(conf);
-    OrcConf.setBoolVar(conf, OrcConf.ConfVars.HIVE_ORC_EAGER_HDFS_READ, !lazyHdfsReads);
-    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
-    assertEquals(COUNT, reader.getNumberOfRows());
-    RecordReader rows = reader.rows(null);
-    OrcLazyStruct lazyRow = null;
-    OrcStruct row = null;
-    for(int i=COUNT-1; i >= 0; --i) {
-      rows.seekToRow(i);
-      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
-      row = (OrcStruct) lazyRow.materialize();
-      compareRows(row, inputs, i, NumberOfNulls.NONE, testPrimitives);
-    }
-    rows.close();
+  @Test
+  public void testSeekSpilledStreams() throws Exception {
+    File spillDirectory = new File(workDir.toString(), "spill." + testCaseName.getMethodName());
+    spillDirectory.mkdirs();
+    OrcConf.setBoolVar(conf, OrcConf.ConfVars.HIVE_ORC_SPILL_STREAMS, true);
+    OrcConf.setVar(conf, OrcConf.ConfVars.HIVE_ORC_SPILL_DIRECTORY, spillDirectory.toString());
+    testSeek(false, true, false);
+    // closing the writer deletes its spill file
+    assertEquals(0, spillDirectory.list().length);
   }
 
-  private void readEveryNthRow(int n, boolean withoutNextIsNull, NumberOfNulls numNulls) throws Exception {
-    final int COUNT=32768;
-    RandomRowInputs inputs = null;
-    switch (numNulls) {
-    case NONE:
-      inputs = writeRandomRows(COUNT, false);
-      break;
-    case SOME:
-    case MANY:
-      inputs = writeRandomRowsWithNulls(COUNT, numNulls, false);
-      break;
-    }
+  @Test
+  public void testSeekRandomAccess() throws Exception {
+    testSeekRandomAccess(CompressionKind.ZLIB);
+  }
 
+  @Test
+  public void testSeekRandomAccessUncompressed() throws Exception {
+    testSeekRandomAccess(CompressionKind.NONE);
+  }
+
+  private void testSeekRandomAccess(CompressionKind compression) throws Exception {
+    final int COUNT = 32768;
+    RandomRowInputs inputs = writeRandomRows(COUNT, false, compression);
     ReaderWriterProfiler.setProfilerOptions(conf);
+    OrcConf.setBoolVar(conf, OrcConf.ConfVars.HIVE_ORC_RANDOM_ACCESS, true);
     Reader reader = OrcFile.createReader(fs, testFilePath, conf);
-    assertEquals(COUNT, reader.getNumberOfRows());
     RecordReader rows = reader.rows(null);
+    assertEquals(0, rows.getRowNumber());
     OrcLazyStruct lazyRow = null;
-    OrcStruct row = null;
-    for(int i = 0; i < COUNT / n; i++) {
-      rows.seekToRow(i * n);
+    Random rand = new Random(12);
+    for (int i = 0; i < 1000; i++) {
+      // mostly jump anywhere, but also read rows close to the previous one
+      int rowNumber = rand.nextInt(COUNT);
+      rows.seekToRow(rowNumber);
       lazyRow = (OrcLazyStruct) rows.next(lazyRow);
-      row = (OrcStruct) lazyRow.materialize();
-      if (withoutNextIsNull) {
-        compareRowsWithoutNextIsNull(row, inputs, i * n, numNulls, true);
-      } else {
-        compareRows(row, inputs, i * n, numNulls, true);
+      compareRows((OrcStruct) lazyRow.materialize(), inputs, rowNumber, NumberOfNulls.NONE,
+          true);
+      if (rowNumber + 10 < COUNT) {
+        rows.seekToRow(rowNumber + 10);
+        lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+        compareRows((OrcStruct) lazyRow.materialize(), inputs, rowNumber + 10,
+            NumberOfNulls.NONE, true);
       }
     }
+
+    // reading on from a seek reads the following stripes
+    rows.seekToRow(COUNT - 2000);
+    for (int i = COUNT - 2000; i < COUNT; i++) {
+      assertEquals(i, rows.getRowNumber());
+      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+      compareRows((OrcStruct) lazyRow.materialize(), inputs, i, NumberOfNulls.NONE, true);
+    }
+    assertFalse(rows.hasNext());
     rows.close();
-  }
 
-  @Test
-  public void testEveryRow() throws Exception {
-    readEveryNthRow(1, false, NumberOfNulls.NONE);
+    // reading without seeking starts from the first row
+    rows = reader.rows(null);
+    assertTrue(rows.hasNext());
+    lazyRow = (OrcLazyStruct) rows.next(null);
+    compareRows((OrcStruct) lazyRow.materialize(), inputs, 0, NumberOfNulls.NONE, true);
+    rows.close();
   }
 
   @Test
-  public void testEveryOtherRow() throws Exception {
-    readEveryNthRow(2, false, NumberOfNulls.NONE);
+  public void testSeekLz4() throws Exception {
+    testSeek(false, true, false, CompressionKind.LZ4);
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    assertEquals(CompressionKind.LZ4, reader.getCompression());
+    // the number DWRF's other readers know LZ4 by
+    assertEquals(5, OrcProto.CompressionKind.LZ4.getNumber());
   }
 
   @Test
-  public void testEveryThirdRow() throws Exception {
-    readEveryNthRow(3, false, NumberOfNulls.NONE);
+  public void testSeekZstd() throws Exception {
+    OrcConf.setIntVar(conf, OrcConf.ConfVars.HIVE_ORC_ZSTD_COMPRESSION_LEVEL, 1);
+    testSeek(false, true, false, CompressionKind.ZSTD);
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    assertEquals(CompressionKind.ZSTD, reader.getCompression());
+    assertEquals(4, OrcProto.CompressionKind.ZSTD.getNumber());
   }
 
   @Test
-  public void testEveryFourthRow() throws Exception {
-    readEveryNthRow(4, false, NumberOfNulls.NONE);
+  public void testSeekZstdDictionary() throws Exception {
+    // Any bytes can be used as a dictionary, a trained one just compresses better
+    Path dictionaryPath = new Path(workDir, "TestOrcFile.testSeekZstdDictionary.dict");
+    FSDataOutputStream out = fs.create(dictionaryPath, true);
+    Random random = new Random(7);
+    for (int i = 0; i < 1000; i++) {
+      out.writeBytes(Integer.toHexString(random.nextInt()));
+    }
+    out.close();
+    OrcConf.setVar(conf, OrcConf.ConfVars.HIVE_ORC_ZSTD_DICTIONARY, dictionaryPath.toString());
+    testSeek(false, true, false, CompressionKind.ZSTD);
+    fs.delete(dictionaryPath, false);
   }
 
   @Test
-  public void testEveryFifthRow() throws Exception {
-    readEveryNthRow(5, false, NumberOfNulls.NONE);
+  public void testSeekAdaptiveCompression() throws Exception {
+    // the random bytes in bytes1 are written uncompressed after the first blocks
+    OrcConf.setIntVar(conf, OrcConf.ConfVars.HIVE_ORC_ADAPTIVE_COMPRESSION_POOR_BLOCKS, 2);
+    OrcConf.setIntVar(conf, OrcConf.ConfVars.HIVE_ORC_ADAPTIVE_COMPRESSION_PROBE_INTERVAL, 3);
+    testSeek(false, true, false);
   }
 
-  @Test
-  public void testEverySixthRow() throws Exception {
-    readEveryNthRow(6, false, NumberOfNulls.NONE);
-  }
+  private static final int STRIPE_ROWS = 2500;
+  private static final int STRIPED_FILE_ROWS = 3 * STRIPE_ROWS;
 
-  @Test
-  public void testEverySeventhRow() throws Exception {
-    readEveryNthRow(7, false, NumberOfNulls.NONE);
+  /**
+   * Generates row i of a file written by writeStripedFile.
+   */
+  private interface RowGenerator {
+    Object getRow(int i);
   }
 
-  @Test
-  public void testEveryEighthRow() throws Exception {
-    readEveryNthRow(8, false, NumberOfNulls.NONE);
+  /**
+   * Checks row i read back from a file written by writeStripedFile.
+   */
+  private interface RowChecker {
+    void checkRow(OrcLazyStruct row, int i) throws IOException;
   }
 
-  @Test
-  public void testEveryNinthRow() throws Exception {
-    readEveryNthRow(9, false, NumberOfNulls.NONE);
+  /**
+   * Writes a file of three stripes of 2500 rows each, with index strides of 1000 rows, so the
+   * strides don't line up with the stripes.
+   */
+  private WriterImplWithForceFlush writeStripedFile(ObjectInspector inspector,
+      CompressionKind compress, int bufferSize, RowGenerator rows) throws IOException {
+    ReaderWriterProfiler.setProfilerOptions(conf);
+    WriterImplWithForceFlush writer = new WriterImplWithForceFlush(fs, testFilePath, conf,
+        inspector, 100000000, compress, bufferSize, 1000, new MemoryManager(conf));
+    for (int i = 0; i < STRIPED_FILE_ROWS; i++) {
+      writer.addRow(rows.getRow(i));
+      if (i % STRIPE_ROWS == STRIPE_ROWS - 1) {
+        writer.forceFlushStripe();
+      }
+    }
+    writer.close();
+    return writer;
   }
 
-  @Test
-  public void testEveryTenthRow() throws Exception {
-    readEveryNthRow(10, false, NumberOfNulls.NONE);
+  /**
+   * Reads every row of a file written by writeStripedFile in order.
+   */
+  private static void readStripedFile(RecordReader rows, RowChecker checker)
+      throws IOException {
+    OrcLazyStruct lazyRow = null;
+    for (int i = 0; i < STRIPED_FILE_ROWS; i++) {
+      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+      checker.checkRow(lazyRow, i);
+    }
+    assertFalse(rows.hasNext());
   }
 
-  @Test
-  public void testEveryHundredthRow() throws Exception {
-    readEveryNthRow(100, false, NumberOfNulls.NONE);
+  /**
+   * Seeks backwards through a file written by writeStripedFile, from its last row, so most seeks
+   * are to an earlier row of the same index stride and the rest cross strides and stripes.  After
+   * readStripedFile, the first seek is back to the row that was read last.
+   */
+  private static void seekStripedFile(RecordReader rows, RowChecker checker)
+      throws IOException {
+    OrcLazyStruct lazyRow = null;
+    for (int i = STRIPED_FILE_ROWS - 1; i >= 0; i -= 37) {
+      rows.seekToRow(i);
+      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+      checker.checkRow(lazyRow, i);
+    }
   }
 
-  @Test
-  public void testEveryThousandthRow() throws Exception {
-    readEveryNthRow(1000, false, NumberOfNulls.NONE);
+  /**
+   * A timestamp for row i of a column that's mostly sorted by time, with nulls, values that are
+   * out of order, values before the epoch, and the first and last years Hive allows.
+   */
+  private static Timestamp timestampValue(int i) {
+    if (i % 11 == 0) {
+      return null;
+    }
+    long millis;
+    if (i % 1000 == 998) {
+      millis = Timestamp.valueOf("0001-01-01 00:00:00").getTime() + i;
+    } else if (i % 1000 == 999) {
+      millis = Timestamp.valueOf("9999-12-31 23:59:59").getTime() - i;
+    } else if (i % 17 == 0) {
+      millis = -1234567L - i * 1000L;
+    } else {
+      millis = 1400000000000L + i * 1234L - (i % 13 == 0 ? 3600000L : 0);
+    }
+    Timestamp result = new Timestamp(millis);
+    result.setNanos((int) ((i * 7919L) % 1000000000L));
+    return result;
   }
 
-  @Test
-  public void testEveryTenThousandthRow() throws Exception {
-    readEveryNthRow(10000, false, NumberOfNulls.NONE);
+  private long writeTimestamps(boolean delta) throws Exception {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (TimestampStruct.class,
+              ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    OrcConf.setBoolVar(conf, OrcConf.ConfVars.HIVE_ORC_TIMESTAMP_DELTA_ENCODING, delta);
+    fs.delete(testFilePath, false);
+    writeStripedFile(inspector, CompressionKind.NONE, 100, new RowGenerator() {
+      @Override
+      public Object getRow(int i) {
+        return new TimestampStruct(timestampValue(i));
+      }
+    });
+    return fs.getFileStatus(testFilePath).getLen();
   }
 
-  @Test
-  public void testEveryRowWithoutNextIsNull() throws Exception {
-    readEveryNthRow(1, true, NumberOfNulls.NONE);
+  private void compareTimestampRow(OrcStruct row, int i) throws IOException {
+    Timestamp expected = timestampValue(i);
+    OrcLazyTimestamp ts = (OrcLazyTimestamp) row.getFieldValue(0);
+    if (expected == null) {
+      assertNull(ts.materialize());
+      return;
+    }
+    long seconds = expected.getTime() / 1000;
+    if (expected.getTime() % 1000 < 0) {
+      seconds--;
+    }
+    long micros = seconds * 1000000L + expected.getNanos() / 1000;
+    OrcLazyTimestampObjectInspector inspector = (OrcLazyTimestampObjectInspector)
+        OrcLazyObjectInspectorUtils.createLazyObjectInspector(TypeInfoFactory.timestampTypeInfo);
+    assertEquals("row " + i, micros, ts.materializeLong());
+    assertEquals("row " + i, micros, inspector.getMicros(ts));
+    assertEquals("row " + i, expected, ((TimestampWritable) ts.materialize()).getTimestamp());
+    assertEquals("row " + i, micros, inspector.getMicros(ts));
   }
 
   @Test
-  public void testEveryOtherRowWithoutNextIsNull() throws Exception {
-    readEveryNthRow(2, true, NumberOfNulls.NONE);
-  }
+  public void testPrimitiveObjectInspectors() throws Exception {
+    final int COUNT = 5000;
+    RandomRowInputs inputs = writeRandomRows(COUNT, false);
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    StructObjectInspector readerInspector = (StructObjectInspector) reader.getObjectInspector();
+    List<? extends StructField> fields = readerInspector.getAllStructFieldRefs();
+    BooleanObjectInspector boolean1 =
+        (BooleanObjectInspector) fields.get(0).getFieldObjectInspector();
+    ByteObjectInspector byte1 = (ByteObjectInspector) fields.get(1).getFieldObjectInspector();
+    ShortObjectInspector short1 = (ShortObjectInspector) fields.get(2).getFieldObjectInspector();
+    IntObjectInspector int1 = (IntObjectInspector) fields.get(3).getFieldObjectInspector();
+    LongObjectInspector long1 = (LongObjectInspector) fields.get(4).getFieldObjectInspector();
+    FloatObjectInspector float1 = (FloatObjectInspector) fields.get(11).getFieldObjectInspector();
+    DoubleObjectInspector double1 =
+        (DoubleObjectInspector) fields.get(12).getFieldObjectInspector();
+    OrcLazyBinaryObjectInspector bytes1 =
+        (OrcLazyBinaryObjectInspector) fields.get(13).getFieldObjectInspector();
+    OrcLazyStringObjectInspector string =
+        (OrcLazyStringObjectInspector) fields.get(14).getFieldObjectInspector();
 
-  @Test
-  public void testEveryThirdRowWithoutNextIsNull() throws Exception {
-    readEveryNthRow(3, true, NumberOfNulls.NONE);
-  }
+    RecordReader rows = reader.rows(null);
+    OrcLazyStruct lazyRow = null;
+    Object longCopy = null;
+    Object stringCopy = null;
+    for (int i = 0; i < COUNT; i++) {
+      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+      ReallyBigRow expected = createRandomRow(inputs.intValues, inputs.doubleValues,
+          inputs.stringValues, inputs.byteValues, inputs.words, i);
+      assertEquals(expected.boolean1.booleanValue(),
+          boolean1.get(readerInspector.getStructFieldData(lazyRow, fields.get(0))));
+      assertEquals(expected.byte1.byteValue(),
+          byte1.get(readerInspector.getStructFieldData(lazyRow, fields.get(1))));
+      assertEquals(expected.short1.shortValue(),
+          short1.get(readerInspector.getStructFieldData(lazyRow, fields.get(2))));
+      assertEquals(expected.int1.intValue(),
+          int1.get(readerInspector.getStructFieldData(lazyRow, fields.get(3))));
+      assertEquals(expected.long1.longValue(),
+          long1.get(readerInspector.getStructFieldData(lazyRow, fields.get(4))));
+      assertEquals(expected.float1.floatValue(),
+          float1.get(readerInspector.getStructFieldData(lazyRow, fields.get(11))), 0.0001);
+      assertEquals(expected.double1.doubleValue(),
+          double1.get(readerInspector.getStructFieldData(lazyRow, fields.get(12))), 0.0001);
+      assertEquals(ByteBuffer.wrap(expected.bytes1.getBytes(), 0, expected.bytes1.getLength()),
+          bytes1.getBytes(readerInspector.getStructFieldData(lazyRow, fields.get(13))));
+      // the strings are dictionary encoded, directly encoded, and mostly in the dictionary
+      Text[] expectedStrings = {expected.string1, expected.string2, expected.string3};
+      for (int j = 0; j < expectedStrings.length; j++) {
+        Object value = readerInspector.getStructFieldData(lazyRow, fields.get(14 + j));
+        assertEquals(ByteBuffer.wrap(expectedStrings[j].getBytes(), 0,
+            expectedStrings[j].getLength()), string.getBytes(value));
+        assertEquals(expectedStrings[j].toString(), string.getPrimitiveJavaObject(value));
+        // the writable, created from the value read as bytes, is the same
+        assertEquals(expectedStrings[j], string.getPrimitiveWritableObject(value));
+      }
 
-  @Test
-  public void testEveryFourthRowWithoutNextIsNull() throws Exception {
-    readEveryNthRow(4, true, NumberOfNulls.NONE);
+      // copies keep the values of their row as the reader moves on
+      if (longCopy != null) {
+        ReallyBigRow previous = createRandomRow(inputs.intValues, inputs.doubleValues,
+            inputs.stringValues, inputs.byteValues, inputs.words, i - 1);
+        assertEquals(previous.long1.longValue(), long1.get(longCopy));
+        assertEquals(previous.string2.toString(), string.getPrimitiveJavaObject(stringCopy));
+      }
+      longCopy = long1.copyObject(readerInspector.getStructFieldData(lazyRow, fields.get(4)));
+      stringCopy =
+          string.copyObject(readerInspector.getStructFieldData(lazyRow, fields.get(15)));
+    }
+    rows.close();
   }
 
   @Test
-  public void testEveryFifthRowWithoutNextIsNull() throws Exception {
-    readEveryNthRow(5, true, NumberOfNulls.NONE);
-  }
+  public void testTimestampDeltaEncoding() throws Exception {
+    long directLength = writeTimestamps(false);
+    long deltaLength = writeTimestamps(true);
+    assertTrue(deltaLength < directLength);
 
-  @Test
-  public void testEverySixthRowWithoutNextIsNull() throws Exception {
-    readEveryNthRow(6, true, NumberOfNulls.NONE);
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    RecordReaderImpl rows = (RecordReaderImpl) reader.rows(null);
+    for (StripeInformation stripe : reader.getStripes()) {
+      assertEquals(OrcProto.ColumnEncoding.Kind.DIRECT_DELTA,
+          rows.readStripeFooter(stripe).getColumns(1).getKind());
+    }
+    RowChecker checker = new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct row, int i) throws IOException {
+        compareTimestampRow((OrcStruct) row.materialize(), i);
+      }
+    };
+    readStripedFile(rows, checker);
+    // seeking backwards starts from the beginning of the stride and skips to the row
+    seekStripedFile(rows, checker);
+    rows.close();
   }
 
-  @Test
-  public void testEverySeventhRowWithoutNextIsNull() throws Exception {
-    readEveryNthRow(7, true, NumberOfNulls.NONE);
+  private static List<Long> longListValue(int i) {
+    if (i % 11 == 0) {
+      return null;
+    }
+    List<Long> result = new ArrayList<Long>();
+    for (int j = 0; j < i % 23; j++) {
+      result.add((i + j) % 17 == 0 ? null : (long) i * 100 + j);
+    }
+    return result;
   }
 
-  @Test
-  public void testEveryEighthRowWithoutNextIsNull() throws Exception {
-    readEveryNthRow(8, true, NumberOfNulls.NONE);
+  private static void compareListElement(OrcLazyList list, int i, int index) throws IOException {
+    List<Long> expected = longListValue(i);
+    Long expectedValue = expected == null || index >= expected.size() ? null : expected.get(index);
+    // the struct's inspector returns null for null lists
+    Object value = list == null ? null : list.getElement(index);
+    if (expectedValue == null) {
+      assertNull("row " + i + " element " + index, value);
+    } else {
+      assertEquals("row " + i + " element " + index, expectedValue.longValue(),
+          ((LongWritable) value).get());
+    }
   }
 
-  @Test
-  public void testEveryNinthRowWithoutNextIsNull() throws Exception {
-    readEveryNthRow(9, true, NumberOfNulls.NONE);
+  private static void compareList(OrcLazyList list, int i) throws IOException {
+    List<Long> expected = longListValue(i);
+    List<?> actual = list == null ? null : (List<?>) list.materialize();
+    if (expected == null) {
+      assertNull(actual);
+      return;
+    }
+    // the same kind of list whether or not elements were read on their own first
+    assertTrue("row " + i, actual instanceof PrimitiveList.Longs);
+    assertEquals("row " + i, expected.size(), actual.size());
+    for (int j = 0; j < expected.size(); j++) {
+      if (expected.get(j) == null) {
+        assertNull(actual.get(j));
+      } else {
+        assertEquals("row " + i, expected.get(j).longValue(),
+            ((LongWritable) actual.get(j)).get());
+      }
+    }
   }
 
-  @Test
-  public void testEveryTenthRowWithoutNextIsNull() throws Exception {
-    readEveryNthRow(10, true, NumberOfNulls.NONE);
+  private void writeLongListFile() throws IOException {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (LongListStruct.class,
+              ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    writeStripedFile(inspector, CompressionKind.ZLIB, 1000, new RowGenerator() {
+      @Override
+      public Object getRow(int i) {
+        return new LongListStruct(longListValue(i));
+      }
+    });
   }
 
   @Test
-  public void testEveryHundredthRowWithoutNextIsNull() throws Exception {
-    readEveryNthRow(100, true, NumberOfNulls.NONE);
-  }
+  public void testLazyListElements() throws Exception {
+    writeLongListFile();
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    final StructObjectInspector readerInspector =
+        (StructObjectInspector) reader.getObjectInspector();
+    final StructField listField = readerInspector.getAllStructFieldRefs().get(0);
+    final ListObjectInspector listInspector =
+        (ListObjectInspector) listField.getFieldObjectInspector();
 
-  @Test
-  public void testEveryThousandthRowWithoutNextIsNull() throws Exception {
-    readEveryNthRow(1000, true, NumberOfNulls.NONE);
+    // only the lengths and first elements
+    RecordReader rows = reader.rows(null);
+    readStripedFile(rows, new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct row, int i) throws IOException {
+        Object list = readerInspector.getStructFieldData(row, listField);
+        List<Long> expected = longListValue(i);
+        assertEquals("row " + i, expected == null ? -1 : expected.size(),
+            listInspector.getListLength(list));
+        compareListElement((OrcLazyList) list, i, 0);
+        if (list != null) {
+          assertEquals(listInspector.getListElement(list, 0), ((OrcLazyList) list).getElement(0));
+        }
+      }
+    });
+    rows.close();
+
+    // later elements, then earlier ones which were skipped, then the whole list
+    rows = reader.rows(null);
+    readStripedFile(rows, new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct row, int i) throws IOException {
+        OrcLazyList list = (OrcLazyList) readerInspector.getStructFieldData(row, listField);
+        if (i % 4 == 3) {
+          // skip the row without reading it
+          return;
+        }
+        compareListElement(list, i, 5);
+        compareListElement(list, i, 7);
+        if (i % 2 == 0) {
+          compareListElement(list, i, 1);
+          compareListElement(list, i, 30);
+        }
+        if (i % 3 == 0) {
+          compareList(list, i);
+        }
+      }
+    });
+    rows.close();
+
+    // seeking backwards
+    rows = reader.rows(null);
+    seekStripedFile(rows, new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct row, int i) throws IOException {
+        OrcLazyList list = (OrcLazyList) readerInspector.getStructFieldData(row, listField);
+        compareListElement(list, i, i % 20);
+        compareListElement(list, i, 2);
+        compareList(list, i);
+      }
+    });
+    rows.close();
   }
 
-  @Test
-  public void testEveryTenThousandthRowWithoutNextIsNull() throws Exception {
-    readEveryNthRow(10000, true, NumberOfNulls.NONE);
+  /**
+   * The union of row i of a file written by writeStripedFile.  The tags change every few rows,
+   * except in the first stride of the second stripe where they are all 0.
+   */
+  private static OrcUnion unionValue(int i) {
+    if (i % 19 == 0) {
+      return null;
+    }
+    OrcUnion result = new OrcUnion();
+    byte tag = i >= 2500 && i < 3500 ? 0 : (byte) ((i / 7) % 3);
+    switch (tag) {
+      case 0:
+        result.set(tag, new IntWritable(i));
+        break;
+      case 1:
+        result.set(tag, new Text("value" + i));
+        break;
+      default:
+        result.set(tag, i % 5 == 0 ? null : new LongWritable(-i));
+        break;
+    }
+    return result;
+  }
+
+  private static void compareUnion(OrcUnion union, int i, boolean[] included) {
+    OrcUnion expected = unionValue(i);
+    if (expected == null) {
+      assertNull("row " + i, union);
+      return;
+    }
+    assertEquals("row " + i, expected.getTag(), union.getTag());
+    if (included == null || included[expected.getTag() + 2]) {
+      assertEquals("row " + i, expected.getObject(), union.getObject());
+    } else {
+      assertNull("row " + i, union.getObject());
+    }
   }
 
-  private RandomRowInputs writeRandomRowsWithNulls(int count, NumberOfNulls numNulls,
-      boolean lowMemoryMode) throws IOException {
-    ObjectInspector inspector;
-    synchronized (TestOrcFile.class) {
+  @Test
+  public void testUnionTags() throws Exception {
+    final List<OrcProto.Type> types = ImmutableList.of(
+        OrcProto.Type.newBuilder().setKind(OrcProto.Type.Kind.STRUCT)
+                                  .addFieldNames("union")
+                                  .addSubtypes(1)
+                                  .build(),
+        OrcProto.Type.newBuilder().setKind(OrcProto.Type.Kind.UNION)
+                                  .addSubtypes(2)
+                                  .addSubtypes(3)
+                                  .addSubtypes(4)
+                                  .build(),
+        OrcProto.Type.newBuilder().setKind(OrcProto.Type.Kind.INT)
+                                  .build(),
+        OrcProto.Type.newBuilder().setKind(OrcProto.Type.Kind.STRING)
+                                  .build(),
+        OrcProto.Type.newBuilder().setKind(OrcProto.Type.Kind.LONG)
+                                  .build()
+    );
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = OrcLazyObjectInspectorUtils.createWritableObjectInspector(0, types);
+    }
+    final OrcStruct row = new OrcStruct(types.get(0).getFieldNamesList());
+    writeStripedFile(inspector, CompressionKind.ZLIB, 1000, new RowGenerator() {
+      @Override
+      public Object getRow(int i) {
+        row.setFieldValue(0, unionValue(i));
+        return row;
+      }
+    });
+
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    RecordReader rows = reader.rows(null);
+    readStripedFile(rows, new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct lazyRow, int i) throws IOException {
+        OrcStruct row = (OrcStruct) lazyRow.materialize();
+        compareUnion((OrcUnion) ((OrcLazyUnion) row.getFieldValue(0)).materialize(), i, null);
+      }
+    });
+    rows.close();
+
+    // reading only the tags of most rows, and the values of some after their tags
+    rows = reader.rows(null);
+    readStripedFile(rows, new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct lazyRow, int i) throws IOException {
+        OrcLazyUnion union = (OrcLazyUnion) ((OrcStruct) lazyRow.materialize()).getFieldValue(0);
+        OrcUnion expected = unionValue(i);
+        assertEquals("row " + i, expected == null ? -1 : expected.getTag(), union.getTag());
+        if (i % 3 == 0) {
+          compareUnion((OrcUnion) union.materialize(), i, null);
+          assertEquals("row " + i, expected == null ? -1 : expected.getTag(), union.getTag());
+        }
+      }
+    });
+
+    // seeking backwards
+    seekStripedFile(rows, new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct lazyRow, int i) throws IOException {
+        OrcLazyUnion union = (OrcLazyUnion) ((OrcStruct) lazyRow.materialize()).getFieldValue(0);
+        OrcUnion expected = unionValue(i);
+        assertEquals("row " + i, expected == null ? -1 : expected.getTag(), union.getTag());
+        compareUnion((OrcUnion) union.materialize(), i, null);
+      }
+    });
+    rows.close();
+
+    // only reading the string child, the others are read as null
+    final boolean[] included = new boolean[] {true, true, false, true, false};
+    assertIncluded(new int[] {0, 1, 3}, RecordReaderImpl.includeRequiredColumns(types, included));
+    rows = reader.rows(included);
+    readStripedFile(rows, new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct lazyRow, int i) throws IOException {
+        OrcLazyUnion union = (OrcLazyUnion) ((OrcStruct) lazyRow.materialize()).getFieldValue(0);
+        if (i % 2 == 0) {
+          union.getTag();
+        }
+        compareUnion((OrcUnion) union.materialize(), i, included);
+      }
+    });
+    rows.close();
+  }
+
+  /**
+   * The value of row i of a file written by writeStripedFile.  Every 50th row has a value,
+   * except in the second stride of the first two stripes, which are all null.
+   */
+  private static Integer sparseValue(int i) {
+    if (i % 2500 >= 1000 && i % 2500 < 2000 && i < 5000) {
+      return null;
+    }
+    return i % 50 == 0 ? i : null;
+  }
+
+  private void compareSparseRow(OrcLazyStruct lazyRow, int i) throws IOException {
+    OrcStruct row = (OrcStruct) lazyRow.materialize();
+    Object value = ((OrcLazyInt) row.getFieldValue(0)).materialize();
+    if (sparseValue(i) == null) {
+      assertNull("row " + i, value);
+    } else {
+      assertEquals("row " + i, sparseValue(i).intValue(), ((IntWritable) value).get());
+    }
+  }
+
+  @Test
+  public void testSparseColumn() throws Exception {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (IntStruct.class, ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    writeStripedFile(inspector, CompressionKind.ZLIB, 1000, new RowGenerator() {
+      @Override
+      public Object getRow(int i) {
+        return new IntStruct(sparseValue(i));
+      }
+    });
+
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    RecordReader rows = reader.rows(null);
+    RowChecker checker = new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct row, int i) throws IOException {
+        compareSparseRow(row, i);
+      }
+    };
+    readStripedFile(rows, checker);
+
+    // seeking backwards, into, out of and within the strides that are all null
+    seekStripedFile(rows, checker);
+    OrcLazyStruct lazyRow = null;
+    for (int i = 0; i < STRIPED_FILE_ROWS; i += 50) {
+      rows.seekToRow(i);
+      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+      compareSparseRow(lazyRow, i);
+      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+      compareSparseRow(lazyRow, i + 1);
+    }
+    rows.close();
+  }
+
+  /**
+   * The int map of row i of a file written by writeStripedFile.  Key 100 is first seen in the
+   * second stride, key 200 only in a few rows of the second stripe, and key 300 only in the last
+   * stripe.
+   */
+  private static Map<Integer, Long> flatIntMapValue(int i) {
+    if (i % 13 == 0) {
+      return null;
+    }
+    Map<Integer, Long> result = new HashMap<Integer, Long>();
+    for (int key = 0; key < 20; key++) {
+      if ((i + key) % (key + 2) != 0) {
+        result.put(key, (i + key) % 29 == 0 ? null : (long) i * key);
+      }
+    }
+    if (i >= 1500) {
+      result.put(100, (long) -i);
+    }
+    if (i >= 3700 && i < 3710) {
+      result.put(200, (long) i);
+    }
+    if (i >= 5000 && i % 3 == 0) {
+      result.put(300, i * 1000000000000L);
+    }
+    return result;
+  }
+
+  private static Map<String, String> flatStringMapValue(int i) {
+    if (i % 7 == 0) {
+      return null;
+    }
+    Map<String, String> result = new HashMap<String, String>();
+    for (int key = 0; key < 5; key++) {
+      if (i % (key + 2) != 0) {
+        result.put("key" + key, "value" + (i % 100));
+      }
+    }
+    if (i >= 4200) {
+      result.put("late", i % 5 == 0 ? null : "late" + i);
+    }
+    return result;
+  }
+
+  private void compareFlatMapRow(OrcStruct row, int i) throws IOException {
+    Map<Integer, Long> expectedInts = flatIntMapValue(i);
+    Map<?, ?> ints = (Map<?, ?>) ((OrcLazyMap) row.getFieldValue(0)).materialize();
+    if (expectedInts == null) {
+      assertNull(ints);
+    } else {
+      assertEquals("row " + i, expectedInts.size(), ints.size());
+      for (Map.Entry<Integer, Long> entry : expectedInts.entrySet()) {
+        IntWritable key = new IntWritable(entry.getKey());
+        assertTrue("row " + i, ints.containsKey(key));
+        Object value = ints.get(key);
+        if (entry.getValue() == null) {
+          assertNull("row " + i, value);
+        } else {
+          assertEquals("row " + i, entry.getValue().longValue(), ((LongWritable) value).get());
+        }
+      }
+    }
+    Map<String, String> expectedStrings = flatStringMapValue(i);
+    Map<?, ?> strings = (Map<?, ?>) ((OrcLazyMap) row.getFieldValue(1)).materialize();
+    if (expectedStrings == null) {
+      assertNull(strings);
+    } else {
+      assertEquals("row " + i, expectedStrings.size(), strings.size());
+      for (Map.Entry<String, String> entry : expectedStrings.entrySet()) {
+        Text key = new Text(entry.getKey());
+        assertTrue("row " + i, strings.containsKey(key));
+        Object value = strings.get(key);
+        if (entry.getValue() == null) {
+          assertNull("row " + i, value);
+        } else {
+          assertEquals("row " + i, entry.getValue(), value.toString());
+        }
+      }
+    }
+  }
+
+  private void compareFlatMapKey(OrcStruct row, int i, int key) throws IOException {
+    Map<Integer, Long> expected = flatIntMapValue(i);
+    Long expectedValue = expected == null ? null : expected.get(key);
+    Object value = ((OrcLazyMap) row.getFieldValue(0)).getValue(new IntWritable(key));
+    if (expectedValue == null) {
+      assertNull("row " + i + " key " + key, value);
+    } else {
+      assertEquals("row " + i + " key " + key, expectedValue.longValue(),
+          ((LongWritable) value).get());
+    }
+  }
+
+  /**
+   * Read the maps written by writeFlatMapFile only projecting some of their keys.
+   */
+  private void checkProjectedMaps(Reader reader) throws Exception {
+    List<IntWritable> intKeys =
+        Arrays.asList(new IntWritable(3), new IntWritable(100), new IntWritable(999));
+    List<Text> stringKeys = Arrays.asList(new Text("late"), new Text("key1"));
+    RecordReader rows = reader.rows(null);
+    OrcLazyStruct lazyRow = null;
+    for (int i = 0; i < 7500; i++) {
+      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+      OrcStruct row = (OrcStruct) lazyRow.materialize();
+      OrcLazyMap intMap = (OrcLazyMap) row.getFieldValue(0);
+      OrcLazyMap stringMap = (OrcLazyMap) row.getFieldValue(1);
+      if (i == 0) {
+        intMap.setProjectedKeys(intKeys);
+        stringMap.setProjectedKeys(stringKeys);
+      }
+      // skip some rows without reading them
+      if (i % 5 == 1) {
+        continue;
+      }
+      if (i % 3 == 0) {
+        assertNull(intMap.getValue(new IntWritable(5)));
+        Object value = intMap.getValue(new IntWritable(100));
+        Map<Integer, Long> expected = flatIntMapValue(i);
+        if (expected == null || expected.get(100) == null) {
+          assertNull(value);
+        } else {
+          assertEquals(expected.get(100).longValue(), ((LongWritable) value).get());
+        }
+      }
+      Map<Integer, Long> expectedInts = flatIntMapValue(i);
+      Map<?, ?> ints = (Map<?, ?>) intMap.materialize();
+      if (expectedInts == null) {
+        assertNull(ints);
+      } else {
+        int size = 0;
+        for (IntWritable key : intKeys) {
+          if (expectedInts.containsKey(key.get())) {
+            size++;
+            Long expected = expectedInts.get(key.get());
+            Object value = ints.get(key);
+            assertTrue("row " + i, ints.containsKey(key));
+            if (expected == null) {
+              assertNull(value);
+            } else {
+              assertEquals(expected.longValue(), ((LongWritable) value).get());
+            }
+          }
+        }
+        assertEquals("row " + i, size, ints.size());
+        assertEquals(size, ints.entrySet().size());
+      }
+      Map<String, String> expectedStrings = flatStringMapValue(i);
+      Map<?, ?> strings = (Map<?, ?>) stringMap.materialize();
+      if (expectedStrings == null) {
+        assertNull(strings);
+      } else {
+        Map<String, String> projected = new HashMap<String, String>();
+        for (Text key : stringKeys) {
+          if (expectedStrings.containsKey(key.toString())) {
+            projected.put(key.toString(), expectedStrings.get(key.toString()));
+          }
+        }
+        Map<String, String> actual = new HashMap<String, String>();
+        for (Map.Entry<?, ?> entry : strings.entrySet()) {
+          actual.put(entry.getKey().toString(),
+              entry.getValue() == null ? null : entry.getValue().toString());
+        }
+        assertEquals("row " + i, projected, actual);
+      }
+    }
+    rows.close();
+  }
+
+  private void writeFlatMapFile(String flatMapColumns) throws IOException {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (FlatMapStruct.class,
+              ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    OrcConf.setVar(conf, OrcConf.ConfVars.HIVE_ORC_FLAT_MAP_COLUMNS, flatMapColumns);
+    writeStripedFile(inspector, CompressionKind.ZLIB, 100, new RowGenerator() {
+      @Override
+      public Object getRow(int i) {
+        return new FlatMapStruct(flatIntMapValue(i), flatStringMapValue(i));
+      }
+    });
+  }
+
+  @Test
+  public void testMapKeyProjection() throws Exception {
+    writeFlatMapFile("");
+    checkProjectedMaps(OrcFile.createReader(fs, testFilePath, conf));
+    fs.delete(testFilePath, false);
+    writeFlatMapFile("intMap,stringMap");
+    checkProjectedMaps(OrcFile.createReader(fs, testFilePath, conf));
+  }
+
+  private static void assertIncluded(int[] expected, boolean[] included) {
+    boolean[] expectedIncluded = new boolean[included.length];
+    for (int column : expected) {
+      expectedIncluded[column] = true;
+    }
+    for (int i = 0; i < included.length; i++) {
+      assertEquals("column " + i, expectedIncluded[i], included[i]);
+    }
+  }
+
+  @Test
+  public void testNestedColumnProjection() throws Exception {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (BigRow.class, ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    ReaderWriterProfiler.setProfilerOptions(conf);
+    Writer writer = OrcFile.createWriter(fs, testFilePath, conf, inspector,
+        100000, CompressionKind.ZLIB, 10000, 10000);
+    writer.addRow(new BigRow(false, (byte) 1, (short) 1024, 65536,
+        Long.MAX_VALUE, (float) 1.0, -15.0, bytes(0,1,2,3,4), "hi",
+        new MiddleStruct(inner(1, "bye"), inner(2, "sigh")),
+        list(inner(3, "good"), inner(4, "bad")),
+        map(inner(5, "chani"))));
+    writer.close();
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    List<OrcProto.Type> types = reader.getTypes();
+
+    // the columns containing the paths, and maps' keys, are included
+    List<String> columnPaths = Arrays.asList("middle.list.int1", "list.STRING1", "map.string1");
+    assertIncluded(new int[] {0, 10, 11, 12, 13, 15, 16, 18, 19, 20, 21, 23},
+        ReaderImpl.findIncludedColumns(types, columnPaths));
+    assertIncluded(new int[] {0, 15, 16, 17, 18},
+        ReaderImpl.findIncludedColumns(types, Arrays.asList("list")));
+    // paths that don't match the schema include their whole top level column: middle has no
+    // field int1, string1 isn't a struct, and there's no column named missing
+    assertIncluded(new int[] {0, 10, 11, 12, 13, 14},
+        ReaderImpl.findIncludedColumns(types, Arrays.asList("middle.int1")));
+    assertIncluded(new int[] {0, 9},
+        ReaderImpl.findIncludedColumns(types, Arrays.asList("string1.a")));
+    assertIncluded(new int[] {0},
+        ReaderImpl.findIncludedColumns(types, Arrays.asList("missing.a")));
+    assertIncluded(new int[] {0, 10, 11, 12, 13, 14, 19, 20, 21, 22},
+        ReaderImpl.findIncludedColumns(types, Arrays.asList("middle.list.int2", "map.int1")));
+
+    // the reader includes the columns needed to read the included columns
+    boolean[] included = new boolean[types.size()];
+    included[13] = true;
+    included[22] = true;
+    assertIncluded(new int[] {0, 10, 11, 12, 13, 19, 20, 21, 22},
+        RecordReaderImpl.includeRequiredColumns(types, included));
+
+    RecordReader rows = reader.projectedRows(0, Long.MAX_VALUE, columnPaths);
+    OrcStruct row = (OrcStruct) ((OrcLazyStruct) rows.next(null)).materialize();
+    for (int i = 0; i < 9; i++) {
+      assertNull(row.getFieldValue(i));
+    }
+    OrcStruct middle = (OrcStruct) ((OrcLazyStruct) row.getFieldValue(9)).materialize();
+    List<?> midList = (List<?>) middle.getFieldValue(0);
+    assertEquals(2, midList.size());
+    assertEquals(1, ((IntWritable) ((OrcStruct) midList.get(0)).getFieldValue(0)).get());
+    assertNull(((OrcStruct) midList.get(0)).getFieldValue(1));
+    assertEquals(2, ((IntWritable) ((OrcStruct) midList.get(1)).getFieldValue(0)).get());
+    List<?> list = (List<?>) ((OrcLazyList) row.getFieldValue(10)).materialize();
+    assertEquals(2, list.size());
+    assertNull(((OrcStruct) list.get(0)).getFieldValue(0));
+    assertEquals(new Text("good"), ((OrcStruct) list.get(0)).getFieldValue(1));
+    assertEquals(new Text("bad"), ((OrcStruct) list.get(1)).getFieldValue(1));
+    Map<?, ?> map = (Map<?, ?>) ((OrcLazyMap) row.getFieldValue(11)).materialize();
+    assertEquals(1, map.size());
+    OrcStruct value = (OrcStruct) map.get(new Text("chani"));
+    assertNull(value.getFieldValue(0));
+    assertEquals(new Text("chani"), value.getFieldValue(1));
+    assertFalse(rows.hasNext());
+    rows.close();
+
+    // a path that doesn't match reads the whole column
+    rows = reader.projectedRows(0, Long.MAX_VALUE, Arrays.asList("middle.list.int2"));
+    row = (OrcStruct) ((OrcLazyStruct) rows.next(null)).materialize();
+    middle = (OrcStruct) ((OrcLazyStruct) row.getFieldValue(9)).materialize();
+    midList = (List<?>) middle.getFieldValue(0);
+    assertEquals(2, midList.size());
+    assertEquals(1, ((IntWritable) ((OrcStruct) midList.get(0)).getFieldValue(0)).get());
+    assertEquals(new Text("bye"), ((OrcStruct) midList.get(0)).getFieldValue(1));
+    assertNull(row.getFieldValue(10));
+    rows.close();
+  }
+
+  @Test
+  public void testFlatMapMaxKeys() throws Exception {
+    // the int map's 20 keys are all in row 1, the string map has at most 6
+    OrcConf.setIntVar(conf, OrcConf.ConfVars.HIVE_ORC_FLAT_MAP_MAX_KEYS, 10);
+    writeFlatMapFile("intMap,stringMap");
+
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    RecordReaderImpl rows = (RecordReaderImpl) reader.rows(null);
+    int stripe = 0;
+    for (StripeInformation information : reader.getStripes()) {
+      OrcProto.StripeFooter footer = rows.readStripeFooter(information);
+      // the stripe with too many keys is still flat, the following ones aren't
+      assertEquals(stripe == 0 ? OrcProto.ColumnEncoding.Kind.MAP_FLAT :
+          OrcProto.ColumnEncoding.Kind.DIRECT, footer.getColumns(1).getKind());
+      assertEquals(OrcProto.ColumnEncoding.Kind.MAP_FLAT, footer.getColumns(4).getKind());
+      if (stripe == 0) {
+        // the stripe was ended after the row that went over the limit
+        assertEquals(2, information.getNumberOfRows());
+        assertEquals(20, footer.getColumns(1).getKeysCount());
+      } else {
+        // the keys' streams were removed
+        for (OrcProto.Stream stream : footer.getStreamsList()) {
+          if (stream.getColumn() >= 1 && stream.getColumn() <= 3) {
+            assertEquals(0, stream.getSequence());
+          }
+        }
+      }
+      stripe++;
+    }
+    assertEquals(4, stripe);
+    IntegerColumnStatistics keyStatistics =
+        (IntegerColumnStatistics) reader.getStatistics()[2];
+    assertEquals(0, keyStatistics.getMinimum());
+    assertEquals(300, keyStatistics.getMaximum());
+
+    readStripedFile(rows, new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct lazyRow, int i) throws IOException {
+        OrcStruct row = (OrcStruct) lazyRow.materialize();
+        compareFlatMapKey(row, i, i % 20);
+        compareFlatMapRow(row, i);
+      }
+    });
+    rows.close();
+
+    // seeking backwards
+    rows = (RecordReaderImpl) reader.rows(null);
+    seekStripedFile(rows, new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct lazyRow, int i) throws IOException {
+        OrcStruct row = (OrcStruct) lazyRow.materialize();
+        compareFlatMapKey(row, i, 100);
+        compareFlatMapRow(row, i);
+      }
+    });
+    rows.close();
+  }
+
+  @Test
+  public void testFlatMapManyKeys() throws Exception {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (FlatMapStruct.class,
+              ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    ReaderWriterProfiler.setProfilerOptions(conf);
+    // maps with a few thousand keys stay flat with the default limit
+    OrcConf.setVar(conf, OrcConf.ConfVars.HIVE_ORC_FLAT_MAP_COLUMNS, "intMap");
+    // without dictionaries for every key's values, the stripes fit in the writer's memory
+    OrcConf.setBoolVar(conf, OrcConf.ConfVars.HIVE_ORC_FILE_ENABLE_LOW_MEMORY_MODE, true);
+    WriterImplWithForceFlush writer = new WriterImplWithForceFlush(fs, testFilePath, conf,
+        inspector, 100000000, CompressionKind.ZLIB, 100, 1000, new MemoryManager(conf));
+    for (int i = 0; i < 30; i++) {
+      writer.addRow(new FlatMapStruct(manyKeysMapValue(i), null));
+      if (i % 10 == 9) {
+        writer.forceFlushStripe();
+      }
+    }
+    writer.close();
+
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    RecordReaderImpl rows = (RecordReaderImpl) reader.rows(null);
+    int stripes = 0;
+    for (StripeInformation information : reader.getStripes()) {
+      OrcProto.StripeFooter footer = rows.readStripeFooter(information);
+      assertEquals(10, information.getNumberOfRows());
+      assertEquals(OrcProto.ColumnEncoding.Kind.MAP_FLAT, footer.getColumns(1).getKind());
+      assertEquals(3000, footer.getColumns(1).getKeysCount());
+      stripes++;
+    }
+    assertEquals(3, stripes);
+    OrcLazyStruct lazyRow = null;
+    for (int i = 0; i < 30; i++) {
+      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+      OrcStruct row = (OrcStruct) lazyRow.materialize();
+      assertEquals("row " + i, manyKeysMapValue(i),
+          toJavaMap((Map<?, ?>) ((OrcLazyMap) row.getFieldValue(0)).materialize()));
+    }
+    assertFalse(rows.hasNext());
+    rows.close();
+  }
+
+  private static Map<Integer, Long> manyKeysMapValue(int i) {
+    Map<Integer, Long> result = new HashMap<Integer, Long>();
+    for (int key = 0; key < 3000; key++) {
+      if ((key + i) % 13 != 0) {
+        result.put(key * 7, (key + i) % 11 == 0 ? null : (long) key * i);
+      }
+    }
+    return result;
+  }
+
+  private static Map<Integer, Long> toJavaMap(Map<?, ?> map) {
+    Map<Integer, Long> result = new HashMap<Integer, Long>();
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      result.put(((IntWritable) entry.getKey()).get(),
+          entry.getValue() == null ? null : ((LongWritable) entry.getValue()).get());
+    }
+    return result;
+  }
+
+  @Test
+  public void testFlatMaps() throws Exception {
+    // the numbers DWRF's other readers know the flat map encoding by
+    assertEquals(2, OrcProto.ColumnEncoding.Kind.MAP_FLAT.getNumber());
+    assertEquals(11, OrcProto.Stream.Kind.IN_MAP.getNumber());
+    assertEquals(5, OrcProto.Stream.getDescriptor().findFieldByName("sequence").getNumber());
+    writeFlatMapFile("intMap,stringMap");
+
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    RecordReaderImpl rows = (RecordReaderImpl) reader.rows(null);
+    // keys are written in every stripe after the one they're first seen in
+    int[] intKeys = {21, 22, 23};
+    int[] stringKeys = {5, 6, 6};
+    int stripe = 0;
+    for (StripeInformation information : reader.getStripes()) {
+      OrcProto.StripeFooter footer = rows.readStripeFooter(information);
+      assertEquals(OrcProto.ColumnEncoding.Kind.MAP_FLAT, footer.getColumns(1).getKind());
+      assertEquals(intKeys[stripe], footer.getColumns(1).getKeysCount());
+      assertEquals(OrcProto.ColumnEncoding.Kind.MAP_FLAT, footer.getColumns(4).getKind());
+      assertEquals(stringKeys[stripe], footer.getColumns(4).getKeysCount());
+      stripe++;
+    }
+    assertEquals(3, stripe);
+    IntegerColumnStatistics keyStatistics =
+        (IntegerColumnStatistics) reader.getStatistics()[2];
+    assertEquals(0, keyStatistics.getMinimum());
+    assertEquals(300, keyStatistics.getMaximum());
+
+    readStripedFile(rows, new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct row, int i) throws IOException {
+        compareFlatMapRow((OrcStruct) row.materialize(), i);
+      }
+    });
+    rows.close();
+
+    // read single keys, and whole maps after reading a key of the same row
+    rows = (RecordReaderImpl) reader.rows(null);
+    readStripedFile(rows, new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct lazyRow, int i) throws IOException {
+        OrcStruct row = (OrcStruct) lazyRow.materialize();
+        compareFlatMapKey(row, i, i % 20);
+        compareFlatMapKey(row, i, 100);
+        if (i % 10 == 0) {
+          compareFlatMapKey(row, i, 300);
+          compareFlatMapRow(row, i);
+        }
+      }
+    });
+    rows.close();
+
+    // seeking backwards
+    rows = (RecordReaderImpl) reader.rows(null);
+    seekStripedFile(rows, new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct lazyRow, int i) throws IOException {
+        OrcStruct row = (OrcStruct) lazyRow.materialize();
+        compareFlatMapKey(row, i, 200);
+        compareFlatMapKey(row, i, i % 20);
+        if (i % 2 == 0) {
+          compareFlatMapRow(row, i);
+        }
+      }
+    });
+    rows.close();
+
+    // only reading the int map, through the object inspector
+    final StructObjectInspector readerInspector =
+        (StructObjectInspector) reader.getObjectInspector();
+    final StructField intMapField = readerInspector.getAllStructFieldRefs().get(0);
+    final MapObjectInspector intMapInspector =
+        (MapObjectInspector) intMapField.getFieldObjectInspector();
+    rows = (RecordReaderImpl) reader.rows(
+        new boolean[] {true, true, true, true, false, false, false});
+    readStripedFile(rows, new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct row, int i) throws IOException {
+        Object map = readerInspector.getStructFieldData(row, intMapField);
+        Map<Integer, Long> expected = flatIntMapValue(i);
+        Long expectedValue = expected == null ? null : expected.get(7);
+        Object value = intMapInspector.getMapValueElement(map, new IntWritable(7));
+        if (expectedValue == null) {
+          assertNull("row " + i, value);
+        } else {
+          assertEquals("row " + i, expectedValue.longValue(), ((LongWritable) value).get());
+        }
+      }
+    });
+    rows.close();
+  }
+
+  @Test
+  public void testPrimitiveListsAndMaps() throws Exception {
+    writeLongListFile();
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    StructObjectInspector readerInspector = (StructObjectInspector) reader.getObjectInspector();
+    OrcLazyListObjectInspector listInspector = (OrcLazyListObjectInspector)
+        readerInspector.getAllStructFieldRefs().get(0).getFieldObjectInspector();
+    RecordReaderImpl rows = (RecordReaderImpl) reader.rows(null);
+    OrcLazyStruct lazyRow = null;
+    for (int i = 0; i < 7500; i++) {
+      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+      OrcStruct row = (OrcStruct) lazyRow.materialize();
+      List<Long> expected = longListValue(i);
+      Object lazyList = row.getFieldValue(0);
+      Object list = ((OrcLazyList) lazyList).materialize();
+      if (expected == null) {
+        assertNull(list);
+        assertNull(listInspector.getPrimitiveList(lazyList));
+        continue;
+      }
+      PrimitiveList.Longs longs = (PrimitiveList.Longs) list;
+      assertTrue(longs == listInspector.getPrimitiveList(lazyList));
+      assertEquals("row " + i, expected.size(), longs.size());
+      for (int j = 0; j < expected.size(); j++) {
+        if (expected.get(j) == null) {
+          assertTrue("row " + i, longs.isNull(j));
+          assertTrue("row " + i, listInspector.isListElementNull(lazyList, j));
+          assertNull(longs.get(j));
+        } else {
+          assertFalse("row " + i, longs.isNull(j));
+          assertFalse("row " + i, listInspector.isListElementNull(lazyList, j));
+          assertEquals("row " + i, expected.get(j).longValue(), longs.getLong(j));
+          assertEquals("row " + i, expected.get(j).longValue(),
+              listInspector.getListElementLong(lazyList, j));
+          assertEquals("row " + i, (double) expected.get(j),
+              listInspector.getListElementDouble(lazyList, j));
+          // like a list of writables, the same writable each time
+          assertTrue(longs.get(j) == longs.get(j));
+          assertEquals(j, longs.indexOf(new LongWritable(expected.get(j))));
+          assertEquals(j, longs.indexOfLong(expected.get(j)));
+        }
+      }
+      assertEquals(-1, longs.indexOfLong(i * 100 - 1));
+      assertFalse(longs.contains(new IntWritable(i * 100)));
+    }
+    rows.close();
+    fs.delete(testFilePath, false);
+
+    writeFlatMapFile("");
+    reader = OrcFile.createReader(fs, testFilePath, conf);
+    rows = (RecordReaderImpl) reader.rows(null);
+    lazyRow = null;
+    for (int i = 0; i < 7500; i++) {
+      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+      OrcStruct row = (OrcStruct) lazyRow.materialize();
+      compareFlatMapRow(row, i);
+      Map<String, String> expected = flatStringMapValue(i);
+      Object map = ((OrcLazyMap) row.getFieldValue(1)).materialize();
+      if (expected == null) {
+        continue;
+      }
+      PrimitiveList.Bytes keys = (PrimitiveList.Bytes) ((PrimitiveMap) map).getKeys();
+      PrimitiveList.Bytes values = (PrimitiveList.Bytes) ((PrimitiveMap) map).getValues();
+      assertEquals(-1, keys.indexOfBytes(new byte[] {'x', 'y'}, 0, 2));
+      assertNull(((Map<?, ?>) map).get(new Text("xy")));
+      for (int j = 0; j < keys.size(); j++) {
+        assertEquals(j, keys.indexOfBytes(keys.getBytes(), keys.getStart(j), keys.getLength(j)));
+        assertTrue(((Map<?, ?>) map).get(keys.get(j)) == values.get(j));
+        String key = new String(keys.getBytes(), keys.getStart(j), keys.getLength(j), "UTF-8");
+        String value = expected.get(key);
+        if (value == null) {
+          assertTrue("row " + i + " key " + key, values.isNull(j));
+        } else {
+          assertEquals("row " + i + " key " + key, value,
+              new String(values.getBytes(), values.getStart(j), values.getLength(j), "UTF-8"));
+        }
+      }
+    }
+    rows.close();
+  }
+
+  @Test
+  public void testLargePrimitiveMaps() throws Exception {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (FlatMapStruct.class,
+              ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    ReaderWriterProfiler.setProfilerOptions(conf);
+    Writer writer = OrcFile.createWriter(fs, testFilePath, conf, inspector, 100000000,
+        CompressionKind.ZLIB, 10000, 1000);
+    for (int i = 0; i < 10; i++) {
+      Map<Integer, Long> ints = new HashMap<Integer, Long>();
+      Map<String, String> strings = new HashMap<String, String>();
+      for (int key = 0; key < 2000; key++) {
+        ints.put(key * 31 - 1000, key % 10 == i ? null : (long) key * i);
+        strings.put("key" + key, key % 10 == i ? null : "value" + key * i);
+      }
+      writer.addRow(new FlatMapStruct(ints, strings));
+    }
+    writer.close();
+
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    StructObjectInspector readerInspector = (StructObjectInspector) reader.getObjectInspector();
+    OrcLazyMapObjectInspector intsInspector = (OrcLazyMapObjectInspector)
+        readerInspector.getAllStructFieldRefs().get(0).getFieldObjectInspector();
+    OrcLazyMapObjectInspector stringsInspector = (OrcLazyMapObjectInspector)
+        readerInspector.getAllStructFieldRefs().get(1).getFieldObjectInspector();
+    RecordReader rows = reader.rows(null);
+    Object row = null;
+    for (int i = 0; i < 10; i++) {
+      row = rows.next(row);
+      Object ints = readerInspector.getStructFieldData(row,
+          readerInspector.getAllStructFieldRefs().get(0));
+      Object strings = readerInspector.getStructFieldData(row,
+          readerInspector.getAllStructFieldRefs().get(1));
+      PrimitiveMap intMap = intsInspector.getPrimitiveMap(ints);
+      PrimitiveMap stringMap = stringsInspector.getPrimitiveMap(strings);
+      assertEquals(2000, intMap.size());
+      assertEquals(2000, stringMap.size());
+      for (int key = 0; key < 2000; key++) {
+        // looked up in the keys' hash tables
+        int index = ((PrimitiveList.Longs) intMap.getKeys()).indexOfLong(key * 31 - 1000);
+        Object value = intsInspector.getMapValueElement(ints, new IntWritable(key * 31 - 1000));
+        byte[] keyBytes = ("key" + key).getBytes("UTF-8");
+        int stringIndex = ((PrimitiveList.Bytes) stringMap.getKeys()).indexOfBytes(keyBytes, 0,
+            keyBytes.length);
+        Object stringValue = stringsInspector.getMapValueElement(strings, new Text(keyBytes));
+        if (key % 10 == i) {
+          assertTrue(intMap.getValues().isNull(index));
+          assertNull(value);
+          assertTrue(stringMap.getValues().isNull(stringIndex));
+          assertNull(stringValue);
+        } else {
+          assertEquals((long) key * i, ((PrimitiveList.Longs) intMap.getValues()).getLong(index));
+          assertEquals(new LongWritable((long) key * i), value);
+          assertEquals(new Text("value" + key * i), stringValue);
+          assertTrue(stringValue == stringMap.getValues().get(stringIndex));
+        }
+      }
+      assertEquals(-1, ((PrimitiveList.Longs) intMap.getKeys()).indexOfLong(1));
+      assertNull(intsInspector.getMapValueElement(ints, new IntWritable(1)));
+      assertNull(intsInspector.getMapValueElement(ints, new LongWritable(-1000)));
+      assertNull(stringsInspector.getMapValueElement(strings, new Text("key2000")));
+    }
+    rows.close();
+  }
+
+  /**
+   * The value of row i of a file written by writeStripedFile.  The first stripe has a few
+   * distinct values, the second only distinct values, and the third
+   * starts with a few distinct values but switches to distinct values in the second stride.
+   */
+  private static Double floatingPointValue(int i) {
+    int row = i % 2500;
+    if (row % 7 == 0) {
+      return null;
+    }
+    switch (i / 2500) {
+      case 0:
+        return (row % 10) * 0.25;
+      case 1:
+        return row * 1.1;
+      default:
+        return row < 1000 ? (row % 10) * 0.25 : row * 1.1;
+    }
+  }
+
+  private void compareFloatingPointRow(OrcStruct row, int i) throws IOException {
+    Double expected = floatingPointValue(i);
+    Object float1 = ((OrcLazyFloat) row.getFieldValue(0)).materialize();
+    Object double1 = ((OrcLazyDouble) row.getFieldValue(1)).materialize();
+    if (expected == null) {
+      assertNull(float1);
+      assertNull(double1);
+    } else {
+      assertEquals("row " + i, expected.floatValue(), ((FloatWritable) float1).get());
+      assertEquals("row " + i, expected, ((DoubleWritable) double1).get());
+    }
+  }
+
+  @Test
+  /**
+   * Tests writing float and double columns with dictionary encoding enabled, where the first
+   * stripe is dictionary encoded, the second switches to direct encoding at the first index
+   * stride, and the third switches to direct encoding in the middle of the stripe.
+   */
+  public void testFloatingPointDictionaryEncoding() throws Exception {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (FloatingPointStruct.class,
+              ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    OrcConf.setFloatVar(conf,
+        OrcConf.ConfVars.HIVE_ORC_DICTIONARY_FLOATING_POINT_KEY_SIZE_THRESHOLD, 0.5f);
+    WriterImplWithForceFlush writer = writeStripedFile(inspector, CompressionKind.ZLIB, 100,
+        new RowGenerator() {
+          @Override
+          public Object getRow(int i) {
+            return new FloatingPointStruct(floatingPointValue(i));
+          }
+        });
+    assertEquals(2, writer.getFloatingPointDictionaryEncodedStripes());
+    assertEquals(4, writer.getFloatingPointDirectEncodedStripes());
+
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    RecordReaderImpl rows = (RecordReaderImpl) reader.rows(null);
+    int stripe = 0;
+    for (StripeInformation information : reader.getStripes()) {
+      OrcProto.StripeFooter footer = rows.readStripeFooter(information);
+      OrcProto.ColumnEncoding.Kind expected = stripe == 0 ?
+          OrcProto.ColumnEncoding.Kind.DICTIONARY : OrcProto.ColumnEncoding.Kind.DIRECT;
+      assertEquals(expected, footer.getColumns(1).getKind());
+      assertEquals(expected, footer.getColumns(2).getKind());
+      stripe++;
+    }
+    assertEquals(3, stripe);
+
+    RowChecker checker = new RowChecker() {
+      @Override
+      public void checkRow(OrcLazyStruct row, int i) throws IOException {
+        compareFloatingPointRow((OrcStruct) row.materialize(), i);
+      }
+    };
+    readStripedFile(rows, checker);
+    seekStripedFile(rows, checker);
+    rows.close();
+  }
+
+  @Test
+  public void testSeekFloatingPointDictionary() throws Exception {
+    // every stripe is dictionary encoded, even though the values are random
+    OrcConf.setFloatVar(conf,
+        OrcConf.ConfVars.HIVE_ORC_DICTIONARY_FLOATING_POINT_KEY_SIZE_THRESHOLD, 1.0f);
+    testSeek(false, true, false);
+  }
+
+  @Test
+  public void testReadEveryNthRowFloatingPointDictionary() throws Exception {
+    OrcConf.setFloatVar(conf,
+        OrcConf.ConfVars.HIVE_ORC_DICTIONARY_FLOATING_POINT_KEY_SIZE_THRESHOLD, 1.0f);
+    readEveryNthRow(3, false, NumberOfNulls.SOME);
+  }
+
+  @Test
+  public void testSeekColumnCompression() throws Exception {
+    OrcConf.setVar(conf, OrcConf.ConfVars.HIVE_ORC_COLUMN_COMPRESSION,
+        "bytes1:NONE, String1:ZSTD:1, middle:LZ4, map:ZLIB:9");
+    testSeek(false, true, false, CompressionKind.ZLIB);
+
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    assertEquals(CompressionKind.ZLIB, reader.getCompression());
+    RecordReaderImpl rows = (RecordReaderImpl) reader.rows(null);
+    OrcProto.StripeFooter footer = rows.readStripeFooter(reader.getStripes().iterator().next());
+    for (OrcProto.Stream stream : footer.getStreamsList()) {
+      switch (stream.getColumn()) {
+        case 14:
+          assertEquals(OrcProto.CompressionKind.NONE, stream.getCompression());
+          break;
+        case 15:
+          assertEquals(OrcProto.CompressionKind.ZSTD, stream.getCompression());
+          break;
+        default:
+          if (stream.getColumn() >= 18 && stream.getColumn() <= 22) {
+            // middle and its nested columns
+            assertEquals(OrcProto.CompressionKind.LZ4, stream.getCompression());
+          } else if (stream.getColumn() >= 27) {
+            assertEquals(OrcProto.CompressionKind.ZLIB, stream.getCompression());
+          } else {
+            assertFalse(stream.hasCompression());
+          }
+      }
+    }
+    rows.close();
+  }
+
+  @Test
+  public void testSeekRleV2() throws Exception {
+    OrcConf.setVar(conf, OrcConf.ConfVars.HIVE_ORC_INTEGER_ENCODING, "RLE_V2");
+    testSeek(false, true, false);
+
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    RecordReaderImpl rows = (RecordReaderImpl) reader.rows(null);
+    OrcProto.StripeFooter footer = rows.readStripeFooter(reader.getStripes().iterator().next());
+    for (OrcProto.Stream stream : footer.getStreamsList()) {
+      switch (stream.getKind()) {
+        case LENGTH:
+          assertEquals(OrcProto.IntegerEncoding.RLE_V2, stream.getIntegerEncoding());
+          break;
+        case PRESENT:
+        case ROW_INDEX:
+        case DICTIONARY_DATA:
+          assertFalse(stream.hasIntegerEncoding());
+          break;
+        default:
+          break;
+      }
+    }
+    rows.close();
+  }
+
+  @Test
+  public void testSeekLowMemoryRleV2() throws Exception {
+    // the integer columns are directly encoded, so their data is run length encoded as well
+    OrcConf.setVar(conf, OrcConf.ConfVars.HIVE_ORC_INTEGER_ENCODING, "RLE_V2");
+    testSeek(true, false, false);
+  }
+
+  private void testSeek(boolean lowMemory, boolean testPrimitives, boolean lazyHdfsReads)
+      throws Exception {
+    testSeek(lowMemory, testPrimitives, lazyHdfsReads, CompressionKind.ZLIB);
+  }
+
+  private void testSeek(boolean lowMemory, boolean testPrimitives, boolean lazyHdfsReads,
+      CompressionKind compression) throws Exception {
+    final int COUNT=32768;
+    RandomRowInputs inputs = writeRandomRows(COUNT, lowMemory, compression);
+    ReaderWriterProfiler.setProfilerOptions(conf);
+    OrcConf.setBoolVar(conf, OrcConf.ConfVars.HIVE_ORC_EAGER_HDFS_READ, !lazyHdfsReads);
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    assertEquals(COUNT, reader.getNumberOfRows());
+    RecordReader rows = reader.rows(null);
+    OrcLazyStruct lazyRow = null;
+    OrcStruct row = null;
+    for(int i=COUNT-1; i >= 0; --i) {
+      rows.seekToRow(i);
+      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+      row = (OrcStruct) lazyRow.materialize();
+      compareRows(row, inputs, i, NumberOfNulls.NONE, testPrimitives);
+    }
+    rows.close();
+  }
+
+  private void readEveryNthRow(int n, boolean withoutNextIsNull, NumberOfNulls numNulls) throws Exception {
+    final int COUNT=32768;
+    RandomRowInputs inputs = null;
+    switch (numNulls) {
+    case NONE:
+      inputs = writeRandomRows(COUNT, false);
+      break;
+    case SOME:
+    case MANY:
+      inputs = writeRandomRowsWithNulls(COUNT, numNulls, false);
+      break;
+    }
+
+    ReaderWriterProfiler.setProfilerOptions(conf);
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    assertEquals(COUNT, reader.getNumberOfRows());
+    RecordReader rows = reader.rows(null);
+    OrcLazyStruct lazyRow = null;
+    OrcStruct row = null;
+    for(int i = 0; i < COUNT / n; i++) {
+      rows.seekToRow(i * n);
+      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+      row = (OrcStruct) lazyRow.materialize();
+      if (withoutNextIsNull) {
+        compareRowsWithoutNextIsNull(row, inputs, i * n, numNulls, true);
+      } else {
+        compareRows(row, inputs, i * n, numNulls, true);
+      }
+    }
+    rows.close();
+  }
+
+  @Test
+  public void testEveryRow() throws Exception {
+    readEveryNthRow(1, false, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryOtherRow() throws Exception {
+    readEveryNthRow(2, false, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryThirdRow() throws Exception {
+    readEveryNthRow(3, false, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryFourthRow() throws Exception {
+    readEveryNthRow(4, false, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryFifthRow() throws Exception {
+    readEveryNthRow(5, false, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEverySixthRow() throws Exception {
+    readEveryNthRow(6, false, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEverySeventhRow() throws Exception {
+    readEveryNthRow(7, false, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryEighthRow() throws Exception {
+    readEveryNthRow(8, false, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryNinthRow() throws Exception {
+    readEveryNthRow(9, false, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryTenthRow() throws Exception {
+    readEveryNthRow(10, false, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryHundredthRow() throws Exception {
+    readEveryNthRow(100, false, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryThousandthRow() throws Exception {
+    readEveryNthRow(1000, false, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryTenThousandthRow() throws Exception {
+    readEveryNthRow(10000, false, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryRowWithoutNextIsNull() throws Exception {
+    readEveryNthRow(1, true, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryOtherRowWithoutNextIsNull() throws Exception {
+    readEveryNthRow(2, true, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryThirdRowWithoutNextIsNull() throws Exception {
+    readEveryNthRow(3, true, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryFourthRowWithoutNextIsNull() throws Exception {
+    readEveryNthRow(4, true, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryFifthRowWithoutNextIsNull() throws Exception {
+    readEveryNthRow(5, true, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEverySixthRowWithoutNextIsNull() throws Exception {
+    readEveryNthRow(6, true, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEverySeventhRowWithoutNextIsNull() throws Exception {
+    readEveryNthRow(7, true, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryEighthRowWithoutNextIsNull() throws Exception {
+    readEveryNthRow(8, true, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryNinthRowWithoutNextIsNull() throws Exception {
+    readEveryNthRow(9, true, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryTenthRowWithoutNextIsNull() throws Exception {
+    readEveryNthRow(10, true, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryHundredthRowWithoutNextIsNull() throws Exception {
+    readEveryNthRow(100, true, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryThousandthRowWithoutNextIsNull() throws Exception {
+    readEveryNthRow(1000, true, NumberOfNulls.NONE);
+  }
+
+  @Test
+  public void testEveryTenThousandthRowWithoutNextIsNull() throws Exception {
+    readEveryNthRow(10000, true, NumberOfNulls.NONE);
+  }
+
+  private RandomRowInputs writeRandomRowsWithNulls(int count, NumberOfNulls numNulls,
+      boolean lowMemoryMode) throws IOException {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
       inspector = ObjectInspectorFactory.getReflectionObjectInspector
           (ReallyBigRow.class, ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
     }
@@ -2214,6 +3765,11 @@ public class TestOrcFile {
       return memoryEstimate.getTotalMemory() > limit ||
           (maxDictSize > 0 && memoryEstimate.getDictionaryMemory() > maxDictSize);
     }
+
+    @Override
+    long getMemoryLimit(Path path, long stripeSize) {
+      return Math.round(stripeSize * rate);
+    }
   }
 
   @Test
@@ -2347,6 +3903,69 @@ public class TestOrcFile {
     }
   }
 
+  @Test
+  /**
+   * Tests writing stripes of a string column where the keys in the first rows of the first and
+   * third stripes are distinct enough to switch to direct encoding before the stripe is written,
+   * and the second stripe is dictionary encoded.
+   */
+  public void testEarlyDirectEncodingDecision() throws Exception {
+    ObjectInspector inspector;
+    synchronized (TestOrcFile.class) {
+      inspector = ObjectInspectorFactory.getReflectionObjectInspector
+          (StringStruct.class,
+              ObjectInspectorFactory.ObjectInspectorOptions.JAVA);
+    }
+    ReaderWriterProfiler.setProfilerOptions(conf);
+    OrcConf.setIntVar(conf, OrcConf.ConfVars.HIVE_ORC_ENTROPY_STRING_THRESHOLD, 1);
+    OrcConf.setIntVar(conf, OrcConf.ConfVars.HIVE_ORC_DICTIONARY_ENCODING_INTERVAL, 1);
+    OrcConf.setIntVar(conf, OrcConf.ConfVars.HIVE_ORC_DICTIONARY_EARLY_DECISION_ROWS, 500);
+    WriterImplWithForceFlush writer = new WriterImplWithForceFlush(fs, testFilePath, conf,
+        inspector, 1000000, CompressionKind.NONE, 100, 1000, new MemoryManager(conf));
+    // Distinct values, the encoding is switched to direct after 500 rows
+    for (int i = 0; i < 2500; i++) {
+      writer.addRow(new StringStruct(Integer.toString(i)));
+    }
+    writer.forceFlushStripe();
+    // Repeated values, dictionary encoded
+    for (int i = 0; i < 2500; i++) {
+      writer.addRow(new StringStruct(Integer.toString(i % 10)));
+    }
+    writer.forceFlushStripe();
+    // Distinct values again
+    for (int i = 0; i < 2500; i++) {
+      writer.addRow(new StringStruct(Integer.toString(i)));
+    }
+    writer.close();
+    assertEquals(1, writer.getDictionaryEncodedStripes());
+    assertEquals(2, writer.getDirectEncodedStripes());
+    assertEquals(2, writer.getEarlyDirectEncodedStripes());
+
+    Reader reader = OrcFile.createReader(fs, testFilePath, conf);
+    RecordReader rows = reader.rows(null);
+    OrcLazyStruct lazyRow = null;
+    OrcStruct row = null;
+    for (int i = 0; i < 7500; i++) {
+      lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+      row = (OrcStruct) lazyRow.materialize();
+      int expected = i / 2500 == 1 ? i % 10 : i % 2500;
+      assertEquals(Integer.toString(expected),
+          ((OrcLazyString) row.getFieldValue(0)).materialize().toString());
+    }
+    assertFalse(rows.hasNext());
+
+    // Seek into the middle of the first stripe, after the encoding was switched
+    rows.seekToRow(1500);
+    lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+    row = (OrcStruct) lazyRow.materialize();
+    assertEquals("1500", ((OrcLazyString) row.getFieldValue(0)).materialize().toString());
+    rows.seekToRow(250);
+    lazyRow = (OrcLazyStruct) rows.next(lazyRow);
+    row = (OrcStruct) lazyRow.materialize();
+    assertEquals("250", ((OrcLazyString) row.getFieldValue(0)).materialize().toString());
+    rows.close();
+  }
+
   @Test
   /**
    * Tests writing a stripe that contains a single string column across two index strides where
@@ -160,4 +160,42 @@ public class TestRunLengthByteReader {
       in.skip(0);
     }
   }
+
+  @Test
+  public void testCountValues() throws Exception {
+    TestInStream.OutputCollector collect = new TestInStream.OutputCollector();
+    ReaderWriterProfiler.setProfilerOptions(null);
+    RunLengthByteWriter out = new RunLengthByteWriter(new OutStream("test", 100,
+        null, collect, new MemoryEstimate()));
+    // runs of values, then values which change every row
+    for(int i=0; i < 2048; ++i) {
+      if (i < 1024) {
+        out.write((byte) ((i/100) % 4));
+      } else {
+        out.write((byte) (i % 3));
+      }
+    }
+    out.flush();
+    ByteBuffer inBuf = ByteBuffer.allocate(collect.buffer.size());
+    collect.buffer.setByteBuffer(inBuf, 0, collect.buffer.size());
+    inBuf.flip();
+    ReaderWriterProfiler.setProfilerOptions(null);
+    RunLengthByteReader in = new RunLengthByteReader(InStream.create("test",
+        inBuf, null, 100));
+    int row = 0;
+    for (int items : new int[] {0, 1, 250, 7, 1000, 300}) {
+      long[] counts = new long[4];
+      long[] expected = new long[4];
+      for (int i = row; i < row + items; i++) {
+        expected[i < 1024 ? (i/100) % 4 : i % 3]++;
+      }
+      in.countValues(items, counts);
+      for (int i = 0; i < 4; i++) {
+        assertEquals("row " + row + " value " + i, expected[i], counts[i]);
+      }
+      row += items;
+      assertEquals(row < 1024 ? (row/100) % 4 : row % 3, in.next());
+      row++;
+    }
+  }
 }
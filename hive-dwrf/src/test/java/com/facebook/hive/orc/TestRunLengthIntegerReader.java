@@ -18,6 +18,8 @@
 package com.facebook.hive.orc;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
 import java.util.Random;
@@ -33,11 +35,31 @@ import com.facebook.hive.orc.WriterImpl.RowIndexPositionRecorder;
 
 public class TestRunLengthIntegerReader {
 
-  public void runSeekTest(CompressionCodec codec) throws Exception {
+  private static IntegerWriter createWriter(OutStream output, boolean signed,
+      OrcProto.IntegerEncoding encoding) {
+    if (encoding == OrcProto.IntegerEncoding.RLE_V2) {
+      return new RunLengthIntegerWriterV2(output, signed);
+    }
+    return new RunLengthIntegerWriter(output, signed, 4, true);
+  }
+
+  private static RunLengthIntegerReader createReader(TestInStream.OutputCollector collect,
+      CompressionCodec codec, int bufferSize, boolean signed, OrcProto.IntegerEncoding encoding)
+      throws Exception {
+    ByteBuffer inBuf = ByteBuffer.allocate(collect.buffer.size());
+    collect.buffer.setByteBuffer(inBuf, 0, collect.buffer.size());
+    inBuf.flip();
+    ReaderWriterProfiler.setProfilerOptions(null);
+    return new RunLengthIntegerReader(InStream.create
+        ("test", inBuf, codec, bufferSize, true, encoding), signed, 4);
+  }
+
+  public void runSeekTest(CompressionCodec codec, OrcProto.IntegerEncoding encoding)
+      throws Exception {
     TestInStream.OutputCollector collect = new TestInStream.OutputCollector();
     ReaderWriterProfiler.setProfilerOptions(null);
-    RunLengthIntegerWriter out = new RunLengthIntegerWriter(
-        new OutStream("test", 1000, codec, collect, new MemoryEstimate()), true, 4, true);
+    IntegerWriter out = createWriter(
+        new OutStream("test", 1000, codec, collect, new MemoryEstimate()), true, encoding);
     RowIndex.Builder rowIndex = OrcProto.RowIndex.newBuilder();
     RowIndexEntry.Builder rowIndexEntry = OrcProto.RowIndexEntry.newBuilder();
     WriterImpl.RowIndexPositionRecorder rowIndexPosition = new RowIndexPositionRecorder(rowIndexEntry);
@@ -60,12 +82,7 @@ public class TestRunLengthIntegerReader {
       }
     }
     out.flush();
-    ByteBuffer inBuf = ByteBuffer.allocate(collect.buffer.size());
-    collect.buffer.setByteBuffer(inBuf, 0, collect.buffer.size());
-    inBuf.flip();
-    ReaderWriterProfiler.setProfilerOptions(null);
-    RunLengthIntegerReader in = new RunLengthIntegerReader(InStream.create
-        ("test", inBuf, codec, 1000, true), true, 4);
+    RunLengthIntegerReader in = createReader(collect, codec, 1000, true, encoding);
     for(int i=0; i < 2048; ++i) {
       int x = (int) in.next();
       if (i < 1024) {
@@ -92,20 +109,39 @@ public class TestRunLengthIntegerReader {
 
   @Test
   public void testUncompressedSeek() throws Exception {
-    runSeekTest(null);
+    runSeekTest(null, OrcProto.IntegerEncoding.RLE_V1);
   }
 
   @Test
   public void testCompressedSeek() throws Exception {
-    runSeekTest(new ZlibCodec());
+    runSeekTest(new ZlibCodec(), OrcProto.IntegerEncoding.RLE_V1);
+  }
+
+  @Test
+  public void testUncompressedSeekV2() throws Exception {
+    runSeekTest(null, OrcProto.IntegerEncoding.RLE_V2);
+  }
+
+  @Test
+  public void testCompressedSeekV2() throws Exception {
+    runSeekTest(new ZlibCodec(), OrcProto.IntegerEncoding.RLE_V2);
   }
 
   @Test
   public void testSkips() throws Exception {
+    runSkipTest(OrcProto.IntegerEncoding.RLE_V1);
+  }
+
+  @Test
+  public void testSkipsV2() throws Exception {
+    runSkipTest(OrcProto.IntegerEncoding.RLE_V2);
+  }
+
+  private void runSkipTest(OrcProto.IntegerEncoding encoding) throws Exception {
     TestInStream.OutputCollector collect = new TestInStream.OutputCollector();
     ReaderWriterProfiler.setProfilerOptions(null);
-    RunLengthIntegerWriter out = new RunLengthIntegerWriter(
-        new OutStream("test", 100, null, collect, new MemoryEstimate()), true, 4, true);
+    IntegerWriter out = createWriter(
+        new OutStream("test", 100, null, collect, new MemoryEstimate()), true, encoding);
     for(int i=0; i < 2048; ++i) {
       if (i < 1024) {
         out.write(i);
@@ -114,12 +150,7 @@ public class TestRunLengthIntegerReader {
       }
     }
     out.flush();
-    ByteBuffer inBuf = ByteBuffer.allocate(collect.buffer.size());
-    collect.buffer.setByteBuffer(inBuf, 0, collect.buffer.size());
-    inBuf.flip();
-    ReaderWriterProfiler.setProfilerOptions(null);
-    RunLengthIntegerReader in = new RunLengthIntegerReader(InStream.create
-        ("test", inBuf, null, 100, true), true, 4);
+    RunLengthIntegerReader in = createReader(collect, null, 100, true, encoding);
     for(int i=0; i < 2048; i += 10) {
       int x = (int) in.next();
       if (i < 1024) {
@@ -133,4 +164,101 @@ public class TestRunLengthIntegerReader {
       in.skip(0);
     }
   }
+
+  /**
+   * Write the values with RLE v2 and read them back in bulk.
+   * @return the number of bytes they were encoded in
+   */
+  private static int roundTripV2(long[] values, boolean signed) throws Exception {
+    TestInStream.OutputCollector collect = new TestInStream.OutputCollector();
+    IntegerWriter out = new RunLengthIntegerWriterV2(
+        new OutStream("test", 1000, null, collect, new MemoryEstimate()), signed);
+    for (long value : values) {
+      out.write(value);
+    }
+    out.flush();
+    RunLengthIntegerReader in = createReader(collect, null, 1000, signed,
+        OrcProto.IntegerEncoding.RLE_V2);
+    long[] result = new long[values.length + 2];
+    in.next(result, 1, values.length);
+    for (int i = 0; i < values.length; i++) {
+      assertEquals("value " + i, values[i], result[i + 1]);
+    }
+    assertFalse(in.hasNext());
+    return collect.buffer.size();
+  }
+
+  @Test
+  public void testRunTypesV2() throws Exception {
+    Random random = new Random(42);
+    long[] values = new long[5000];
+    for (int i = 0; i < values.length; i++) {
+      switch ((i / 600) % 8) {
+        case 0:
+          // short repeats and longer runs between small values
+          values[i] = (i % 37 < 12) ? 7 : (i % 37 < 20) ? -3 : i % 5;
+          break;
+        case 1:
+          // increasing timestamps
+          values[i] = 1400000000000L + i * 1000L + random.nextInt(500);
+          break;
+        case 2:
+          // decreasing with a fixed delta
+          values[i] = 1000000 - 17L * i;
+          break;
+        case 3:
+          // small values with a few outliers that should be patched
+          values[i] = random.nextInt(100) == 0 ? random.nextLong() >>> 20 : random.nextInt(64);
+          break;
+        case 4:
+          // negative values with outliers
+          values[i] = random.nextInt(50) == 0 ? -(1L << 40) : -random.nextInt(1000);
+          break;
+        case 5:
+          // the extremes, whose range overflows
+          values[i] = random.nextBoolean() ? Long.MAX_VALUE - random.nextInt(3) :
+              Long.MIN_VALUE + random.nextInt(3);
+          break;
+        default:
+          values[i] = random.nextLong() >> random.nextInt(64);
+      }
+    }
+    roundTripV2(values, true);
+
+    long[] unsigned = new long[values.length];
+    for (int i = 0; i < values.length; i++) {
+      unsigned[i] = values[i] & Long.MAX_VALUE;
+    }
+    roundTripV2(unsigned, false);
+
+    // every length of run around the thresholds
+    for (int length = 1; length < 1100; length += length < 20 ? 1 : 97) {
+      long[] run = new long[length + 1];
+      for (int i = 0; i < length; i++) {
+        run[i] = 5;
+      }
+      run[length] = 6;
+      roundTripV2(run, true);
+    }
+  }
+
+  @Test
+  public void testSizeV2() throws Exception {
+    // timestamps a few seconds apart only need a few bits each for their deltas
+    long[] timestamps = new long[10000];
+    for (int i = 0; i < timestamps.length; i++) {
+      timestamps[i] = 1400000000L + i * 3 + (i % 2);
+    }
+    int v2Size = roundTripV2(timestamps, true);
+
+    TestInStream.OutputCollector collect = new TestInStream.OutputCollector();
+    IntegerWriter out = new RunLengthIntegerWriter(
+        new OutStream("test", 1000, null, collect, new MemoryEstimate()), true, 4, true);
+    for (long value : timestamps) {
+      out.write(value);
+    }
+    out.flush();
+    assertTrue("v1 " + collect.buffer.size() + " v2 " + v2Size,
+        v2Size * 4 < collect.buffer.size());
+  }
 }
@@ -21,7 +21,14 @@ package com.facebook.hive.orc;
 import static junit.framework.Assert.assertEquals;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Text;
@@ -123,7 +130,7 @@ public class TestStringDictionaryEncoder {
     }
     checkContent(dict, expectedUniqueValues, expectedOrder);
     dict.clear();
-    assertEquals(688128, memoryEstimate.getTotalMemory());
+    assertEquals(526336, memoryEstimate.getTotalMemory());
     assertEquals(0, dict.size());
   }
 
@@ -154,7 +161,7 @@ public class TestStringDictionaryEncoder {
     }
     checkContent(dict, expectedUniqueValues, expectedOrder);
     dict.clear();
-    assertEquals(688128, memoryEstimate.getTotalMemory());
+    assertEquals(526336, memoryEstimate.getTotalMemory());
     assertEquals(0, dict.size());
   }
 
@@ -190,7 +197,7 @@ public class TestStringDictionaryEncoder {
     }
     checkContent(dict, expectedUniqueValues, expectedOrder);
     dict.clear();
-    assertEquals(688128, memoryEstimate.getTotalMemory());
+    assertEquals(526336, memoryEstimate.getTotalMemory());
     assertEquals(0, dict.size());
   }
 
@@ -230,4 +237,88 @@ public class TestStringDictionaryEncoder {
         new int[]{0,1,2, 3,4,5, 6,7,8, 9,10,11, 12,13,14,
       15,16,17, 18,19,20, 21,22,23, 24,25});
   }
+
+  @Test
+  public void testManyKeys() throws Exception {
+    MemoryEstimate memoryEstimate = new MemoryEstimate();
+    StringDictionaryEncoder dict = new StringDictionaryEncoder(false, false, memoryEstimate);
+    // enough keys to grow the hash table and the entry arrays and fill many pages, including
+    // some keys too big to fit in a page
+    StringBuilder big = new StringBuilder();
+    while (big.length() < 100000) {
+      big.append("abcdefghijklmnopqrstuvwxyz");
+    }
+    for (int i = 0; i < 200000; i++) {
+      int key = i % 70000;
+      String value = key % 10000 == 0 ? big.toString() + key : "key" + key;
+      assertEquals(key, dict.add(new Text(value), 0));
+    }
+    assertEquals(70000, dict.size());
+    Text text = new Text();
+    for (int i = 0; i < 70000; i++) {
+      dict.getText(text, i);
+      assertEquals(i % 10000 == 0 ? big.toString() + i : "key" + i, text.toString());
+    }
+    dict.cleanup();
+    assertEquals(0, memoryEstimate.getTotalMemory());
+    assertEquals(0, memoryEstimate.getDictionaryMemory());
+  }
+
+  @Test
+  public void testSortManyKeys() throws Exception {
+    for (boolean sortByStride : new boolean[] {false, true}) {
+      StringDictionaryEncoder dict = new StringDictionaryEncoder(true, sortByStride,
+          new MemoryEstimate());
+      Random random = new Random(42);
+      Map<String, Integer> strides = new HashMap<String, Integer>();
+      Map<String, Integer> counts = new HashMap<String, Integer>();
+      for (int i = 0; i < 20000; i++) {
+        // long common prefixes, short strings and bytes that are negative as signed values
+        String value = (i % 2 == 0 ? "http://www.facebook.com/" : "") +
+            Integer.toString(random.nextInt(50000), 36) + (i % 5 == 0 ? "\u00e9" : "");
+        dict.add(new Text(value), i / 1000);
+        if (!strides.containsKey(value)) {
+          strides.put(value, i / 1000);
+          counts.put(value, 0);
+        }
+        counts.put(value, counts.get(value) + 1);
+      }
+
+      final List<String> expected = new ArrayList<String>(strides.keySet());
+      Collections.sort(expected, new Comparator<String>() {
+        @Override
+        public int compare(String left, String right) {
+          return new Text(left).compareTo(new Text(right));
+        }
+      });
+      if (sortByStride) {
+        // keys that were only added once come first, grouped by stride, the sort is stable
+        List<String> sorted = new ArrayList<String>();
+        for (int stride = 0; stride < 20; stride++) {
+          for (String value : expected) {
+            if (counts.get(value) == 1 && strides.get(value) == stride) {
+              sorted.add(value);
+            }
+          }
+        }
+        for (String value : expected) {
+          if (counts.get(value) > 1) {
+            sorted.add(value);
+          }
+        }
+        expected.clear();
+        expected.addAll(sorted);
+      }
+      assertEquals(expected.size(), dict.size());
+      dict.visit(new StringDictionaryEncoder.Visitor<Text>() {
+        private int current = 0;
+
+        @Override
+        public void visit(StringDictionaryEncoder.VisitorContext<Text> context) {
+          assertEquals(expected.get(current), context.getKey().toString());
+          current++;
+        }
+      });
+    }
+  }
 }
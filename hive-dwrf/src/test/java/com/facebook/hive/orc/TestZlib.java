@@ -24,8 +24,10 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Random;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
 public class TestZlib {
@@ -54,4 +56,96 @@ public class TestZlib {
       // EXPECTED
     }
   }
+
+  @Test
+  public void testPooling() throws Exception {
+    ZlibCodec codec = new ZlibCodec();
+    Random random = new Random(12);
+    byte[] bytes = new byte[1000];
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j < bytes.length; j++) {
+        bytes[j] = (byte) random.nextInt(4);
+      }
+      ByteBuffer in = ByteBuffer.wrap(bytes);
+      ByteBuffer compressed = ByteBuffer.allocate(1000);
+      assertTrue(codec.compress(in, compressed, null));
+      compressed.flip();
+      ByteBuffer out = ByteBuffer.allocate(1000);
+      codec.decompress(compressed, out);
+      assertEquals(ByteBuffer.wrap(bytes), out);
+    }
+    // The same Deflater and Inflater are reused for every block
+    assertEquals(1, codec.getCreatedDeflaters());
+    assertEquals(1, codec.getCreatedInflaters());
+    assertEquals(1, codec.getPooledDeflaters());
+    assertEquals(1, codec.getPooledInflaters());
+
+    codec.close();
+    assertEquals(0, codec.getPooledDeflaters());
+    assertEquals(0, codec.getPooledInflaters());
+
+    // The codec can still be used after it's closed
+    ByteBuffer compressed = ByteBuffer.allocate(1000);
+    assertTrue(codec.compress(ByteBuffer.wrap(bytes), compressed, null));
+    compressed.flip();
+    ByteBuffer out = ByteBuffer.allocate(1000);
+    codec.decompress(compressed, out);
+    assertEquals(ByteBuffer.wrap(bytes), out);
+    assertEquals(2, codec.getCreatedDeflaters());
+    assertEquals(2, codec.getCreatedInflaters());
+  }
+
+  @Test
+  public void testCorruptNotPooled() throws Exception {
+    ByteBuffer buf = ByteBuffer.allocate(1000);
+    buf.put(new byte[]{127,-128,0,99,98,-1});
+    buf.flip();
+    ZlibCodec codec = new ZlibCodec();
+    try {
+      codec.decompress(buf, ByteBuffer.allocate(1000));
+      fail();
+    } catch (IOException ioe) {
+      // EXPECTED
+    }
+    assertEquals(1, codec.getCreatedInflaters());
+    assertEquals(0, codec.getPooledInflaters());
+  }
+
+  @Test
+  public void testPoolBounded() throws Exception {
+    final ZlibCodec codec = new ZlibCodec();
+    byte[] data = new byte[64 * 1024];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 17);
+    }
+    final ByteBuffer compressed = ByteBuffer.allocate(data.length);
+    assertTrue(codec.compress(ByteBuffer.wrap(data), compressed, null));
+    compressed.flip();
+    final int length = data.length;
+    Thread[] threads = new Thread[4 * ZlibCodec.MAX_POOLED];
+    final IOException[] failure = new IOException[1];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 20; j++) {
+              codec.decompress(compressed.duplicate(), ByteBuffer.allocate(length));
+            }
+          } catch (IOException ioe) {
+            failure[0] = ioe;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(null, failure[0]);
+    assertTrue(codec.getPooledInflaters() <= ZlibCodec.MAX_POOLED);
+    assertTrue(codec.getPooledInflaters() <= codec.getCreatedInflaters());
+    codec.close();
+    assertEquals(0, codec.getPooledInflaters());
+  }
 }